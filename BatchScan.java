@@ -0,0 +1,373 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs many queries over one CSV file in a single scan. Every record is parsed
+ * once, up to the last field any query needs, and handed to each query in turn;
+ * a record is only split completely, and only turned into a row, when a query
+ * returns it. Each query writes its rows to its own output file, one row per
+ * line with the values separated by spaces, as the menu options do.
+ *
+ * A query is written as {@code output operation argument}:
+ * <ul>
+ *     <li>{@code out.txt column Name} - the trimmed values of one column,</li>
+ *     <li>{@code out.txt columns Name,Age} - the trimmed values of columns,</li>
+ *     <li>{@code out.txt rows 1,5,9} - data rows by number, starting from 1,</li>
+ *     <li>{@code out.txt keyword Boston} - the lines containing a keyword,</li>
+ *     <li>{@code out.txt filter Age > 30} - the rows matching a RowFilter
+ *     expression.</li>
+ * </ul>
+ * Output files are replaced, and queries naming the same output file share it.
+ * Output files whose names end in .gz are written gzip compressed.
+ *
+ * The data can also be a directory or a glob (see MultiFileScan). Its files are
+ * scanned one after another as if they were one file: rows are numbered across
+ * the files and only the header of the first file is searched by keyword
+ * queries.
+ *
+ * @author Ajay Shenoy
+ */
+public class BatchScan {
+
+    /**
+     * One query of a batch, bound to the header of the file.
+     */
+    private abstract static class Query {
+
+        Writer out;
+        long rows;
+
+        /**
+         * Returns the number of leading fields the query tests.
+         */
+        abstract int fieldsNeeded();
+
+        /**
+         * Handles one record of the file.
+         *
+         * @param record The record being scanned.
+         * @param dataRow The index of the record after the header, or -1 for the
+         *                header.
+         */
+        abstract void accept(Record record, long dataRow) throws IOException;
+
+        /**
+         * Checks whether the query can no longer return rows.
+         */
+        boolean done(long dataRow) {
+            return false;
+        }
+
+        void write(String line) throws IOException {
+            out.write(line);
+            out.write('\n');
+            rows++;
+        }
+    }
+
+    /**
+     * The record being scanned, shared by the queries so that it is split
+     * completely and turned into a row at most once.
+     */
+    private static class Record {
+
+        final CSVParser parser;
+        private boolean split;
+        private Row row;
+        private String joined;
+
+        Record(CSVParser parser) {
+            this.parser = parser;
+        }
+
+        void reset() {
+            split = false;
+            joined = null;
+        }
+
+        /**
+         * Returns the whole record with its values separated by spaces.
+         */
+        String joined() throws IOException {
+            if (joined == null) {
+                if (!split) {
+                    parser.splitAll();
+                    split = true;
+                }
+                row = parser.row(row);
+                joined = row.join(" ");
+            }
+            return joined;
+        }
+    }
+
+    /**
+     * Reads the queries of a query file, skipping blank lines and lines
+     * starting with #.
+     *
+     * @param queryFilename The name of the query file.
+     * @return The queries in the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static List<String> readQueries(String queryFilename) throws IOException {
+        List<String> queries = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(queryFilename), StandardCharsets.UTF_8)) {
+            String query = line.trim();
+            if (!query.isEmpty() && !query.startsWith("#")) {
+                queries.add(query);
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Runs queries over a CSV file in one scan. The queries are all checked
+     * against the header before any output file is written.
+     *
+     * @param filename The name of the file to read from, or a directory or glob.
+     * @param queries The queries to run.
+     * @return The number of rows written by each query.
+     * @throws java.io.FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be read or an output file cannot be
+     * written.
+     * @throws IllegalArgumentException if a query is not valid or names a column
+     * that does not exist, or the headers of the files differ.
+     */
+    public static long[] run(String filename, List<String> queries) throws IOException {
+        String[][] parsed = new String[queries.size()][];
+        for (int i = 0; i < parsed.length; i++) {
+            parsed[i] = queries.get(i).trim().split("\\s+", 3);
+            if (parsed[i].length < 3) {
+                throw new IllegalArgumentException("Invalid query: " + queries.get(i));
+            }
+        }
+        List<String> files = MultiFileScan.files(filename);
+        Metrics.Operation tracked = Metrics.start("batch", filename);
+        Map<String, Writer> outputs = new HashMap<>();
+        try (CSVParser parser = new CSVParser(files.get(0))) {
+            boolean hasHeader = parser.next();
+            String[] headers = hasHeader ? parser.fields() : new String[0];
+            // Check every query before creating any output
+            Query[] bindings = new Query[parsed.length];
+            for (int i = 0; i < parsed.length; i++) {
+                bindings[i] = create(parsed[i][1], parsed[i][2], headers);
+            }
+            for (int i = 0; i < parsed.length; i++) {
+                Writer out = outputs.get(parsed[i][0]);
+                if (out == null) {
+                    out = new BufferedWriter(GzipPipe.isCompressed(parsed[i][0])
+                            ? new OutputStreamWriter(GzipPipe.deflate(new FileOutputStream(
+                                    parsed[i][0])), Charset.defaultCharset())
+                            : new FileWriter(parsed[i][0]), 1 << 16);
+                    outputs.put(parsed[i][0], out);
+                }
+                bindings[i].out = out;
+            }
+            long dataRow = scan(parser, bindings, hasHeader, 0);
+            if (files.size() > 1) {
+                MultiFileScan.progress(files.get(0), 0, files.size(), dataRow);
+            }
+            for (int f = 1; f < files.size() && !allDone(bindings, dataRow); f++) {
+                long firstRow = dataRow;
+                try (CSVParser next = new CSVParser(files.get(f))) {
+                    next.next(1); // Skip the header
+                    dataRow = scan(next, bindings, false, dataRow);
+                }
+                MultiFileScan.progress(files.get(f), f, files.size(), dataRow - firstRow);
+            }
+            long[] rows = new long[bindings.length];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = bindings[i].rows;
+                if (tracked != null) {
+                    tracked.addMatched(rows[i]);
+                }
+            }
+            return rows;
+        } finally {
+            IOException closeError = null;
+            for (Writer out : outputs.values()) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    closeError = e;
+                }
+            }
+            if (tracked != null) {
+                tracked.finish();
+            }
+            if (closeError != null) {
+                throw closeError;
+            }
+        }
+    }
+
+    /**
+     * Feeds every record after the header to the queries, stopping early once no
+     * query can return more rows, and returns the index the next data row would
+     * have.
+     */
+    private static long scan(CSVParser parser, Query[] queries, boolean hasHeader,
+                             long firstRow) throws IOException {
+        int fieldsNeeded = 1;
+        for (Query query : queries) {
+            fieldsNeeded = Math.max(fieldsNeeded, query.fieldsNeeded());
+        }
+        Record record = new Record(parser);
+        // The header line is searched by keyword queries, as openFilteredRows does
+        if (hasHeader) {
+            for (Query query : queries) {
+                query.accept(record, -1);
+            }
+        }
+        long dataRow = firstRow;
+        while (!allDone(queries, dataRow) && parser.next(fieldsNeeded)) {
+            record.reset();
+            for (Query query : queries) {
+                query.accept(record, dataRow);
+            }
+            dataRow++;
+        }
+        return dataRow;
+    }
+
+    private static boolean allDone(Query[] queries, long dataRow) {
+        for (Query query : queries) {
+            if (!query.done(dataRow)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a query, checking its argument against the header.
+     */
+    private static Query create(String operation, String argument, String[] headers) {
+        switch (operation.toLowerCase()) {
+            case "column":
+            case "columns":
+                String[] names = operation.equalsIgnoreCase("column")
+                        ? new String[]{argument.trim()} : argument.split(",");
+                int[] indices = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    indices[i] = findColumnIndex(headers, names[i].trim());
+                }
+                int minFields = Arrays.stream(indices).max().orElse(-1) + 1;
+                return new Query() {
+                    private final StringBuilder line = new StringBuilder();
+
+                    @Override
+                    int fieldsNeeded() {
+                        return minFields;
+                    }
+
+                    @Override
+                    void accept(Record record, long dataRow) throws IOException {
+                        CSVParser parser = record.parser;
+                        if (dataRow < 0 || parser.fieldCount() < minFields) {
+                            return;
+                        }
+                        line.setLength(0);
+                        for (int i = 0; i < indices.length; i++) {
+                            if (i > 0) {
+                                line.append(' ');
+                            }
+                            line.append(parser.field(indices[i]).trim());
+                        }
+                        write(line.toString());
+                    }
+                };
+            case "rows":
+                BitSet requested = new BitSet();
+                for (String number : argument.split(",")) {
+                    try {
+                        int rowNumber = Integer.parseInt(number.trim());
+                        if (rowNumber >= 1) {
+                            requested.set(rowNumber - 1);
+                        }
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid row number: " + number.trim());
+                    }
+                }
+                int lastRow = requested.length();
+                return new Query() {
+                    @Override
+                    int fieldsNeeded() {
+                        return 0;
+                    }
+
+                    @Override
+                    void accept(Record record, long dataRow) throws IOException {
+                        if (dataRow >= 0 && dataRow < lastRow && requested.get((int) dataRow)) {
+                            write(record.joined());
+                        }
+                    }
+
+                    @Override
+                    boolean done(long dataRow) {
+                        return dataRow >= lastRow;
+                    }
+                };
+            case "keyword":
+                byte[] needle = argument.getBytes(StandardCharsets.UTF_8);
+                return new Query() {
+                    @Override
+                    int fieldsNeeded() {
+                        return 0;
+                    }
+
+                    @Override
+                    void accept(Record record, long dataRow) throws IOException {
+                        if (record.parser.lineContains(needle)) {
+                            write(record.joined());
+                        }
+                    }
+                };
+            case "filter":
+                RowFilter.Evaluator evaluator = RowFilter.parse(argument).compile(headers);
+                return new Query() {
+                    @Override
+                    int fieldsNeeded() {
+                        return evaluator.fieldsNeeded();
+                    }
+
+                    @Override
+                    void accept(Record record, long dataRow) throws IOException {
+                        if (dataRow >= 0 && evaluator.test(record.parser)) {
+                            write(record.joined());
+                        }
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Invalid operation: " + operation);
+        }
+    }
+
+    /**
+     * Finds the index of a column by name within the header row.
+     *
+     * @throws IllegalArgumentException if the column does not exist.
+     */
+    private static int findColumnIndex(String[] headers, String columnName) {
+        for (int i = 0; i < headers.length; i++) {
+            if (headers[i].trim().equals(columnName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column not found: " + columnName);
+    }
+}
@@ -0,0 +1,262 @@
+import com.sun.management.ThreadMXBean;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures the public operations of H12CustomApp on a generated CSV file (see
+ * CsvGenerator). Every benchmark is run a few times to warm up and then a fixed
+ * number of measured times, and reports its mean, best and worst time, its
+ * throughput in megabytes of CSV per second, and the bytes it allocated per run.
+ * Allocation is the sum over all live threads, so work done by the common pool
+ * is included, while threads that exit during a run are not.
+ *
+ * Settings are given as name=value arguments:
+ * <ul>
+ *     <li>size - the size of the file, such as 64MB or 10GB (default 64MB),</li>
+ *     <li>columns - the number of columns (default 9),</li>
+ *     <li>quoting - the fraction of quoted notes (default 0.05),</li>
+ *     <li>cardinality - the distinct values of each key column (default 1000),</li>
+ *     <li>seed - the seed of the generated data (default 42),</li>
+ *     <li>warmup, iterations - the runs of each benchmark (default 2 and 5),</li>
+ *     <li>only - run only benchmarks whose name contains this text,</li>
+ *     <li>file - the file to generate (default a name made of the settings in the
+ *     temp directory).</li>
+ * </ul>
+ * An existing file of the same size and settings is reused.
+ *
+ * @author Ajay Shenoy
+ */
+public class Benchmark {
+
+    /**
+     * An operation to measure.
+     */
+    interface Operation {
+        /**
+         * Runs the operation once.
+         *
+         * @return A value computed from the result, so the work cannot be skipped.
+         * @throws Exception if the operation fails.
+         */
+        long run() throws Exception;
+    }
+
+    private static volatile long sink;
+
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+    private final int warmup;
+    private final int iterations;
+    private final String only;
+    private final long fileSize;
+
+    private Benchmark(int warmup, int iterations, String only, long fileSize) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.only = only;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Parses a size such as 512KB, 64MB or 10GB.
+     *
+     * @param text The size, with an optional KB, MB or GB suffix.
+     * @return The size in bytes.
+     * @throws NumberFormatException if the size is not valid.
+     */
+    static long parseSize(String text) {
+        String size = text.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (size.endsWith("KB")) {
+            unit = 1L << 10;
+        } else if (size.endsWith("MB")) {
+            unit = 1L << 20;
+        } else if (size.endsWith("GB")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1) {
+            size = size.substring(0, size.length() - 2).trim();
+        }
+        return (long) (Double.parseDouble(size) * unit);
+    }
+
+    /**
+     * Returns the bytes allocated so far by all live threads.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns a value derived from the size of a result.
+     */
+    private static long size(Collection<?> result) {
+        return result.size();
+    }
+
+    /**
+     * Returns the number of rows read from a cursor, and closes it.
+     */
+    private static long drain(RowCursor rows) throws IOException {
+        try (RowCursor cursor = rows) {
+            long count = 0;
+            while (cursor.next()) {
+                count += cursor.row().size();
+            }
+            return count;
+        }
+    }
+
+    private void add(String name, Operation operation) {
+        if (only == null || name.contains(only)) {
+            operations.put(name, operation);
+        }
+    }
+
+    /**
+     * Runs the added benchmarks and prints a line for each.
+     */
+    private void runAll() throws Exception {
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            Operation operation = entry.getValue();
+            for (int i = 0; i < warmup; i++) {
+                sink += operation.run();
+            }
+            long[] times = new long[iterations];
+            long allocated = 0;
+            for (int i = 0; i < iterations; i++) {
+                long allocatedBefore = allocatedBytes();
+                long start = System.nanoTime();
+                sink += operation.run();
+                times[i] = System.nanoTime() - start;
+                allocated += allocatedBytes() - allocatedBefore;
+            }
+            Arrays.sort(times);
+            double mean = Arrays.stream(times).average().orElse(0) / 1e6;
+            double megabytesPerSecond = fileSize / 1048576.0 / (mean / 1000);
+            System.out.printf(Locale.ROOT, "%-28s %10.1f %10.1f %10.1f %10.1f %12.1f%n",
+                    entry.getKey(), mean, times[0] / 1e6, times[iterations - 1] / 1e6,
+                    megabytesPerSecond, allocated / (double) iterations / 1048576);
+        }
+    }
+
+    /**
+     * Generates the CSV file if needed and runs the benchmarks.
+     *
+     * @param args The settings, as name=value arguments.
+     * @throws Exception if the file cannot be generated or a benchmark fails.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                System.out.println("Error: Invalid argument: " + arg);
+                return;
+            }
+            settings.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        long size = parseSize(settings.getOrDefault("size", "64MB"));
+        int columns = Integer.parseInt(settings.getOrDefault("columns", "9"));
+        double quoting = Double.parseDouble(settings.getOrDefault("quoting", "0.05"));
+        int cardinality = Integer.parseInt(settings.getOrDefault("cardinality", "1000"));
+        long seed = Long.parseLong(settings.getOrDefault("seed", "42"));
+        int warmup = Integer.parseInt(settings.getOrDefault("warmup", "2"));
+        int iterations = Math.max(1, Integer.parseInt(settings.getOrDefault("iterations", "5")));
+        String filename = settings.getOrDefault("file", new File(System.getProperty(
+                "java.io.tmpdir"), "bench-" + size + "-" + columns + "-" + quoting + "-"
+                + cardinality + "-" + seed + ".csv").getPath());
+
+        CsvGenerator generator = new CsvGenerator(seed, columns, quoting, cardinality);
+        File file = new File(filename);
+        if (!file.isFile() || file.length() < size) {
+            long start = System.nanoTime();
+            long rows = generator.write(filename, size);
+            System.out.printf(Locale.ROOT, "Generated %d rows in %s (%.1f s)%n", rows, filename,
+                    (System.nanoTime() - start) / 1e9);
+        }
+        String[] headers = generator.headers();
+        String key = headers[Math.min(1, columns - 1)];
+        String count = columns > 2 ? headers[2] : headers[0];
+        String amount = columns > 3 ? headers[3] : count;
+        List<String> some = List.of(headers[0], key, amount);
+        List<Integer> rowIndexes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rowIndexes.add(i * 997);
+        }
+        String scratch = filename + ".out";
+
+        Benchmark benchmark = new Benchmark(warmup, iterations, settings.get("only"),
+                file.length());
+        // Plain scans first, while the file has no index or cache
+        benchmark.add("readCSVColumn", () -> size(H12CustomApp.readCSVColumn(filename, key)));
+        benchmark.add("readMultipleCSVColumns",
+                () -> size(H12CustomApp.readMultipleCSVColumns(filename, some)));
+        benchmark.add("readCSVRows", () -> size(H12CustomApp.readCSVRows(filename, rowIndexes)));
+        benchmark.add("readWholeCSV", () -> size(H12CustomApp.readWholeCSV(filename)));
+        benchmark.add("openWholeCSV", () -> drain(H12CustomApp.openWholeCSV(filename)));
+        benchmark.add("filterRowsByKeyword", () -> size(H12CustomApp.filterRowsByKeyword(
+                filename, CsvGenerator.RARE_WORD)));
+        benchmark.add("filterRowsByKeyword/par", () -> size(H12CustomApp.filterRowsByKeyword(
+                filename, CsvGenerator.RARE_WORD, true)));
+        benchmark.add("readTypedColumn", () -> H12CustomApp.readTypedColumn(
+                filename, count, null).size());
+        benchmark.add("openRowsInRange", () -> drain(H12CustomApp.openRowsInRange(filename,
+                count, TypedColumn.Comparison.LESS, 1000, 0)));
+        benchmark.add("filterRows", () -> size(H12CustomApp.filterRows(filename,
+                key + " = k1 or " + count + " < 100")));
+        benchmark.add("groupRows", () -> size(H12CustomApp.groupRows(filename, List.of(key),
+                List.of("count", "sum(" + amount + ")"))));
+        benchmark.add("groupRows/par", () -> drain(H12CustomApp.openGroupedRows(filename,
+                List.of(key), List.of("count", "sum(" + amount + ")"), true)));
+        benchmark.add("sortRows/top100", () -> size(H12CustomApp.sortRows(filename,
+                List.of(amount + " number desc"), 100)));
+        benchmark.add("sortRows", () -> drain(H12CustomApp.openSortedRows(filename,
+                List.of(key, count + " number"), 0)));
+        benchmark.add("writeCSVFile", () -> {
+            H12CustomApp.writeCSVFile(scratch, headers, H12CustomApp.openWholeCSV(filename));
+            return new File(scratch).length();
+        });
+        // Then the same reads through the sidecar files
+        benchmark.add("buildRowIndex", () -> H12CustomApp.buildRowIndex(filename) ? 1 : 0);
+        benchmark.add("readCSVRows/indexed",
+                () -> size(H12CustomApp.readCSVRows(filename, rowIndexes)));
+        benchmark.add("buildColumnarCache",
+                () -> H12CustomApp.buildColumnarCache(filename) ? 1 : 0);
+        benchmark.add("readCSVColumn/cached",
+                () -> size(H12CustomApp.readCSVColumn(filename, key)));
+        benchmark.add("readMultipleCSVColumns/cached",
+                () -> size(H12CustomApp.readMultipleCSVColumns(filename, some)));
+        benchmark.add("buildKeywordIndex", () -> H12CustomApp.buildKeywordIndex(filename) ? 1 : 0);
+        benchmark.add("filterRowsByKeyword/indexed", () -> size(
+                H12CustomApp.filterRowsByKeyword(filename, CsvGenerator.RARE_WORD)));
+
+        System.out.printf(Locale.ROOT, "%-28s %10s %10s %10s %10s %12s%n", "Benchmark",
+                "mean ms", "min ms", "max ms", "MB/s", "alloc MB/op");
+        try {
+            benchmark.runAll();
+        } finally {
+            new File(scratch).delete();
+            new File(RowIndex.indexFilename(filename)).delete();
+            new File(ColumnarCache.cacheFilename(filename)).delete();
+            new File(InvertedIndex.indexFilename(filename)).delete();
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+}
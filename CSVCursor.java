@@ -0,0 +1,106 @@
+import java.io.IOException;
+
+/**
+ * A RowCursor over the records of a CSVParser. Subclasses choose which records
+ * to return by overriding accept and how to turn them into rows by overriding
+ * build; by default every record is returned with all of its fields, in a row
+ * that is refilled for each record and decodes fields on demand.
+ *
+ * @author Ajay Shenoy
+ */
+public class CSVCursor implements RowCursor {
+
+    protected final CSVParser parser;
+    private final int maxFields;
+    private Row row;
+
+    /**
+     * Creates a cursor reading from the specified parser. Closing the cursor
+     * closes the parser.
+     *
+     * @param parser The parser to read records from.
+     */
+    public CSVCursor(CSVParser parser) {
+        this(parser, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a cursor that only splits out the leading fields of each record,
+     * skipping the rest of the record. Closing the cursor closes the parser.
+     *
+     * @param parser The parser to read records from.
+     * @param maxFields The number of leading fields accept and build need.
+     */
+    public CSVCursor(CSVParser parser, int maxFields) {
+        this.parser = parser;
+        this.maxFields = maxFields;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (Metrics.ENABLED) {
+            return timedNext();
+        }
+        while (parser.next(maxFields)) {
+            if (accept(parser)) {
+                row = build(parser);
+                return true;
+            }
+        }
+        row = null;
+        return false;
+    }
+
+    /**
+     * Does the work of next() while adding the time spent in accept to Metrics.
+     */
+    private boolean timedNext() throws IOException {
+        long filterNanos = 0;
+        try {
+            while (parser.next(maxFields)) {
+                long start = System.nanoTime();
+                boolean accepted = accept(parser);
+                filterNanos += System.nanoTime() - start;
+                if (accepted) {
+                    row = build(parser);
+                    return true;
+                }
+            }
+            row = null;
+            return false;
+        } finally {
+            Metrics.addFilter(filterNanos);
+        }
+    }
+
+    /**
+     * Decides whether the parser's current record is returned by the cursor.
+     *
+     * @param parser The parser positioned on the record.
+     * @return true to return the record, false to skip it.
+     * @throws IOException if the record cannot be read.
+     */
+    protected boolean accept(CSVParser parser) throws IOException {
+        return true;
+    }
+
+    /**
+     * Builds the row returned for the parser's current record.
+     *
+     * @param parser The parser positioned on the record.
+     * @return The row for the record.
+     */
+    protected Row build(CSVParser parser) {
+        return parser.row(row);
+    }
+
+    @Override
+    public Row row() {
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,866 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Reads the records of a CSV file by memory mapping it and scanning the raw
+ * bytes for delimiters and line endings. Quoted fields follow RFC 4180: a
+ * quoted field may contain commas, line breaks and doubled quotes (""), and
+ * records may end in LF, CRLF or a lone CR. Field values are only turned into
+ * Strings when a caller asks for them.
+ *
+ * The file is mapped in windows so files larger than 2 GB can be read; a
+ * record that runs past the end of a window is parsed again from a window
+ * that starts at the record.
+ *
+ * A file whose name ends in .gz is inflated on another thread (see GzipPipe)
+ * into a window that moves forward through the data, so offsets are offsets
+ * in the decompressed data, and the parser can only seek forward or within the
+ * current window.
+ *
+ * @author Ajay Shenoy
+ */
+public class CSVParser implements Closeable {
+
+    private static final int WINDOW_SIZE = 64 << 20;
+    private static final int STREAM_WINDOW_SIZE = 4 << 20;
+    private static final byte COMMA = ',';
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    /** Returned by parseNumber for a field that is empty or only spaces. */
+    public static final int EMPTY = 0;
+    /** Returned by parseNumber for a field holding an integer that fits in a long. */
+    public static final int INTEGER = 1;
+    /** Returned by parseNumber for a field holding any other number. */
+    public static final int DECIMAL = 2;
+    /** Returned by parseNumber for a field that is not a number. */
+    public static final int TEXT = 3;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final InputStream stream;
+    private long fileSize;
+    private final long end;
+
+    private ByteBuffer window;
+    private ByteBuffer streamBuffer;
+    private byte[] streamChunk;
+    private long windowStart;
+    private int windowLimit;
+    private long position;
+
+    private long recordStart;
+    private long recordEnd;
+    private int lineEnd;
+    private int lineStart;
+    private int fieldCount;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] quoted = new boolean[16];
+    private byte[] scratch = new byte[256];
+    private int trimStart;
+    private long longValue;
+    private double doubleValue;
+    private long bytesRead;
+    private long recordsRead;
+    private long parseNanos;
+
+    /**
+     * Opens a parser over the whole file.
+     *
+     * @param filename The name of the file to read from.
+     * @throws FileNotFoundException if the file does not exist or cannot be read.
+     */
+    public CSVParser(String filename) throws FileNotFoundException {
+        this(filename, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens a parser over the records that start in the byte range [start, end).
+     * The start offset must be the first byte of a record. For a gzip file the
+     * offsets are in the decompressed data.
+     *
+     * @param filename The name of the file to read from.
+     * @param start The offset of the first record to read.
+     * @param end The offset before which the last record read must start.
+     * @throws FileNotFoundException if the file does not exist or cannot be read.
+     */
+    public CSVParser(String filename, long start, long end) throws FileNotFoundException {
+        this.file = new RandomAccessFile(new File(filename), "r");
+        this.channel = file.getChannel();
+        this.position = start;
+        if (GzipPipe.isCompressed(filename)) {
+            // The size is only known once the end of the data is reached
+            this.stream = GzipPipe.inflate(Channels.newInputStream(channel));
+            this.fileSize = Long.MAX_VALUE;
+            this.end = end;
+            return;
+        }
+        this.stream = null;
+        long size;
+        try {
+            size = channel.size();
+        } catch (IOException e) {
+            size = 0;
+        }
+        this.fileSize = size;
+        this.end = Math.min(end, size);
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return true if a record was read, false at the end of the range.
+     * @throws IOException if the file cannot be mapped or a record is too large.
+     */
+    public boolean next() throws IOException {
+        return next(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Advances to the next record, splitting out at most the specified number of
+     * fields. The rest of the record is skipped without recording its fields, so
+     * fieldCount() is at most maxFields.
+     *
+     * @param maxFields The number of leading fields the caller needs.
+     * @return true if a record was read, false at the end of the range.
+     * @throws IOException if the file cannot be mapped or a record is too large.
+     */
+    public boolean next(int maxFields) throws IOException {
+        if (!Metrics.ENABLED) {
+            return advance(maxFields);
+        }
+        long start = System.nanoTime();
+        boolean read = advance(maxFields);
+        parseNanos += System.nanoTime() - start;
+        return read;
+    }
+
+    /**
+     * Reads the next record for next(maxFields).
+     */
+    private boolean advance(int maxFields) throws IOException {
+        if (position >= end) {
+            addMetrics();
+            return false;
+        }
+        int size = stream == null ? WINDOW_SIZE : STREAM_WINDOW_SIZE;
+        if (window == null || position < windowStart
+                || position >= windowStart + windowLimit) {
+            map(position, size);
+            if (position >= fileSize) {
+                // Only a gzip file finds its end here
+                addMetrics();
+                return false;
+            }
+        }
+        while (!parseRecord((int) (position - windowStart), maxFields)) {
+            if (windowStart == position) {
+                if (windowLimit == Integer.MAX_VALUE) {
+                    throw new IOException("Record too large at offset " + position);
+                }
+                size = (int) Math.min(2L * windowLimit, Integer.MAX_VALUE);
+            }
+            map(position, size);
+        }
+        recordStart = position;
+        position = recordEnd;
+        bytesRead += recordEnd - recordStart;
+        recordsRead++;
+        return true;
+    }
+
+    /**
+     * Splits every field of the current record, after it was read by
+     * next(maxFields) with fewer fields.
+     *
+     * @throws IOException if the file cannot be mapped.
+     */
+    public void splitAll() throws IOException {
+        // The record is read again, but only counted once
+        bytesRead -= recordEnd - recordStart;
+        recordsRead--;
+        position = recordStart;
+        next();
+    }
+
+    /**
+     * Moves the parser so that the next call to next() reads the record that
+     * starts at the specified offset.
+     *
+     * @param offset The offset of the first byte of a record.
+     */
+    public void seek(long offset) {
+        position = offset;
+    }
+
+    /**
+     * Maps a window of the file starting at the specified offset.
+     */
+    private void map(long start, int size) throws IOException {
+        if (stream != null) {
+            fill(start, size);
+            return;
+        }
+        windowStart = start;
+        windowLimit = (int) Math.min(size, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLimit);
+    }
+
+    /**
+     * Moves the window of a gzip file forward to start at the specified offset,
+     * keeping the bytes already inflated past it and reading up to size bytes.
+     * A direct buffer is used, read through a read-only view, so the window is
+     * the same kind of buffer as a mapped window.
+     */
+    private void fill(long start, int size) throws IOException {
+        long dataEnd = windowStart + windowLimit;
+        if (start < windowStart) {
+            throw new IOException("Cannot read backwards in a compressed file");
+        }
+        int kept = (int) Math.max(0, dataEnd - start);
+        if (streamBuffer == null || streamBuffer.capacity() < size) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(size);
+            if (kept > 0) {
+                ByteBuffer old = streamBuffer.duplicate();
+                old.limit(windowLimit).position((int) (start - windowStart));
+                grown.put(old);
+            }
+            streamBuffer = grown;
+            window = grown.duplicate().clear().asReadOnlyBuffer();
+            streamChunk = new byte[1 << 16];
+        } else if (kept > 0) {
+            streamBuffer.limit(windowLimit).position((int) (start - windowStart));
+            streamBuffer.compact();
+        } else {
+            streamBuffer.clear();
+        }
+        // Skip the bytes between the old window and the new one
+        long skip = start - Math.max(dataEnd, windowStart);
+        while (skip > 0) {
+            int n = stream.read(streamChunk, 0, (int) Math.min(skip, streamChunk.length));
+            if (n < 0) {
+                break;
+            }
+            skip -= n;
+        }
+        int filled = kept;
+        streamBuffer.position(filled).limit(streamBuffer.capacity());
+        while (skip <= 0 && filled < size) {
+            int n = stream.read(streamChunk, 0, Math.min(size - filled, streamChunk.length));
+            if (n < 0) {
+                break;
+            }
+            streamBuffer.put(streamChunk, 0, n);
+            filled += n;
+        }
+        windowStart = start;
+        windowLimit = filled;
+        if (filled < size) {
+            fileSize = start + filled;
+        }
+    }
+
+    /**
+     * Parses one record starting at the window offset p, filling in the
+     * boundaries of up to maxFields fields and recordEnd.
+     *
+     * @return false if the record runs past the end of the window before the
+     * end of the file, in which case a larger or later window is needed.
+     */
+    private boolean parseRecord(int p, int maxFields) {
+        ByteBuffer buf = window;
+        int limit = windowLimit;
+        boolean atEof = windowStart + limit >= fileSize;
+        int i = p;
+        lineStart = p;
+        fieldCount = 0;
+        while (true) {
+            byte b;
+            if (i < limit && buf.get(i) == QUOTE) {
+                int s = ++i;
+                while (true) {
+                    if (i >= limit) {
+                        if (!atEof) {
+                            return false;
+                        }
+                        break;
+                    }
+                    if (buf.get(i) == QUOTE) {
+                        if (i + 1 >= limit && !atEof) {
+                            return false;
+                        }
+                        if (i + 1 < limit && buf.get(i + 1) == QUOTE) {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                addField(s, i, true);
+                if (i < limit) {
+                    // Anything between the closing quote and the delimiter is ignored
+                    i++;
+                    while (i < limit) {
+                        b = buf.get(i);
+                        if (b == COMMA || b == LF || b == CR) {
+                            break;
+                        }
+                        i++;
+                    }
+                }
+            } else {
+                int s = i;
+                while (i < limit) {
+                    b = buf.get(i);
+                    if (b == COMMA || b == LF || b == CR) {
+                        break;
+                    }
+                    i++;
+                }
+                addField(s, i, false);
+            }
+            if (i < limit && buf.get(i) == COMMA) {
+                i++;
+                if (fieldCount >= maxFields) {
+                    return skipRecord(i, atEof);
+                }
+                continue;
+            }
+            return endRecord(i, atEof);
+        }
+    }
+
+    /**
+     * Skips the rest of a record from the window offset i, the start of a
+     * field, without recording fields. As in parseRecord, a quote opens a quoted
+     * field only at the start of a field, so quoted line breaks are skipped and
+     * a stray quote inside an unquoted field is not.
+     */
+    private boolean skipRecord(int i, boolean atEof) {
+        ByteBuffer buf = window;
+        int limit = windowLimit;
+        boolean fieldStart = true;
+        boolean inQuotes = false;
+        while (i < limit) {
+            byte b = buf.get(i);
+            if (inQuotes) {
+                if (b == QUOTE) {
+                    if (i + 1 >= limit && !atEof) {
+                        return false;
+                    }
+                    if (i + 1 < limit && buf.get(i + 1) == QUOTE) {
+                        i++;
+                    } else {
+                        inQuotes = false;
+                    }
+                }
+            } else if (b == QUOTE && fieldStart) {
+                inQuotes = true;
+            } else if (b == LF || b == CR) {
+                break;
+            }
+            fieldStart = !inQuotes && b == COMMA;
+            i++;
+        }
+        return endRecord(i, atEof);
+    }
+
+    /**
+     * Finishes a record whose line terminator (or the end of the window) is at
+     * the window offset i, setting lineEnd and recordEnd.
+     */
+    private boolean endRecord(int i, boolean atEof) {
+        int limit = windowLimit;
+        if (i >= limit) {
+            if (!atEof) {
+                return false;
+            }
+            lineEnd = i;
+            recordEnd = windowStart + i;
+            return true;
+        }
+        lineEnd = i;
+        if (window.get(i) == CR) {
+            if (i + 1 >= limit && !atEof) {
+                return false;
+            }
+            if (i + 1 < limit && window.get(i + 1) == LF) {
+                i++;
+            }
+        }
+        recordEnd = windowStart + i + 1;
+        return true;
+    }
+
+    /**
+     * Records the boundaries of the next field, growing the arrays if needed.
+     */
+    private void addField(int start, int end, boolean isQuoted) {
+        if (fieldCount == starts.length) {
+            int length = starts.length * 2;
+            starts = Arrays.copyOf(starts, length);
+            ends = Arrays.copyOf(ends, length);
+            quoted = Arrays.copyOf(quoted, length);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        quoted[fieldCount] = isQuoted;
+        fieldCount++;
+    }
+
+    /**
+     * Returns the number of fields in the current record.
+     *
+     * @return The number of fields, at least 1.
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Decodes a field of the current record, removing surrounding quotes and
+     * collapsing doubled quotes.
+     *
+     * @param index The index of the field.
+     * @return The value of the field.
+     */
+    public String field(int index) {
+        return new String(scratch, 0, decodeField(index), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a field of the current record into the scratch buffer.
+     *
+     * @return The length of the decoded field.
+     */
+    private int decodeField(int index) {
+        int s = starts[index];
+        int length = ends[index] - s;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        window.get(s, scratch, 0, length);
+        if (quoted[index]) {
+            int out = 0;
+            for (int i = 0; i < length; i++) {
+                scratch[out++] = scratch[i];
+                if (scratch[i] == QUOTE && i + 1 < length && scratch[i + 1] == QUOTE) {
+                    i++;
+                }
+            }
+            length = out;
+        }
+        return length;
+    }
+
+    /**
+     * Decodes a field into the scratch buffer and trims it the way String.trim
+     * does. The trimmed value starts at trimStart.
+     *
+     * @return The end of the trimmed value in the scratch buffer.
+     */
+    private int trimField(int index) {
+        int length = decodeField(index);
+        int start = 0;
+        while (start < length && (scratch[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (length > start && (scratch[length - 1] & 0xFF) <= ' ') {
+            length--;
+        }
+        trimStart = start;
+        return length;
+    }
+
+    /**
+     * Returns the raw length of a field, which is at least the length of its
+     * decoded value.
+     *
+     * @param index The index of the field.
+     * @return The number of bytes between the field's delimiters or quotes.
+     */
+    public int fieldLength(int index) {
+        return ends[index] - starts[index];
+    }
+
+    /**
+     * Copies the trimmed, decoded bytes of a field to the start of a buffer of at
+     * least fieldLength(index) bytes, without creating a string.
+     *
+     * @param index The index of the field.
+     * @param buffer The buffer to copy into.
+     * @return The number of bytes copied.
+     */
+    public int copyField(int index, byte[] buffer) {
+        int end = trimField(index);
+        System.arraycopy(scratch, trimStart, buffer, 0, end - trimStart);
+        return end - trimStart;
+    }
+
+    /**
+     * Checks whether the trimmed value of a field equals the specified bytes,
+     * without creating a string.
+     *
+     * @param index The index of the field.
+     * @param value The UTF-8 bytes to compare with.
+     * @return true if the trimmed field equals the bytes.
+     */
+    public boolean fieldEquals(int index, byte[] value) {
+        int end = trimField(index);
+        return Arrays.equals(scratch, trimStart, end, value, 0, value.length);
+    }
+
+    /**
+     * Checks whether the trimmed value of a field starts with the specified bytes,
+     * without creating a string.
+     *
+     * @param index The index of the field.
+     * @param prefix The UTF-8 bytes to look for.
+     * @return true if the trimmed field starts with the bytes.
+     */
+    public boolean fieldStartsWith(int index, byte[] prefix) {
+        int end = trimField(index);
+        return end - trimStart >= prefix.length && Arrays.equals(scratch, trimStart,
+                trimStart + prefix.length, prefix, 0, prefix.length);
+    }
+
+    /**
+     * Checks whether the value of a field contains the specified bytes, without
+     * creating a string.
+     *
+     * @param index The index of the field.
+     * @param needle The UTF-8 bytes to look for.
+     * @return true if the field contains the bytes.
+     */
+    public boolean fieldContains(int index, byte[] needle) {
+        int end = trimField(index);
+        if (needle.length == 0) {
+            return true;
+        }
+        byte first = needle[0];
+        int last = end - needle.length;
+        for (int i = trimStart; i <= last; i++) {
+            if (scratch[i] == first && Arrays.equals(scratch, i + 1, i + needle.length,
+                    needle, 1, needle.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a field of the current record as a number directly from its bytes,
+     * ignoring surrounding spaces and quotes. The value is then available from
+     * longValue() for INTEGER fields and from doubleValue() for INTEGER and
+     * DECIMAL fields.
+     *
+     * @param index The index of the field.
+     * @return EMPTY, INTEGER, DECIMAL or TEXT.
+     */
+    public int parseNumber(int index) {
+        ByteBuffer buf = window;
+        int i = starts[index];
+        int e = ends[index];
+        while (i < e && (buf.get(i) == ' ' || buf.get(i) == '\t')) {
+            i++;
+        }
+        while (e > i && (buf.get(e - 1) == ' ' || buf.get(e - 1) == '\t')) {
+            e--;
+        }
+        if (i == e) {
+            return EMPTY;
+        }
+        int begin = i;
+        boolean negative = false;
+        byte b = buf.get(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean overflow = false;
+        for (; i < e; i++) {
+            b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                // -9223372036854775808 wraps to Long.MIN_VALUE, which negates to itself;
+                // any digit after it overflows
+                if (mantissa >= 0 && (mantissa < 922337203685477580L
+                        || (mantissa == 922337203685477580L
+                        && (b <= '7' || (b == '8' && negative))))) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (point) {
+                        scale++;
+                    }
+                } else {
+                    overflow = true;
+                }
+                digits++;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return TEXT;
+        }
+        int exponent = 0;
+        if (i < e && (buf.get(i) == 'e' || buf.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < e && (buf.get(i) == '-' || buf.get(i) == '+')) {
+                negativeExponent = buf.get(i) == '-';
+                i++;
+            }
+            int exponentStart = i;
+            for (; i < e && buf.get(i) >= '0' && buf.get(i) <= '9'; i++) {
+                exponent = Math.min(exponent * 10 + (buf.get(i) - '0'), 100000);
+            }
+            if (i == exponentStart) {
+                return TEXT;
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+            point = true;
+        }
+        if (i != e) {
+            return TEXT;
+        }
+        if (!point && !overflow) {
+            longValue = negative ? -mantissa : mantissa;
+            doubleValue = longValue;
+            return INTEGER;
+        }
+        int power = exponent - scale;
+        if (!overflow && mantissa >= 0 && mantissa < (1L << 53) && Math.abs(power) <= 22) {
+            // Both operands are exact, so one rounding gives the correct result
+            double value = power < 0 ? mantissa / POWERS_OF_TEN[-power]
+                    : mantissa * POWERS_OF_TEN[power];
+            doubleValue = negative ? -value : value;
+        } else {
+            byte[] text = new byte[e - begin];
+            buf.get(begin, text);
+            doubleValue = Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+        }
+        return DECIMAL;
+    }
+
+    /**
+     * Returns the value of the last field parsed as INTEGER by parseNumber.
+     *
+     * @return The integer value.
+     */
+    public long longValue() {
+        return longValue;
+    }
+
+    /**
+     * Returns the value of the last field parsed as INTEGER or DECIMAL by parseNumber.
+     *
+     * @return The numeric value.
+     */
+    public double doubleValue() {
+        return doubleValue;
+    }
+
+    /**
+     * Copies the current record into a row that decodes its fields on demand,
+     * so no String is created for fields that are never read.
+     *
+     * @param reuse A row previously returned by this method to refill, or null to
+     *              create a new one.
+     * @return The row holding the record.
+     */
+    public Row row(Row reuse) {
+        Row row = reuse != null ? reuse : new Row();
+        row.load(window, lineStart, lineEnd - lineStart, starts, ends, quoted, fieldCount);
+        return row;
+    }
+
+    /**
+     * Decodes every field of the current record.
+     *
+     * @return The values of the fields.
+     */
+    public String[] fields() {
+        String[] values = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            values[i] = field(i);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the raw text of the current record without its line terminator.
+     *
+     * @return The text of the record as it appears in the file.
+     */
+    public String line() {
+        int length = lineEnd - lineStart;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        window.get(lineStart, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the length in bytes of the raw text of the current record, without
+     * its line terminator.
+     *
+     * @return The length of the record.
+     */
+    public int lineLength() {
+        return lineEnd - lineStart;
+    }
+
+    /**
+     * Copies the raw bytes of the current record, without its line terminator,
+     * to the start of a buffer of at least lineLength() bytes.
+     *
+     * @param buffer The buffer to copy into.
+     */
+    public void copyLine(byte[] buffer) {
+        window.get(lineStart, buffer, 0, lineEnd - lineStart);
+    }
+
+    /**
+     * Checks whether the raw text of the current record contains the specified
+     * bytes, without decoding the record.
+     *
+     * @param needle The UTF-8 bytes to look for.
+     * @return true if the record contains the bytes, false otherwise.
+     */
+    public boolean lineContains(byte[] needle) {
+        return lineContains(needle, false);
+    }
+
+    /**
+     * Checks whether the raw text of the current record contains the specified
+     * token as a whole, not next to other token bytes (see InvertedIndex).
+     *
+     * @param token The UTF-8 bytes of the token.
+     * @return true if the record contains the token, false otherwise.
+     */
+    public boolean lineContainsToken(byte[] token) {
+        return lineContains(token, true);
+    }
+
+    private boolean lineContains(byte[] needle, boolean wholeToken) {
+        if (needle.length == 0) {
+            return true;
+        }
+        ByteBuffer buf = window;
+        byte first = needle[0];
+        int last = lineEnd - needle.length;
+        for (int i = lineStart; i <= last; i++) {
+            if (buf.get(i) != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < needle.length && buf.get(i + j) == needle[j]) {
+                j++;
+            }
+            if (j == needle.length && (!wholeToken
+                    || ((i == lineStart || !InvertedIndex.isTokenByte(buf.get(i - 1)))
+                    && (i + j == lineEnd || !InvertedIndex.isTokenByte(buf.get(i + j)))))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks for the keywords of a KeywordMatcher in the raw text of the current
+     * record in one pass, without decoding the record.
+     *
+     * @param matcher The compiled keywords.
+     * @param found Receives the number of every keyword found, or null to stop
+     *              at the first one.
+     * @return true if the record contains any of the keywords, false otherwise.
+     */
+    public boolean lineMatches(KeywordMatcher matcher, BitSet found) {
+        return matcher.scan(window, lineStart, lineEnd, found);
+    }
+
+    /**
+     * Returns the file offset of the first byte of the current record.
+     *
+     * @return The start offset of the record.
+     */
+    public long recordStart() {
+        return recordStart;
+    }
+
+    /**
+     * Returns the file offset where the next record starts: just past the last
+     * record read, or the start of the range before any record is read. Once
+     * next has returned false this is where the last record of the range ends,
+     * which is past the end of the range when that record continues beyond it.
+     *
+     * @return The offset of the next record.
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Returns the file offset just past the line terminator of the current record.
+     *
+     * @return The end offset of the record.
+     */
+    public long recordEnd() {
+        return recordEnd;
+    }
+
+    /**
+     * Closes the underlying file. The records read are added to the totals of
+     * Metrics here and when the end of the range is reached.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        addMetrics();
+        window = null;
+        streamBuffer = null;
+        if (stream != null) {
+            stream.close();
+        }
+        file.close();
+    }
+
+    /**
+     * Adds the records read since the last call to the totals of Metrics.
+     */
+    private void addMetrics() {
+        if (recordsRead != 0 || parseNanos != 0) {
+            Metrics.addRead(bytesRead, recordsRead, parseNanos);
+            bytesRead = 0;
+            recordsRead = 0;
+            parseNanos = 0;
+        }
+    }
+}
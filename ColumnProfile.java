@@ -0,0 +1,373 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Profiles the columns of a CSV file in one pass and fixed memory: for each
+ * column the number of values, an estimate of the number of distinct values
+ * (see HyperLogLog) and, for the values that are numbers, the minimum, maximum
+ * and estimated percentiles (see QuantileSketch). A uniform sample of rows is
+ * drawn at the same time.
+ *
+ * The sample keeps the rows with the lowest keys, where the key of a row is a
+ * hash of its file and offset, so the same file always gives the same sample
+ * and two samples merge by keeping the lowest keys of both. The sample and the
+ * distinct counts are the same whether the file is scanned whole or in ranges;
+ * the percentiles may differ slightly.
+ *
+ * A file can be profiled in parallel: each range (see ParallelScan) builds a
+ * partial profile and the partial profiles are merged. Several files with the
+ * same header are profiled as one. Values are trimmed, and empty values are
+ * not counted.
+ *
+ * @author Ajay Shenoy
+ */
+public class ColumnProfile {
+
+    /** The headers of the rows returned by summary(). */
+    public static final List<String> SUMMARY_HEADERS =
+            List.of("Column", "Values", "Distinct", "Min", "P50", "P95", "P99", "Max");
+
+    /** The fractions of the percentiles in the summary. */
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    /**
+     * A sampled row with its key and its place in the files.
+     */
+    private static final class Sampled {
+        final long key;
+        final int file;
+        final long offset;
+        final Row row;
+
+        Sampled(long key, int file, long offset, Row row) {
+            this.key = key;
+            this.file = file;
+            this.offset = offset;
+            this.row = row;
+        }
+    }
+
+    private final String[] headers;
+    private final int[] indexes;
+    private final int sampleSize;
+    private final long[] values;
+    private final HyperLogLog[] distinct;
+    private final QuantileSketch[] numbers;
+    // The highest key on top, so it is the one replaced
+    private final PriorityQueue<Sampled> sample;
+    private long rows;
+
+    private ColumnProfile(String[] headers, int[] indexes, int sampleSize) {
+        this.headers = headers;
+        this.indexes = indexes;
+        this.sampleSize = sampleSize;
+        this.values = new long[indexes.length];
+        this.distinct = new HyperLogLog[indexes.length];
+        this.numbers = new QuantileSketch[indexes.length];
+        for (int c = 0; c < indexes.length; c++) {
+            distinct[c] = new HyperLogLog();
+            numbers[c] = new QuantileSketch();
+        }
+        this.sample = new PriorityQueue<>(Math.max(1, sampleSize),
+                Comparator.comparingLong((Sampled s) -> s.key).reversed());
+    }
+
+    /**
+     * Profiles columns of CSV files with the same header, read as one file, with
+     * the default range size when scanning in parallel.
+     *
+     * @param filenames The names of the files to read from.
+     * @param columnNames The names of the columns to profile; none for every column.
+     * @param sampleSize The number of rows to sample.
+     * @param parallel true to profile ranges of the files concurrently.
+     * @return The profile.
+     * @throws IOException if a file cannot be read.
+     * @throws IllegalArgumentException if a column does not exist or the sample
+     * size is negative.
+     */
+    public static ColumnProfile scan(List<String> filenames, List<String> columnNames,
+                                     int sampleSize, boolean parallel) throws IOException {
+        return scan(filenames, columnNames, sampleSize, chunkSize(filenames, parallel));
+    }
+
+    /**
+     * Profiles columns of CSV files with the same header, read as one file. The
+     * header is read from the first file. Ranges are profiled in parallel, at
+     * most twice as many as the common pool has workers at a time. A range that
+     * starts inside a quoted field is profiled again from the end of the record
+     * (see ParallelScan), so every record is counted once.
+     *
+     * @param filenames The names of the files to read from.
+     * @param columnNames The names of the columns to profile; none for every column.
+     * @param sampleSize The number of rows to sample.
+     * @param chunkSize The target size of each range.
+     * @return The profile.
+     * @throws IOException if a file cannot be read.
+     * @throws IllegalArgumentException if a column does not exist or the sample
+     * size is negative.
+     */
+    public static ColumnProfile scan(List<String> filenames, List<String> columnNames,
+                                     int sampleSize, long chunkSize) throws IOException {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("Sample size cannot be negative: " + sampleSize);
+        }
+        String[] fileHeaders;
+        try (CSVParser header = new CSVParser(filenames.get(0))) {
+            fileHeaders = header.next() ? header.fields() : new String[0];
+        }
+        String[] headers;
+        int[] indexes;
+        if (columnNames.isEmpty()) {
+            headers = new String[fileHeaders.length];
+            indexes = new int[fileHeaders.length];
+            for (int c = 0; c < indexes.length; c++) {
+                headers[c] = fileHeaders[c].trim();
+                indexes[c] = c;
+            }
+        } else {
+            headers = columnNames.toArray(new String[0]);
+            indexes = new int[headers.length];
+            for (int c = 0; c < indexes.length; c++) {
+                indexes[c] = columnIndex(fileHeaders, headers[c]);
+            }
+        }
+        return run(filenames, headers, indexes, sampleSize, chunkSize);
+    }
+
+    /**
+     * Samples rows of CSV files with the same header, read as one file, without
+     * profiling any column.
+     *
+     * @param filenames The names of the files to read from.
+     * @param sampleSize The number of rows to sample.
+     * @param parallel true to sample ranges of the files concurrently.
+     * @return The sampled rows in file order; every row if there are no more.
+     * @throws IOException if a file cannot be read.
+     * @throws IllegalArgumentException if the sample size is negative.
+     */
+    public static List<Row> sample(List<String> filenames, int sampleSize, boolean parallel)
+            throws IOException {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("Sample size cannot be negative: " + sampleSize);
+        }
+        return run(filenames, new String[0], new int[0], sampleSize,
+                chunkSize(filenames, parallel)).sample();
+    }
+
+    private static long chunkSize(List<String> filenames, boolean parallel) {
+        if (!parallel) {
+            return Long.MAX_VALUE;
+        }
+        long size = 0;
+        for (String filename : filenames) {
+            size += new File(filename).length();
+        }
+        return ParallelScan.defaultChunkSize(size);
+    }
+
+    /**
+     * Profiles the columns at the specified indexes, range by range.
+     */
+    private static ColumnProfile run(List<String> filenames, String[] headers, int[] indexes,
+                                     int sampleSize, long chunkSize) throws IOException {
+        ColumnProfile result = new ColumnProfile(headers, indexes, sampleSize);
+        List<ParallelScan.Range> ranges = ParallelScan.ranges(filenames, chunkSize);
+        if (ranges.size() == 1) {
+            try (CSVParser parser = new CSVParser(filenames.get(0))) {
+                result.add(parser, 0);
+            }
+            return result;
+        }
+        try (ParallelScan.RangeScan<ColumnProfile> scan = new ParallelScan.RangeScan<>(
+                filenames, ranges, (file, parser) -> {
+                    ColumnProfile partial = new ColumnProfile(headers, indexes, sampleSize);
+                    partial.add(parser, file);
+                    return partial;
+                }, null)) {
+            ColumnProfile partial;
+            while ((partial = scan.next()) != null) {
+                result.merge(partial);
+            }
+        }
+        return result;
+    }
+
+    private static int columnIndex(String[] headers, String columnName) {
+        for (int i = 0; i < headers.length; i++) {
+            if (headers[i].trim().equals(columnName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column not found: " + columnName);
+    }
+
+    /**
+     * Adds the records of a parser, which may read a range of a file.
+     */
+    private void add(CSVParser parser, int file) throws IOException {
+        int fieldsNeeded = 0;
+        for (int index : indexes) {
+            fieldsNeeded = Math.max(fieldsNeeded, index + 1);
+        }
+        byte[] field = new byte[64];
+        while (parser.next(fieldsNeeded)) {
+            long offset = parser.recordStart();
+            if (offset == 0) {
+                continue; // The header
+            }
+            rows++;
+            for (int c = 0; c < indexes.length; c++) {
+                int index = indexes[c];
+                if (index >= parser.fieldCount()) {
+                    continue;
+                }
+                if (field.length < parser.fieldLength(index)) {
+                    field = new byte[Math.max(parser.fieldLength(index), 2 * field.length)];
+                }
+                int length = parser.copyField(index, field);
+                if (length == 0) {
+                    continue;
+                }
+                values[c]++;
+                distinct[c].add(field, length);
+                int kind = parser.parseNumber(index);
+                if (kind == CSVParser.INTEGER || kind == CSVParser.DECIMAL) {
+                    numbers[c].add(parser.doubleValue());
+                }
+            }
+            if (sampleSize > 0) {
+                long key = sampleKey(file, offset);
+                if (sample.size() < sampleSize || key < sample.peek().key) {
+                    // Few rows get this far, so only they are split whole
+                    parser.splitAll();
+                    offer(new Sampled(key, file, offset, parser.row(null)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Mixes the place of a record into a key that orders records at random.
+     */
+    private static long sampleKey(int file, long offset) {
+        long key = offset * 0x9E3779B97F4A7C15L + file;
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    private void offer(Sampled sampled) {
+        if (sample.size() < sampleSize) {
+            sample.add(sampled);
+        } else if (sampled.key < sample.peek().key) {
+            sample.poll();
+            sample.add(sampled);
+        }
+    }
+
+    /**
+     * Adds the rows of another profile of the same columns to this one.
+     *
+     * @param other The profile to merge, which is left unchanged.
+     */
+    public void merge(ColumnProfile other) {
+        rows += other.rows;
+        for (int c = 0; c < indexes.length; c++) {
+            values[c] += other.values[c];
+            distinct[c].merge(other.distinct[c]);
+            numbers[c].merge(other.numbers[c]);
+        }
+        for (Sampled sampled : other.sample) {
+            offer(sampled);
+        }
+    }
+
+    /**
+     * Returns the number of data rows read.
+     *
+     * @return The number of rows.
+     */
+    public long rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the estimated number of distinct values of a column.
+     *
+     * @param column The position of the column among the profiled columns.
+     * @return The estimated count.
+     */
+    public long distinct(int column) {
+        return distinct[column].estimate();
+    }
+
+    /**
+     * Returns the sketch of the numbers of a column.
+     *
+     * @param column The position of the column among the profiled columns.
+     * @return The sketch; it must not be changed.
+     */
+    public QuantileSketch numbers(int column) {
+        return numbers[column];
+    }
+
+    /**
+     * Returns one row per profiled column, with the values named by
+     * SUMMARY_HEADERS. The numeric values are empty for a column without numbers.
+     *
+     * @return The summary rows.
+     */
+    public List<String[]> summary() {
+        List<String[]> summary = new ArrayList<>();
+        for (int c = 0; c < indexes.length; c++) {
+            QuantileSketch sketch = numbers[c];
+            String[] row = new String[SUMMARY_HEADERS.size()];
+            row[0] = headers[c];
+            row[1] = Long.toString(values[c]);
+            row[2] = Long.toString(distinct[c].estimate());
+            row[3] = format(sketch.min());
+            for (int p = 0; p < PERCENTILES.length; p++) {
+                row[4 + p] = sketch.count() == 0 ? "" : format(sketch.quantile(PERCENTILES[p]));
+            }
+            row[4 + PERCENTILES.length] = format(sketch.max());
+            summary.add(row);
+        }
+        return summary;
+    }
+
+    /**
+     * Returns the sampled rows in file order.
+     *
+     * @return The sample; all rows if there are no more than the sample size.
+     */
+    public List<Row> sample() {
+        List<Sampled> sampled = new ArrayList<>(sample);
+        sampled.sort(Comparator.comparingInt((Sampled s) -> s.file)
+                .thenComparingLong(s -> s.offset));
+        List<Row> sampleRows = new ArrayList<>();
+        for (Sampled s : sampled) {
+            sampleRows.add(s.row);
+        }
+        return sampleRows;
+    }
+
+    /**
+     * Formats a number, writing integral values without a decimal point and
+     * nothing for NaN.
+     */
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,433 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A columnar copy of a CSV file kept in a sidecar next to it, so reading a
+ * column only touches that column's bytes instead of reparsing the whole text.
+ * Each column is stored as one contiguous block holding the trimmed value of
+ * every data row. Columns with few distinct values are dictionary encoded: the
+ * distinct values are stored once and each row holds a 1 or 2 byte code. Other
+ * columns store each value prefixed by its length. Rows too short to have a
+ * column are recorded as missing for that column.
+ *
+ * The file starts with the stamp of the CSV file (see Sidecar), followed by the
+ * column blocks and a footer listing the name, encoding and position of every
+ * block. The last 8 bytes hold the position of the footer.
+ *
+ * @author Ajay Shenoy
+ */
+public class ColumnarCache {
+
+    /** The suffix added to the CSV filename to name its cache. */
+    public static final String SUFFIX = ".colcache";
+
+    private static final int MAGIC = 0x43434F4C;
+    private static final int VERSION = 1;
+    private static final byte PLAIN = 0;
+    private static final byte DICTIONARY = 1;
+    private static final int MAX_DICTIONARY_SIZE = 0xFFFE;
+
+    private final File cacheFile;
+    private final long rowCount;
+    private final String[] names;
+    private final byte[] encodings;
+    private final long[] offsets;
+
+    private ColumnarCache(File cacheFile, long rowCount, String[] names, byte[] encodings,
+                          long[] offsets) {
+        this.cacheFile = cacheFile;
+        this.rowCount = rowCount;
+        this.names = names;
+        this.encodings = encodings;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Returns the name of the cache file for a CSV file.
+     *
+     * @param filename The name of the CSV file.
+     * @return The name of its cache file.
+     */
+    public static String cacheFilename(String filename) {
+        return filename + SUFFIX;
+    }
+
+    /**
+     * Converts a CSV file into its columnar cache, replacing any existing one.
+     * Each column is first written to its own temporary file so the conversion
+     * does not hold the table in memory.
+     *
+     * @param filename The name of the CSV file to convert.
+     * @return The number of data rows converted.
+     * @throws IOException if the CSV file cannot be read or the cache written.
+     */
+    public static long build(String filename) throws IOException {
+        File csv = new File(filename);
+        try (CSVParser parser = new CSVParser(filename)) {
+            String[] headers = parser.next() ? parser.fields() : new String[0];
+            int columnCount = headers.length;
+            File[] temps = new File[columnCount];
+            DataOutputStream[] columns = new DataOutputStream[columnCount];
+            ArrayList<HashMap<String, Integer>> dictionaries = new ArrayList<>();
+            long rows = 0;
+            try {
+                for (int c = 0; c < columnCount; c++) {
+                    headers[c] = headers[c].trim();
+                    temps[c] = File.createTempFile("colcache", ".tmp");
+                    columns[c] = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(temps[c]), 1 << 14));
+                    dictionaries.add(new HashMap<>());
+                }
+                while (columnCount > 0 && parser.next(columnCount)) {
+                    for (int c = 0; c < columnCount; c++) {
+                        if (c >= parser.fieldCount()) {
+                            Sidecar.writeVarint(columns[c], 0);
+                            continue;
+                        }
+                        String value = parser.field(c).trim();
+                        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                        Sidecar.writeVarint(columns[c], bytes.length + 1);
+                        columns[c].write(bytes);
+                        HashMap<String, Integer> dictionary = dictionaries.get(c);
+                        if (dictionary != null) {
+                            dictionary.putIfAbsent(value, dictionary.size());
+                            if (dictionary.size() > MAX_DICTIONARY_SIZE) {
+                                dictionaries.set(c, null);
+                            }
+                        }
+                    }
+                    rows++;
+                }
+                for (DataOutputStream column : columns) {
+                    column.close();
+                }
+                writeCache(csv, cacheFilename(filename), headers, temps, dictionaries, rows);
+            } finally {
+                for (int c = 0; c < columnCount; c++) {
+                    if (columns[c] != null) {
+                        columns[c].close();
+                    }
+                    if (temps[c] != null) {
+                        temps[c].delete();
+                    }
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Writes the cache file from the per-column temporary files, through a
+     * temporary file that replaces the cache file once complete.
+     */
+    private static void writeCache(File csv, String cacheFilename, String[] headers,
+                                   File[] temps, List<HashMap<String, Integer>> dictionaries,
+                                   long rows) throws IOException {
+        int columnCount = headers.length;
+        byte[] encodings = new byte[columnCount];
+        long[] offsets = new long[columnCount];
+        Path temp = Sidecar.temporary(cacheFilename);
+        try {
+            Sidecar.CountingOutputStream counter = new Sidecar.CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp.toFile()), 1 << 16));
+            try (DataOutputStream out = new DataOutputStream(counter)) {
+                Sidecar.writeStamp(out, MAGIC, VERSION, csv);
+                for (int c = 0; c < columnCount; c++) {
+                    offsets[c] = counter.count();
+                    HashMap<String, Integer> dictionary = dictionaries.get(c);
+                    // Only worth a dictionary if values repeat on average
+                    if (dictionary != null && dictionary.size() <= rows / 2) {
+                        encodings[c] = DICTIONARY;
+                        writeDictionaryBlock(out, temps[c], dictionary, rows);
+                    } else {
+                        encodings[c] = PLAIN;
+                        try (FileInputStream in = new FileInputStream(temps[c])) {
+                            in.transferTo(out);
+                        }
+                    }
+                }
+                long footer = counter.count();
+                out.writeLong(rows);
+                out.writeInt(columnCount);
+                for (int c = 0; c < columnCount; c++) {
+                    out.writeUTF(headers[c]);
+                    out.writeByte(encodings[c]);
+                    out.writeLong(offsets[c]);
+                }
+                out.writeLong(footer);
+            }
+            Sidecar.replace(temp, cacheFilename);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes the dictionary of a column followed by the code of every row.
+     */
+    private static void writeDictionaryBlock(DataOutputStream out, File temp,
+                                             HashMap<String, Integer> dictionary, long rows)
+            throws IOException {
+        String[] values = new String[dictionary.size()];
+        for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+            values[entry.getValue()] = entry.getKey();
+        }
+        out.writeInt(values.length);
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            Sidecar.writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        int codeWidth = values.length < 0xFF ? 1 : 2;
+        int missing = codeWidth == 1 ? 0xFF : 0xFFFF;
+        out.writeByte(codeWidth);
+        byte[] scratch = new byte[256];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(temp), 1 << 16))) {
+            for (long r = 0; r < rows; r++) {
+                int length = (int) Sidecar.readVarint(in) - 1;
+                int code = missing;
+                if (length >= 0) {
+                    if (scratch.length < length) {
+                        scratch = new byte[length];
+                    }
+                    in.readFully(scratch, 0, length);
+                    code = dictionary.get(new String(scratch, 0, length, StandardCharsets.UTF_8));
+                }
+                if (codeWidth == 1) {
+                    out.writeByte(code);
+                } else {
+                    out.writeShort(code);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the cache of a CSV file if it exists and matches the current size and
+     * modification time of the CSV file.
+     *
+     * @param filename The name of the CSV file.
+     * @return The cache, or null if there is no usable cache.
+     */
+    public static ColumnarCache open(String filename) {
+        File csv = new File(filename);
+        File cacheFile = new File(cacheFilename(filename));
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(cacheFile, "r")) {
+            if (in.length() < Sidecar.STAMP_SIZE + 8
+                    || !Sidecar.readStamp(in, MAGIC, VERSION, csv)) {
+                return null;
+            }
+            in.seek(in.length() - 8);
+            in.seek(in.readLong());
+            long rows = in.readLong();
+            int columnCount = in.readInt();
+            String[] names = new String[columnCount];
+            byte[] encodings = new byte[columnCount];
+            long[] offsets = new long[columnCount];
+            for (int c = 0; c < columnCount; c++) {
+                names[c] = in.readUTF();
+                encodings[c] = in.readByte();
+                offsets[c] = in.readLong();
+            }
+            return new ColumnarCache(cacheFile, rows, names, encodings, offsets);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of data rows in the cached CSV file.
+     *
+     * @return The number of rows after the header.
+     */
+    public long rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Finds the index of a column by name.
+     *
+     * @param columnName The name of the column to find.
+     * @return The index of the column, or -1 if the column does not exist.
+     */
+    public int columnIndex(String columnName) {
+        for (int c = 0; c < names.length; c++) {
+            if (names[c].equals(columnName)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Opens a reader over the values of one column, reading only that column's block.
+     *
+     * @param column The index of the column.
+     * @return A reader positioned before the first row.
+     * @throws IOException if the cache cannot be read.
+     */
+    public ColumnReader reader(int column) throws IOException {
+        return new ColumnReader(column);
+    }
+
+    /**
+     * Opens a cursor over specific columns, with the same rows openCSVColumns in
+     * H12CustomApp returns for the CSV file: rows missing any requested column
+     * are skipped.
+     *
+     * @param columnNames The names of the columns to read.
+     * @return A cursor over the values of the columns.
+     * @throws IOException if the cache cannot be read.
+     * @throws IllegalArgumentException if any column does not exist.
+     */
+    public RowCursor openColumns(List<String> columnNames) throws IOException {
+        ColumnReader[] readers = new ColumnReader[columnNames.size()];
+        try {
+            for (int i = 0; i < readers.length; i++) {
+                int column = columnIndex(columnNames.get(i));
+                if (column == -1) {
+                    throw new IllegalArgumentException("Column not found: " + columnNames.get(i));
+                }
+                readers[i] = reader(column);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (ColumnReader reader : readers) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            throw e;
+        }
+        return new RowCursor() {
+            private Row row;
+
+            @Override
+            public boolean next() throws IOException {
+                row = null;
+                while (row == null) {
+                    String[] values = new String[readers.length];
+                    for (int i = 0; i < readers.length; i++) {
+                        if (!readers[i].next()) {
+                            return false;
+                        }
+                        values[i] = readers[i].value();
+                    }
+                    row = new Row(values);
+                    for (String value : values) {
+                        if (value == null) {
+                            row = null;
+                        }
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Row row() {
+                return row;
+            }
+
+            @Override
+            public void close() throws IOException {
+                for (ColumnReader reader : readers) {
+                    reader.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads the values of one column block in row order.
+     */
+    public class ColumnReader implements Closeable {
+
+        private final RandomAccessFile file;
+        private final DataInputStream in;
+        private final String[] dictionary;
+        private final int codeWidth;
+        private long remaining = rowCount;
+        private byte[] scratch = new byte[256];
+        private String value;
+
+        private ColumnReader(int column) throws IOException {
+            file = new RandomAccessFile(cacheFile, "r");
+            file.seek(offsets[column]);
+            in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(file.getChannel()), 1 << 16));
+            if (encodings[column] == DICTIONARY) {
+                dictionary = new String[in.readInt()];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = readString((int) Sidecar.readVarint(in));
+                }
+                codeWidth = in.readByte();
+            } else {
+                dictionary = null;
+                codeWidth = 0;
+            }
+        }
+
+        /**
+         * Advances to the next row.
+         *
+         * @return true if there is a current row, false after the last row.
+         * @throws IOException if the cache cannot be read.
+         */
+        public boolean next() throws IOException {
+            if (remaining == 0) {
+                value = null;
+                return false;
+            }
+            remaining--;
+            if (dictionary != null) {
+                int code = codeWidth == 1 ? in.readUnsignedByte() : in.readUnsignedShort();
+                value = code < dictionary.length ? dictionary[code] : null;
+            } else {
+                int length = (int) Sidecar.readVarint(in) - 1;
+                value = length < 0 ? null : readString(length);
+            }
+            return true;
+        }
+
+        /**
+         * Returns the value of the column in the current row.
+         *
+         * @return The trimmed value, or null if the row has no such column.
+         */
+        public String value() {
+            return value;
+        }
+
+        private String readString(int length) throws IOException {
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            in.readFully(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
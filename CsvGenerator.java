@@ -0,0 +1,173 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Generates CSV files of synthetic data for benchmarks. The same seed and
+ * settings always produce the same file. The first column is a sequential id;
+ * the other columns cycle through four kinds:
+ * <ul>
+ *     <li>keyN - text drawn from a fixed number of distinct values,</li>
+ *     <li>countN - integers from 0 to 99999,</li>
+ *     <li>amountN - decimals with two digits after the point,</li>
+ *     <li>noteN - a few words, quoted and holding a comma or a quote for the
+ *     configured fraction of values.</li>
+ * </ul>
+ * About one note in a hundred contains the word "zebra", so keyword searches
+ * for it match a known share of the rows.
+ *
+ * @author Ajay Shenoy
+ */
+public class CsvGenerator {
+
+    /** The word about one note in a hundred contains. */
+    public static final String RARE_WORD = "zebra";
+
+    private static final String[] WORDS = {
+        "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel",
+        "india", "juliet", "kilo", "lima", "mike", "november", "oscar", "papa",
+        "quebec", "romeo", "sierra", "tango", "uniform", "victor", "whiskey", "yankee"
+    };
+
+    private final long seed;
+    private final int columns;
+    private final double quoting;
+    private final int cardinality;
+
+    /**
+     * Creates a generator.
+     *
+     * @param seed The seed of the random values.
+     * @param columns The number of columns, including the id column.
+     * @param quoting The fraction of notes that are quoted, from 0 to 1.
+     * @param cardinality The number of distinct values of each key column.
+     * @throws IllegalArgumentException if a setting is out of range.
+     */
+    public CsvGenerator(long seed, int columns, double quoting, int cardinality) {
+        if (columns < 1 || quoting < 0 || quoting > 1 || cardinality < 1) {
+            throw new IllegalArgumentException("Invalid generator settings");
+        }
+        this.seed = seed;
+        this.columns = columns;
+        this.quoting = quoting;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * Returns the name of a column.
+     *
+     * @param index The index of the column.
+     * @return The name of the column.
+     */
+    public static String columnName(int index) {
+        if (index == 0) {
+            return "id";
+        }
+        switch ((index - 1) % 4) {
+            case 0:
+                return "key" + index;
+            case 1:
+                return "count" + index;
+            case 2:
+                return "amount" + index;
+            default:
+                return "note" + index;
+        }
+    }
+
+    /**
+     * Returns the names of the columns of the generated files.
+     *
+     * @return The header names.
+     */
+    public String[] headers() {
+        String[] headers = new String[columns];
+        for (int i = 0; i < columns; i++) {
+            headers[i] = columnName(i);
+        }
+        return headers;
+    }
+
+    /**
+     * Writes a file of at least the specified size, stopping after the record
+     * that reaches it.
+     *
+     * @param filename The name of the file to write.
+     * @param size The size of the file in bytes.
+     * @return The number of data rows written.
+     * @throws IOException if the file cannot be written.
+     */
+    public long write(String filename, long size) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder line = new StringBuilder(256);
+        long written = 0;
+        long rows = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16)) {
+            line.append(String.join(",", headers())).append('\n');
+            while (true) {
+                byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                written += bytes.length;
+                if (written >= size) {
+                    break;
+                }
+                line.setLength(0);
+                appendRow(line, rows++, random);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Appends one record, ending with a newline.
+     */
+    private void appendRow(StringBuilder line, long id, SplittableRandom random) {
+        line.append(id);
+        for (int i = 1; i < columns; i++) {
+            line.append(',');
+            switch ((i - 1) % 4) {
+                case 0:
+                    line.append('k').append(random.nextInt(cardinality));
+                    break;
+                case 1:
+                    line.append(random.nextInt(100000));
+                    break;
+                case 2:
+                    int cents = random.nextInt(10000000);
+                    line.append(cents / 100).append('.');
+                    line.append((char) ('0' + cents / 10 % 10)).append((char) ('0' + cents % 10));
+                    break;
+                default:
+                    appendNote(line, random);
+                    break;
+            }
+        }
+        line.append('\n');
+    }
+
+    /**
+     * Appends a note of one to four words, quoted with the configured density.
+     */
+    private void appendNote(StringBuilder line, SplittableRandom random) {
+        boolean quoted = random.nextDouble() < quoting;
+        if (quoted) {
+            line.append('"');
+        }
+        int words = 1 + random.nextInt(4);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                line.append(' ');
+            }
+            line.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        if (random.nextInt(100) == 0) {
+            line.append(' ').append(RARE_WORD);
+        }
+        if (quoted) {
+            line.append(random.nextBoolean() ? ", and more" : " \"\"quoted\"\"").append('"');
+        }
+    }
+}
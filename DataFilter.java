@@ -1,11 +1,27 @@
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Scanner;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.InputMismatchException;
 import java.util.NoSuchElementException;
 
@@ -32,8 +48,8 @@ public class H12CustomApp {
      * @param data The data to write to the file.
      */
     public static void writeToFile(String filename, String data) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename, true))) {
-            writer.println(data);
+        try (RowWriter writer = RowWriter.open(filename, true, " ", false, false)) {
+            writer.writeLine(data);
         } catch (FileNotFoundException e) {
             System.out.println("Error: Unable to write to file");
         } catch (IOException e) {
@@ -41,202 +57,1728 @@ public class H12CustomApp {
         }
     }
 
+    /**
+     * Writes rows to a specified text file, one row per line with the values joined
+     * by the separator. The rows are appended to the file as they are read from the
+     * cursor, if the file does not exist the file will be created. Rows are encoded
+     * into large buffers that are written on another thread (see RowWriter). With
+     * a comma as the separator the file is CSV, so values holding a comma, a quote
+     * or a line break are quoted.
+     *
+     * @param filename The name of the file to write to.
+     * @param rows The rows to write.
+     * @param separator The text to put between the values of a row.
+     */
+    public static void writeToFile(String filename, RowCursor rows, String separator) {
+        try {
+            appendRows(filename, rows, separator);
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: Unable to write to file");
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
+        }
+    }
+
+    /**
+     * Appends rows to a file like writeToFile, but throws if they cannot all be
+     * written.
+     */
+    private static void appendRows(String filename, RowCursor rows, String separator)
+            throws IOException {
+        File file = new File(filename);
+        long sizeBefore = file.length();
+        long writeNanos = 0;
+        try (RowWriter writer = RowWriter.open(filename, true, separator, separator.equals(","),
+                true)) {
+            while (rows.next()) {
+                long start = Metrics.ENABLED ? System.nanoTime() : 0;
+                writer.write(rows.row());
+                if (Metrics.ENABLED) {
+                    writeNanos += System.nanoTime() - start;
+                }
+            }
+        } finally {
+            Metrics.addWrite(file.length() - sizeBefore, writeNanos);
+        }
+    }
+
+    /**
+     * Prints rows to the console, one row per line with the values joined by
+     * the separator.
+     *
+     * @param rows The rows to print.
+     * @param separator The text to put between the values of a row.
+     */
+    public static void printRows(RowCursor rows, String separator) {
+        try {
+            while (rows.next()) {
+                System.out.println(rows.row().join(separator));
+            }
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
+        }
+    }
+
+    /**
+     * Wraps a cursor so that every row is also printed to the console as it is
+     * read, allowing the rows to be shown and written to a file in one pass.
+     * With a comma as the separator the rows are printed as CSV.
+     *
+     * @param rows The rows to print.
+     * @param separator The text to put between the values of a row.
+     * @return A cursor returning the same rows.
+     */
+    public static RowCursor echo(RowCursor rows, String separator) {
+        return new RowCursor() {
+            @Override
+            public boolean next() throws IOException {
+                if (!rows.next()) {
+                    return false;
+                }
+                if (!Metrics.ENABLED) {
+                    System.out.println(line(rows.row(), separator));
+                    return true;
+                }
+                long start = System.nanoTime();
+                System.out.println(line(rows.row(), separator));
+                Metrics.addWrite(0, System.nanoTime() - start);
+                return true;
+            }
+
+            @Override
+            public Row row() {
+                return rows.row();
+            }
+
+            @Override
+            public void close() throws IOException {
+                rows.close();
+            }
+        };
+    }
+
+    /**
+     * Returns a row as it is printed, which with a comma as the separator is a
+     * line of CSV as writeToFile writes it.
+     */
+    private static String line(Row row, String separator) {
+        return separator.equals(",") ? row.toCsv() : row.join(separator);
+    }
+
+    /**
+     * Returns the rows of a cursor as a sequential stream. Closing the stream
+     * closes the cursor, and read errors are thrown as UncheckedIOException.
+     * Rows are detached from the cursor, so they stay valid when collected.
+     *
+     * @param rows The rows to stream.
+     * @return A stream that reads the rows lazily.
+     */
+    public static Stream<Row> stream(RowCursor rows) {
+        Spliterator<Row> spliterator = new Spliterators.AbstractSpliterator<Row>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Row> action) {
+                try {
+                    if (!rows.next()) {
+                        return false;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                action.accept(rows.row().detach());
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                rows.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Finds the index of a column by name within the header row.
+     *
+     * @param headers The header row of the CSV file.
+     * @param columnName The name of the column to find.
+     * @return The index of the column, or -1 if the column does not exist.
+     */
+    private static int findColumnIndex(String[] headers, String columnName) {
+        for (int i = 0; i < headers.length; i++) {
+            if (headers[i].trim().equals(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Opens a cursor over specific columns of a CSV file. Each row holds the trimmed
+     * values of the requested columns in the order they were requested. The header
+     * is resolved once and every record is only split up to the last requested
+     * column, so all columns are read in a single pass. If the file has an up to
+     * date columnar cache (see buildColumnarCache) only the blocks of the requested
+     * columns are read instead. Records too short to contain every requested
+     * column are skipped. A directory or glob reads the columns of each of its
+     * files (see MultiFileScan).
+     *
+     * @param filename The name of the file to read from.
+     * @param columnNames The names of the columns to read.
+     * @return A cursor over the values of the columns.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the header cannot be read.
+     * @throws IllegalArgumentException if any column does not exist.
+     */
+    public static RowCursor openCSVColumns(String filename, List<String> columnNames)
+            throws IOException {
+        if (MultiFileScan.isPattern(filename)) {
+            return MultiFileScan.open(MultiFileScan.files(filename),
+                    (index, file) -> openCSVColumns(file, columnNames));
+        }
+        ColumnarCache cache = ColumnarCache.open(filename);
+        if (cache != null) {
+            return cache.openColumns(columnNames);
+        }
+        CSVParser parser = new CSVParser(filename);
+        try {
+            if (!parser.next()) {
+                return new CSVCursor(parser);
+            }
+            String[] headers = parser.fields();
+            int[] columnIndices = new int[columnNames.size()];
+            int maxIndex = -1;
+            for (int i = 0; i < columnIndices.length; i++) {
+                columnIndices[i] = findColumnIndex(headers, columnNames.get(i));
+                if (columnIndices[i] == -1) {
+                    throw new IllegalArgumentException("Column not found: " + columnNames.get(i));
+                }
+                maxIndex = Math.max(maxIndex, columnIndices[i]);
+            }
+            int minFields = maxIndex + 1;
+            return new CSVCursor(parser, minFields) {
+                @Override
+                protected boolean accept(CSVParser parser) {
+                    return parser.fieldCount() >= minFields;
+                }
+
+                @Override
+                protected Row build(CSVParser parser) {
+                    String[] values = new String[columnIndices.length];
+                    for (int i = 0; i < columnIndices.length; i++) {
+                        values[i] = parser.field(columnIndices[i]).trim();
+                    }
+                    return new Row(values);
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            parser.close();
+            throw e;
+        }
+    }
+
     /**
      * Reads a specific column from a CSV file and returns it as a list of strings.
      *
      * @param filename The name of the file to read from.
-     * @param columnName The name of the column to read.
-     * @return The contents of the specified column or an error message
-     * if the file is not found or the column does not exist.
+     * @param columnName The name of the column to read.
+     * @return The contents of the specified column or an error message
+     * if the file is not found or the column does not exist.
+     */
+    public static ArrayList<String> readCSVColumn(String filename, String columnName) {
+        ArrayList<String> columnData = new ArrayList<>();
+        try (RowCursor rows = openCSVColumns(filename, List.of(columnName))) {
+            while (rows.next()) {
+                columnData.add(rows.row().get(0));
+            }
+        } catch (IllegalArgumentException e) {
+            columnData.add("Error: Column not found");
+        } catch (FileNotFoundException e) {
+            columnData.add("Error: File not found");
+        } catch (IOException e) {
+            columnData.add("Error: I/O error occurred");
+        }
+        return columnData;
+    }
+
+    /**
+     * Reads multiple specific columns from a CSV file and returns contents as a
+     * list of lists.
+     *
+     * @param filename The name of the file to read from.
+     * @param columnNames The names of the columns to read.
+     * @return The contents of the specified columns or an error message
+     * if the file is not found or any column does not exist.
+     */
+    public static ArrayList<ArrayList<String>> readMultipleCSVColumns
+    (String filename, List<String> columnNames) {
+        if (MultiFileScan.isPattern(filename)) {
+            return readMultipleFileColumns(filename, columnNames);
+        }
+        ColumnarCache cache = ColumnarCache.open(filename);
+        if (cache != null) {
+            return readMultipleCachedColumns(cache, columnNames);
+        }
+        ArrayList<ArrayList<String>> columnsData = new ArrayList<>();
+        try (CSVParser parser = new CSVParser(filename)) {
+            if (parser.next()) {
+                String[] headers = parser.fields();
+                ArrayList<Integer> columnIndices = new ArrayList<>();
+                int maxFields = 0;
+                for (String columnName : columnNames) {
+                    int columnIndex = findColumnIndex(headers, columnName);
+                    if (columnIndex == -1) {
+                        columnsData.add(new ArrayList<String>() {{
+                            add("Error: Column not found: " + columnName);
+                        }});
+                    } else {
+                        columnIndices.add(columnIndex);
+                        maxFields = Math.max(maxFields, columnIndex + 1);
+                        // Initialize list for each column
+                        columnsData.add(new ArrayList<>());
+                    }
+                }
+                // Only split each line up to the last requested column
+                while (parser.next(maxFields)) {
+                    for (int i = 0; i < columnIndices.size(); i++) {
+                        int columnIndex = columnIndices.get(i);
+                        if (parser.fieldCount() > columnIndex) {
+                            columnsData.get(i).add(parser.field(columnIndex).trim());
+                        }
+                    }
+                }
+            }
+        } catch (FileNotFoundException e) {
+            for (int i = 0; i < columnNames.size(); i++) {
+                columnsData.add(new ArrayList<String>() {{
+                    add("Error: File not found");
+                }});
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < columnNames.size(); i++) {
+                columnsData.add(new ArrayList<String>() {{
+                    add("Error: I/O error occurred");
+                }});
+            }
+        }
+        return columnsData;
+    }
+
+    /**
+     * Reads multiple columns from the files of a directory or glob in turn,
+     * appending the values of each file to those of the files before it.
+     *
+     * @param filename The directory or glob.
+     * @param columnNames The names of the columns to read.
+     * @return The contents of the specified columns or an error message.
+     */
+    private static ArrayList<ArrayList<String>> readMultipleFileColumns
+    (String filename, List<String> columnNames) {
+        ArrayList<ArrayList<String>> columnsData = new ArrayList<>();
+        String error = null;
+        try {
+            for (String file : MultiFileScan.files(filename)) {
+                ArrayList<ArrayList<String>> fileData = readMultipleCSVColumns(file, columnNames);
+                for (int i = 0; i < fileData.size(); i++) {
+                    if (i == columnsData.size()) {
+                        columnsData.add(fileData.get(i));
+                    } else if (columnsData.get(i).isEmpty()
+                            || !columnsData.get(i).get(0).startsWith("Error: ")) {
+                        // A column missing from the first file is missing from all of them
+                        columnsData.get(i).addAll(fileData.get(i));
+                    }
+                }
+            }
+        } catch (FileNotFoundException e) {
+            error = "Error: File not found";
+        } catch (IllegalArgumentException e) {
+            error = "Error: " + e.getMessage();
+        } catch (IOException e) {
+            error = "Error: I/O error occurred";
+        }
+        if (error != null) {
+            columnsData.clear();
+            for (int i = 0; i < columnNames.size(); i++) {
+                columnsData.add(new ArrayList<>(List.of(error)));
+            }
+        }
+        return columnsData;
+    }
+
+    /**
+     * Reads multiple columns from the columnar cache of a CSV file, reading only
+     * the block of each requested column.
+     *
+     * @param cache The columnar cache of the file.
+     * @param columnNames The names of the columns to read.
+     * @return The contents of the specified columns or an error message
+     * if any column does not exist.
+     */
+    private static ArrayList<ArrayList<String>> readMultipleCachedColumns
+    (ColumnarCache cache, List<String> columnNames) {
+        ArrayList<ArrayList<String>> columnsData = new ArrayList<>();
+        for (String columnName : columnNames) {
+            int columnIndex = cache.columnIndex(columnName);
+            if (columnIndex == -1) {
+                columnsData.add(new ArrayList<String>() {{
+                    add("Error: Column not found: " + columnName);
+                }});
+                continue;
+            }
+            ArrayList<String> columnData = new ArrayList<>();
+            try (ColumnarCache.ColumnReader reader = cache.reader(columnIndex)) {
+                while (reader.next()) {
+                    if (reader.value() != null) {
+                        columnData.add(reader.value());
+                    }
+                }
+            } catch (IOException e) {
+                columnData.add("Error: I/O error occurred");
+            }
+            columnsData.add(columnData);
+        }
+        return columnsData;
+    }
+
+    /**
+     * Converts a CSV file into its columnar cache, which readCSVColumn,
+     * readMultipleCSVColumns and openCSVColumns read instead of the CSV text
+     * until the file changes. Each file of a directory or glob gets its own.
+     *
+     * @param filename The name of the CSV file to convert.
+     * @return true if the cache was written, false otherwise.
+     */
+    public static boolean buildColumnarCache(String filename) {
+        try {
+            for (String file : MultiFileScan.expand(filename)) {
+                long rows = ColumnarCache.build(file);
+                System.out.println("Cached " + rows + " rows of " + file);
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: File not found");
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
+        }
+        return false;
+    }
+
+    /**
+     * Opens a cursor over specific rows of a CSV file by indexes. Indexes count
+     * the rows after the header, starting from 0. If the file has an up to date
+     * row index (see buildRowIndex) the rows are read by seeking directly to
+     * them, otherwise the file is scanned only up to the last requested row.
+     *
+     * @param filename The name of the file to read from.
+     * @param rowIndexes The indexes of the rows to read.
+     * @return A cursor over the rows in file order.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the header cannot be read.
+     */
+    public static RowCursor openCSVRows(String filename, List<Integer> rowIndexes)
+            throws IOException {
+        BitSet requested = new BitSet();
+        for (int rowIndex : rowIndexes) {
+            if (rowIndex >= 0) {
+                requested.set(rowIndex);
+            }
+        }
+        return openCSVRows(filename, requested);
+    }
+
+    /**
+     * Opens a cursor over the rows of a CSV file whose indexes are set in a
+     * bitmap. Indexes count the rows after the header, starting from 0. The rows
+     * of a directory or glob are numbered across its files in order, so the
+     * files up to the last requested row are counted first.
+     *
+     * @param filename The name of the file to read from.
+     * @param requested The indexes of the rows to read.
+     * @return A cursor over the rows in file order.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the header cannot be read.
+     */
+    public static RowCursor openCSVRows(String filename, BitSet requested)
+            throws IOException {
+        if (MultiFileScan.isPattern(filename)) {
+            List<String> files = MultiFileScan.files(filename);
+            long[] counts = MultiFileScan.countRows(files, requested.length());
+            long[] offsets = new long[counts.length];
+            for (int i = 1; i < counts.length; i++) {
+                offsets[i] = offsets[i - 1] + counts[i - 1];
+            }
+            return MultiFileScan.open(files.subList(0, counts.length), (index, file) -> {
+                int from = (int) Math.min(offsets[index], Integer.MAX_VALUE);
+                int to = (int) Math.min(offsets[index] + counts[index], Integer.MAX_VALUE);
+                return openCSVRows(file, requested.get(from, to));
+            });
+        }
+        CSVParser parser = new CSVParser(filename);
+        RowIndex index = RowIndex.open(filename);
+        if (index != null) {
+            return new RowCursor() {
+                private int nextRow = requested.nextSetBit(0);
+                private Row row;
+
+                @Override
+                public boolean next() throws IOException {
+                    if (nextRow < 0 || nextRow >= index.rowCount()) {
+                        row = null;
+                        return false;
+                    }
+                    parser.seek(index.offset(nextRow));
+                    parser.next();
+                    row = parser.row(row);
+                    nextRow = requested.nextSetBit(nextRow + 1);
+                    return true;
+                }
+
+                @Override
+                public Row row() {
+                    return row;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    index.close();
+                    parser.close();
+                }
+            };
+        }
+        try {
+            parser.next(); // Skip the header
+        } catch (IOException e) {
+            parser.close();
+            throw e;
+        }
+        int lastRow = requested.length();
+        return new CSVCursor(parser) {
+            private int rowCounter = 0;
+
+            @Override
+            public boolean next() throws IOException {
+                // Stop once every requested row has been passed
+                return rowCounter < lastRow && super.next();
+            }
+
+            @Override
+            protected boolean accept(CSVParser parser) {
+                return requested.get(rowCounter++);
+            }
+        };
+    }
+
+    /**
+     * Builds or rebuilds the row index sidecar of a CSV file, which lets
+     * readCSVRows and openCSVRows seek directly to requested rows until the
+     * file changes. Each file of a directory or glob gets its own.
+     *
+     * @param filename The name of the CSV file to index.
+     * @return true if the index was written, false otherwise.
+     */
+    public static boolean buildRowIndex(String filename) {
+        try {
+            for (String file : MultiFileScan.expand(filename)) {
+                long rows = RowIndex.build(file);
+                System.out.println("Indexed " + rows + " rows of " + file);
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: File not found");
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
+        }
+        return false;
+    }
+
+    /**
+     * Reads specific rows from a CSV file by indexes and returns as string arrays.
+     *
+     * @param filename The name of the file to read from.
+     * @param rowIndexes The indexes of the rows to read.
+     * @return The contents of the specified rows or an error message
+     * if the file is not found or the headers of its files differ.
+     */
+    public static ArrayList<String[]> readCSVRows
+    (String filename, List<Integer> rowIndexes) {
+        ArrayList<String[]> rowsData = new ArrayList<>();
+        try (RowCursor rows = openCSVRows(filename, rowIndexes)) {
+            while (rows.next()) {
+                rowsData.add(rows.row().toArray());
+            }
+        } catch (FileNotFoundException e) {
+            rowsData.add(new String[]{"Error: File not found"});
+        } catch (IllegalArgumentException e) {
+            rowsData.add(new String[]{"Error: " + e.getMessage()});
+        } catch (IOException e) {
+            rowsData.add(new String[]{"Error: I/O error occurred"});
+        }
+        return rowsData;
+    }
+
+    /**
+     * Reads a numeric column of a CSV file into a primitive array. Position i
+     * holds the value of data row i; empty values, text and records too short to
+     * contain the column are null. Numbers are parsed straight from the mapped
+     * bytes without creating a string per value. If no type is given it is
+     * inferred, starting at INT and widening to LONG or DOUBLE as values require.
+     * With an explicit type, values that do not fit it are null.
+     *
+     * @param filename The name of the file to read from.
+     * @param columnName The name of the column to read.
+     * @param type The type to read the values as, or null to infer it.
+     * @return The values of the column.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if the column does not exist, or its type
+     * is inferred and it holds text but no numbers.
+     */
+    public static TypedColumn readTypedColumn(String filename, String columnName,
+                                              TypedColumn.Type type) throws IOException {
+        try (CSVParser parser = new CSVParser(filename)) {
+            int columnIndex = -1;
+            if (parser.next()) {
+                columnIndex = findColumnIndex(parser.fields(), columnName);
+            }
+            if (columnIndex == -1) {
+                throw new IllegalArgumentException("Column not found: " + columnName);
+            }
+            TypedColumn column = new TypedColumn(type == null ? TypedColumn.Type.INT : type,
+                    type == null);
+            long numbers = 0;
+            long texts = 0;
+            while (parser.next(columnIndex + 1)) {
+                if (parser.fieldCount() <= columnIndex) {
+                    column.appendNull();
+                    continue;
+                }
+                switch (parser.parseNumber(columnIndex)) {
+                    case CSVParser.INTEGER:
+                        column.appendLong(parser.longValue());
+                        numbers++;
+                        break;
+                    case CSVParser.DECIMAL:
+                        column.appendDouble(parser.doubleValue());
+                        numbers++;
+                        break;
+                    case CSVParser.TEXT:
+                        column.appendNull();
+                        texts++;
+                        break;
+                    default:
+                        column.appendNull();
+                        break;
+                }
+            }
+            if (type == null && numbers == 0 && texts > 0) {
+                throw new IllegalArgumentException("Column is not numeric: " + columnName);
+            }
+            return column;
+        }
+    }
+
+    /**
+     * Opens a cursor over the rows of a CSV file whose value in a numeric column
+     * satisfies a comparison. The column is read as primitives (see
+     * readTypedColumn) and compared as numbers, so 9 is less than 10; rows with
+     * no number in the column never match. A directory or glob is read file by
+     * file.
+     *
+     * @param filename The name of the file to read from.
+     * @param columnName The name of the column to compare.
+     * @param comparison The comparison to apply.
+     * @param low The value to compare with, or the lower bound of BETWEEN.
+     * @param high The upper bound of BETWEEN, ignored otherwise.
+     * @return A cursor over the matching rows in file order.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if the column does not exist or is not numeric.
+     */
+    public static RowCursor openRowsInRange(String filename, String columnName,
+                                            TypedColumn.Comparison comparison,
+                                            double low, double high) throws IOException {
+        if (MultiFileScan.isPattern(filename)) {
+            return MultiFileScan.open(MultiFileScan.files(filename), (index, file) ->
+                    openRowsInRange(file, columnName, comparison, low, high));
+        }
+        TypedColumn column = readTypedColumn(filename, columnName, null);
+        return openCSVRows(filename, column.select(comparison, low, high));
+    }
+
+    /**
+     * Opens a cursor over every record of a CSV file, including the header. The
+     * records of a directory or glob include the header of its first file only.
+     *
+     * @param filename The name of the file to read from.
+     * @return A cursor over the records.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the files of a directory or glob cannot be listed.
+     * @throws IllegalArgumentException if the headers of the files differ.
+     */
+    public static RowCursor openWholeCSV(String filename) throws IOException {
+        if (MultiFileScan.isPattern(filename)) {
+            return MultiFileScan.open(MultiFileScan.files(filename), (index, file) -> index == 0
+                    ? openWholeCSV(file) : MultiFileScan.withoutFirst(openWholeCSV(file)));
+        }
+        return new CSVCursor(new CSVParser(filename));
+    }
+
+    /**
+     * Reads the entire CSV file and returns as a list of string arrays.
+     *
+     * @param filename The name of the file to read from.
+     * @return The contents of the CSV file or an error message
+     * if the file is not found or the headers of its files differ.
+     */
+    public static ArrayList<String[]> readWholeCSV(String filename) {
+        ArrayList<String[]> fileData = new ArrayList<>();
+        try (RowCursor rows = openWholeCSV(filename)) {
+            while (rows.next()) {
+                fileData.add(rows.row().toArray());
+            }
+        } catch (FileNotFoundException e) {
+            fileData.add(new String[]{"Error: File not found"});
+        } catch (IllegalArgumentException e) {
+            fileData.add(new String[]{"Error: " + e.getMessage()});
+        } catch (IOException e) {
+            fileData.add(new String[]{"Error: I/O error occurred"});
+        }
+        return fileData;
+    }
+
+    /**
+     * Writes data to a CSV file, includes headers and rows.
+     *
+     * @param filename The name of the file to write to.
+     * @param headers The headers of the CSV file.
+     * @param rows The rows of data to write.
+     * @return true if the file was created, false otherwise.
+     */
+    public static boolean writeCSVFile(String filename, String[] headers,
+                                       ArrayList<String[]> rows) {
+        return writeCSVFile(filename, headers, RowCursor.of(rows));
+    }
+
+    /**
+     * Writes data to a CSV file, includes headers and rows. The rows are written
+     * as they are read from the cursor, encoded into large buffers that are
+     * written on another thread (see RowWriter). Values holding a comma, a quote
+     * or a line break are quoted, so the file reads back as the same values.
+     *
+     * @param filename The name of the file to write to.
+     * @param headers The headers of the CSV file.
+     * @param rows The rows of data to write.
+     * @return true if the file was created, false otherwise.
+     */
+    public static boolean writeCSVFile(String filename, String[] headers, RowCursor rows) {
+        File file = new File(filename);
+        Metrics.Operation tracked = Metrics.start("writeCSVFile", filename);
+        long writeNanos = 0;
+        try (RowWriter writer = RowWriter.open(filename, false, ",", true, true)) {
+            writer.write(headers);
+            while (rows.next()) {
+                long start = Metrics.ENABLED ? System.nanoTime() : 0;
+                writer.write(rows.row());
+                if (Metrics.ENABLED) {
+                    writeNanos += System.nanoTime() - start;
+                }
+                if (tracked != null) {
+                    tracked.addMatched(1);
+                }
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: Unable to write to file");
+            return false;
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
+            return false;
+        } finally {
+            Metrics.addWrite(file.length(), writeNanos);
+            if (tracked != null) {
+                tracked.finish();
+            }
+        }
+    }
+
+    /**
+     * Opens a cursor over the rows of a CSV file that contain the specified
+     * keyword anywhere in the line. If the file has an up to date keyword index
+     * (see buildKeywordIndex) and the keyword is made of letters and digits, only
+     * the rows listed in the index are read. Of a directory or glob, only the
+     * header of the first file can match.
+     *
+     * @param filename The name of the file to read from.
+     * @param keyword The keyword to search for in the rows.
+     * @return A cursor over the matching rows.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the keyword index cannot be read.
+     */
+    public static RowCursor openFilteredRows(String filename, String keyword)
+            throws IOException {
+        if (MultiFileScan.isPattern(filename)) {
+            return openFilteredFiles(filename, keyword);
+        }
+        RowCursor indexed = openIndexedRows(filename, keyword);
+        if (indexed != null) {
+            return indexed;
+        }
+        byte[] needle = keyword.getBytes(StandardCharsets.UTF_8);
+        return new CSVCursor(new CSVParser(filename)) {
+            @Override
+            protected boolean accept(CSVParser parser) {
+                return parser.lineContains(needle);
+            }
+        };
+    }
+
+    /**
+     * Opens a cursor over the rows containing a keyword in the files of a
+     * directory or glob, leaving out the headers after the first.
+     *
+     * @param filename The directory or glob.
+     * @param keyword The keyword to search for in the rows.
+     * @return A cursor over the matching rows.
+     * @throws IOException if the files cannot be listed or the first one read.
+     */
+    private static RowCursor openFilteredFiles(String filename, String keyword)
+            throws IOException {
+        byte[] needle = keyword.getBytes(StandardCharsets.UTF_8);
+        return openLineMatchesInFiles(filename, (index, file) -> openFilteredRows(file, keyword),
+                header -> header.lineContains(needle));
+    }
+
+    /**
+     * Tests the raw text of a record, for searches that can return the header.
+     */
+    private interface LineTest {
+        boolean test(CSVParser parser);
+    }
+
+    /**
+     * Opens a cursor over the rows of the files of a directory or glob that a
+     * line search returns, leaving out the headers after the first: the cursor of
+     * each file returns its header first when the header matches.
+     *
+     * @param filename The directory or glob.
+     * @param opener Opens the search of each file.
+     * @param headerTest Tells whether the search returns the header of a file.
+     * @return A cursor over the matching rows.
+     * @throws IOException if the files cannot be listed or the first one read.
+     */
+    private static RowCursor openLineMatchesInFiles(String filename,
+                                                    MultiFileScan.FileOpener opener,
+                                                    LineTest headerTest) throws IOException {
+        return MultiFileScan.open(MultiFileScan.files(filename), (index, file) -> {
+            RowCursor rows = opener.open(index, file);
+            if (index == 0) {
+                return rows;
+            }
+            try (CSVParser header = new CSVParser(file)) {
+                // A matching header is the first row returned
+                if (header.next(0) && headerTest.test(header)) {
+                    return MultiFileScan.withoutFirst(rows);
+                }
+            } catch (IOException | RuntimeException e) {
+                rows.close();
+                throw e;
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * Opens a cursor over the rows containing a keyword through the keyword index
+     * of a CSV file.
+     *
+     * @param filename The name of the file to read from.
+     * @param keyword The keyword to search for in the rows.
+     * @return A cursor over the matching rows, or null if there is no up to date
+     * index or the keyword cannot be searched through it.
+     * @throws IOException if the index or the file cannot be read.
+     */
+    private static RowCursor openIndexedRows(String filename, String keyword)
+            throws IOException {
+        InvertedIndex index = InvertedIndex.open(filename);
+        return index == null ? null : index.openMatches(keyword);
+    }
+
+    /**
+     * Builds or rebuilds the keyword index sidecar of a CSV file, which lets
+     * filterRowsByKeyword and openFilteredRows read only the rows that contain
+     * a keyword until the file changes. Each file of a directory or glob gets its
+     * own.
+     *
+     * @param filename The name of the CSV file to index.
+     * @return true if the index was written, false otherwise.
+     */
+    public static boolean buildKeywordIndex(String filename) {
+        try {
+            for (String file : MultiFileScan.expand(filename)) {
+                long rows = InvertedIndex.build(file);
+                System.out.println("Indexed the keywords of " + rows + " rows of " + file);
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: File not found");
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
+        }
+        return false;
+    }
+
+    /**
+     * Reads the entire CSV file and returns all rows that contain
+     * the specified keyword.
+     *
+     * @param filename The name of the file to read from.
+     * @param keyword The keyword to search for in the rows.
+     * @return A list of rows containing the keyword.
+     */
+    public static ArrayList<String[]> filterRowsByKeyword(String filename, String keyword) {
+        return filterRowsByKeyword(filename, keyword, false);
+    }
+
+    /**
+     * Opens a cursor over the rows of a CSV file that contain the specified
+     * keyword, optionally scanning ranges of the file in parallel on the common
+     * fork-join pool. Rows are returned in file order either way, and quoted
+     * fields that contain line breaks are read whole either way (see
+     * ParallelScan).
+     *
+     * @param filename The name of the file to read from.
+     * @param keyword The keyword to search for in the rows.
+     * @param parallel true to scan ranges of the file concurrently.
+     * @return A cursor over the matching rows.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be split into ranges.
+     */
+    public static RowCursor openFilteredRows(String filename, String keyword, boolean parallel)
+            throws IOException {
+        if (MultiFileScan.isPattern(filename)) {
+            // The files are scanned concurrently instead of ranges of each file
+            return openFilteredFiles(filename, keyword);
+        }
+        RowCursor indexed = openIndexedRows(filename, keyword);
+        if (indexed != null) {
+            return indexed;
+        }
+        if (!parallel) {
+            return openFilteredRows(filename, keyword);
+        }
+        byte[] needle = keyword.getBytes(StandardCharsets.UTF_8);
+        return ParallelScan.open(filename, parser -> {
+            ArrayList<Row> matches = new ArrayList<>();
+            while (parser.next()) {
+                if (parser.lineContains(needle)) {
+                    matches.add(parser.row(null));
+                }
+            }
+            return matches;
+        });
+    }
+
+    /**
+     * Reads the entire CSV file and returns all rows that contain
+     * the specified keyword, optionally scanning the file in parallel.
+     *
+     * @param filename The name of the file to read from.
+     * @param keyword The keyword to search for in the rows.
+     * @param parallel true to scan ranges of the file concurrently.
+     * @return A list of rows containing the keyword, in file order.
+     */
+    public static ArrayList<String[]> filterRowsByKeyword(String filename, String keyword,
+                                                          boolean parallel) {
+        ArrayList<String[]> filteredRows = new ArrayList<>();
+        try (RowCursor rows = openFilteredRows(filename, keyword, parallel)) {
+            while (rows.next()) {
+                filteredRows.add(rows.row().toArray());
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: File not found");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
+        }
+        return filteredRows;
+    }
+
+    /**
+     * Opens a cursor over the rows of a CSV file that contain the specified token
+     * as a whole word, such as an id: "Boston" matches "Boston, MA" but not
+     * "Bostonian". With an up to date keyword index (see buildKeywordIndex) the
+     * token is looked up in the sorted dictionary instead of checked against
+     * every token, as openFilteredRows must do for a part of a word. Of a
+     * directory or glob, only the header of the first file can match.
+     *
+     * @param filename The name of the file to read from.
+     * @param token The token to search for in the rows.
+     * @return A cursor over the matching rows.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the keyword index cannot be read.
+     */
+    public static RowCursor openTokenRows(String filename, String token) throws IOException {
+        byte[] needle = token.getBytes(StandardCharsets.UTF_8);
+        if (MultiFileScan.isPattern(filename)) {
+            return openLineMatchesInFiles(filename, (index, file) -> openTokenRows(file, token),
+                    header -> header.lineContainsToken(needle));
+        }
+        InvertedIndex index = InvertedIndex.open(filename);
+        RowCursor indexed = index == null ? null : index.openTokenMatches(token);
+        if (indexed != null) {
+            return indexed;
+        }
+        return new CSVCursor(new CSVParser(filename)) {
+            @Override
+            protected boolean accept(CSVParser parser) {
+                return parser.lineContainsToken(needle);
+            }
+        };
+    }
+
+    /**
+     * Reads the entire CSV file and returns all rows that contain the specified
+     * token as a whole word (see openTokenRows).
+     *
+     * @param filename The name of the file to read from.
+     * @param token The token to search for in the rows.
+     * @return A list of rows containing the token, in file order.
+     */
+    public static ArrayList<String[]> filterRowsByToken(String filename, String token) {
+        ArrayList<String[]> filteredRows = new ArrayList<>();
+        try (RowCursor rows = openTokenRows(filename, token)) {
+            while (rows.next()) {
+                filteredRows.add(rows.row().toArray());
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: File not found");
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
+        }
+        return filteredRows;
+    }
+
+    /**
+     * Opens a cursor over the rows of a CSV file that contain any of several
+     * keywords anywhere in the line, finding all of them in one pass over each
+     * line (see KeywordMatcher). Each row ends with an extra value listing the
+     * keywords it contains, separated by semicolons, in the order they were
+     * given. As with openFilteredRows, the header is returned if it contains a
+     * keyword, and of a directory or glob only the header of the first file.
+     *
+     * @param filename The name of the file to read from.
+     * @param keywords The keywords to search for in the rows.
+     * @param ignoreCase true to treat ASCII letters of either case as equal.
+     * @param parallel true to scan ranges of the file concurrently.
+     * @return A cursor over the matching rows in file order.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if there are no keywords.
+     */
+    public static RowCursor openKeywordMatches(String filename, List<String> keywords,
+                                               boolean ignoreCase, boolean parallel)
+            throws IOException {
+        KeywordMatcher matcher = new KeywordMatcher(keywords, ignoreCase);
+        if (!MultiFileScan.isPattern(filename)) {
+            return openKeywordMatches(filename, matcher, parallel);
+        }
+        return openLineMatchesInFiles(filename,
+                (index, file) -> openKeywordMatches(file, matcher, false),
+                header -> header.lineMatches(matcher, null));
+    }
+
+    /**
+     * Opens a cursor over the rows of one CSV file that contain any of the
+     * keywords of a matcher, for openKeywordMatches.
+     */
+    private static RowCursor openKeywordMatches(String filename, KeywordMatcher matcher,
+                                                boolean parallel) throws IOException {
+        if (parallel) {
+            return ParallelScan.open(filename, parser -> {
+                BitSet found = new BitSet();
+                ArrayList<Row> matches = new ArrayList<>();
+                while (parser.next(0)) {
+                    found.clear();
+                    if (parser.lineMatches(matcher, found)) {
+                        parser.splitAll();
+                        matches.add(withKeywords(parser.row(null), matcher, found));
+                    }
+                }
+                return matches;
+            });
+        }
+        BitSet found = new BitSet();
+        return new CSVCursor(new CSVParser(filename), 0) {
+            @Override
+            protected boolean accept(CSVParser parser) throws IOException {
+                found.clear();
+                if (!parser.lineMatches(matcher, found)) {
+                    return false;
+                }
+                parser.splitAll();
+                return true;
+            }
+
+            @Override
+            protected Row build(CSVParser parser) {
+                return withKeywords(parser.row(null), matcher, found);
+            }
+        };
+    }
+
+    /**
+     * Returns a row with the values of another followed by the keywords found.
+     */
+    private static Row withKeywords(Row row, KeywordMatcher matcher, BitSet found) {
+        String[] values = Arrays.copyOf(row.toArray(), row.size() + 1);
+        values[row.size()] = matcher.join(found, ";");
+        return new Row(values);
+    }
+
+    /**
+     * Reads the rows of a CSV file that contain any of several keywords, each
+     * followed by the keywords it contains (see openKeywordMatches).
+     *
+     * @param filename The name of the file to read from.
+     * @param keywords The keywords to search for in the rows.
+     * @param ignoreCase true to treat ASCII letters of either case as equal.
+     * @return The matching rows in file order, or an error message if the file is
+     * not found or there are no keywords.
+     */
+    public static ArrayList<String[]> filterRowsByKeywords(String filename, List<String> keywords,
+                                                           boolean ignoreCase) {
+        ArrayList<String[]> filteredRows = new ArrayList<>();
+        try (RowCursor rows = openKeywordMatches(filename, keywords, ignoreCase, false)) {
+            while (rows.next()) {
+                filteredRows.add(rows.row().toArray());
+            }
+        } catch (FileNotFoundException e) {
+            filteredRows.add(new String[]{"Error: File not found"});
+        } catch (IllegalArgumentException e) {
+            filteredRows.add(new String[]{"Error: " + e.getMessage()});
+        } catch (IOException e) {
+            filteredRows.add(new String[]{"Error: I/O error occurred"});
+        }
+        return filteredRows;
+    }
+
+    /**
+     * Opens a cursor over the rows of a CSV file whose raw text contains a match
+     * of a regular expression. Lines without the literal text every match needs
+     * are skipped without running the expression (see RegexMatcher). As with
+     * openFilteredRows, the header is returned if it matches, and of a directory
+     * or glob only the header of the first file. To match the values of one
+     * column, use the matches clause of a RowFilter.
+     *
+     * @param filename The name of the file to read from.
+     * @param regex The regular expression.
+     * @param parallel true to scan ranges of the file concurrently.
+     * @return A cursor over the matching rows in file order.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if the expression is not valid.
+     */
+    public static RowCursor openRegexMatches(String filename, String regex, boolean parallel)
+            throws IOException {
+        RegexMatcher matcher = new RegexMatcher(regex);
+        if (MultiFileScan.isPattern(filename)) {
+            return openLineMatchesInFiles(filename,
+                    (index, file) -> openRegexMatches(file, regex, false), matcher::matchesLine);
+        }
+        if (parallel) {
+            return ParallelScan.open(filename, parser -> {
+                ArrayList<Row> matches = new ArrayList<>();
+                while (parser.next(0)) {
+                    if (matcher.matchesLine(parser)) {
+                        parser.splitAll();
+                        matches.add(parser.row(null));
+                    }
+                }
+                return matches;
+            });
+        }
+        return new CSVCursor(new CSVParser(filename), 0) {
+            @Override
+            protected boolean accept(CSVParser parser) throws IOException {
+                if (!matcher.matchesLine(parser)) {
+                    return false;
+                }
+                parser.splitAll();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Reads the rows of a CSV file whose raw text contains a match of a regular
+     * expression (see openRegexMatches).
+     *
+     * @param filename The name of the file to read from.
+     * @param regex The regular expression.
+     * @return The matching rows in file order, or an error message if the file is
+     * not found or the expression is not valid.
+     */
+    public static ArrayList<String[]> filterRowsByRegex(String filename, String regex) {
+        ArrayList<String[]> filteredRows = new ArrayList<>();
+        try (RowCursor rows = openRegexMatches(filename, regex, false)) {
+            while (rows.next()) {
+                filteredRows.add(rows.row().toArray());
+            }
+        } catch (FileNotFoundException e) {
+            filteredRows.add(new String[]{"Error: File not found"});
+        } catch (IllegalArgumentException e) {
+            filteredRows.add(new String[]{"Error: " + e.getMessage()});
+        } catch (IOException e) {
+            filteredRows.add(new String[]{"Error: I/O error occurred"});
+        }
+        return filteredRows;
+    }
+
+    /**
+     * Opens a cursor over the data rows of a CSV file that match a filter. Each
+     * record is first split only up to the last column the filter references,
+     * and is split completely only if it matches. If the file has an up to date
+     * zone map (see buildZoneMap), only the blocks of rows that may match by
+     * their statistics are read. The files of a directory or glob are scanned
+     * concurrently instead of ranges of each file.
+     *
+     * @param filename The name of the file to read from.
+     * @param filter The filter the rows must match.
+     * @param parallel true to scan ranges of the file concurrently.
+     * @return A cursor over the matching rows in file order.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if a column of the filter does not exist.
+     */
+    public static RowCursor openMatchingRows(String filename, RowFilter filter,
+                                             boolean parallel) throws IOException {
+        if (MultiFileScan.isPattern(filename)) {
+            return MultiFileScan.open(MultiFileScan.files(filename),
+                    (index, file) -> openMatchingRows(file, filter, false));
+        }
+        String[] headers;
+        try (CSVParser header = new CSVParser(filename)) {
+            headers = header.next() ? header.fields() : new String[0];
+        }
+        RowFilter.Evaluator evaluator = filter.compile(headers);
+        int fieldsNeeded = evaluator.fieldsNeeded();
+        ZoneMap zones = ZoneMap.open(filename);
+        if (parallel && !GzipPipe.isCompressed(filename)) {
+            ParallelScan.ChunkScanner scanner = parser -> {
+                RowFilter.Evaluator chunkEvaluator = filter.compile(headers);
+                ArrayList<Row> matches = new ArrayList<>();
+                while (parser.next(fieldsNeeded)) {
+                    if (parser.recordStart() > 0 && chunkEvaluator.test(parser)) {
+                        parser.splitAll();
+                        matches.add(parser.row(null));
+                    }
+                }
+                return matches;
+            };
+            if (zones == null) {
+                return ParallelScan.open(filename, scanner);
+            }
+            return ParallelScan.open(filename, zones.candidateRanges(evaluator,
+                    ParallelScan.defaultChunkSize(new File(filename).length())), scanner);
+        }
+        long[] ranges = zones == null ? null : zones.candidateRanges(evaluator, Long.MAX_VALUE);
+        CSVParser parser = new CSVParser(filename);
+        try {
+            parser.next(fieldsNeeded); // Skip the header
+        } catch (IOException e) {
+            parser.close();
+            throw e;
+        }
+        if (ranges != null) {
+            parser.seek(ranges.length > 0 ? ranges[0] : Long.MAX_VALUE);
+        }
+        return new CSVCursor(parser, fieldsNeeded) {
+            private int range;
+
+            @Override
+            protected boolean accept(CSVParser parser) throws IOException {
+                if (ranges != null && parser.recordStart() >= ranges[range + 1]) {
+                    // Jump over the blocks that cannot match to the next range
+                    range += 2;
+                    parser.seek(range < ranges.length ? ranges[range] : Long.MAX_VALUE);
+                    return false;
+                }
+                if (!evaluator.test(parser)) {
+                    return false;
+                }
+                parser.splitAll();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Builds or rebuilds the zone map sidecar of a CSV file, which lets
+     * filterRows and openMatchingRows skip the blocks of rows that cannot match
+     * a filter until the file changes. Each file of a directory or glob gets its
+     * own.
+     *
+     * @param filename The name of the CSV file to map.
+     * @return true if the zone map was written, false otherwise.
+     */
+    public static boolean buildZoneMap(String filename) {
+        try {
+            for (String file : MultiFileScan.expand(filename)) {
+                long blocks = ZoneMap.build(file);
+                System.out.println("Mapped " + blocks + " blocks of " + file);
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            System.out.println("Error: File not found");
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
+        }
+        return false;
+    }
+
+    /**
+     * Reads the data rows of a CSV file that match a filter expression (see
+     * RowFilter.parse), such as {@code City = Boston AND Age > 30}.
+     *
+     * @param filename The name of the file to read from.
+     * @param expression The filter expression.
+     * @return The matching rows in file order, or an error message if the file is
+     * not found or the expression is not valid.
+     */
+    public static ArrayList<String[]> filterRows(String filename, String expression) {
+        ArrayList<String[]> filteredRows = new ArrayList<>();
+        try (RowCursor rows = openMatchingRows(filename, RowFilter.parse(expression), false)) {
+            while (rows.next()) {
+                filteredRows.add(rows.row().toArray());
+            }
+        } catch (FileNotFoundException e) {
+            filteredRows.add(new String[]{"Error: File not found"});
+        } catch (IllegalArgumentException e) {
+            filteredRows.add(new String[]{"Error: " + e.getMessage()});
+        } catch (IOException e) {
+            filteredRows.add(new String[]{"Error: I/O error occurred"});
+        }
+        return filteredRows;
+    }
+
+    /**
+     * Opens a cursor over the groups of a CSV file (see HashAggregate). Each row
+     * holds the values of the group columns followed by the aggregates, such as
+     * count, sum(Age), min(Age) or max(Age), in the order requested. The files of
+     * a directory or glob are aggregated as one.
+     *
+     * @param filename The name of the file to read from.
+     * @param groupColumns The names of the columns to group by; none for one group.
+     * @param aggregates The aggregates to compute.
+     * @param parallel true to aggregate ranges of the file concurrently.
+     * @return A cursor over the groups.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if a column does not exist or an aggregate is
+     * not valid.
+     */
+    public static RowCursor openGroupedRows(String filename, List<String> groupColumns,
+                                            List<String> aggregates, boolean parallel)
+            throws IOException {
+        return HashAggregate.open(MultiFileScan.files(filename), groupColumns, aggregates,
+                parallel);
+    }
+
+    /**
+     * Groups the rows of a CSV file and computes aggregates for each group.
+     *
+     * @param filename The name of the file to read from.
+     * @param groupColumns The names of the columns to group by; none for one group.
+     * @param aggregates The aggregates to compute, such as count or sum(Age).
+     * @return The group values and aggregates of every group, or an error message
+     * if the file is not found or a column or aggregate is not valid.
      */
-    public static ArrayList<String> readCSVColumn(String filename, String columnName) {
-        ArrayList<String> columnData = new ArrayList<>();
-        File file = new File(filename);
-        try (Scanner scanner = new Scanner(file)) {
-            if (scanner.hasNextLine()) {
-                String[] headers = scanner.nextLine().split(",");
-                int columnIndex = -1;
-                for (int i = 0; i < headers.length; i++) {
-                    if (headers[i].trim().equals(columnName)) {
-                        columnIndex = i;
-                        break;
-                    }
-                }
-                if (columnIndex == -1) {
-                    columnData.add("Error: Column not found");
-                    return columnData;
-                }
-                while (scanner.hasNextLine()) {
-                    String[] values = scanner.nextLine().split(",");
-                    if (values.length > columnIndex) {
-                        columnData.add(values[columnIndex].trim());
-                    }
-                }
+    public static ArrayList<String[]> groupRows(String filename, List<String> groupColumns,
+                                                List<String> aggregates) {
+        ArrayList<String[]> groups = new ArrayList<>();
+        try (RowCursor rows = openGroupedRows(filename, groupColumns, aggregates, false)) {
+            while (rows.next()) {
+                groups.add(rows.row().toArray());
             }
         } catch (FileNotFoundException e) {
-            columnData.add("Error: File not found");
+            groups.add(new String[]{"Error: File not found"});
+        } catch (IllegalArgumentException e) {
+            groups.add(new String[]{"Error: " + e.getMessage()});
+        } catch (IOException e) {
+            groups.add(new String[]{"Error: I/O error occurred"});
         }
-        return columnData;
+        return groups;
     }
 
     /**
-     * Reads multiple specific columns from a CSV file and returns contents as a
-     * list of lists.
+     * Opens a cursor over the profile of columns of a CSV file (see
+     * ColumnProfile), found in one pass and fixed memory. Each row holds a column
+     * name, its number of values, its estimated number of distinct values and the
+     * minimum, estimated 50th, 95th and 99th percentiles and maximum of its
+     * numbers, as named by ColumnProfile.SUMMARY_HEADERS. The files of a
+     * directory or glob are profiled as one.
      *
      * @param filename The name of the file to read from.
-     * @param columnNames The names of the columns to read.
-     * @return The contents of the specified columns or an error message
-     * if the file is not found or any column does not exist.
+     * @param columnNames The names of the columns to profile; none for every column.
+     * @param parallel true to profile ranges of the file concurrently.
+     * @return A cursor over one row per column.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if a column does not exist.
      */
-    public static ArrayList<ArrayList<String>> readMultipleCSVColumns
-    (String filename, List<String> columnNames) {
-        ArrayList<ArrayList<String>> columnsData = new ArrayList<>();
-        File file = new File(filename);
-        try (Scanner scanner = new Scanner(file)) {
-            if (scanner.hasNextLine()) {
-                String[] headers = scanner.nextLine().split(",");
-                ArrayList<Integer> columnIndices = new ArrayList<>();
-                for (String columnName : columnNames) {
-                    int columnIndex = -1;
-                    for (int i = 0; i < headers.length; i++) {
-                        if (headers[i].trim().equals(columnName)) {
-                            columnIndex = i;
-                            break;
-                        }
-                    }
-                    if (columnIndex == -1) {
-                        columnsData.add(new ArrayList<String>() {{
-                            add("Error: Column not found: " + columnName);
-                        }});
-                    } else {
-                        columnIndices.add(columnIndex);
-                        // Initialize list for each column
-                        columnsData.add(new ArrayList<>());
-                    }
-                }
-                while (scanner.hasNextLine()) {
-                    String[] values = scanner.nextLine().split(",");
-                    for (int i = 0; i < columnIndices.size(); i++) {
-                        int columnIndex = columnIndices.get(i);
-                        if (values.length > columnIndex) {
-                            columnsData.get(i).add(values[columnIndex].trim());
-                        }
-                    }
-                }
+    public static RowCursor openColumnProfile(String filename, List<String> columnNames,
+                                              boolean parallel) throws IOException {
+        return RowCursor.of(ColumnProfile.scan(MultiFileScan.files(filename), columnNames, 0,
+                parallel).summary());
+    }
+
+    /**
+     * Profiles columns of a CSV file (see openColumnProfile).
+     *
+     * @param filename The name of the file to read from.
+     * @param columnNames The names of the columns to profile; none for every column.
+     * @return One row per column, or an error message if the file is not found or
+     * a column does not exist.
+     */
+    public static ArrayList<String[]> profileColumns(String filename, List<String> columnNames) {
+        ArrayList<String[]> profile = new ArrayList<>();
+        try (RowCursor rows = openColumnProfile(filename, columnNames, false)) {
+            while (rows.next()) {
+                profile.add(rows.row().toArray());
             }
         } catch (FileNotFoundException e) {
-            for (int i = 0; i < columnNames.size(); i++) {
-                columnsData.add(new ArrayList<String>() {{
-                    add("Error: File not found");
-                }});
-            }
+            profile.add(new String[]{"Error: File not found"});
+        } catch (IllegalArgumentException e) {
+            profile.add(new String[]{"Error: " + e.getMessage()});
+        } catch (IOException e) {
+            profile.add(new String[]{"Error: I/O error occurred"});
         }
-        return columnsData;
+        return profile;
     }
 
     /**
-     * Reads specific rows from a CSV file by indexes and returns as string arrays.
+     * Opens a cursor over a uniform sample of the data rows of a CSV file, in
+     * file order, keeping no more than the sample in memory (see ColumnProfile).
+     * The same file always gives the same sample. The files of a directory or
+     * glob are sampled as one.
      *
      * @param filename The name of the file to read from.
-     * @param rowIndexes The indexes of the rows to read.
-     * @return The contents of the specified rows or an error message
-     * if the file is not found.
+     * @param sampleSize The number of rows to sample.
+     * @param parallel true to sample ranges of the file concurrently.
+     * @return A cursor over the sampled rows; every row if there are no more.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if the sample size is negative.
      */
-    public static ArrayList<String[]> readCSVRows
-    (String filename, List<Integer> rowIndexes) {
-        ArrayList<String[]> rowsData = new ArrayList<>();
-        File file = new File(filename);
-        try (Scanner scanner = new Scanner(file)) {
-            if (scanner.hasNextLine()) {
-                String[] headers = scanner.nextLine().split(",");
-                int rowCounter = 0;
-                while (scanner.hasNextLine()) {
-                    if (rowIndexes.contains(rowCounter)) {
-                        rowsData.add(scanner.nextLine().split(","));
-                    } else {
-                        scanner.nextLine(); // Skip the line
-                    }
-                    rowCounter++;
-                }
+    public static RowCursor openSampledRows(String filename, int sampleSize, boolean parallel)
+            throws IOException {
+        ArrayList<String[]> sample = new ArrayList<>();
+        for (Row row : ColumnProfile.sample(MultiFileScan.files(filename), sampleSize,
+                parallel)) {
+            sample.add(row.toArray());
+        }
+        return RowCursor.of(sample);
+    }
+
+    /**
+     * Samples the data rows of a CSV file (see openSampledRows).
+     *
+     * @param filename The name of the file to read from.
+     * @param sampleSize The number of rows to sample.
+     * @return The sampled rows in file order, or an error message if the file is
+     * not found or the sample size is negative.
+     */
+    public static ArrayList<String[]> sampleRows(String filename, int sampleSize) {
+        ArrayList<String[]> sample = new ArrayList<>();
+        try (RowCursor rows = openSampledRows(filename, sampleSize, false)) {
+            while (rows.next()) {
+                sample.add(rows.row().toArray());
             }
         } catch (FileNotFoundException e) {
-            rowsData.add(new String[]{"Error: File not found"});
+            sample.add(new String[]{"Error: File not found"});
+        } catch (IllegalArgumentException e) {
+            sample.add(new String[]{"Error: " + e.getMessage()});
+        } catch (IOException e) {
+            sample.add(new String[]{"Error: I/O error occurred"});
         }
-        return rowsData;
+        return sample;
     }
 
     /**
-     * Reads the entire CSV file and returns as a list of string arrays.
+     * Opens a cursor over the data rows of a CSV file sorted by one or more keys
+     * (see ExternalSort), such as "City" or "Age number desc". With a limit only
+     * the first rows are found, keeping no more than that many rows in memory;
+     * otherwise files larger than the memory budget are sorted in runs on disk.
+     * The files of a directory or glob are sorted as one.
      *
-     * @param filename The name of the file to read from.
-     * @return The contents of the CSV file or an error message
-     * if the file is not found.
+     * @param filename The name of the file to sort.
+     * @param keys The sort keys, most significant first.
+     * @param limit The number of rows to return, or 0 for every row.
+     * @return A cursor over the sorted rows.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be read or sorted.
+     * @throws IllegalArgumentException if a column does not exist.
      */
-    public static ArrayList<String[]> readWholeCSV(String filename) {
-        ArrayList<String[]> fileData = new ArrayList<>();
-        File file = new File(filename);
-        try (Scanner scanner = new Scanner(file)) {
-            while (scanner.hasNextLine()) {
-                fileData.add(scanner.nextLine().split(","));
+    public static RowCursor openSortedRows(String filename, List<String> keys, int limit)
+            throws IOException {
+        List<String> files = MultiFileScan.files(filename);
+        if (limit > 0) {
+            return ExternalSort.openTop(files, keys, limit);
+        }
+        return ExternalSort.open(files, keys, ExternalSort.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Reads the data rows of a CSV file sorted by one or more keys.
+     *
+     * @param filename The name of the file to sort.
+     * @param keys The sort keys, most significant first, such as "Age number desc".
+     * @param limit The number of rows to return, or 0 for every row.
+     * @return The sorted rows, or an error message if the file is not found or a
+     * column does not exist.
+     */
+    public static ArrayList<String[]> sortRows(String filename, List<String> keys, int limit) {
+        ArrayList<String[]> sortedRows = new ArrayList<>();
+        try (RowCursor rows = openSortedRows(filename, keys, limit)) {
+            while (rows.next()) {
+                sortedRows.add(rows.row().toArray());
             }
         } catch (FileNotFoundException e) {
-            fileData.add(new String[]{"Error: File not found"});
+            sortedRows.add(new String[]{"Error: File not found"});
+        } catch (IllegalArgumentException e) {
+            sortedRows.add(new String[]{"Error: " + e.getMessage()});
+        } catch (IOException e) {
+            sortedRows.add(new String[]{"Error: I/O error occurred"});
         }
-        return fileData;
+        return sortedRows;
     }
 
     /**
-     * Writes data to a CSV file, includes headers and rows.
+     * Opens a cursor over the rows of an equi-join of two CSV files (see
+     * HashJoin). Each row holds the columns of the left file followed by the
+     * columns of the right file other than its key; a left join also returns the
+     * left rows without a match, with empty right columns. The smaller file is
+     * held in a hash table, partitioned on disk if it exceeds the memory budget.
      *
-     * @param filename The name of the file to write to.
-     * @param headers The headers of the CSV file.
-     * @param rows The rows of data to write.
-     * @return true if the file was created, false otherwise.
+     * @param leftFilename The name of the left file, or a directory or glob.
+     * @param rightFilename The name of the right file, or a directory or glob.
+     * @param leftKey The key column of the left file.
+     * @param rightKey The key column of the right file.
+     * @param type Whether left rows without a match are returned.
+     * @return A cursor over the joined rows.
+     * @throws FileNotFoundException if a file is not found.
+     * @throws IOException if a file cannot be read or partitioned.
+     * @throws IllegalArgumentException if a key column does not exist.
      */
-    public static boolean writeCSVFile(String filename, String[] headers,
-                                       ArrayList<String[]> rows) {
-        File file = new File(filename);
-        try (PrintWriter writer = new PrintWriter(file)) {
-            for (String header : headers) {
-                writer.print(header + ",");
+    public static RowCursor openJoinedRows(String leftFilename, String rightFilename,
+                                           String leftKey, String rightKey, HashJoin.Type type)
+            throws IOException {
+        return HashJoin.open(MultiFileScan.files(leftFilename),
+                MultiFileScan.files(rightFilename), leftKey, rightKey, type,
+                HashJoin.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Joins the rows of two CSV files on equal values of a key column.
+     *
+     * @param leftFilename The name of the left file.
+     * @param rightFilename The name of the right file.
+     * @param leftKey The key column of the left file.
+     * @param rightKey The key column of the right file.
+     * @param type Whether left rows without a match are returned.
+     * @return The joined rows, or an error message if a file is not found or a
+     * key column does not exist.
+     */
+    public static ArrayList<String[]> joinRows(String leftFilename, String rightFilename,
+                                               String leftKey, String rightKey,
+                                               HashJoin.Type type) {
+        ArrayList<String[]> joinedRows = new ArrayList<>();
+        try (RowCursor rows = openJoinedRows(leftFilename, rightFilename, leftKey, rightKey,
+                type)) {
+            while (rows.next()) {
+                joinedRows.add(rows.row().toArray());
             }
-            writer.println();
-            for (String[] row : rows) {
-                for (String value : row) {
-                    writer.print(value + ",");
+        } catch (FileNotFoundException e) {
+            joinedRows.add(new String[]{"Error: File not found"});
+        } catch (IllegalArgumentException e) {
+            joinedRows.add(new String[]{"Error: " + e.getMessage()});
+        } catch (IOException e) {
+            joinedRows.add(new String[]{"Error: I/O error occurred"});
+        }
+        return joinedRows;
+    }
+
+    /**
+     * Follows a CSV file that is being appended to, writing the rows of each batch
+     * of new records to the output file and the console as soon as the file changes.
+     * Changes are picked up from file system notifications, with a poll every
+     * second as a fallback. Runs until the thread is interrupted or an error occurs.
+     * The checkpoint of the scan is only saved once a batch is written, so rows a
+     * failed write lost are read again by the next run.
+     *
+     * @param filename The name of the CSV file to follow.
+     * @param outputFilename The name of the file to append the rows to.
+     * @param scan The incremental scan producing the rows.
+     * @param separator The text to put between the values of a row.
+     */
+    public static void followToFile(String filename, String outputFilename, FollowScan scan,
+                                    String separator) {
+        Path path = Paths.get(filename).toAbsolutePath();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            while (!Thread.currentThread().isInterrupted()) {
+                try (RowCursor rows = scan.poll()) {
+                    appendRows(outputFilename, echo(rows, separator), separator);
                 }
-                writer.println();
+                // Only once the rows are written, so a failed write loses none
+                scan.commit();
+                awaitChange(watcher, path.getFileName());
             }
-            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (FileNotFoundException e) {
-            System.out.println("Error: Unable to write to file");
-            return false;
+            System.out.println("Error: File not found");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
         }
     }
 
     /**
-     * Reads the entire CSV file and returns all rows that contain
-     * the specified keyword.
-     *
-     * @param filename The name of the file to read from.
-     * @param keyword The keyword to search for in the rows.
-     * @return A list of rows containing the keyword.
+     * Waits up to a second for the followed file to change. Events for other
+     * files in its directory, such as the checkpoint or the output file, are
+     * ignored, so writing them does not wake the follower.
      */
-    public static ArrayList<String[]> filterRowsByKeyword(String filename, String keyword) {
-        ArrayList<String[]> filteredRows = new ArrayList<>();
-        File file = new File(filename);
-        try (Scanner scanner = new Scanner(file)) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                if (line.contains(keyword)) {
-                    String[] values = line.split(",");
-                    filteredRows.add(values);
+    private static void awaitChange(WatchService watcher, Path name) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            WatchKey key = watcher.poll(remaining, TimeUnit.NANOSECONDS);
+            if (key == null) {
+                return;
+            }
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                        || name.equals(event.context())) {
+                    changed = true;
                 }
             }
+            key.reset();
+            if (changed) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Opens a cursor for an operation, may throw if the operation cannot start.
+     */
+    private interface CursorSource {
+        RowCursor open() throws IOException;
+    }
+
+    /**
+     * Runs an operation and streams its rows to the console and the output file
+     * in one pass, printing an error message if the operation fails. The
+     * operation is tracked by Metrics until its rows are written.
+     *
+     * @param outputFilename The name of the file to append the rows to.
+     * @param separator The text to put between the values of a row.
+     * @param operation The name of the operation for Metrics.
+     * @param readFilename The name of the file the operation reads.
+     * @param source Opens the cursor of the operation.
+     */
+    private static void outputRows(String outputFilename, String separator, String operation,
+                                   String readFilename, CursorSource source) {
+        Metrics.Operation tracked = Metrics.start(operation, readFilename);
+        try (RowCursor rows = Metrics.count(tracked, source.open())) {
+            writeToFile(outputFilename, echo(rows, separator), separator);
         } catch (FileNotFoundException e) {
             System.out.println("Error: File not found");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
+        } finally {
+            if (tracked != null) {
+                tracked.finish();
+            }
+        }
+    }
+
+    /**
+     * Runs the queries given on the command line over a file in one scan,
+     * printing the number of rows written by each query or an error message.
+     *
+     * @param args --batch, the data file, then a query file or -e and a query for
+     *             each query.
+     */
+    private static void runBatch(String[] args) {
+        if (args.length < 3 || !args[0].equals("--batch")) {
+            System.out.println("Usage: --batch <data file> <query file>");
+            System.out.println("       --batch <data file> -e <query> [-e <query>]...");
+            return;
+        }
+        String readFilename = args[1];
+        try {
+            List<String> queries = new ArrayList<>();
+            if (args[2].equals("-e")) {
+                for (int i = 2; i < args.length; i += 2) {
+                    if (!args[i].equals("-e") || i + 1 >= args.length) {
+                        System.out.println("Error: Expected -e <query> at " + args[i]);
+                        return;
+                    }
+                    queries.add(args[i + 1]);
+                }
+            } else {
+                queries = BatchScan.readQueries(args[2]);
+            }
+            long[] rows = BatchScan.run(readFilename, queries);
+            for (int i = 0; i < rows.length; i++) {
+                System.out.println(queries.get(i) + ": " + rows[i] + " rows");
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            System.out.println("Error: File not found");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error: I/O error occurred");
+        }
+    }
+
+    /**
+     * Starts the HTTP server and keeps it running until the process is stopped.
+     *
+     * @param args --server, then optionally the port and the cache size in
+     *             megabytes.
+     */
+    private static void runServer(String[] args) {
+        int port = Server.DEFAULT_PORT;
+        long cacheMegabytes = Runtime.getRuntime().maxMemory() / 2 >> 20;
+        try {
+            if (args.length > 1) {
+                port = Integer.parseInt(args[1]);
+            }
+            if (args.length > 2) {
+                cacheMegabytes = Long.parseLong(args[2]);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: --server [port] [cache size in MB]");
+            return;
+        }
+        try {
+            Server server = new Server(port, cacheMegabytes << 20,
+                    Runtime.getRuntime().availableProcessors() * 2);
+            System.out.println("Serving on http://localhost:" + server.port() +
+                    "/ with a " + cacheMegabytes + " MB cache");
+        } catch (IOException e) {
+            System.out.println("Error: Unable to listen on port " + port);
         }
-        return filteredRows;
     }
 
     /**
@@ -245,9 +1787,21 @@ public class H12CustomApp {
      * If there is an error or invalid input, will ask question again or
      * exit the method via return.
      *
-     * @param args Command-line arguments (not used).
+     * @param args Command-line arguments; none for the interactive menu,
+     *             --batch followed by the data file and a query file or -e and a
+     *             query for each query, to run queries in one scan (see BatchScan),
+     *             or --server with an optional port and cache size in megabytes,
+     *             to serve the operations over HTTP (see Server).
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--server")) {
+            runServer(args);
+            return;
+        }
+        if (args.length > 0) {
+            runBatch(args);
+            return;
+        }
         Scanner input = new Scanner(System.in);
 
         // Step 1: Enter the filename to create to write the output to
@@ -272,7 +1826,8 @@ public class H12CustomApp {
         // Step 2: Enter the filename of the data to use
         String readFilename;
         try {
-            System.out.println("Enter the filename of the data you want to use:");
+            System.out.println("Enter the filename of the data you want to use " +
+                    "(or a directory or glob of files with the same header):");
             if (input.hasNextLine()) {
                 readFilename = input.nextLine().trim();
                 if (readFilename.isEmpty()) {
@@ -299,35 +1854,43 @@ public class H12CustomApp {
             System.out.println("3. Print multiple specific rows");
             System.out.println("4. Print all rows containing a specific keyword");
             System.out.println("5. Print the whole CSV");
+            System.out.println("6. Build the row index of the CSV (speeds up option 3)");
+            System.out.println("7. Build the columnar cache of the CSV (speeds up options 1, 2)");
+            System.out.println("8. Build the keyword index of the CSV (speeds up option 4)");
+            System.out.println("9. Follow the CSV, printing appended rows containing a keyword");
+            System.out.println("10. Follow the CSV, printing specific columns of appended rows");
+            System.out.println("11. Print all rows whose numeric column satisfies a condition");
+            System.out.println("12. Print all rows matching a filter expression");
+            System.out.println("13. Print counts, sums, minimums or maximums per group");
+            System.out.println("14. Print the rows sorted by specific columns");
+            System.out.println("15. Print the rows joined with the rows of another CSV");
+            System.out.println("16. Build the zone map of the CSV (speeds up option 12)");
+            System.out.println("17. Print all rows containing any of several keywords");
+            System.out.println("18. Print all rows matching a regular expression");
+            System.out.println("19. Print distinct counts and percentiles of columns");
+            System.out.println("20. Print a random sample of rows");
 
             String inputOption = input.nextLine();
             try {
                 option = Integer.parseInt(inputOption);
-                if (option >= 1 && option <= 5) {
+                if (option >= 1 && option <= 20) {
                     validOption = true;
                 } else {
                     System.out.println("Error: Invalid option. Please enter a " +
-                            "number between 1 and 5.");
+                            "number between 1 and 20.");
                 }
             } catch (NumberFormatException e) {
                 System.out.println("Error: Invalid input. Please enter a valid integer.");
             }
         }
 
-        StringBuilder result = new StringBuilder(); // Capture output here
-
         switch (option) {
             case 1:
                 System.out.println("Enter the column name to read:");
                 String columnName1 = input.nextLine().trim();
                 if (!columnName1.isEmpty()) {
-                    ArrayList<String> columnData = readCSVColumn(readFilename, columnName1);
-                    StringBuilder result1 = new StringBuilder();
-                    for (String data : columnData) {
-                        System.out.println(data);
-                        result1.append(data).append("\n");
-                    }
-                    writeToFile(outputFilename, result1.toString()); // Write results to file
+                    outputRows(outputFilename, " ", "readCSVColumn", readFilename,
+                            () -> openCSVColumns(readFilename, List.of(columnName1)));
                 } else {
                     System.out.println("Error: Column name cannot be empty.");
                 }
@@ -337,17 +1900,13 @@ public class H12CustomApp {
                 System.out.println("Enter column names to read, separated by commas:");
                 String[] columnNames = input.nextLine().split(",");
                 if (columnNames.length > 0) {
-                    StringBuilder result2 = new StringBuilder();
+                    ArrayList<String> columns = new ArrayList<>();
                     for (String columnName : columnNames) {
-                        ArrayList<String> columnData2 =
-                                readCSVColumn(readFilename, columnName.trim());
-                        result2.append("Column: ").append(columnName).append("\n");
-                        for (String data : columnData2) {
-                            System.out.println(data);
-                            result2.append(data).append("\n");
-                        }
+                        columns.add(columnName.trim());
                     }
-                    writeToFile(outputFilename, result2.toString()); // Write results to file
+                    writeToFile(outputFilename, "Columns: " + String.join(" ", columns));
+                    outputRows(outputFilename, " ", "readMultipleCSVColumns", readFilename,
+                            () -> openCSVColumns(readFilename, columns));
                 } else {
                     System.out.println("Error: Column names cannot be empty.");
                 }
@@ -358,31 +1917,17 @@ public class H12CustomApp {
                         "separated by commas (starting from 1):");
                 String[] rowNumbers = input.nextLine().split(",");
                 if (rowNumbers.length > 0) {
-                    ArrayList<String[]> rows = new ArrayList<>();
-                    try (Scanner scanner = new Scanner(new File(readFilename))) {
-                        int currentRow = 1;
-                        while (scanner.hasNextLine()) {
-                            String[] values = scanner.nextLine().split(",");
-                            for (String rowNumber : rowNumbers) {
-                                if (Integer.parseInt(rowNumber.trim()) == currentRow) {
-                                    rows.add(values);
-                                }
-                            }
-                            currentRow++;
-                        }
-                    } catch (FileNotFoundException e) {
-                        System.out.println("Error: File not found");
-                    }
-                    StringBuilder result3 = new StringBuilder();
-                    for (String[] row : rows) {
-                        for (String value : row) {
-                            System.out.print(value + " ");
-                            result3.append(value).append(" ");
+                    ArrayList<Integer> rowIndexes = new ArrayList<>();
+                    try {
+                        for (String rowNumber : rowNumbers) {
+                            rowIndexes.add(Integer.parseInt(rowNumber.trim()) - 1);
                         }
-                        System.out.println();
-                        result3.append("\n");
+                    } catch (NumberFormatException e) {
+                        System.out.println("Error: Invalid input. Please enter valid integers.");
+                        break;
                     }
-                    writeToFile(outputFilename, result3.toString()); // Write results to file
+                    outputRows(outputFilename, " ", "readCSVRows", readFilename,
+                            () -> openCSVRows(readFilename, rowIndexes));
                 } else {
                     System.out.println("Error: Row numbers cannot be empty.");
                 }
@@ -392,34 +1937,283 @@ public class H12CustomApp {
                 System.out.println("Enter the keyword to search for:");
                 String keyword = input.nextLine().trim();
                 if (!keyword.isEmpty()) {
-                    ArrayList<String[]> filteredRows = filterRowsByKeyword(readFilename, keyword);
-                    StringBuilder result4 = new StringBuilder();
-                    for (String[] row : filteredRows) {
-                        for (String value : row) {
-                            System.out.print(value + " ");
-                            result4.append(value).append(" ");
-                        }
-                        System.out.println();
-                        result4.append("\n");
-                    }
-                    writeToFile(outputFilename, result4.toString()); // Write results to file
+                    outputRows(outputFilename, " ", "filterRowsByKeyword", readFilename,
+                            () -> openFilteredRows(readFilename, keyword, true));
                 } else {
                     System.out.println("Error: Keyword cannot be empty.");
                 }
                 break;
 
             case 5:
-                try (Scanner scanner = new Scanner(new File(readFilename))) {
-                    StringBuilder result5 = new StringBuilder();
-                    while (scanner.hasNextLine()) {
-                        String line = scanner.nextLine();
-                        System.out.println(line);
-                        result5.append(line).append("\n");
+                outputRows(outputFilename, ",", "readWholeCSV", readFilename,
+                        () -> openWholeCSV(readFilename));
+                break;
+
+            case 6:
+                buildRowIndex(readFilename);
+                break;
+
+            case 7:
+                buildColumnarCache(readFilename);
+                break;
+
+            case 8:
+                buildKeywordIndex(readFilename);
+                break;
+
+            case 9:
+                if (MultiFileScan.isPattern(readFilename)) {
+                    System.out.println("Error: Only a single file can be followed.");
+                    break;
+                }
+                System.out.println("Enter the keyword to search for:");
+                String followKeyword = input.nextLine().trim();
+                if (!followKeyword.isEmpty()) {
+                    try {
+                        FollowScan scan = FollowScan.keyword(readFilename,
+                                outputFilename + ".checkpoint", followKeyword);
+                        System.out.println("Following " + readFilename + ", press Ctrl+C to stop.");
+                        followToFile(readFilename, outputFilename, scan, " ");
+                    } catch (IOException e) {
+                        System.out.println("Error: I/O error occurred");
+                    }
+                } else {
+                    System.out.println("Error: Keyword cannot be empty.");
+                }
+                break;
+
+            case 10:
+                if (MultiFileScan.isPattern(readFilename)) {
+                    System.out.println("Error: Only a single file can be followed.");
+                    break;
+                }
+                System.out.println("Enter column names to read, separated by commas:");
+                ArrayList<String> followColumns = new ArrayList<>();
+                for (String columnName : input.nextLine().split(",")) {
+                    if (!columnName.trim().isEmpty()) {
+                        followColumns.add(columnName.trim());
+                    }
+                }
+                if (!followColumns.isEmpty()) {
+                    try {
+                        FollowScan scan = FollowScan.columns(readFilename,
+                                outputFilename + ".checkpoint", followColumns);
+                        System.out.println("Following " + readFilename + ", press Ctrl+C to stop.");
+                        followToFile(readFilename, outputFilename, scan, " ");
+                    } catch (IOException e) {
+                        System.out.println("Error: I/O error occurred");
+                    }
+                } else {
+                    System.out.println("Error: Column names cannot be empty.");
+                }
+                break;
+
+            case 11:
+                System.out.println("Enter the numeric column name to compare:");
+                String rangeColumn = input.nextLine().trim();
+                if (rangeColumn.isEmpty()) {
+                    System.out.println("Error: Column name cannot be empty.");
+                    break;
+                }
+                System.out.println("Enter the condition (e.g. > 30, < 2.5, = 7, between 10 20):");
+                String[] condition = input.nextLine().trim().split("\\s+");
+                TypedColumn.Comparison comparison;
+                double low;
+                double high;
+                try {
+                    comparison = TypedColumn.Comparison.parse(condition[0]);
+                    int operands = comparison == TypedColumn.Comparison.BETWEEN ? 2 : 1;
+                    if (condition.length != operands + 1) {
+                        throw new IllegalArgumentException();
+                    }
+                    low = Double.parseDouble(condition[1]);
+                    high = operands == 2 ? Double.parseDouble(condition[2]) : low;
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Error: Invalid condition.");
+                    break;
+                }
+                outputRows(outputFilename, " ", "openRowsInRange", readFilename,
+                        () -> openRowsInRange(readFilename, rangeColumn, comparison, low, high));
+                break;
+
+            case 12:
+                System.out.println("Enter the filter (e.g. City = Boston AND " +
+                        "(Age > 30 OR Name startswith A)):");
+                String expression = input.nextLine().trim();
+                if (!expression.isEmpty()) {
+                    outputRows(outputFilename, " ", "filterRows", readFilename,
+                            () -> openMatchingRows(readFilename, RowFilter.parse(expression),
+                                    true));
+                } else {
+                    System.out.println("Error: Filter cannot be empty.");
+                }
+                break;
+
+            case 13:
+                System.out.println("Enter column names to group by, separated by commas " +
+                        "(leave empty for one group):");
+                ArrayList<String> groupColumns = new ArrayList<>();
+                for (String columnName : input.nextLine().split(",")) {
+                    if (!columnName.trim().isEmpty()) {
+                        groupColumns.add(columnName.trim());
+                    }
+                }
+                System.out.println("Enter aggregates, separated by commas " +
+                        "(e.g. count, sum(Age), min(Age), max(Age)):");
+                ArrayList<String> aggregates = new ArrayList<>();
+                for (String aggregate : input.nextLine().split(",")) {
+                    if (!aggregate.trim().isEmpty()) {
+                        aggregates.add(aggregate.trim());
+                    }
+                }
+                if (!aggregates.isEmpty()) {
+                    ArrayList<String> columns = new ArrayList<>(groupColumns);
+                    columns.addAll(aggregates);
+                    writeToFile(outputFilename, "Columns: " + String.join(" ", columns));
+                    outputRows(outputFilename, " ", "groupRows", readFilename,
+                            () -> openGroupedRows(readFilename, groupColumns, aggregates, true));
+                } else {
+                    System.out.println("Error: Aggregates cannot be empty.");
+                }
+                break;
+
+            case 14:
+                System.out.println("Enter the columns to sort by, separated by commas " +
+                        "(e.g. City, Age number desc):");
+                ArrayList<String> sortKeys = new ArrayList<>();
+                for (String sortKey : input.nextLine().split(",")) {
+                    if (!sortKey.trim().isEmpty()) {
+                        sortKeys.add(sortKey.trim());
                     }
-                    writeToFile(outputFilename, result5.toString()); // Write results to file
+                }
+                if (sortKeys.isEmpty()) {
+                    System.out.println("Error: Columns cannot be empty.");
+                    break;
+                }
+                System.out.println("Enter the number of rows to print (leave empty for all):");
+                String limitText = input.nextLine().trim();
+                int limit;
+                try {
+                    limit = limitText.isEmpty() ? 0 : Integer.parseInt(limitText);
+                } catch (NumberFormatException e) {
+                    System.out.println("Error: Invalid input. Please enter a valid integer.");
+                    break;
+                }
+                outputRows(outputFilename, " ", "sortRows", readFilename,
+                        () -> openSortedRows(readFilename, sortKeys, limit));
+                break;
+
+            case 15:
+                System.out.println("Enter the filename of the CSV to join with:");
+                String joinFilename = input.nextLine().trim();
+                System.out.println("Enter the key column, or the key columns of both " +
+                        "files separated by a comma (e.g. Id or CustomerId, Id):");
+                String[] joinKeys = input.nextLine().split(",");
+                System.out.println("Enter the join type (inner or left, leave empty for inner):");
+                String joinType = input.nextLine().trim();
+                if (joinFilename.isEmpty() || joinKeys[0].trim().isEmpty()) {
+                    System.out.println("Error: Filename and key column cannot be empty.");
+                    break;
+                }
+                String leftKey = joinKeys[0].trim();
+                String rightKey = joinKeys.length > 1 ? joinKeys[1].trim() : leftKey;
+                HashJoin.Type type;
+                try {
+                    type = joinType.isEmpty() ? HashJoin.Type.INNER : HashJoin.Type.parse(joinType);
+                    writeToFile(outputFilename, "Columns: " + String.join(" ", HashJoin.headers(
+                            MultiFileScan.files(readFilename), MultiFileScan.files(joinFilename),
+                            leftKey, rightKey)));
                 } catch (FileNotFoundException e) {
                     System.out.println("Error: File not found");
+                    break;
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Error: " + e.getMessage());
+                    break;
+                } catch (IOException e) {
+                    System.out.println("Error: I/O error occurred");
+                    break;
+                }
+                outputRows(outputFilename, " ", "joinRows", readFilename,
+                        () -> openJoinedRows(readFilename, joinFilename, leftKey, rightKey, type));
+                break;
+
+            case 16:
+                buildZoneMap(readFilename);
+                break;
+
+            case 17:
+                System.out.println("Enter the keywords separated by commas, or @ followed by " +
+                        "the name of a file with one keyword per line:");
+                String keywordInput = input.nextLine().trim();
+                System.out.println("Ignore case? (y/n, leave empty for no):");
+                boolean ignoreCase = input.nextLine().trim().equalsIgnoreCase("y");
+                List<String> keywords = new ArrayList<>();
+                if (keywordInput.startsWith("@")) {
+                    try {
+                        keywords = KeywordMatcher.readKeywords(keywordInput.substring(1).trim());
+                    } catch (IOException e) {
+                        System.out.println("Error: Keyword file not found");
+                        break;
+                    }
+                } else {
+                    for (String word : keywordInput.split(",")) {
+                        if (!word.trim().isEmpty()) {
+                            keywords.add(word.trim());
+                        }
+                    }
+                }
+                if (keywords.isEmpty()) {
+                    System.out.println("Error: Keywords cannot be empty.");
+                    break;
+                }
+                List<String> searchKeywords = keywords;
+                outputRows(outputFilename, " ", "filterRowsByKeywords", readFilename,
+                        () -> openKeywordMatches(readFilename, searchKeywords, ignoreCase, true));
+                break;
+
+            case 18:
+                System.out.println("Enter the regular expression (e.g. @example\\.com$):");
+                String regex = input.nextLine().trim();
+                System.out.println("Enter the column to match (leave empty for the whole row):");
+                String regexColumn = input.nextLine().trim();
+                if (regex.isEmpty()) {
+                    System.out.println("Error: Regular expression cannot be empty.");
+                } else if (regexColumn.isEmpty()) {
+                    outputRows(outputFilename, " ", "filterRowsByRegex", readFilename,
+                            () -> openRegexMatches(readFilename, regex, true));
+                } else {
+                    outputRows(outputFilename, " ", "filterRows", readFilename,
+                            () -> openMatchingRows(readFilename,
+                                    RowFilter.matches(regexColumn, regex), true));
+                }
+                break;
+
+            case 19:
+                System.out.println("Enter column names to profile, separated by commas " +
+                        "(leave empty for every column):");
+                ArrayList<String> profileColumns = new ArrayList<>();
+                for (String columnName : input.nextLine().split(",")) {
+                    if (!columnName.trim().isEmpty()) {
+                        profileColumns.add(columnName.trim());
+                    }
+                }
+                writeToFile(outputFilename,
+                        "Columns: " + String.join(" ", ColumnProfile.SUMMARY_HEADERS));
+                outputRows(outputFilename, " ", "profileColumns", readFilename,
+                        () -> openColumnProfile(readFilename, profileColumns, true));
+                break;
+
+            case 20:
+                System.out.println("Enter the number of rows to sample:");
+                int sampleSize;
+                try {
+                    sampleSize = Integer.parseInt(input.nextLine().trim());
+                } catch (NumberFormatException e) {
+                    System.out.println("Error: Invalid input. Please enter a valid integer.");
+                    break;
                 }
+                outputRows(outputFilename, " ", "sampleRows", readFilename,
+                        () -> openSampledRows(readFilename, sampleSize, true));
                 break;
 
             default:
@@ -0,0 +1,487 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the data rows of a CSV file by one or more columns, in files larger than
+ * the heap. Each key is written as column, column desc, column number or column
+ * number desc: text keys compare the trimmed values by Unicode code point, and
+ * number keys compare numerically with empty and non-numeric values last.
+ *
+ * Every record is turned into a binary sort key whose bytes compare in the
+ * requested order, so sorting never parses values twice. Records are collected
+ * up to a memory budget, sorted, and written as a run to a temporary file; the
+ * runs are then merged with a priority queue, in several passes if there are
+ * more than 64. The top rows alone are found with a bounded heap that only
+ * keeps the rows that can still be in the result. Sorting is stable. Several
+ * files with the same header are sorted as one, read one after another, with
+ * ties kept in the order of the files.
+ *
+ * @author Ajay Shenoy
+ */
+public class ExternalSort {
+
+    /** The default number of bytes of rows kept in memory before a run is written. */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    private static final int MAX_FAN_IN = 64;
+
+    /** The estimated heap overhead of one buffered row, on top of its bytes. */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final int[] indexes;
+    private final boolean[] numeric;
+    private final boolean[] descending;
+    private final int fieldsNeeded;
+    private byte[] key = new byte[64];
+    private byte[] field = new byte[64];
+    private int keyLength;
+
+    private ExternalSort(String[] headers, List<String> keys) {
+        indexes = new int[keys.size()];
+        numeric = new boolean[keys.size()];
+        descending = new boolean[keys.size()];
+        int fields = 0;
+        for (int k = 0; k < indexes.length; k++) {
+            String[] parts = keys.get(k).trim().split("\\s+");
+            List<String> words = new ArrayList<>(Arrays.asList(parts));
+            String last = words.get(words.size() - 1).toLowerCase(Locale.ROOT);
+            if (words.size() > 1 && (last.equals("asc") || last.equals("desc"))) {
+                descending[k] = last.equals("desc");
+                words.remove(words.size() - 1);
+                last = words.get(words.size() - 1).toLowerCase(Locale.ROOT);
+            }
+            if (words.size() > 1 && (last.equals("number") || last.equals("text"))) {
+                numeric[k] = last.equals("number");
+                words.remove(words.size() - 1);
+            }
+            String column = String.join(" ", words);
+            indexes[k] = -1;
+            for (int i = 0; i < headers.length; i++) {
+                if (headers[i].trim().equals(column)) {
+                    indexes[k] = i;
+                    break;
+                }
+            }
+            if (indexes[k] == -1) {
+                throw new IllegalArgumentException("Column not found: " + column);
+            }
+            fields = Math.max(fields, indexes[k] + 1);
+        }
+        fieldsNeeded = fields;
+    }
+
+    /**
+     * Opens a cursor over the data rows of a CSV file in sorted order.
+     *
+     * @param filename The name of the file to sort.
+     * @param keys The sort keys, most significant first, such as "Age number desc".
+     * @param memoryBudget The number of bytes of rows to sort in memory at a time.
+     * @return A cursor over the sorted rows.
+     * @throws IOException if the file cannot be read or a run cannot be written.
+     * @throws IllegalArgumentException if a column does not exist.
+     */
+    public static RowCursor open(String filename, List<String> keys, long memoryBudget)
+            throws IOException {
+        return open(List.of(filename), keys, memoryBudget);
+    }
+
+    /**
+     * Opens a cursor over the data rows of several CSV files with the same
+     * header, sorted as one file. The header is read from the first file that
+     * has one.
+     *
+     * @param filenames The names of the files to sort.
+     * @param keys The sort keys, most significant first, such as "Age number desc".
+     * @param memoryBudget The number of bytes of rows to sort in memory at a time.
+     * @return A cursor over the sorted rows.
+     * @throws IOException if a file cannot be read or a run cannot be written.
+     * @throws IllegalArgumentException if a column does not exist.
+     */
+    public static RowCursor open(List<String> filenames, List<String> keys, long memoryBudget)
+            throws IOException {
+        ExternalSort sort = null;
+        Path directory = null;
+        try {
+            List<Entry> entries = new ArrayList<>();
+            List<Path> runs = new ArrayList<>();
+            long used = 0;
+            for (int f = 0; f < filenames.size(); f++) {
+                long rows = 0;
+                try (CSVParser parser = new CSVParser(filenames.get(f))) {
+                    if (!parser.next()) {
+                        continue;
+                    }
+                    if (sort == null) {
+                        sort = new ExternalSort(parser.fields(), keys);
+                    }
+                    while (parser.next()) {
+                        rows++;
+                        sort.encodeKey(parser);
+                        entries.add(new Entry(Arrays.copyOf(sort.key, sort.keyLength),
+                                parser.row(null), 0));
+                        used += sort.keyLength + parser.lineLength()
+                                + 9L * parser.fieldCount() + ENTRY_OVERHEAD;
+                        if (used >= memoryBudget) {
+                            if (directory == null) {
+                                directory = Files.createTempDirectory("sort");
+                            }
+                            runs.add(writeRun(directory, sortEntries(entries).iterator()));
+                            entries.clear();
+                            used = 0;
+                        }
+                    }
+                }
+                if (filenames.size() > 1) {
+                    MultiFileScan.progress(filenames.get(f), f, filenames.size(), rows);
+                }
+            }
+            if (sort == null) {
+                return RowCursor.of(new ArrayList<>());
+            }
+            if (runs.isEmpty()) {
+                return cursor(sortEntries(entries).iterator(), null);
+            }
+            runs.add(writeRun(directory, sortEntries(entries).iterator()));
+            entries.clear();
+            while (runs.size() > MAX_FAN_IN) {
+                // Merge the oldest runs into one that takes their place, keeping ties stable
+                List<Path> oldest = runs.subList(0, MAX_FAN_IN);
+                RunMerger merger = new RunMerger(oldest);
+                Path merged;
+                try {
+                    merged = writeRun(directory, merger);
+                } finally {
+                    merger.close();
+                }
+                for (Path run : oldest) {
+                    Files.delete(run);
+                }
+                oldest.clear();
+                runs.add(0, merged);
+            }
+            RunMerger merger = new RunMerger(runs);
+            Path spillDirectory = directory;
+            directory = null;
+            return cursor(merger, () -> {
+                merger.close();
+                deleteDirectory(spillDirectory);
+            });
+        } finally {
+            if (directory != null) {
+                deleteDirectory(directory);
+            }
+        }
+    }
+
+    /**
+     * Opens a cursor over the first rows of a CSV file in sorted order, without
+     * sorting the whole file. Only the best limit rows seen so far are kept.
+     *
+     * @param filename The name of the file to read from.
+     * @param keys The sort keys, most significant first, such as "Age number desc".
+     * @param limit The number of rows to return.
+     * @return A cursor over at most limit rows in sorted order.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if a column does not exist.
+     */
+    public static RowCursor openTop(String filename, List<String> keys, int limit)
+            throws IOException {
+        return openTop(List.of(filename), keys, limit);
+    }
+
+    /**
+     * Opens a cursor over the first rows of several CSV files with the same
+     * header in sorted order, as if they were one file.
+     *
+     * @param filenames The names of the files to read from.
+     * @param keys The sort keys, most significant first, such as "Age number desc".
+     * @param limit The number of rows to return.
+     * @return A cursor over at most limit rows in sorted order.
+     * @throws IOException if a file cannot be read.
+     * @throws IllegalArgumentException if a column does not exist.
+     */
+    public static RowCursor openTop(List<String> filenames, List<String> keys, int limit)
+            throws IOException {
+        if (limit <= 0) {
+            return RowCursor.of(new ArrayList<>());
+        }
+        ExternalSort sort = null;
+        // The worst kept row is at the head, so it is the one to replace
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.min(limit, 1 << 16) + 1,
+                Comparator.<Entry>naturalOrder().reversed());
+        long sequence = 0;
+        for (int f = 0; f < filenames.size(); f++) {
+            long rows = 0;
+            try (CSVParser parser = new CSVParser(filenames.get(f))) {
+                if (!parser.next()) {
+                    continue;
+                }
+                if (sort == null) {
+                    sort = new ExternalSort(parser.fields(), keys);
+                }
+                while (parser.next(sort.fieldsNeeded)) {
+                    rows++;
+                    sequence++;
+                    sort.encodeKey(parser);
+                    if (heap.size() == limit && Arrays.compareUnsigned(sort.key, 0,
+                            sort.keyLength, heap.peek().key, 0, heap.peek().key.length) >= 0) {
+                        continue;
+                    }
+                    parser.splitAll();
+                    heap.add(new Entry(Arrays.copyOf(sort.key, sort.keyLength),
+                            parser.row(null), sequence));
+                    if (heap.size() > limit) {
+                        heap.poll();
+                    }
+                }
+            }
+            if (filenames.size() > 1) {
+                MultiFileScan.progress(filenames.get(f), f, filenames.size(), rows);
+            }
+        }
+        Entry[] top = heap.toArray(new Entry[0]);
+        Arrays.sort(top);
+        return cursor(Arrays.asList(top).iterator(), null);
+    }
+
+    /**
+     * Builds the sort key of the parser's current record in key and keyLength.
+     * Each text key is its trimmed bytes with zero bytes escaped as 0x00 0xFF,
+     * ended by 0x00 0x01. Each number key is 0x00 followed by the sortable bits
+     * of the value as a double and the difference between an integer and that
+     * double, or 0x01 if the value is not a number. Descending keys invert
+     * every byte after the number flag.
+     */
+    private void encodeKey(CSVParser parser) {
+        keyLength = 0;
+        for (int k = 0; k < indexes.length; k++) {
+            int index = indexes[k];
+            boolean present = index < parser.fieldCount();
+            int start;
+            if (numeric[k]) {
+                ensureKey(17);
+                int kind = present ? parser.parseNumber(index) : CSVParser.EMPTY;
+                if (kind != CSVParser.INTEGER && kind != CSVParser.DECIMAL) {
+                    key[keyLength++] = 1;
+                    continue;
+                }
+                key[keyLength++] = 0;
+                start = keyLength;
+                double value = parser.doubleValue();
+                long difference = 0;
+                if (kind == CSVParser.INTEGER) {
+                    difference = parser.longValue() - (long) value;
+                }
+                long bits = Double.doubleToLongBits(value == 0 ? 0.0 : value);
+                putLong(bits ^ ((bits >> 63) | Long.MIN_VALUE));
+                putLong(difference ^ Long.MIN_VALUE);
+            } else {
+                int length = 0;
+                if (present) {
+                    if (field.length < parser.fieldLength(index)) {
+                        field = new byte[Math.max(parser.fieldLength(index), 2 * field.length)];
+                    }
+                    length = parser.copyField(index, field);
+                }
+                ensureKey(2 * length + 2);
+                start = keyLength;
+                for (int i = 0; i < length; i++) {
+                    key[keyLength++] = field[i];
+                    if (field[i] == 0) {
+                        key[keyLength++] = (byte) 0xFF;
+                    }
+                }
+                key[keyLength++] = 0;
+                key[keyLength++] = 1;
+            }
+            if (descending[k]) {
+                for (int i = start; i < keyLength; i++) {
+                    key[i] = (byte) ~key[i];
+                }
+            }
+        }
+    }
+
+    private void ensureKey(int extra) {
+        if (key.length < keyLength + extra) {
+            key = Arrays.copyOf(key, Math.max(keyLength + extra, 2 * key.length));
+        }
+    }
+
+    private void putLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            key[keyLength++] = (byte) (value >>> shift);
+        }
+    }
+
+    /**
+     * A row with its sort key. Entries with equal keys keep the order of their
+     * sequence numbers.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        final byte[] key;
+        final Row row;
+        final long sequence;
+
+        Entry(byte[] key, Row row, long sequence) {
+            this.key = key;
+            this.row = row;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int order = Arrays.compareUnsigned(key, other.key);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static List<Entry> sortEntries(List<Entry> entries) {
+        // List.sort is stable, so rows with equal keys stay in file order
+        entries.sort((a, b) -> Arrays.compareUnsigned(a.key, b.key));
+        return entries;
+    }
+
+    /**
+     * Writes sorted entries to a new run file.
+     */
+    private static Path writeRun(Path directory, Iterator<Entry> entries) throws IOException {
+        Path run = Files.createTempFile(directory, "run", ".sort");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(run), 1 << 16))) {
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                Sidecar.writeVarint(out, entry.key.length);
+                out.write(entry.key);
+                entry.row.write(out);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Merges sorted run files into one sorted sequence. Entries with equal keys
+     * are taken from the earlier run first.
+     */
+    private static final class RunMerger implements Iterator<Entry> {
+        private final List<DataInputStream> inputs = new ArrayList<>();
+        private final PriorityQueue<Entry> heads = new PriorityQueue<>();
+
+        RunMerger(List<Path> runs) throws IOException {
+            try {
+                for (Path run : runs) {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(
+                            Files.newInputStream(run), 1 << 16));
+                    inputs.add(in);
+                    advance(inputs.size() - 1);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Reads the next entry of a run into the queue, using the run number as
+         * its sequence.
+         */
+        private void advance(int run) throws IOException {
+            DataInputStream in = inputs.get(run);
+            int length;
+            try {
+                length = (int) Sidecar.readVarint(in);
+            } catch (EOFException e) {
+                return;
+            }
+            byte[] key = new byte[length];
+            in.readFully(key);
+            heads.add(new Entry(key, Row.read(in), run));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Entry next() {
+            Entry entry = heads.poll();
+            try {
+                advance((int) entry.sequence);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return entry;
+        }
+
+        void close() throws IOException {
+            for (DataInputStream in : inputs) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Runs when a sorted cursor is closed.
+     */
+    private interface Cleanup {
+        void run() throws IOException;
+    }
+
+    private static RowCursor cursor(Iterator<Entry> entries, Cleanup cleanup) {
+        return new RowCursor() {
+            private Row row;
+
+            @Override
+            public boolean next() throws IOException {
+                if (!entries.hasNext()) {
+                    row = null;
+                    return false;
+                }
+                try {
+                    row = entries.next().row;
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                return true;
+            }
+
+            @Override
+            public Row row() {
+                return row;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (cleanup != null) {
+                    cleanup.run();
+                }
+            }
+        };
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+}
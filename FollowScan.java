@@ -0,0 +1,256 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Incrementally scans a CSV file that is only ever appended to, such as a log.
+ * Each poll reads the complete records added since the last commit and maps
+ * them to rows. Once the rows are handled, commit checkpoints the offset of the
+ * last record read so the next poll, or a later run with the same checkpoint
+ * file, starts after it; rows that were never committed are read again. A record
+ * still being written (no line terminator yet) is left for a later poll. If the
+ * file shrinks below the checkpoint it is assumed to have been replaced and is
+ * read again from the start.
+ *
+ * @author Ajay Shenoy
+ */
+public class FollowScan {
+
+    /**
+     * Turns a record into the row emitted for it, if any.
+     */
+    public interface RecordMapper {
+        /**
+         * Maps the current record of a parser.
+         *
+         * @param parser The parser positioned on the record.
+         * @return The row to emit, or null to skip the record.
+         * @throws IOException if the record or the file cannot be read.
+         */
+        Row map(CSVParser parser) throws IOException;
+    }
+
+    private final String filename;
+    private final Path checkpoint;
+    private final RecordMapper mapper;
+    private long offset;
+    private long saved;
+
+    /**
+     * Creates a scan that resumes from the offset saved in the checkpoint file, or
+     * from the start of the file if there is no checkpoint yet.
+     *
+     * @param filename The name of the CSV file to follow.
+     * @param checkpointFilename The file the processed offset is saved to.
+     * @param mapper Maps each new record to the row emitted for it.
+     * @throws IOException if the checkpoint file cannot be read.
+     */
+    public FollowScan(String filename, String checkpointFilename, RecordMapper mapper)
+            throws IOException {
+        this.filename = filename;
+        this.checkpoint = Paths.get(checkpointFilename);
+        this.mapper = mapper;
+        if (Files.isRegularFile(checkpoint)) {
+            try {
+                offset = Long.parseLong(Files.readString(checkpoint).trim());
+            } catch (NumberFormatException e) {
+                offset = 0;
+            }
+        }
+        saved = offset;
+    }
+
+    /**
+     * Creates a scan that emits the new rows containing a keyword.
+     *
+     * @param filename The name of the CSV file to follow.
+     * @param checkpointFilename The file the processed offset is saved to.
+     * @param keyword The keyword to search for in the rows.
+     * @return The scan.
+     * @throws IOException if the checkpoint file cannot be read.
+     */
+    public static FollowScan keyword(String filename, String checkpointFilename, String keyword)
+            throws IOException {
+        byte[] needle = keyword.getBytes(StandardCharsets.UTF_8);
+        return new FollowScan(filename, checkpointFilename,
+                parser -> parser.lineContains(needle) ? parser.row(null) : null);
+    }
+
+    /**
+     * Creates a scan that emits the trimmed values of specific columns of the new
+     * rows. The header is resolved when the first record is read, so the file may
+     * still be empty when the scan is created.
+     *
+     * @param filename The name of the CSV file to follow.
+     * @param checkpointFilename The file the processed offset is saved to.
+     * @param columnNames The names of the columns to read.
+     * @return The scan.
+     * @throws IOException if the checkpoint file cannot be read.
+     */
+    public static FollowScan columns(String filename, String checkpointFilename,
+                                     List<String> columnNames) throws IOException {
+        return new FollowScan(filename, checkpointFilename, new RecordMapper() {
+            private int[] columnIndices;
+            private int minFields;
+
+            @Override
+            public Row map(CSVParser parser) throws IOException {
+                if (parser.recordStart() == 0) {
+                    resolve(parser.fields());
+                    return null;
+                }
+                if (columnIndices == null) {
+                    try (CSVParser header = new CSVParser(filename)) {
+                        header.next();
+                        resolve(header.fields());
+                    }
+                }
+                if (parser.fieldCount() < minFields) {
+                    return null;
+                }
+                String[] values = new String[columnIndices.length];
+                for (int i = 0; i < columnIndices.length; i++) {
+                    values[i] = parser.field(columnIndices[i]).trim();
+                }
+                return new Row(values);
+            }
+
+            private void resolve(String[] headers) {
+                columnIndices = new int[columnNames.size()];
+                minFields = 0;
+                for (int i = 0; i < columnIndices.length; i++) {
+                    columnIndices[i] = -1;
+                    for (int h = 0; h < headers.length; h++) {
+                        if (headers[h].trim().equals(columnNames.get(i))) {
+                            columnIndices[i] = h;
+                            break;
+                        }
+                    }
+                    if (columnIndices[i] == -1) {
+                        columnIndices = null;
+                        throw new IllegalArgumentException(
+                                "Column not found: " + columnNames.get(i));
+                    }
+                    minFields = Math.max(minFields, columnIndices[i] + 1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the offset up to which the file has been processed.
+     *
+     * @return The offset just past the last record read.
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * Opens a cursor over the rows of the complete records appended since the
+     * last commit. The offset advances as rows are read, but is only saved by
+     * commit.
+     *
+     * @return A cursor over the new rows.
+     * @throws IOException if the file cannot be read.
+     */
+    public RowCursor poll() throws IOException {
+        offset = saved;
+        long complete = completeLength();
+        if (complete < offset) {
+            offset = 0; // The file was truncated or replaced
+        }
+        CSVParser parser = new CSVParser(filename, offset, complete);
+        return new RowCursor() {
+            private Row row;
+
+            @Override
+            public boolean next() throws IOException {
+                while (parser.next()) {
+                    if (parser.recordEnd() > complete) {
+                        // A quoted line break; the record is not finished yet
+                        break;
+                    }
+                    offset = parser.recordEnd();
+                    row = mapper.map(parser);
+                    if (row != null) {
+                        return true;
+                    }
+                }
+                row = null;
+                return false;
+            }
+
+            @Override
+            public Row row() {
+                return row;
+            }
+
+            @Override
+            public void close() throws IOException {
+                parser.close();
+            }
+        };
+    }
+
+    /**
+     * Saves the offset of the last record read, once its rows have been handled,
+     * so they are not read again.
+     *
+     * @throws IOException if the checkpoint file cannot be written.
+     */
+    public void commit() throws IOException {
+        saveCheckpoint();
+    }
+
+    /**
+     * Saves the offset to the checkpoint file, replacing it atomically so a run
+     * stopped mid-write never leaves a damaged checkpoint behind. Nothing is
+     * written when the offset has not moved since it was last saved.
+     */
+    private void saveCheckpoint() throws IOException {
+        if (offset == saved) {
+            return;
+        }
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.writeString(temp, Long.toString(offset));
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        saved = offset;
+    }
+
+    /**
+     * Returns the length of the file up to the end of its last line terminator.
+     * A trailing CR is not counted since the LF of a CRLF may not be written yet.
+     */
+    private long completeLength() throws IOException {
+        File csv = new File(filename);
+        if (!csv.isFile()) {
+            return 0;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(csv, "r")) {
+            long length = file.length();
+            byte[] buffer = new byte[8192];
+            long end = length;
+            while (end > 0) {
+                int size = (int) Math.min(buffer.length, end);
+                file.seek(end - size);
+                file.readFully(buffer, 0, size);
+                for (int i = size - 1; i >= 0; i--) {
+                    long position = end - size + i;
+                    if (buffer[i] == '\n' || (buffer[i] == '\r' && position < length - 1)) {
+                        return position + 1;
+                    }
+                }
+                end -= size;
+            }
+            return 0;
+        }
+    }
+}
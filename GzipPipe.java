@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip streams whose inflating or deflating runs on a thread of its own, so
+ * that it overlaps with the parsing or formatting done by the caller. The two
+ * threads pass large buffers through a small ring: filled buffers go one way
+ * and empty buffers come back, so memory stays at a few buffers however large
+ * the file.
+ *
+ * @author Ajay Shenoy
+ */
+public class GzipPipe {
+
+    /** The size of each buffer of the ring. */
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    /** The number of buffers in the ring. */
+    public static final int BUFFERS = 4;
+
+    /**
+     * A buffer in the ring, or the end of the data when length is -1, or a
+     * failure of the other thread when error is set.
+     */
+    private static class Chunk {
+
+        final byte[] bytes;
+        int length;
+        Throwable error;
+
+        Chunk(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private GzipPipe() {
+    }
+
+    /**
+     * Checks whether a file is gzip compressed, by its name.
+     *
+     * @param filename The name of the file.
+     * @return true if the name ends with .gz.
+     */
+    public static boolean isCompressed(String filename) {
+        return filename.toLowerCase().endsWith(".gz");
+    }
+
+    /**
+     * Returns the decompressed contents of a gzip stream, inflated ahead of the
+     * reader on another thread. Closing the returned stream stops the thread
+     * and closes the compressed stream.
+     *
+     * @param compressed The gzip stream.
+     * @return The decompressed data.
+     */
+    public static InputStream inflate(InputStream compressed) {
+        BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(BUFFERS + 1);
+        BlockingQueue<Chunk> empty = new ArrayBlockingQueue<>(BUFFERS);
+        for (int i = 0; i < BUFFERS; i++) {
+            empty.add(new Chunk(new byte[BUFFER_SIZE]));
+        }
+        Thread inflater = new Thread(() -> {
+            Chunk end = new Chunk(null);
+            end.length = -1;
+            try (InputStream in = new GZIPInputStream(compressed, 1 << 16)) {
+                while (true) {
+                    Chunk chunk = empty.take();
+                    chunk.length = in.readNBytes(chunk.bytes, 0, chunk.bytes.length);
+                    if (chunk.length == 0) {
+                        break;
+                    }
+                    full.put(chunk);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                end.error = e;
+            }
+            try {
+                full.put(end);
+            } catch (InterruptedException e) {
+                // The reader is gone
+            }
+        }, "gzip-inflate");
+        inflater.setDaemon(true);
+        inflater.start();
+
+        return new InputStream() {
+            private Chunk current;
+            private int offset;
+            private boolean finished;
+
+            /**
+             * Makes current a chunk with bytes left, returning false at the end.
+             */
+            private boolean fill() throws IOException {
+                while (!finished && (current == null || offset == current.length)) {
+                    if (current != null) {
+                        empty.add(current);
+                    }
+                    try {
+                        current = full.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while inflating");
+                    }
+                    offset = 0;
+                    if (current.error != null) {
+                        finished = true;
+                        throw current.error instanceof IOException
+                                ? (IOException) current.error : new IOException(current.error);
+                    }
+                    if (current.length < 0) {
+                        finished = true;
+                    }
+                }
+                return !finished;
+            }
+
+            @Override
+            public int read() throws IOException {
+                return fill() ? current.bytes[offset++] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, current.length - offset);
+                System.arraycopy(current.bytes, offset, buffer, off, n);
+                offset += n;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                finished = true;
+                inflater.interrupt();
+                compressed.close();
+            }
+        };
+    }
+
+    /**
+     * Returns a stream that compresses what is written to it in gzip format,
+     * deflating on another thread. Closing the returned stream waits for the
+     * data to be compressed and closes the underlying stream, and reports any
+     * error the other thread met.
+     *
+     * @param out The stream to write the compressed data to.
+     * @return A stream accepting the uncompressed data.
+     */
+    public static OutputStream deflate(OutputStream out) {
+        BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(BUFFERS + 1);
+        BlockingQueue<Chunk> empty = new ArrayBlockingQueue<>(BUFFERS);
+        for (int i = 0; i < BUFFERS; i++) {
+            empty.add(new Chunk(new byte[BUFFER_SIZE]));
+        }
+        Chunk done = new Chunk(null);
+        Thread deflater = new Thread(() -> {
+            try (OutputStream gzip = new GZIPOutputStream(out, 1 << 16)) {
+                while (true) {
+                    Chunk chunk = full.take();
+                    if (chunk.length < 0) {
+                        break;
+                    }
+                    gzip.write(chunk.bytes, 0, chunk.length);
+                    empty.put(chunk);
+                }
+            } catch (InterruptedException e) {
+                done.error = new InterruptedIOException("Interrupted while deflating");
+            } catch (IOException | RuntimeException e) {
+                done.error = e;
+                // Keep the writer from waiting for a buffer that never comes back
+                empty.clear();
+                empty.add(done);
+            }
+        }, "gzip-deflate");
+        deflater.setDaemon(true);
+        deflater.start();
+
+        return new OutputStream() {
+            private Chunk current;
+            private boolean closed;
+
+            /**
+             * Makes current a chunk with space left, handing a full one over.
+             */
+            private void take() throws IOException {
+                try {
+                    if (current != null) {
+                        full.put(current);
+                    }
+                    current = empty.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while deflating");
+                }
+                if (current == done) {
+                    current = null;
+                    throw failure();
+                }
+                current.length = 0;
+            }
+
+            private IOException failure() {
+                return done.error instanceof IOException
+                        ? (IOException) done.error : new IOException(done.error);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                if (current == null || current.length == current.bytes.length) {
+                    take();
+                }
+                current.bytes[current.length++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] buffer, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (current == null || current.length == current.bytes.length) {
+                        take();
+                    }
+                    int n = Math.min(len, current.bytes.length - current.length);
+                    System.arraycopy(buffer, off, current.bytes, current.length, n);
+                    current.length += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                Chunk end = new Chunk(null);
+                end.length = -1;
+                try {
+                    if (current != null && done.error == null) {
+                        full.put(current);
+                    }
+                    if (done.error == null) {
+                        full.put(end);
+                    }
+                    deflater.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    deflater.interrupt();
+                    throw new InterruptedIOException("Interrupted while deflating");
+                }
+                if (done.error != null) {
+                    throw failure();
+                }
+            }
+        };
+    }
+}
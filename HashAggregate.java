@@ -0,0 +1,983 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Groups the data rows of a CSV file by the values of some columns and computes
+ * count, sum, min and max per group in one streaming pass. Groups are kept in
+ * open-addressing hash tables keyed by the encoded bytes of the group values and
+ * holding primitive aggregate states, so no string or object is created per row.
+ *
+ * A file can be aggregated in parallel: each range (see ParallelScan) builds a
+ * partial table and the partial tables are merged in file order. Several files
+ * with the same header are aggregated as one, their ranges all scanned on the
+ * same pool. When a table
+ * reaches the group budget its groups are spilled to temporary files, split into
+ * 16 partitions by hash, and the partitions are aggregated one at a time at the
+ * end, splitting a partition again if it still has too many groups.
+ *
+ * Values are trimmed. Sum, min and max ignore values that are not numbers, and
+ * are empty for a group with no numbers. Rows are returned sorted by their group
+ * values within each partition, so fully sorted unless the budget was exceeded.
+ *
+ * @author Ajay Shenoy
+ */
+public class HashAggregate {
+
+    /** The default number of groups a table may hold before it is spilled. */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 20;
+
+    private static final int PARTITION_BITS = 4;
+    private static final int PARTITIONS = 1 << PARTITION_BITS;
+    private static final int MAX_DEPTH = 32 / PARTITION_BITS - 1;
+
+    /**
+     * The functions that can be computed per group.
+     */
+    public enum Function {
+        COUNT, SUM, MIN, MAX
+    }
+
+    private final List<String> filenames;
+    private final int[] groupIndexes;
+    private final Function[] functions;
+    private final int[] aggregateIndexes;
+    private final int fieldsNeeded;
+    private final int maxGroups;
+    private Path spillDirectory;
+
+    private HashAggregate(List<String> filenames, int[] groupIndexes, Function[] functions,
+                          int[] aggregateIndexes, int maxGroups) {
+        this.filenames = filenames;
+        this.groupIndexes = groupIndexes;
+        this.functions = functions;
+        this.aggregateIndexes = aggregateIndexes;
+        this.maxGroups = Math.max(1, maxGroups);
+        int fields = 0;
+        for (int index : groupIndexes) {
+            fields = Math.max(fields, index + 1);
+        }
+        for (int index : aggregateIndexes) {
+            fields = Math.max(fields, index + 1);
+        }
+        this.fieldsNeeded = fields;
+    }
+
+    /**
+     * Returns the name of an aggregate written as count, sum(column), min(column)
+     * or max(column).
+     *
+     * @param aggregate The aggregate, in any letter case.
+     * @return The function of the aggregate.
+     * @throws IllegalArgumentException if the aggregate is not valid.
+     */
+    public static Function function(String aggregate) {
+        String text = aggregate.trim();
+        int open = text.indexOf('(');
+        String name = (open < 0 ? text : text.substring(0, open)).trim();
+        try {
+            Function function = Function.valueOf(name.toUpperCase(Locale.ROOT));
+            if (function != Function.COUNT && (open < 0 || !text.endsWith(")"))) {
+                throw new IllegalArgumentException("Invalid aggregate: " + aggregate);
+            }
+            return function;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid aggregate: " + aggregate);
+        }
+    }
+
+    /**
+     * Returns the column an aggregate is computed over.
+     *
+     * @param aggregate The aggregate, such as sum(Age).
+     * @return The name of the column, or null for count.
+     */
+    private static String column(String aggregate) {
+        String text = aggregate.trim();
+        int open = text.indexOf('(');
+        if (function(text) == Function.COUNT) {
+            return null;
+        }
+        return text.substring(open + 1, text.length() - 1).trim();
+    }
+
+    /**
+     * Opens a cursor over the groups of a CSV file, with the default range size
+     * when scanning in parallel and the default group budget.
+     *
+     * @param filename The name of the file to read from.
+     * @param groupColumns The names of the columns to group by; none for one group.
+     * @param aggregates The aggregates to compute, such as count or sum(Age).
+     * @param parallel true to aggregate ranges of the file concurrently.
+     * @return A cursor over rows holding the group values followed by the aggregates.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if a column does not exist or an aggregate is
+     * not valid.
+     */
+    public static RowCursor open(String filename, List<String> groupColumns,
+                                 List<String> aggregates, boolean parallel)
+            throws IOException {
+        return open(List.of(filename), groupColumns, aggregates, parallel);
+    }
+
+    /**
+     * Opens a cursor over the groups of several CSV files with the same header,
+     * aggregated as one file. The files are aggregated concurrently even when
+     * ranges of each file are not.
+     *
+     * @param filenames The names of the files to read from.
+     * @param groupColumns The names of the columns to group by; none for one group.
+     * @param aggregates The aggregates to compute, such as count or sum(Age).
+     * @param parallel true to aggregate ranges of each file concurrently.
+     * @return A cursor over rows holding the group values followed by the aggregates.
+     * @throws IOException if a file cannot be read.
+     * @throws IllegalArgumentException if a column does not exist or an aggregate is
+     * not valid.
+     */
+    public static RowCursor open(List<String> filenames, List<String> groupColumns,
+                                 List<String> aggregates, boolean parallel)
+            throws IOException {
+        long chunkSize = Long.MAX_VALUE;
+        if (parallel) {
+            long size = 0;
+            for (String filename : filenames) {
+                size += new File(filename).length();
+            }
+            chunkSize = ParallelScan.defaultChunkSize(size);
+        }
+        return open(filenames, groupColumns, aggregates, chunkSize, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Opens a cursor over the groups of a CSV file. Ranges are aggregated in
+     * parallel, at most twice as many as the common pool has workers at a time.
+     * A range that starts inside a quoted field is aggregated again from the
+     * end of the record (see ParallelScan), so every record is counted once.
+     *
+     * @param filename The name of the file to read from.
+     * @param groupColumns The names of the columns to group by; none for one group.
+     * @param aggregates The aggregates to compute, such as count or sum(Age).
+     * @param chunkSize The target size of each range.
+     * @param maxGroups The number of groups a table may hold before it is spilled.
+     * @return A cursor over rows holding the group values followed by the aggregates.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if a column does not exist or an aggregate is
+     * not valid.
+     */
+    public static RowCursor open(String filename, List<String> groupColumns,
+                                 List<String> aggregates, long chunkSize, int maxGroups)
+            throws IOException {
+        return open(List.of(filename), groupColumns, aggregates, chunkSize, maxGroups);
+    }
+
+    /**
+     * Opens a cursor over the groups of several CSV files with the same header,
+     * aggregated as one file. The header is read from the first file.
+     *
+     * @param filenames The names of the files to read from.
+     * @param groupColumns The names of the columns to group by; none for one group.
+     * @param aggregates The aggregates to compute, such as count or sum(Age).
+     * @param chunkSize The target size of each range.
+     * @param maxGroups The number of groups a table may hold before it is spilled.
+     * @return A cursor over rows holding the group values followed by the aggregates.
+     * @throws IOException if a file cannot be read.
+     * @throws IllegalArgumentException if a column does not exist or an aggregate is
+     * not valid.
+     */
+    public static RowCursor open(List<String> filenames, List<String> groupColumns,
+                                 List<String> aggregates, long chunkSize, int maxGroups)
+            throws IOException {
+        String[] headers;
+        try (CSVParser header = new CSVParser(filenames.get(0))) {
+            headers = header.next() ? header.fields() : new String[0];
+        }
+        int[] groupIndexes = new int[groupColumns.size()];
+        for (int i = 0; i < groupIndexes.length; i++) {
+            groupIndexes[i] = columnIndex(headers, groupColumns.get(i));
+        }
+        Function[] functions = new Function[aggregates.size()];
+        int[] aggregateIndexes = new int[aggregates.size()];
+        for (int i = 0; i < functions.length; i++) {
+            functions[i] = function(aggregates.get(i));
+            String column = column(aggregates.get(i));
+            aggregateIndexes[i] = column == null ? -1 : columnIndex(headers, column);
+        }
+        HashAggregate aggregation = new HashAggregate(filenames, groupIndexes, functions,
+                aggregateIndexes, maxGroups);
+        try {
+            return aggregation.run(chunkSize);
+        } catch (IOException | RuntimeException e) {
+            aggregation.deleteSpills();
+            throw e;
+        }
+    }
+
+    private static int columnIndex(String[] headers, String columnName) {
+        for (int i = 0; i < headers.length; i++) {
+            if (headers[i].trim().equals(columnName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column not found: " + columnName);
+    }
+
+    /**
+     * Aggregates the files into a final table, spilling as needed, and returns a
+     * cursor that emits it partition by partition.
+     */
+    private RowCursor run(long chunkSize) throws IOException {
+        Partial result;
+        if (filenames.size() == 1 && chunkSize >= new File(filenames.get(0)).length()) {
+            try (CSVParser parser = new CSVParser(filenames.get(0))) {
+                result = aggregate(parser);
+            }
+        } else {
+            result = new Partial(new Table(functions.length), null, 0);
+            long fileRows = 0;
+            List<Spill> spills = new ArrayList<>();
+            try (ParallelScan.RangeScan<Partial> scan = new ParallelScan.RangeScan<>(filenames,
+                    ParallelScan.ranges(filenames, chunkSize), (file, parser) -> aggregate(parser),
+                    HashAggregate::discard)) {
+                Partial partial;
+                while ((partial = scan.next()) != null) {
+                    if (partial.spill != null) {
+                        spills.add(partial.spill);
+                    }
+                    result = merge(result, partial.table);
+                    fileRows += partial.rows;
+                    ParallelScan.Range range = scan.current();
+                    if (range.last && filenames.size() > 1) {
+                        MultiFileScan.progress(filenames.get(range.file), range.file,
+                                filenames.size(), fileRows);
+                        fileRows = 0;
+                    }
+                }
+            }
+            if (result.spill != null) {
+                spills.add(result.spill);
+            }
+            if (!spills.isEmpty()) {
+                return emit(result.table, spills);
+            }
+        }
+        if (result.spill == null) {
+            return emit(result.table, Collections.emptyList());
+        }
+        return emit(result.table, List.of(result.spill));
+    }
+
+    /**
+     * Closes the spill of a range that was aggregated again from another start.
+     */
+    private static void discard(Partial partial) {
+        if (partial.spill == null) {
+            return;
+        }
+        try {
+            partial.spill.close();
+        } catch (IOException e) {
+            // Its files are deleted with the spill directory
+        }
+    }
+
+    /**
+     * The groups of part of the files: the table still in memory, the spill
+     * holding the groups written out before, if any, and the number of rows
+     * aggregated.
+     */
+    private static final class Partial {
+        final Table table;
+        final Spill spill;
+        final long rows;
+
+        Partial(Table table, Spill spill, long rows) {
+            this.table = table;
+            this.spill = spill;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Aggregates the records of a parser, which may read a range of a file.
+     */
+    private Partial aggregate(CSVParser parser) throws IOException {
+        Table table = new Table(functions.length);
+        Spill spill = null;
+        byte[] key = new byte[64];
+        byte[] field = new byte[64];
+        long rows = 0;
+        try {
+            while (parser.next(fieldsNeeded)) {
+                if (parser.recordStart() == 0) {
+                    continue; // The header
+                }
+                rows++;
+                int keyLength = 0;
+                for (int index : groupIndexes) {
+                    int length = 0;
+                    if (index < parser.fieldCount()) {
+                        if (field.length < parser.fieldLength(index)) {
+                            field = new byte[Math.max(parser.fieldLength(index), 2 * field.length)];
+                        }
+                        length = parser.copyField(index, field);
+                    }
+                    if (key.length < keyLength + 2 * length + 2) {
+                        key = Arrays.copyOf(key, Math.max(keyLength + 2 * length + 2,
+                                2 * key.length));
+                    }
+                    keyLength = appendKeyPart(key, keyLength, field, length);
+                }
+                int group = table.findOrInsert(key, 0, keyLength, hash(key, keyLength));
+                table.counts[group]++;
+                for (int a = 0; a < functions.length; a++) {
+                    int index = aggregateIndexes[a];
+                    if (index < 0 || index >= parser.fieldCount()) {
+                        continue;
+                    }
+                    int kind = parser.parseNumber(index);
+                    if (kind == CSVParser.INTEGER) {
+                        table.addInteger(a, group, parser.longValue());
+                    } else if (kind == CSVParser.DECIMAL) {
+                        table.addDecimal(a, group, parser.doubleValue());
+                    }
+                }
+                if (table.size >= maxGroups) {
+                    if (spill == null) {
+                        spill = new Spill(0);
+                    }
+                    spill.write(table);
+                    table.clear();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (spill != null) {
+                spill.close();
+            }
+            throw e;
+        }
+        return new Partial(table, spill, rows);
+    }
+
+    /**
+     * Merges a partial table into the result, spilling the result when it
+     * reaches the budget.
+     */
+    private Partial merge(Partial result, Table partial) throws IOException {
+        Table table = result.table;
+        Spill spill = result.spill;
+        for (int g = 0; g < partial.size; g++) {
+            table.combine(partial, g);
+            if (table.size >= maxGroups) {
+                if (spill == null) {
+                    spill = new Spill(0);
+                }
+                spill.write(table);
+                table.clear();
+            }
+        }
+        return new Partial(table, spill, 0);
+    }
+
+    /**
+     * Appends one group value to a key. Zero bytes are escaped as 0x00 0xFF and
+     * every value ends with 0x00 0x01, so keys compare bytewise in the same order
+     * as their values compare column by column.
+     */
+    private static int appendKeyPart(byte[] key, int offset, byte[] value, int length) {
+        for (int i = 0; i < length; i++) {
+            key[offset++] = value[i];
+            if (value[i] == 0) {
+                key[offset++] = (byte) 0xFF;
+            }
+        }
+        key[offset++] = 0;
+        key[offset++] = 1;
+        return offset;
+    }
+
+    /**
+     * Splits a key back into its group values.
+     */
+    private static String[] decodeKey(byte[] key, int start, int length, int parts) {
+        String[] values = new String[parts];
+        byte[] value = new byte[length];
+        int position = start;
+        for (int p = 0; p < parts; p++) {
+            int size = 0;
+            while (true) {
+                byte b = key[position++];
+                if (b == 0) {
+                    if (key[position++] == 1) {
+                        break;
+                    }
+                }
+                value[size++] = b;
+            }
+            values[p] = new String(value, 0, size, StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    private static int hash(byte[] key, int length) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ (key[i] & 0xFF)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Compares an integer with a decimal exactly, without rounding the integer
+     * to a double.
+     */
+    private static int compare(long whole, double real) {
+        if (real >= 0x1p63) {
+            return -1;
+        }
+        if (real < -0x1p63) {
+            return 1;
+        }
+        long truncated = (long) real;
+        if (whole != truncated) {
+            return Long.compare(whole, truncated);
+        }
+        double fraction = real - truncated;
+        return fraction > 0 ? -1 : fraction < 0 ? 1 : 0;
+    }
+
+    /**
+     * Formats a number, writing integral values without a decimal point.
+     */
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Returns a cursor over the groups in the table and the spilled partitions.
+     */
+    private RowCursor emit(Table table, List<Spill> spills) throws IOException {
+        ArrayDeque<List<Path>> partitions = new ArrayDeque<>();
+        ArrayDeque<Integer> depths = new ArrayDeque<>();
+        if (!spills.isEmpty()) {
+            Spill rest = new Spill(0);
+            rest.write(table);
+            rest.close();
+            for (Spill spill : spills) {
+                spill.close();
+            }
+            for (int p = 0; p < PARTITIONS; p++) {
+                List<Path> files = new ArrayList<>();
+                files.add(rest.files[p]);
+                for (Spill spill : spills) {
+                    files.add(spill.files[p]);
+                }
+                partitions.add(files);
+                depths.add(0);
+            }
+            table = null;
+        }
+        Table inMemory = table;
+        return new RowCursor() {
+            private Iterator<Row> current = inMemory == null ? null : rows(inMemory);
+            private Row row;
+
+            @Override
+            public boolean next() throws IOException {
+                while (current == null || !current.hasNext()) {
+                    List<Path> files = partitions.poll();
+                    if (files == null) {
+                        row = null;
+                        return false;
+                    }
+                    current = loadPartition(files, depths.poll(), partitions, depths);
+                }
+                row = current.next();
+                return true;
+            }
+
+            @Override
+            public Row row() {
+                return row;
+            }
+
+            @Override
+            public void close() throws IOException {
+                current = null;
+                partitions.clear();
+                deleteSpills();
+            }
+        };
+    }
+
+    /**
+     * Aggregates one spilled partition. If it has too many groups it is split
+     * into sub-partitions by the next bits of the hash, which are queued at the
+     * front, and null is returned.
+     */
+    private Iterator<Row> loadPartition(List<Path> files, int depth,
+                                        ArrayDeque<List<Path>> partitions,
+                                        ArrayDeque<Integer> depths) throws IOException {
+        Table table = new Table(functions.length);
+        Spill split = null;
+        try {
+            for (Path file : files) {
+                if (file == null) {
+                    continue;
+                }
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(file)))) {
+                    while (table.read(in)) {
+                        if (table.size >= maxGroups && depth < MAX_DEPTH) {
+                            if (split == null) {
+                                split = new Spill(depth + 1);
+                            }
+                            split.write(table);
+                            table.clear();
+                        }
+                    }
+                }
+                Files.delete(file);
+            }
+            if (split == null) {
+                return rows(table);
+            }
+            split.write(table);
+        } finally {
+            if (split != null) {
+                split.close();
+            }
+        }
+        for (int p = PARTITIONS - 1; p >= 0; p--) {
+            partitions.addFirst(Collections.singletonList(split.files[p]));
+            depths.addFirst(depth + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the rows of a table sorted by group values.
+     */
+    private Iterator<Row> rows(Table table) {
+        Integer[] order = new Integer[table.size];
+        for (int g = 0; g < order.length; g++) {
+            order[g] = g;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(
+                table.keys, table.keyStarts[a], table.keyStarts[a] + table.keyLengths[a],
+                table.keys, table.keyStarts[b], table.keyStarts[b] + table.keyLengths[b]));
+        return new Iterator<Row>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < order.length;
+            }
+
+            @Override
+            public Row next() {
+                int g = order[next++];
+                String[] values = Arrays.copyOf(decodeKey(table.keys, table.keyStarts[g],
+                        table.keyLengths[g], groupIndexes.length),
+                        groupIndexes.length + functions.length);
+                for (int a = 0; a < functions.length; a++) {
+                    values[groupIndexes.length + a] = table.result(a, g);
+                }
+                return new Row(values);
+            }
+        };
+    }
+
+    private synchronized Path spillDirectory() throws IOException {
+        if (spillDirectory == null) {
+            spillDirectory = Files.createTempDirectory("aggregate");
+        }
+        return spillDirectory;
+    }
+
+    private synchronized void deleteSpills() throws IOException {
+        if (spillDirectory == null) {
+            return;
+        }
+        File[] files = spillDirectory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(spillDirectory);
+        spillDirectory = null;
+    }
+
+    /**
+     * Spilled groups, written to one file per partition. A group's partition is
+     * taken from the bits of its hash below those used by the enclosing levels.
+     */
+    private final class Spill implements Closeable {
+        final Path[] files = new Path[PARTITIONS];
+        private final DataOutputStream[] outs = new DataOutputStream[PARTITIONS];
+        private final int shift;
+
+        Spill(int depth) {
+            this.shift = 32 - PARTITION_BITS * (depth + 1);
+        }
+
+        /**
+         * Writes every group of a table to its partition.
+         */
+        void write(Table table) throws IOException {
+            for (int g = 0; g < table.size; g++) {
+                int p = (table.hashes[g] >>> shift) & (PARTITIONS - 1);
+                if (outs[p] == null) {
+                    files[p] = Files.createTempFile(spillDirectory(), "part", ".spill");
+                    outs[p] = new DataOutputStream(new BufferedOutputStream(
+                            Files.newOutputStream(files[p])));
+                }
+                table.write(outs[p], g);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (int p = 0; p < PARTITIONS; p++) {
+                if (outs[p] != null) {
+                    outs[p].close();
+                    outs[p] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * An open-addressing hash table from encoded group keys to aggregate states.
+     * Keys are stored back to back in one byte array and states in one primitive
+     * array per aggregate, indexed by group number in insertion order.
+     */
+    private final class Table {
+        private static final byte OVERFLOW = 1;
+        private static final byte DECIMAL = 2;
+        private static final byte WHOLE = 4;
+
+        int size;
+        private int[] slots = new int[2048];
+        int[] hashes = new int[1024];
+        byte[] keys = new byte[16384];
+        private int keysUsed;
+        int[] keyStarts = new int[1024];
+        int[] keyLengths = new int[1024];
+        long[] counts = new long[1024];
+        private final long[][] seen;
+        private final long[][] wholes;
+        private final double[][] reals;
+        private final double[][] errors;
+        private final byte[][] flags;
+
+        Table(int aggregates) {
+            seen = new long[aggregates][1024];
+            wholes = new long[aggregates][1024];
+            reals = new double[aggregates][1024];
+            errors = new double[aggregates][1024];
+            flags = new byte[aggregates][1024];
+        }
+
+        /**
+         * Removes every group, keeping the allocated arrays.
+         */
+        void clear() {
+            Arrays.fill(slots, 0);
+            Arrays.fill(counts, 0, size, 0);
+            for (int a = 0; a < seen.length; a++) {
+                Arrays.fill(seen[a], 0, size, 0);
+                Arrays.fill(wholes[a], 0, size, 0);
+                Arrays.fill(reals[a], 0, size, 0);
+                Arrays.fill(errors[a], 0, size, 0);
+                Arrays.fill(flags[a], 0, size, (byte) 0);
+            }
+            size = 0;
+            keysUsed = 0;
+        }
+
+        /**
+         * Returns the group of a key, inserting an empty group if it is new.
+         */
+        int findOrInsert(byte[] key, int offset, int length, int hash) {
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            while (slots[slot] != 0) {
+                int g = slots[slot] - 1;
+                if (hashes[g] == hash && keyLengths[g] == length && Arrays.equals(keys,
+                        keyStarts[g], keyStarts[g] + length, key, offset, offset + length)) {
+                    return g;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int g = size++;
+            if (g == hashes.length) {
+                grow();
+            }
+            if (keys.length < keysUsed + length) {
+                keys = Arrays.copyOf(keys, Math.max(keysUsed + length, 2 * keys.length));
+            }
+            System.arraycopy(key, offset, keys, keysUsed, length);
+            keyStarts[g] = keysUsed;
+            keyLengths[g] = length;
+            keysUsed += length;
+            hashes[g] = hash;
+            slots[slot] = g + 1;
+            if (2 * size > slots.length) {
+                rehash();
+            }
+            return g;
+        }
+
+        private void grow() {
+            int capacity = 2 * hashes.length;
+            hashes = Arrays.copyOf(hashes, capacity);
+            keyStarts = Arrays.copyOf(keyStarts, capacity);
+            keyLengths = Arrays.copyOf(keyLengths, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            for (int a = 0; a < seen.length; a++) {
+                seen[a] = Arrays.copyOf(seen[a], capacity);
+                wholes[a] = Arrays.copyOf(wholes[a], capacity);
+                reals[a] = Arrays.copyOf(reals[a], capacity);
+                errors[a] = Arrays.copyOf(errors[a], capacity);
+                flags[a] = Arrays.copyOf(flags[a], capacity);
+            }
+        }
+
+        private void rehash() {
+            slots = new int[2 * slots.length];
+            int mask = slots.length - 1;
+            for (int g = 0; g < size; g++) {
+                int slot = hashes[g] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = g + 1;
+            }
+        }
+
+        /**
+         * Adds an integer. Sums stay exact in a long until they overflow, and the
+         * smallest and largest integers are kept apart from decimals in a long,
+         * since a double cannot hold every integer above 2^53.
+         */
+        void addInteger(int a, int g, long value) {
+            seen[a][g]++;
+            if (functions[a] == Function.SUM) {
+                addWhole(a, g, value);
+            } else {
+                keepWhole(a, g, value);
+            }
+        }
+
+        private void addWhole(int a, int g, long value) {
+            if ((flags[a][g] & OVERFLOW) != 0) {
+                addReal(a, g, value);
+                return;
+            }
+            long sum = wholes[a][g] + value;
+            if (((wholes[a][g] ^ sum) & (value ^ sum)) < 0) {
+                // Keep summing in floating point once the exact sum overflows
+                addReal(a, g, wholes[a][g]);
+                addReal(a, g, value);
+                wholes[a][g] = 0;
+                flags[a][g] |= OVERFLOW;
+            } else {
+                wholes[a][g] = sum;
+            }
+        }
+
+        /**
+         * Adds to a floating point sum with Neumaier's compensated summation, so
+         * the result barely depends on the order values are added in, which
+         * differs between sequential and parallel runs.
+         */
+        private void addReal(int a, int g, double value) {
+            double sum = reals[a][g];
+            double total = sum + value;
+            if (Math.abs(sum) >= Math.abs(value)) {
+                errors[a][g] += (sum - total) + value;
+            } else {
+                errors[a][g] += (value - total) + sum;
+            }
+            reals[a][g] = total;
+        }
+
+        void addDecimal(int a, int g, double value) {
+            seen[a][g]++;
+            if (functions[a] == Function.SUM) {
+                addReal(a, g, value);
+                flags[a][g] |= DECIMAL;
+            } else {
+                keepReal(a, g, value);
+            }
+        }
+
+        /**
+         * Keeps an integer if it is the first or beats the integer kept for a
+         * minimum or maximum.
+         */
+        private void keepWhole(int a, int g, long value) {
+            if ((flags[a][g] & WHOLE) == 0 || (functions[a] == Function.MIN
+                    ? value < wholes[a][g] : value > wholes[a][g])) {
+                wholes[a][g] = value;
+                flags[a][g] |= WHOLE;
+            }
+        }
+
+        /**
+         * Keeps a decimal if it is the first or beats the decimal kept for a
+         * minimum or maximum.
+         */
+        private void keepReal(int a, int g, double value) {
+            if ((flags[a][g] & DECIMAL) == 0 || (functions[a] == Function.MIN
+                    ? value < reals[a][g] : value > reals[a][g])) {
+                reals[a][g] = value;
+                flags[a][g] |= DECIMAL;
+            }
+        }
+
+        /**
+         * Merges the state of one group of another table into this table.
+         */
+        void combine(Table other, int group) {
+            int g = findOrInsert(other.keys, other.keyStarts[group], other.keyLengths[group],
+                    other.hashes[group]);
+            counts[g] += other.counts[group];
+            for (int a = 0; a < seen.length; a++) {
+                combine(a, g, other.seen[a][group], other.wholes[a][group],
+                        other.reals[a][group], other.errors[a][group], other.flags[a][group]);
+            }
+        }
+
+        private void combine(int a, int g, long n, long whole, double real, double error,
+                             byte flag) {
+            if (n == 0) {
+                return;
+            }
+            seen[a][g] += n;
+            switch (functions[a]) {
+                case SUM:
+                    flags[a][g] |= flag & DECIMAL;
+                    addReal(a, g, real);
+                    errors[a][g] += error;
+                    if ((flag & OVERFLOW) != 0 && (flags[a][g] & OVERFLOW) == 0) {
+                        addReal(a, g, wholes[a][g]);
+                        wholes[a][g] = 0;
+                        flags[a][g] |= OVERFLOW;
+                    }
+                    addWhole(a, g, whole);
+                    break;
+                case MIN:
+                case MAX:
+                    if ((flag & WHOLE) != 0) {
+                        keepWhole(a, g, whole);
+                    }
+                    if ((flag & DECIMAL) != 0) {
+                        keepReal(a, g, real);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Writes one group: key, hash, row count, then the state of each aggregate.
+         */
+        void write(DataOutputStream out, int g) throws IOException {
+            Sidecar.writeVarint(out, keyLengths[g]);
+            out.write(keys, keyStarts[g], keyLengths[g]);
+            out.writeInt(hashes[g]);
+            Sidecar.writeVarint(out, counts[g]);
+            for (int a = 0; a < seen.length; a++) {
+                Sidecar.writeVarint(out, seen[a][g]);
+                out.writeLong(wholes[a][g]);
+                out.writeDouble(reals[a][g]);
+                out.writeDouble(errors[a][g]);
+                out.writeByte(flags[a][g]);
+            }
+        }
+
+        /**
+         * Reads one group written by write and merges it into the table.
+         *
+         * @return false at the end of the stream.
+         */
+        boolean read(DataInputStream in) throws IOException {
+            int length;
+            try {
+                length = (int) Sidecar.readVarint(in);
+            } catch (EOFException e) {
+                return false;
+            }
+            byte[] key = new byte[length];
+            in.readFully(key);
+            int g = findOrInsert(key, 0, length, in.readInt());
+            counts[g] += Sidecar.readVarint(in);
+            for (int a = 0; a < seen.length; a++) {
+                long n = Sidecar.readVarint(in);
+                long whole = in.readLong();
+                double real = in.readDouble();
+                double error = in.readDouble();
+                byte flag = in.readByte();
+                combine(a, g, n, whole, real, error, flag);
+            }
+            return true;
+        }
+
+        /**
+         * Returns the text of an aggregate of a group.
+         */
+        String result(int a, int g) {
+            switch (functions[a]) {
+                case COUNT:
+                    return Long.toString(counts[g]);
+                case SUM:
+                    if (seen[a][g] == 0) {
+                        return "";
+                    }
+                    if (flags[a][g] == 0) {
+                        return Long.toString(wholes[a][g]);
+                    }
+                    return format(wholes[a][g] + (reals[a][g] + errors[a][g]));
+                default:
+                    if (seen[a][g] == 0) {
+                        return "";
+                    }
+                    if ((flags[a][g] & DECIMAL) == 0) {
+                        return Long.toString(wholes[a][g]);
+                    }
+                    if ((flags[a][g] & WHOLE) == 0) {
+                        return format(reals[a][g]);
+                    }
+                    int order = compare(wholes[a][g], reals[a][g]);
+                    boolean whole = functions[a] == Function.MIN ? order <= 0 : order >= 0;
+                    return whole ? Long.toString(wholes[a][g]) : format(reals[a][g]);
+            }
+        }
+    }
+}
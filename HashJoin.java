@@ -0,0 +1,643 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Joins the data rows of two CSV files on equal key values. Each result row
+ * holds every column of the left file followed by the columns of the right
+ * file other than its key, padded with empty values where a record is short.
+ * An inner join returns the pairs of matching rows; a left join also returns
+ * the left rows that match nothing, with empty right columns. Keys are compared
+ * trimmed, and an empty key matches nothing.
+ *
+ * The smaller file is loaded into a hash table on its key and the larger file
+ * is streamed past it, only split beyond its key when it matches, so rows come
+ * in the order of the larger file. When the smaller file does not fit the
+ * memory budget both files are split into 16 partitions on disk by a hash of
+ * the key, and each pair of partitions is joined in turn, splitting a
+ * partition again if it still does not fit; rows then come partition by
+ * partition.
+ *
+ * Either side can be a list of files with the same header (see MultiFileScan),
+ * read one after another.
+ *
+ * @author Ajay Shenoy
+ */
+public class HashJoin {
+
+    /** The default number of bytes of rows the hash table may hold. */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    private static final int PARTITION_BITS = 4;
+    private static final int PARTITIONS = 1 << PARTITION_BITS;
+    private static final int MAX_DEPTH = 32 / PARTITION_BITS - 1;
+
+    /** The estimated heap overhead of one row in the hash table, on top of the row. */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * The kinds of join.
+     */
+    public enum Type {
+        INNER, LEFT;
+
+        /**
+         * Parses the name of a join type, in any letter case.
+         *
+         * @param name inner or left.
+         * @return The type.
+         * @throws IllegalArgumentException if the name is not a join type.
+         */
+        public static Type parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid join type: " + name.trim());
+            }
+        }
+    }
+
+    /**
+     * Receives the rows of a side as they are read.
+     */
+    private interface RowSink {
+        void accept(Row row) throws IOException;
+    }
+
+    /**
+     * One of the files being joined, with its header and key column.
+     */
+    private static final class Side {
+        final List<String> filenames;
+        final String[] headers;
+        final int keyIndex;
+        final boolean left;
+
+        Side(List<String> filenames, String keyColumn, boolean left) throws IOException {
+            this.filenames = filenames;
+            this.left = left;
+            try (CSVParser parser = new CSVParser(filenames.get(0))) {
+                headers = parser.next() ? parser.fields() : new String[0];
+            }
+            int index = -1;
+            for (int i = 0; i < headers.length; i++) {
+                if (headers[i].trim().equals(keyColumn)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                throw new IllegalArgumentException("Column not found: " + keyColumn);
+            }
+            keyIndex = index;
+        }
+
+        long size() {
+            long size = 0;
+            for (String filename : filenames) {
+                size += new File(filename).length();
+            }
+            return size;
+        }
+
+        /**
+         * Hands every data row of every file to a sink.
+         */
+        void scan(RowSink sink) throws IOException {
+            for (String filename : filenames) {
+                try (CSVParser parser = new CSVParser(filename)) {
+                    if (!parser.next(1)) {
+                        continue; // An empty file has no header either
+                    }
+                    Row scratch = null;
+                    while (parser.next()) {
+                        scratch = parser.row(scratch);
+                        sink.accept(scratch.detach());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the trimmed key of a row, or null if it is empty or missing.
+         */
+        String key(Row row) {
+            if (keyIndex >= row.size()) {
+                return null;
+            }
+            String key = row.get(keyIndex).trim();
+            return key.isEmpty() ? null : key;
+        }
+    }
+
+    /**
+     * The build rows sharing a key, and whether any probe row matched them.
+     */
+    private static final class Bucket {
+        final List<Row> rows = new ArrayList<>(1);
+        boolean matched;
+    }
+
+    private final Side left;
+    private final Side right;
+    private final Type type;
+    private final long memoryBudget;
+    private final Side build;
+    private final Side probe;
+    private Path spillDirectory;
+
+    private HashJoin(Side left, Side right, Type type, long memoryBudget) {
+        this.left = left;
+        this.right = right;
+        this.type = type;
+        this.memoryBudget = memoryBudget;
+        // Only the smaller side is held in memory
+        boolean buildLeft = left.size() < right.size();
+        this.build = buildLeft ? left : right;
+        this.probe = buildLeft ? right : left;
+    }
+
+    /**
+     * Returns the header of the rows of a join: the columns of the left file
+     * followed by those of the right file other than its key.
+     *
+     * @param leftFilenames The files of the left side.
+     * @param rightFilenames The files of the right side.
+     * @param leftKey The key column of the left side.
+     * @param rightKey The key column of the right side.
+     * @return The names of the columns.
+     * @throws IOException if a header cannot be read.
+     * @throws IllegalArgumentException if a key column does not exist.
+     */
+    public static String[] headers(List<String> leftFilenames, List<String> rightFilenames,
+                                   String leftKey, String rightKey) throws IOException {
+        Side left = new Side(leftFilenames, leftKey, true);
+        Side right = new Side(rightFilenames, rightKey, false);
+        String[] headers = new String[left.headers.length + right.headers.length - 1];
+        int next = 0;
+        for (String header : left.headers) {
+            headers[next++] = header.trim();
+        }
+        for (int i = 0; i < right.headers.length; i++) {
+            if (i != right.keyIndex) {
+                headers[next++] = right.headers[i].trim();
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Opens a cursor over the rows of a join of two CSV files.
+     *
+     * @param leftFilename The name of the left file.
+     * @param rightFilename The name of the right file.
+     * @param leftKey The key column of the left file.
+     * @param rightKey The key column of the right file.
+     * @param type Whether left rows without a match are returned.
+     * @param memoryBudget The number of bytes of rows the hash table may hold.
+     * @return A cursor over the joined rows.
+     * @throws IOException if a file cannot be read or a partition cannot be written.
+     * @throws IllegalArgumentException if a key column does not exist.
+     */
+    public static RowCursor open(String leftFilename, String rightFilename, String leftKey,
+                                 String rightKey, Type type, long memoryBudget)
+            throws IOException {
+        return open(List.of(leftFilename), List.of(rightFilename), leftKey, rightKey, type,
+                memoryBudget);
+    }
+
+    /**
+     * Opens a cursor over the rows of a join of two sides, each made of files
+     * with the same header.
+     *
+     * @param leftFilenames The files of the left side.
+     * @param rightFilenames The files of the right side.
+     * @param leftKey The key column of the left side.
+     * @param rightKey The key column of the right side.
+     * @param type Whether left rows without a match are returned.
+     * @param memoryBudget The number of bytes of rows the hash table may hold.
+     * @return A cursor over the joined rows.
+     * @throws IOException if a file cannot be read or a partition cannot be written.
+     * @throws IllegalArgumentException if a key column does not exist.
+     */
+    public static RowCursor open(List<String> leftFilenames, List<String> rightFilenames,
+                                 String leftKey, String rightKey, Type type,
+                                 long memoryBudget) throws IOException {
+        HashJoin join = new HashJoin(new Side(leftFilenames, leftKey, true),
+                new Side(rightFilenames, rightKey, false), type, memoryBudget);
+        try {
+            return join.run();
+        } catch (IOException | RuntimeException e) {
+            join.deleteSpills();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the build side, partitioning both sides if it does not fit, and
+     * returns the cursor that probes it.
+     */
+    private RowCursor run() throws IOException {
+        HashMap<String, Bucket> table = new HashMap<>();
+        Partitions[] spill = new Partitions[1];
+        long[] used = new long[1];
+        try {
+            build.scan(row -> {
+                if (spill[0] != null) {
+                    spill[0].write(row, build.key(row));
+                    return;
+                }
+                used[0] += add(table, row);
+                if (used[0] > memoryBudget) {
+                    spill[0] = new Partitions(0);
+                    for (Bucket bucket : table.values()) {
+                        for (Row built : bucket.rows) {
+                            spill[0].write(built, build.key(built));
+                        }
+                    }
+                    table.clear();
+                }
+            });
+        } finally {
+            if (spill[0] != null) {
+                spill[0].close();
+            }
+        }
+        if (spill[0] == null) {
+            return new JoinCursor(table, new FileProbe(), null);
+        }
+        Partitions buildPartitions = spill[0];
+        Partitions probePartitions = new Partitions(0);
+        try {
+            probe.scan(row -> probePartitions.write(row, probe.key(row)));
+        } finally {
+            probePartitions.close();
+        }
+        ArrayDeque<Path[]> pending = new ArrayDeque<>();
+        for (int p = 0; p < PARTITIONS; p++) {
+            pending.add(new Path[]{buildPartitions.files[p], probePartitions.files[p]});
+        }
+        return new JoinCursor(null, null, pending);
+    }
+
+    /**
+     * Adds a build row to the table and returns its estimated size.
+     */
+    private long add(HashMap<String, Bucket> table, Row row) {
+        String key = build.key(row);
+        // Rows without a key are kept so that a left join can return them
+        table.computeIfAbsent(key == null ? "" : key, k -> new Bucket()).rows.add(row);
+        return row.memorySize() + 2L * (key == null ? 0 : key.length()) + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Returns the probe rows of a join one at a time.
+     */
+    private interface Probe extends Closeable {
+        /**
+         * Returns the next probe row matching the table, or not matching when
+         * those are returned too.
+         */
+        Row next(HashMap<String, Bucket> table) throws IOException;
+    }
+
+    /**
+     * Streams the probe side from its files, splitting a record past its key
+     * only when it is returned.
+     */
+    private final class FileProbe implements Probe {
+        private int nextFile;
+        private CSVParser parser;
+
+        @Override
+        public Row next(HashMap<String, Bucket> table) throws IOException {
+            boolean keepUnmatched = probe.left && type == Type.LEFT;
+            while (true) {
+                if (parser == null) {
+                    if (nextFile == probe.filenames.size()) {
+                        return null;
+                    }
+                    parser = new CSVParser(probe.filenames.get(nextFile++));
+                    if (!parser.next(1)) {
+                        close();
+                        continue;
+                    }
+                }
+                if (!parser.next(probe.keyIndex + 1)) {
+                    close();
+                    continue;
+                }
+                if (!keepUnmatched) {
+                    if (parser.fieldCount() <= probe.keyIndex) {
+                        continue;
+                    }
+                    String key = parser.field(probe.keyIndex).trim();
+                    if (key.isEmpty() || !table.containsKey(key)) {
+                        continue;
+                    }
+                }
+                parser.splitAll();
+                return parser.row(null);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (parser != null) {
+                parser.close();
+                parser = null;
+            }
+        }
+    }
+
+    /**
+     * Reads the probe rows of a partition, deleting the partition when closed.
+     */
+    private static final class SpillProbe implements Probe {
+        private final Path file;
+        private final DataInputStream in;
+
+        SpillProbe(Path file) throws IOException {
+            this.file = file;
+            in = file == null ? null : new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(file), 1 << 16));
+        }
+
+        @Override
+        public Row next(HashMap<String, Bucket> table) throws IOException {
+            return in == null ? null : readRow(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+            delete(file);
+        }
+    }
+
+    /**
+     * Walks the probe rows against the table, then the partitions still to join.
+     */
+    private final class JoinCursor implements RowCursor {
+        private final ArrayDeque<Path[]> pending;
+        private final ArrayDeque<Integer> depths = new ArrayDeque<>();
+        private HashMap<String, Bucket> table;
+        private Probe probeRows;
+        private Row probeRow;
+        private List<Row> matches = List.of();
+        private int nextMatch;
+        private Iterator<Bucket> unmatched;
+        private Iterator<Row> unmatchedRows;
+        private Row row;
+
+        JoinCursor(HashMap<String, Bucket> table, Probe probeRows, ArrayDeque<Path[]> pending) {
+            this.table = table;
+            this.probeRows = probeRows;
+            this.pending = pending == null ? new ArrayDeque<>() : pending;
+            for (int i = 0; i < this.pending.size(); i++) {
+                depths.add(0);
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            while (true) {
+                if (nextMatch < matches.size()) {
+                    Row match = matches.get(nextMatch++);
+                    row = probe.left ? joined(probeRow, match) : joined(match, probeRow);
+                    return true;
+                }
+                if (probeRows != null) {
+                    probeRow = probeRows.next(table);
+                    if (probeRow != null) {
+                        String key = probe.key(probeRow);
+                        Bucket bucket = key == null ? null : table.get(key);
+                        nextMatch = 0;
+                        if (bucket != null) {
+                            bucket.matched = true;
+                            matches = bucket.rows;
+                        } else if (probe.left && type == Type.LEFT) {
+                            matches = List.of();
+                            row = joined(probeRow, null);
+                            return true;
+                        } else {
+                            matches = List.of();
+                        }
+                        continue;
+                    }
+                    probeRows.close();
+                    probeRows = null;
+                    if (build.left && type == Type.LEFT) {
+                        unmatched = table.values().iterator();
+                    }
+                }
+                if (unmatchedRows != null && unmatchedRows.hasNext()) {
+                    row = joined(unmatchedRows.next(), null);
+                    return true;
+                }
+                if (unmatched != null && unmatched.hasNext()) {
+                    Bucket bucket = unmatched.next();
+                    unmatchedRows = bucket.matched ? null : bucket.rows.iterator();
+                    continue;
+                }
+                unmatched = null;
+                unmatchedRows = null;
+                Path[] partition = pending.poll();
+                if (partition == null) {
+                    row = null;
+                    return false;
+                }
+                loadPartition(partition, depths.poll());
+            }
+        }
+
+        /**
+         * Loads the build rows of a partition and opens its probe rows. If the
+         * build rows do not fit they are split into sub-partitions, queued at
+         * the front, and nothing is loaded.
+         */
+        private void loadPartition(Path[] partition, int depth) throws IOException {
+            table = new HashMap<>();
+            if (partition[0] == null) {
+                // Probe rows of a partition without build rows can only be unmatched
+                if (probe.left && type == Type.LEFT) {
+                    probeRows = new SpillProbe(partition[1]);
+                } else {
+                    delete(partition[1]);
+                }
+                return;
+            }
+            long used = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(partition[0]), 1 << 16))) {
+                Row built;
+                while ((built = readRow(in)) != null) {
+                    used += add(table, built);
+                    if (used > memoryBudget && depth < MAX_DEPTH) {
+                        break;
+                    }
+                }
+            }
+            if (used > memoryBudget && depth < MAX_DEPTH) {
+                table = null;
+                Partitions[] split = {repartition(partition[0], build, depth + 1),
+                        repartition(partition[1], probe, depth + 1)};
+                for (int p = PARTITIONS - 1; p >= 0; p--) {
+                    pending.addFirst(new Path[]{split[0].files[p], split[1].files[p]});
+                    depths.addFirst(depth + 1);
+                }
+                return;
+            }
+            delete(partition[0]);
+            probeRows = new SpillProbe(partition[1]);
+        }
+
+        @Override
+        public Row row() {
+            return row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (probeRows != null) {
+                probeRows.close();
+                probeRows = null;
+            }
+            table = null;
+            pending.clear();
+            deleteSpills();
+        }
+    }
+
+    /**
+     * Builds a result row from a left row and its matching right row, or null
+     * for a left row without a match.
+     */
+    private Row joined(Row leftRow, Row rightRow) {
+        String[] values = new String[left.headers.length + right.headers.length - 1];
+        int next = 0;
+        for (int i = 0; i < left.headers.length; i++) {
+            values[next++] = i < leftRow.size() ? leftRow.get(i) : "";
+        }
+        for (int i = 0; i < right.headers.length; i++) {
+            if (i != right.keyIndex) {
+                values[next++] = rightRow != null && i < rightRow.size() ? rightRow.get(i) : "";
+            }
+        }
+        return new Row(values);
+    }
+
+    /**
+     * Splits a partition file into partitions by the next bits of the hash.
+     */
+    private Partitions repartition(Path file, Side side, int depth) throws IOException {
+        Partitions partitions = new Partitions(depth);
+        if (file != null) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(file), 1 << 16))) {
+                Row row;
+                while ((row = readRow(in)) != null) {
+                    partitions.write(row, side.key(row));
+                }
+            } finally {
+                partitions.close();
+            }
+            delete(file);
+        }
+        return partitions;
+    }
+
+    private static Row readRow(DataInputStream in) throws IOException {
+        try {
+            return Row.read(in);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void delete(Path file) throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static int hash(String key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private synchronized Path spillDirectory() throws IOException {
+        if (spillDirectory == null) {
+            spillDirectory = Files.createTempDirectory("join");
+        }
+        return spillDirectory;
+    }
+
+    private synchronized void deleteSpills() throws IOException {
+        if (spillDirectory == null) {
+            return;
+        }
+        File[] files = spillDirectory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(spillDirectory);
+        spillDirectory = null;
+    }
+
+    /**
+     * Rows written to one file per partition. A row's partition is taken from
+     * the bits of the hash of its key below those used by the enclosing levels.
+     */
+    private final class Partitions implements Closeable {
+        final Path[] files = new Path[PARTITIONS];
+        private final DataOutputStream[] outs = new DataOutputStream[PARTITIONS];
+        private final int shift;
+
+        Partitions(int depth) {
+            this.shift = 32 - PARTITION_BITS * (depth + 1);
+        }
+
+        void write(Row row, String key) throws IOException {
+            int p = (hash(key) >>> shift) & (PARTITIONS - 1);
+            if (outs[p] == null) {
+                files[p] = Files.createTempFile(spillDirectory(), "part", ".spill");
+                outs[p] = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(files[p]), 1 << 16));
+            }
+            row.write(outs[p]);
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (int p = 0; p < PARTITIONS; p++) {
+                if (outs[p] != null) {
+                    outs[p].close();
+                    outs[p] = null;
+                }
+            }
+        }
+    }
+}
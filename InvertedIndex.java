@@ -0,0 +1,611 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A sidecar next to a CSV file that maps every token of the file to the byte
+ * offsets of the records containing it, so keyword searches can seek to the
+ * matching records instead of scanning the whole file.
+ *
+ * A token is a run of letters, digits, underscores and non-ASCII bytes in the
+ * raw text of a record. A keyword made only of such bytes can only occur inside
+ * a token, so the records containing it are exactly the records listed under
+ * the tokens that contain it. Every candidate record is still checked against
+ * the keyword, so searches through the index return the same rows as a scan.
+ *
+ * The sidecar holds the stamp of the CSV file (see Sidecar), the posting list
+ * of each token as delta encoded offsets, and a dictionary of the tokens with
+ * the position and length of their posting lists. The last 8 bytes hold the
+ * position of the dictionary. Building the index keeps a bounded number of
+ * postings in memory, writing sorted runs to temporary files and merging them.
+ *
+ * @author Ajay Shenoy
+ */
+public class InvertedIndex {
+
+    /** The suffix added to the CSV filename to name its index. */
+    public static final String SUFFIX = ".kwidx";
+
+    private static final int MAGIC = 0x4B574458;
+    private static final int VERSION = 1;
+    private static final long MAX_BUFFERED_POSTINGS = 1 << 22;
+    private static final long MIN_CANDIDATE_LIMIT = 1024;
+
+    private static final int MAX_OPENED = 16;
+
+    /** The indexes opened most recently, by the path of the index file. */
+    private static final LinkedHashMap<String, InvertedIndex> OPENED =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, InvertedIndex> eldest) {
+                    return size() > MAX_OPENED;
+                }
+            };
+
+    private final String filename;
+    private final File indexFile;
+    private final String stamp;
+    private final long recordCount;
+    private final byte[] dictionary;
+    private final int[] tokenStarts;
+    private final long[] starts;
+    private final int[] counts;
+
+    private InvertedIndex(String filename, File indexFile, String stamp, long recordCount,
+                          byte[] dictionary, int[] tokenStarts, long[] starts, int[] counts) {
+        this.filename = filename;
+        this.indexFile = indexFile;
+        this.stamp = stamp;
+        this.recordCount = recordCount;
+        this.dictionary = dictionary;
+        this.tokenStarts = tokenStarts;
+        this.starts = starts;
+        this.counts = counts;
+    }
+
+    /**
+     * Returns the name of the index file for a CSV file.
+     *
+     * @param filename The name of the CSV file.
+     * @return The name of its index file.
+     */
+    public static String indexFilename(String filename) {
+        return filename + SUFFIX;
+    }
+
+    /**
+     * Checks whether a byte can be part of a token.
+     *
+     * @param b The byte to check.
+     * @return true for letters, digits, underscores and non-ASCII bytes.
+     */
+    public static boolean isTokenByte(int b) {
+        return (b >= '0' && b <= '9') || (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z')
+                || b == '_' || (b & 0x80) != 0;
+    }
+
+    /**
+     * The offsets of the records containing a token, in file order.
+     */
+    private static class Postings {
+        private long[] offsets = new long[2];
+        private int size;
+
+        /**
+         * Adds a record offset unless it is the last one added.
+         *
+         * @return true if the offset was added.
+         */
+        boolean add(long offset) {
+            if (size > 0 && offsets[size - 1] == offset) {
+                return false;
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+            return true;
+        }
+    }
+
+    /**
+     * Scans a CSV file and writes its index, replacing any existing one.
+     *
+     * @param filename The name of the CSV file to index.
+     * @return The number of records indexed, including the header.
+     * @throws IOException if the CSV file cannot be read or the index written.
+     */
+    public static long build(String filename) throws IOException {
+        File csv = new File(filename);
+        ArrayList<File> runs = new ArrayList<>();
+        try {
+            HashMap<String, Postings> buffer = new HashMap<>();
+            long buffered = 0;
+            long records = 0;
+            byte[] line = new byte[1024];
+            try (CSVParser parser = new CSVParser(filename)) {
+                while (parser.next()) {
+                    int length = parser.lineLength();
+                    if (line.length < length) {
+                        line = new byte[Math.max(length, line.length * 2)];
+                    }
+                    parser.copyLine(line);
+                    long offset = parser.recordStart();
+                    int i = 0;
+                    while (i < length) {
+                        if (!isTokenByte(line[i])) {
+                            i++;
+                            continue;
+                        }
+                        int start = i;
+                        while (i < length && isTokenByte(line[i])) {
+                            i++;
+                        }
+                        String token = new String(line, start, i - start, StandardCharsets.UTF_8);
+                        if (buffer.computeIfAbsent(token, t -> new Postings()).add(offset)) {
+                            buffered++;
+                        }
+                    }
+                    records++;
+                    if (buffered >= MAX_BUFFERED_POSTINGS) {
+                        runs.add(writeRun(buffer));
+                        buffer.clear();
+                        buffered = 0;
+                    }
+                }
+            }
+            if (!buffer.isEmpty() || runs.isEmpty()) {
+                runs.add(writeRun(buffer));
+            }
+            mergeRuns(csv, runs, records, indexFilename(filename));
+            return records;
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered postings to a temporary file in token order.
+     */
+    private static File writeRun(HashMap<String, Postings> buffer) throws IOException {
+        File run = File.createTempFile("kwidx", ".run");
+        String[] sorted = buffer.keySet().toArray(new String[0]);
+        Arrays.sort(sorted);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(run), 1 << 16))) {
+            for (String token : sorted) {
+                byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+                Sidecar.writeVarint(out, bytes.length);
+                out.write(bytes);
+                Postings postings = buffer.get(token);
+                Sidecar.writeVarint(out, postings.size);
+                long previous = 0;
+                for (int i = 0; i < postings.size; i++) {
+                    Sidecar.writeVarint(out, postings.offsets[i] - previous);
+                    previous = postings.offsets[i];
+                }
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Reads the tokens of a run file in order.
+     */
+    private static class RunReader implements Closeable {
+        private final int number;
+        private final DataInputStream in;
+        private String token;
+        private int count;
+
+        RunReader(int number, File run) throws IOException {
+            this.number = number;
+            this.in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(run), 1 << 16));
+        }
+
+        /**
+         * Reads the next token and the length of its postings.
+         *
+         * @return false at the end of the run.
+         */
+        boolean advance() throws IOException {
+            int length;
+            try {
+                length = (int) Sidecar.readVarint(in);
+            } catch (EOFException e) {
+                token = null;
+                return false;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            token = new String(bytes, StandardCharsets.UTF_8);
+            count = (int) Sidecar.readVarint(in);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Merges the run files into the index file. Runs hold consecutive parts of
+     * the CSV file, so the postings of a token are concatenated in run order.
+     * The dictionary is gathered in a scratch file and appended after the
+     * postings, and the whole index is written to a temporary file that
+     * replaces the index file once complete.
+     */
+    private static void mergeRuns(File csv, ArrayList<File> runs, long records,
+                                  String indexFilename) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(
+                Comparator.comparing((RunReader run) -> run.token)
+                        .thenComparingInt(run -> run.number));
+        File dictionary = File.createTempFile("kwidx", ".dict");
+        Path temp = Sidecar.temporary(indexFilename);
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader run = new RunReader(i, runs.get(i));
+                if (run.advance()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+            }
+            Sidecar.CountingOutputStream counter = new Sidecar.CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp.toFile()), 1 << 16));
+            try (DataOutputStream out = new DataOutputStream(counter)) {
+                Sidecar.writeStamp(out, MAGIC, VERSION, csv);
+                long tokenCount = 0;
+                try (DataOutputStream dict = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(dictionary), 1 << 16))) {
+                    long previousStart = 0;
+                    while (!queue.isEmpty()) {
+                        String token = queue.peek().token;
+                        long start = counter.count();
+                        long count = 0;
+                        long previous = 0;
+                        while (!queue.isEmpty() && queue.peek().token.equals(token)) {
+                            RunReader run = queue.poll();
+                            long offset = 0;
+                            for (int i = 0; i < run.count; i++) {
+                                offset += Sidecar.readVarint(run.in);
+                                Sidecar.writeVarint(out, offset - previous);
+                                previous = offset;
+                            }
+                            count += run.count;
+                            if (run.advance()) {
+                                queue.add(run);
+                            } else {
+                                run.close();
+                            }
+                        }
+                        byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+                        Sidecar.writeVarint(dict, bytes.length);
+                        dict.write(bytes);
+                        Sidecar.writeVarint(dict, count);
+                        Sidecar.writeVarint(dict, start - previousStart);
+                        previousStart = start;
+                        tokenCount++;
+                    }
+                }
+                long dictionaryStart = counter.count();
+                out.writeLong(records);
+                out.writeLong(tokenCount);
+                try (FileInputStream in = new FileInputStream(dictionary)) {
+                    in.transferTo(out);
+                }
+                out.writeLong(dictionaryStart);
+            }
+            Sidecar.replace(temp, indexFilename);
+        } finally {
+            for (RunReader run : queue) {
+                run.close();
+            }
+            dictionary.delete();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Opens the index of a CSV file if it exists and matches the current size and
+     * modification time of the CSV file. The dictionary is loaded once and kept
+     * with the index until the index or the CSV file changes, so repeated
+     * searches do not read it again.
+     *
+     * @param filename The name of the CSV file.
+     * @return The index, or null if there is no usable index.
+     */
+    public static InvertedIndex open(String filename) {
+        File csv = new File(filename);
+        File indexFile = new File(indexFilename(filename));
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        String path = indexFile.getAbsolutePath();
+        String stamp = indexFile.length() + "|" + indexFile.lastModified() + "|"
+                + csv.length() + "|" + csv.lastModified();
+        synchronized (OPENED) {
+            InvertedIndex opened = OPENED.get(path);
+            if (opened != null && opened.stamp.equals(stamp)) {
+                return opened;
+            }
+        }
+        InvertedIndex index = load(filename, csv, indexFile, stamp);
+        synchronized (OPENED) {
+            if (index == null) {
+                OPENED.remove(path);
+            } else {
+                OPENED.put(path, index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Reads the dictionary of an index file, with the tokens back to back in one
+     * array in the sorted order they were written in.
+     */
+    private static InvertedIndex load(String filename, File csv, File indexFile, String stamp) {
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            if (file.length() < Sidecar.STAMP_SIZE + 8
+                    || !Sidecar.readStamp(file, MAGIC, VERSION, csv)) {
+                return null;
+            }
+            long dictionaryStart = file.length() - 8;
+            file.seek(dictionaryStart);
+            file.seek(file.readLong());
+            long dictionaryLength = dictionaryStart - file.getFilePointer();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(file.getChannel()), 1 << 16));
+            long records = in.readLong();
+            int tokenCount = (int) in.readLong();
+            // The token bytes are a part of the dictionary, so this is large enough
+            byte[] dictionary = new byte[(int) Math.min(Integer.MAX_VALUE - 8,
+                    Math.max(0, dictionaryLength))];
+            int[] tokenStarts = new int[tokenCount + 1];
+            long[] starts = new long[tokenCount];
+            int[] counts = new int[tokenCount];
+            int used = 0;
+            long start = 0;
+            for (int t = 0; t < tokenCount; t++) {
+                int length = (int) Sidecar.readVarint(in);
+                tokenStarts[t] = used;
+                in.readFully(dictionary, used, length);
+                used += length;
+                counts[t] = (int) Sidecar.readVarint(in);
+                start += Sidecar.readVarint(in);
+                starts[t] = start;
+            }
+            tokenStarts[tokenCount] = used;
+            return new InvertedIndex(filename, indexFile, stamp, records,
+                    Arrays.copyOf(dictionary, used), tokenStarts, starts, counts);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the offsets of the records that may contain a keyword. The keyword
+     * can be part of any token, so every token of the dictionary is checked.
+     *
+     * @param needle The UTF-8 bytes of the keyword.
+     * @return The sorted, distinct offsets of the candidate records, or null if the
+     * keyword is not made of token bytes or matches too many records for the index
+     * to beat a scan.
+     * @throws IOException if the index cannot be read.
+     */
+    public long[] candidates(byte[] needle) throws IOException {
+        if (!isToken(needle)) {
+            return null;
+        }
+        long limit = candidateLimit();
+        ArrayList<Integer> matched = new ArrayList<>();
+        long total = 0;
+        for (int t = 0; t < counts.length; t++) {
+            if (contains(dictionary, tokenStarts[t], tokenStarts[t + 1], needle)) {
+                matched.add(t);
+                total += counts[t];
+                if (total > limit) {
+                    return null;
+                }
+            }
+        }
+        return postings(matched, total);
+    }
+
+    /**
+     * Finds the offsets of the records containing a whole token, by a binary
+     * search of the sorted dictionary.
+     *
+     * @param token The token.
+     * @return The sorted offsets of the records, or null if the token is not made
+     * of token bytes or is in too many records for the index to beat a scan.
+     * @throws IOException if the index cannot be read.
+     */
+    public long[] tokenCandidates(String token) throws IOException {
+        if (!isToken(token.getBytes(StandardCharsets.UTF_8))) {
+            return null;
+        }
+        // The tokens were sorted as strings, so they are compared as strings
+        int low = 0;
+        int high = counts.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = new String(dictionary, tokenStarts[middle],
+                    tokenStarts[middle + 1] - tokenStarts[middle], StandardCharsets.UTF_8)
+                    .compareTo(token);
+            if (order < 0) {
+                low = middle + 1;
+            } else if (order > 0) {
+                high = middle - 1;
+            } else {
+                return counts[middle] > candidateLimit() ? null
+                        : postings(List.of(middle), counts[middle]);
+            }
+        }
+        return new long[0];
+    }
+
+    private static boolean isToken(byte[] needle) {
+        if (needle.length == 0) {
+            return false;
+        }
+        for (byte b : needle) {
+            if (!isTokenByte(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of candidate records beyond which a scan is faster.
+     */
+    private long candidateLimit() {
+        return Math.max(MIN_CANDIDATE_LIMIT, recordCount / 8);
+    }
+
+    /**
+     * Reads the posting lists of some tokens and returns their offsets sorted,
+     * without duplicates.
+     */
+    private long[] postings(List<Integer> matched, long total) throws IOException {
+        long[] offsets = new long[(int) total];
+        int size = 0;
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            for (int t : matched) {
+                file.seek(starts[t]);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        Channels.newInputStream(file.getChannel()), 8192));
+                long offset = 0;
+                for (int i = 0; i < counts[t]; i++) {
+                    offset += Sidecar.readVarint(in);
+                    offsets[size++] = offset;
+                }
+            }
+        }
+        Arrays.sort(offsets);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || offsets[distinct - 1] != offsets[i]) {
+                offsets[distinct++] = offsets[i];
+            }
+        }
+        return Arrays.copyOf(offsets, distinct);
+    }
+
+    /**
+     * Checks whether the token between two offsets of the dictionary contains
+     * the bytes of a keyword.
+     */
+    private static boolean contains(byte[] dictionary, int start, int end, byte[] needle) {
+        int last = end - needle.length;
+        for (int i = start; i <= last; i++) {
+            int j = 0;
+            while (j < needle.length && dictionary[i + j] == needle[j]) {
+                j++;
+            }
+            if (j == needle.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens a cursor over the records that contain a keyword by seeking to the
+     * candidate records listed in the index.
+     *
+     * @param keyword The keyword to search for.
+     * @return A cursor over the matching rows in file order, or null if the
+     * keyword cannot be searched through the index and the file must be scanned.
+     * @throws IOException if the index or the CSV file cannot be read.
+     */
+    public RowCursor openMatches(String keyword) throws IOException {
+        byte[] needle = keyword.getBytes(StandardCharsets.UTF_8);
+        long[] offsets = candidates(needle);
+        return offsets == null ? null
+                : openRecords(offsets, parser -> parser.lineContains(needle));
+    }
+
+    /**
+     * Opens a cursor over the records that contain a whole token, such as an id,
+     * by looking the token up in the dictionary and seeking to its records.
+     *
+     * @param token The token to search for.
+     * @return A cursor over the matching rows in file order, or null if the
+     * token cannot be searched through the index and the file must be scanned.
+     * @throws IOException if the index or the CSV file cannot be read.
+     */
+    public RowCursor openTokenMatches(String token) throws IOException {
+        long[] offsets = tokenCandidates(token);
+        byte[] needle = token.getBytes(StandardCharsets.UTF_8);
+        return offsets == null ? null
+                : openRecords(offsets, parser -> parser.lineContainsToken(needle));
+    }
+
+    /**
+     * Tests the raw text of a candidate record.
+     */
+    private interface RecordTest {
+        boolean test(CSVParser parser);
+    }
+
+    /**
+     * Opens a cursor over the candidate records at some offsets that pass a test.
+     */
+    private RowCursor openRecords(long[] offsets, RecordTest test) throws IOException {
+        CSVParser parser = new CSVParser(filename);
+        return new RowCursor() {
+            private int next = 0;
+            private Row row;
+
+            @Override
+            public boolean next() throws IOException {
+                while (next < offsets.length) {
+                    parser.seek(offsets[next++]);
+                    if (parser.next() && test.test(parser)) {
+                        row = parser.row(row);
+                        return true;
+                    }
+                }
+                row = null;
+                return false;
+            }
+
+            @Override
+            public Row row() {
+                return row;
+            }
+
+            @Override
+            public void close() throws IOException {
+                parser.close();
+            }
+        };
+    }
+}
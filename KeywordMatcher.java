@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Finds many keywords in the raw text of records at once with an Aho-Corasick
+ * automaton over bytes. The automaton is compiled into a table with one
+ * transition per state and byte class, where every byte that occurs in no
+ * keyword shares one class, so each byte of a record costs one table lookup
+ * however many keywords there are.
+ *
+ * Keywords are matched on their UTF-8 bytes. Ignoring case folds the ASCII
+ * letters A to Z only; other characters must match exactly.
+ *
+ * @author Ajay Shenoy
+ */
+public class KeywordMatcher {
+
+    private final String[] keywords;
+    private final int[] classOf = new int[256];
+    private final int classes;
+    private final int[] transitions;
+    private final int[][] outputs;
+
+    /**
+     * Compiles keywords into an automaton. Empty and repeated keywords are left
+     * out.
+     *
+     * @param keywords The keywords to look for.
+     * @param ignoreCase true to treat ASCII letters of either case as equal.
+     * @throws IllegalArgumentException if no keyword is left.
+     */
+    public KeywordMatcher(List<String> keywords, boolean ignoreCase) {
+        LinkedHashSet<String> unique = new LinkedHashSet<>();
+        for (String keyword : keywords) {
+            if (!keyword.isEmpty()) {
+                unique.add(keyword);
+            }
+        }
+        if (unique.isEmpty()) {
+            throw new IllegalArgumentException("No keywords to search for");
+        }
+        this.keywords = unique.toArray(new String[0]);
+        byte[][] patterns = new byte[this.keywords.length][];
+        int totalLength = 0;
+        for (int k = 0; k < patterns.length; k++) {
+            patterns[k] = this.keywords[k].getBytes(StandardCharsets.UTF_8);
+            if (ignoreCase) {
+                for (int i = 0; i < patterns[k].length; i++) {
+                    patterns[k][i] = lower(patterns[k][i]);
+                }
+            }
+            totalLength += patterns[k].length;
+        }
+
+        // Class 0 is every byte that occurs in no keyword
+        int classCount = 1;
+        for (byte[] pattern : patterns) {
+            for (byte b : pattern) {
+                if (classOf[b & 0xFF] == 0) {
+                    classOf[b & 0xFF] = classCount++;
+                }
+            }
+        }
+        if (ignoreCase) {
+            for (int b = 'A'; b <= 'Z'; b++) {
+                classOf[b] = classOf[b + ('a' - 'A')];
+            }
+        }
+        this.classes = classCount;
+
+        // Build the trie, with -1 for a missing edge
+        int[] next = new int[(totalLength + 1) * classes];
+        Arrays.fill(next, -1);
+        List<List<Integer>> matches = new ArrayList<>();
+        matches.add(new ArrayList<>());
+        int states = 1;
+        for (int k = 0; k < patterns.length; k++) {
+            int state = 0;
+            for (byte b : patterns[k]) {
+                int edge = state * classes + classOf[b & 0xFF];
+                if (next[edge] < 0) {
+                    next[edge] = states++;
+                    matches.add(new ArrayList<>());
+                }
+                state = next[edge];
+            }
+            matches.get(state).add(k);
+        }
+
+        // Turn the trie into a complete automaton in breadth first order, so the
+        // failure state of every state is finished before the state itself
+        int[] failure = new int[states];
+        this.outputs = new int[states][];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < classes; c++) {
+            if (next[c] < 0) {
+                next[c] = 0;
+            } else {
+                queue.add(next[c]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            List<Integer> found = matches.get(state);
+            int[] inherited = outputs[failure[state]];
+            if (!found.isEmpty() || inherited != null) {
+                int[] merged = new int[found.size() + (inherited == null ? 0 : inherited.length)];
+                for (int i = 0; i < found.size(); i++) {
+                    merged[i] = found.get(i);
+                }
+                if (inherited != null) {
+                    System.arraycopy(inherited, 0, merged, found.size(), inherited.length);
+                }
+                outputs[state] = merged;
+            }
+            for (int c = 0; c < classes; c++) {
+                int edge = state * classes + c;
+                int fallback = next[failure[state] * classes + c];
+                if (next[edge] < 0) {
+                    next[edge] = fallback;
+                } else {
+                    failure[next[edge]] = fallback;
+                    queue.add(next[edge]);
+                }
+            }
+        }
+        this.transitions = Arrays.copyOf(next, states * classes);
+    }
+
+    private static byte lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    /**
+     * Reads keywords from a file with one keyword per line, skipping blank
+     * lines. Spaces around a keyword are removed.
+     *
+     * @param filename The name of the keyword file.
+     * @return The keywords in the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static List<String> readKeywords(String filename) throws IOException {
+        List<String> keywords = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                keywords.add(line.trim());
+            }
+        }
+        return keywords;
+    }
+
+    /**
+     * Returns the keywords the automaton looks for, in the order of their
+     * numbers.
+     *
+     * @return The keywords.
+     */
+    public String[] keywords() {
+        return keywords.clone();
+    }
+
+    /**
+     * Scans bytes for the keywords.
+     *
+     * @param buffer The buffer holding the bytes.
+     * @param start The offset of the first byte.
+     * @param end The offset just past the last byte.
+     * @param found Receives the number of every keyword found, or null to stop
+     *              at the first one.
+     * @return true if any keyword was found.
+     */
+    public boolean scan(ByteBuffer buffer, int start, int end, BitSet found) {
+        int[] table = transitions;
+        int[] byteClass = classOf;
+        int width = classes;
+        int state = 0;
+        boolean any = false;
+        for (int i = start; i < end; i++) {
+            state = table[state * width + byteClass[buffer.get(i) & 0xFF]];
+            int[] output = outputs[state];
+            if (output != null) {
+                if (found == null) {
+                    return true;
+                }
+                for (int keyword : output) {
+                    found.set(keyword);
+                }
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    /**
+     * Joins the keywords whose numbers are set, in the order of their numbers.
+     *
+     * @param found The numbers of the keywords.
+     * @param separator The text to put between keywords.
+     * @return The joined keywords.
+     */
+    public String join(BitSet found, String separator) {
+        StringBuilder joined = new StringBuilder();
+        for (int k = found.nextSetBit(0); k >= 0; k = found.nextSetBit(k + 1)) {
+            if (joined.length() > 0) {
+                joined.append(separator);
+            }
+            joined.append(keywords[k]);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timers for the operations of H12CustomApp. Parsers, cursors and
+ * writers add what they did to process-wide totals: bytes and records read when
+ * a parser is closed, bytes written when a writer is closed. An operation takes
+ * the difference of the totals between its start and its end, and adds it to the
+ * statistics of the operation, which are registered as a JMX MBean named
+ * H12CustomApp:type=Operation,name=the operation. Every operation is also
+ * emitted as an OperationEvent to JDK Flight Recorder when a recording enables
+ * it.
+ *
+ * Operations are only tracked when the h12.metrics system property is true or
+ * the event is enabled, and time is only split between parsing, filtering and
+ * writing when the property is true, since that reads the clock for every
+ * record. Otherwise the cost is a few additions per parser. Operations running
+ * at the same time see each other's totals.
+ *
+ * @author Ajay Shenoy
+ */
+public class Metrics {
+
+    /** Whether operations are tracked and time is split into phases. */
+    public static final boolean ENABLED = Boolean.getBoolean("h12.metrics");
+
+    private static final LongAdder BYTES_READ = new LongAdder();
+    private static final LongAdder ROWS_SCANNED = new LongAdder();
+    private static final LongAdder BYTES_WRITTEN = new LongAdder();
+    private static final LongAdder PARSE_NANOS = new LongAdder();
+    private static final LongAdder FILTER_NANOS = new LongAdder();
+    private static final LongAdder WRITE_NANOS = new LongAdder();
+
+    private static final ConcurrentHashMap<String, OperationStats> STATS =
+            new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Adds the work of a parser to the totals.
+     *
+     * @param bytes The bytes of the records read.
+     * @param rows The number of records read.
+     * @param parseNanos The time spent parsing them, 0 unless ENABLED.
+     */
+    public static void addRead(long bytes, long rows, long parseNanos) {
+        BYTES_READ.add(bytes);
+        ROWS_SCANNED.add(rows);
+        PARSE_NANOS.add(parseNanos);
+    }
+
+    /**
+     * Adds the time spent deciding which rows an operation returns.
+     *
+     * @param nanos The time spent filtering.
+     */
+    public static void addFilter(long nanos) {
+        FILTER_NANOS.add(nanos);
+    }
+
+    /**
+     * Adds the output of a writer to the totals.
+     *
+     * @param bytes The bytes written.
+     * @param nanos The time spent writing, 0 unless ENABLED.
+     */
+    public static void addWrite(long bytes, long nanos) {
+        BYTES_WRITTEN.add(bytes);
+        WRITE_NANOS.add(nanos);
+    }
+
+    /**
+     * Returns the statistics of an operation, registering its MBean the first
+     * time it is used.
+     *
+     * @param name The name of the operation.
+     * @return The statistics of the operation.
+     */
+    public static OperationStats stats(String name) {
+        return STATS.computeIfAbsent(name, key -> {
+            OperationStats stats = new OperationStats();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(stats,
+                        new ObjectName("H12CustomApp:type=Operation,name="
+                                + ObjectName.quote(key)));
+            } catch (JMException e) {
+                // The statistics are still kept, just not visible through JMX
+            }
+            return stats;
+        });
+    }
+
+    /**
+     * Starts tracking an operation.
+     *
+     * @param name The name of the operation.
+     * @param filename The file the operation reads.
+     * @return The tracked operation, or null if operations are not tracked.
+     */
+    public static Operation start(String name, String filename) {
+        OperationEvent event = new OperationEvent();
+        if (!ENABLED && !event.isEnabled()) {
+            return null;
+        }
+        return new Operation(name, filename, event);
+    }
+
+    /**
+     * Wraps a cursor so that the rows it returns are counted as matched by an
+     * operation.
+     *
+     * @param operation The tracked operation, or null if operations are not tracked.
+     * @param rows The rows of the operation.
+     * @return The same cursor if the operation is null, a counting cursor otherwise.
+     */
+    public static RowCursor count(Operation operation, RowCursor rows) {
+        if (operation == null) {
+            return rows;
+        }
+        return new RowCursor() {
+            @Override
+            public boolean next() throws IOException {
+                if (!rows.next()) {
+                    return false;
+                }
+                operation.rowsMatched++;
+                return true;
+            }
+
+            @Override
+            public Row row() {
+                return rows.row();
+            }
+
+            @Override
+            public void close() throws IOException {
+                rows.close();
+            }
+        };
+    }
+
+    /**
+     * An operation being tracked, holding the totals at its start.
+     */
+    public static class Operation {
+
+        private final String name;
+        private final String filename;
+        private final OperationEvent event;
+        private final long startNanos = System.nanoTime();
+        private final long bytesRead = BYTES_READ.sum();
+        private final long rowsScanned = ROWS_SCANNED.sum();
+        private final long bytesWritten = BYTES_WRITTEN.sum();
+        private final long parseNanos = PARSE_NANOS.sum();
+        private final long filterNanos = FILTER_NANOS.sum();
+        private final long writeNanos = WRITE_NANOS.sum();
+        private long rowsMatched;
+
+        private Operation(String name, String filename, OperationEvent event) {
+            this.name = name;
+            this.filename = filename;
+            this.event = event;
+            event.begin();
+        }
+
+        /**
+         * Adds rows the operation returned without going through count.
+         *
+         * @param rows The number of rows.
+         */
+        public void addMatched(long rows) {
+            rowsMatched += rows;
+        }
+
+        /**
+         * Ends the operation and records what it did.
+         */
+        public void finish() {
+            long elapsed = System.nanoTime() - startNanos;
+            long read = BYTES_READ.sum() - bytesRead;
+            long scanned = ROWS_SCANNED.sum() - rowsScanned;
+            long written = BYTES_WRITTEN.sum() - bytesWritten;
+            long parse = PARSE_NANOS.sum() - parseNanos;
+            long filter = FILTER_NANOS.sum() - filterNanos;
+            long write = WRITE_NANOS.sum() - writeNanos;
+            if (ENABLED) {
+                stats(name).add(elapsed, read, scanned, rowsMatched, written,
+                        parse, filter, write);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = name;
+                event.file = filename;
+                event.bytesRead = read;
+                event.rowsScanned = scanned;
+                event.rowsMatched = rowsMatched;
+                event.bytesWritten = written;
+                event.parseTime = parse;
+                event.filterTime = filter;
+                event.writeTime = write;
+                event.commit();
+            }
+        }
+    }
+}
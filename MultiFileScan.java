@@ -0,0 +1,439 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Runs an operation over many CSV files as if they were one. A directory stands
+ * for the .csv and .csv.gz files in it, and a name with glob characters, such as
+ * {@code data/2024-*.csv}, for the files it matches; either way the files are
+ * taken in the order of their names, so zero-padded dates sort by day. The
+ * files must all have the same header.
+ *
+ * The files are scanned concurrently on a fixed pool of threads, at most one
+ * file per thread at a time, and their rows are returned one file after
+ * another in that order, so the output is the same however the scans
+ * interleave. A file scanned ahead of the one being returned stops once a few
+ * batches of its rows are waiting, so memory stays bounded however large the
+ * files. As each file is returned its name and number of rows are printed to
+ * the error stream.
+ *
+ * @author Ajay Shenoy
+ */
+public class MultiFileScan {
+
+    /** The number of files scanned at the same time. */
+    public static final int THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    /** The number of rows handed over from a scan at a time. */
+    public static final int BATCH_SIZE = 1024;
+
+    /** The number of batches a scan may have waiting before it stops. */
+    public static final int BATCHES = 4;
+
+    private static final AtomicInteger POOLS = new AtomicInteger();
+
+    /**
+     * Opens the cursor of an operation over one of the files.
+     */
+    public interface FileOpener {
+        /**
+         * Opens the cursor of one file.
+         *
+         * @param index The position of the file in the set, from 0.
+         * @param filename The name of the file.
+         * @return The rows of the file.
+         * @throws IOException if the file cannot be read.
+         */
+        RowCursor open(int index, String filename) throws IOException;
+    }
+
+    /**
+     * Rows of a file handed over from its scan; the last batch of a file also
+     * carries the error that ended the scan, if any.
+     */
+    private static final class Batch {
+        final List<Row> rows;
+        final boolean last;
+        final Throwable error;
+
+        Batch(List<Row> rows, boolean last, Throwable error) {
+            this.rows = rows;
+            this.last = last;
+            this.error = error;
+        }
+    }
+
+    private MultiFileScan() {
+    }
+
+    /**
+     * Checks whether a name stands for several files: an existing directory, or
+     * a name with glob characters that is not an existing file.
+     *
+     * @param filename The name given for the data.
+     * @return true if the name is a directory or a glob.
+     */
+    public static boolean isPattern(String filename) {
+        File file = new File(filename);
+        return file.isDirectory() || (!file.exists() && globStart(filename) >= 0);
+    }
+
+    private static int globStart(String filename) {
+        for (int i = 0; i < filename.length(); i++) {
+            if ("*?[{".indexOf(filename.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Lists the files a name stands for, sorted by name. A name that is neither a
+     * directory nor a glob stands for itself, whether or not the file exists.
+     *
+     * @param pattern A file, a directory or a glob.
+     * @return The files.
+     * @throws FileNotFoundException if a directory or glob has no files.
+     * @throws IOException if a directory cannot be listed.
+     */
+    public static List<String> expand(String pattern) throws IOException {
+        if (!isPattern(pattern)) {
+            return List.of(pattern);
+        }
+        List<String> files = new ArrayList<>();
+        if (new File(pattern).isDirectory()) {
+            try (Stream<Path> children = Files.list(Paths.get(pattern))) {
+                children.filter(Files::isRegularFile)
+                        .filter(path -> {
+                            String name = path.getFileName().toString().toLowerCase();
+                            return name.endsWith(".csv") || name.endsWith(".csv.gz");
+                        })
+                        .map(Path::toString)
+                        .forEach(files::add);
+            }
+        } else {
+            // Walk from the directory before the first glob character
+            String normalized = pattern.replace(File.separatorChar, '/');
+            int slash = normalized.lastIndexOf('/', globStart(normalized));
+            String base = slash < 0 ? "" : normalized.substring(0, slash + 1);
+            String glob = normalized.substring(base.length());
+            Path directory = Paths.get(base.isEmpty() ? "." : base);
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            int depth = glob.contains("/") || glob.contains("**") ? Integer.MAX_VALUE : 1;
+            if (Files.isDirectory(directory)) {
+                try (Stream<Path> paths = Files.walk(directory, depth)) {
+                    paths.filter(Files::isRegularFile)
+                            .filter(path -> matcher.matches(directory.relativize(path)))
+                            .map(path -> base.isEmpty()
+                                    ? directory.relativize(path).toString() : path.toString())
+                            .forEach(files::add);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            throw new FileNotFoundException(pattern);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * Lists the files a name stands for and checks that they have the same
+     * header. Empty files have no header and are not checked.
+     *
+     * @param pattern A file, a directory or a glob.
+     * @return The files, sorted by name.
+     * @throws FileNotFoundException if a file is not found or a directory or glob
+     * has no files.
+     * @throws IOException if a header cannot be read.
+     * @throws IllegalArgumentException if two headers differ.
+     */
+    public static List<String> files(String pattern) throws IOException {
+        List<String> files = expand(pattern);
+        if (files.size() < 2) {
+            return files;
+        }
+        String[] first = null;
+        String firstFile = null;
+        for (String filename : files) {
+            String[] header;
+            try (CSVParser parser = new CSVParser(filename)) {
+                if (!parser.next()) {
+                    continue;
+                }
+                header = parser.fields();
+            }
+            for (int i = 0; i < header.length; i++) {
+                header[i] = header[i].trim();
+            }
+            if (first == null) {
+                first = header;
+                firstFile = filename;
+            } else if (!Arrays.equals(first, header)) {
+                throw new IllegalArgumentException("Header of " + filename
+                        + " does not match " + firstFile);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Prints the progress of an operation over several files to the error stream.
+     *
+     * @param filename The file just read.
+     * @param index The position of the file in the set, from 0.
+     * @param count The number of files in the set.
+     * @param rows The number of rows the operation read or returned for the file.
+     */
+    public static void progress(String filename, int index, int count, long rows) {
+        System.err.println("Read " + filename + " (" + (index + 1) + " of " + count + "): "
+                + rows + " rows");
+    }
+
+    /**
+     * Opens a cursor over the rows of an operation on every file, one file after
+     * another. The first file is opened before this returns, so that an invalid
+     * operation fails here rather than on the first row.
+     *
+     * @param files The files, in the order their rows are returned.
+     * @param opener Opens the cursor of the operation on one file.
+     * @return A cursor over the rows of every file.
+     * @throws IOException if the first file cannot be opened.
+     */
+    public static RowCursor open(List<String> files, FileOpener opener) throws IOException {
+        if (files.size() == 1) {
+            return opener.open(0, files.get(0));
+        }
+        RowCursor firstCursor = opener.open(0, files.get(0));
+        ExecutorService pool = newPool(files.size());
+
+        return new RowCursor() {
+            private final ArrayDeque<BlockingQueue<Batch>> inFlight = new ArrayDeque<>();
+            private RowCursor first = firstCursor;
+            private int nextFile = 0;
+            private int currentFile = 0;
+            private long currentRows;
+            private List<Row> batch = List.of();
+            private int position;
+            private Row row;
+
+            private void submit() {
+                while (inFlight.size() < THREADS && nextFile < files.size()) {
+                    int index = nextFile++;
+                    RowCursor opened = first;
+                    first = null;
+                    BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(BATCHES);
+                    inFlight.add(queue);
+                    pool.execute(() -> scan(index, files.get(index), opened, opener, queue));
+                }
+            }
+
+            @Override
+            public boolean next() throws IOException {
+                submit();
+                while (position == batch.size()) {
+                    BlockingQueue<Batch> queue = inFlight.peek();
+                    if (queue == null) {
+                        row = null;
+                        return false;
+                    }
+                    Batch next;
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Multi-file scan interrupted");
+                    }
+                    if (next.error != null) {
+                        if (next.error instanceof IOException) {
+                            throw (IOException) next.error;
+                        }
+                        if (next.error instanceof RuntimeException) {
+                            throw (RuntimeException) next.error;
+                        }
+                        throw new IOException(next.error);
+                    }
+                    batch = next.rows;
+                    position = 0;
+                    currentRows += batch.size();
+                    if (next.last) {
+                        progress(files.get(currentFile), currentFile, files.size(), currentRows);
+                        inFlight.poll();
+                        currentFile++;
+                        currentRows = 0;
+                        submit();
+                    }
+                }
+                row = batch.get(position++);
+                return true;
+            }
+
+            @Override
+            public Row row() {
+                return row;
+            }
+
+            @Override
+            public void close() throws IOException {
+                inFlight.clear();
+                pool.shutdownNow();
+                if (first != null) {
+                    first.close();
+                    first = null;
+                }
+            }
+        };
+    }
+
+    /**
+     * Scans one file into its queue, opening its cursor first unless it is given.
+     */
+    private static void scan(int index, String filename, RowCursor opened, FileOpener opener,
+                             BlockingQueue<Batch> queue) {
+        Throwable error = null;
+        List<Row> rows = new ArrayList<>();
+        try (RowCursor cursor = opened != null ? opened : opener.open(index, filename)) {
+            while (cursor.next()) {
+                rows.add(cursor.row().detach());
+                if (rows.size() == BATCH_SIZE) {
+                    queue.put(new Batch(rows, false, null));
+                    rows = new ArrayList<>();
+                }
+            }
+        } catch (InterruptedException e) {
+            return; // The cursor was closed
+        } catch (IOException | RuntimeException e) {
+            error = e;
+        }
+        try {
+            queue.put(new Batch(rows, true, error));
+        } catch (InterruptedException e) {
+            // The cursor was closed
+        }
+    }
+
+    /**
+     * Counts the data rows of files in order, until the counted files hold at
+     * least a number of rows. The files are counted concurrently, through their
+     * row index (see RowIndex) where it is up to date.
+     *
+     * @param files The files to count.
+     * @param enough The number of rows after which later files are not needed.
+     * @return The number of rows after the header of each file counted, for the
+     * first files only if they hold enough rows.
+     * @throws IOException if a file cannot be read.
+     */
+    public static long[] countRows(List<String> files, long enough) throws IOException {
+        ExecutorService pool = newPool(files.size());
+        try {
+            List<Future<Long>> counts = new ArrayList<>();
+            for (String filename : files) {
+                counts.add(pool.submit(() -> countRows(filename)));
+            }
+            long[] result = new long[files.size()];
+            long total = 0;
+            for (int i = 0; i < result.length; i++) {
+                try {
+                    result[i] = counts.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Row count interrupted");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+                total += result[i];
+                if (total >= enough) {
+                    return Arrays.copyOf(result, i + 1);
+                }
+            }
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static long countRows(String filename) throws IOException {
+        try (RowIndex index = RowIndex.open(filename)) {
+            if (index != null) {
+                return index.rowCount();
+            }
+        }
+        try (CSVParser parser = new CSVParser(filename)) {
+            long rows = 0;
+            if (parser.next(0)) { // Skip the header
+                while (parser.next(0)) {
+                    rows++;
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Returns a cursor that skips the first row of another, such as the header
+     * of a file after the first.
+     *
+     * @param rows The rows.
+     * @return The rows after the first.
+     */
+    public static RowCursor withoutFirst(RowCursor rows) {
+        return new RowCursor() {
+            private boolean skipped;
+
+            @Override
+            public boolean next() throws IOException {
+                if (!skipped) {
+                    skipped = true;
+                    if (!rows.next()) {
+                        return false;
+                    }
+                }
+                return rows.next();
+            }
+
+            @Override
+            public Row row() {
+                return rows.row();
+            }
+
+            @Override
+            public void close() throws IOException {
+                rows.close();
+            }
+        };
+    }
+
+    /**
+     * Creates a pool of daemon threads for scanning a number of files.
+     */
+    private static ExecutorService newPool(int files) {
+        int id = POOLS.incrementAndGet();
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.min(files, THREADS), task -> {
+            Thread thread = new Thread(task, "multi-file-" + id + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
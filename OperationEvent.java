@@ -0,0 +1,53 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A JDK Flight Recorder event for one operation of H12CustomApp, such as a menu
+ * option or writing a CSV file. The phase times are only measured when the
+ * h12.metrics system property is true.
+ *
+ * @author Ajay Shenoy
+ */
+@Name("H12CustomApp.Operation")
+@Label("CSV Operation")
+@Category("H12CustomApp")
+@Description("Reading, filtering and writing done by one operation")
+public class OperationEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Rows Scanned")
+    long rowsScanned;
+
+    @Label("Rows Matched")
+    long rowsMatched;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Parse Time")
+    @Timespan
+    long parseTime;
+
+    @Label("Filter Time")
+    @Timespan
+    long filterTime;
+
+    @Label("Write Time")
+    @Timespan
+    long writeTime;
+}
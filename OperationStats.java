@@ -0,0 +1,113 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of one operation of H12CustomApp, summed over every time it
+ * ran. Created and updated by Metrics.
+ *
+ * @author Ajay Shenoy
+ */
+public class OperationStats implements OperationStatsMBean {
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder rowsScanned = new LongAdder();
+    private final LongAdder rowsMatched = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder filterNanos = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+
+    /**
+     * Adds one run of the operation.
+     *
+     * @param total The time the run took.
+     * @param read The bytes of the records read.
+     * @param scanned The number of records read.
+     * @param matched The number of rows returned.
+     * @param written The bytes written.
+     * @param parse The time spent parsing.
+     * @param filter The time spent filtering.
+     * @param write The time spent writing.
+     */
+    void add(long total, long read, long scanned, long matched, long written,
+             long parse, long filter, long write) {
+        calls.increment();
+        totalNanos.add(total);
+        bytesRead.add(read);
+        rowsScanned.add(scanned);
+        rowsMatched.add(matched);
+        bytesWritten.add(written);
+        parseNanos.add(parse);
+        filterNanos.add(filter);
+        writeNanos.add(write);
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getRowsScanned() {
+        return rowsScanned.sum();
+    }
+
+    @Override
+    public long getRowsMatched() {
+        return rowsMatched.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getTotalMillis() {
+        return totalNanos.sum() / 1000000;
+    }
+
+    @Override
+    public long getParseMillis() {
+        return parseNanos.sum() / 1000000;
+    }
+
+    @Override
+    public long getFilterMillis() {
+        return filterNanos.sum() / 1000000;
+    }
+
+    @Override
+    public long getWriteMillis() {
+        return writeNanos.sum() / 1000000;
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        long nanos = totalNanos.sum();
+        return nanos == 0 ? 0 : rowsScanned.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : new LongAdder[]{calls, totalNanos, bytesRead, rowsScanned,
+            rowsMatched, bytesWritten, parseNanos, filterNanos, writeNanos}) {
+            adder.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d calls, %d ms, %d bytes read, %d rows scanned, %d matched, "
+                        + "%d bytes written, parse %d ms, filter %d ms, write %d ms",
+                getCalls(), getTotalMillis(), getBytesRead(), getRowsScanned(),
+                getRowsMatched(), getBytesWritten(), getParseMillis(), getFilterMillis(),
+                getWriteMillis());
+    }
+}
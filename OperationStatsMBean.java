@@ -0,0 +1,63 @@
+/**
+ * The statistics of one operation of H12CustomApp, summed over every time it
+ * ran, as exposed through JMX.
+ *
+ * @author Ajay Shenoy
+ */
+public interface OperationStatsMBean {
+
+    /**
+     * @return The number of times the operation ran.
+     */
+    long getCalls();
+
+    /**
+     * @return The bytes of the records read.
+     */
+    long getBytesRead();
+
+    /**
+     * @return The number of records read.
+     */
+    long getRowsScanned();
+
+    /**
+     * @return The number of rows the operation returned.
+     */
+    long getRowsMatched();
+
+    /**
+     * @return The bytes written to output files.
+     */
+    long getBytesWritten();
+
+    /**
+     * @return The time from the start to the end of the operation, in milliseconds.
+     */
+    long getTotalMillis();
+
+    /**
+     * @return The time spent parsing records, in milliseconds.
+     */
+    long getParseMillis();
+
+    /**
+     * @return The time spent deciding which rows to return, in milliseconds.
+     */
+    long getFilterMillis();
+
+    /**
+     * @return The time spent writing output, in milliseconds.
+     */
+    long getWriteMillis();
+
+    /**
+     * @return The records read per second of operation time.
+     */
+    double getRowsPerSecond();
+
+    /**
+     * Sets every statistic back to zero.
+     */
+    void reset();
+}
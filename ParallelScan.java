@@ -0,0 +1,431 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Scans a CSV file in parallel by splitting it into byte ranges that start on
+ * line boundaries and parsing each range on the common fork-join pool. The
+ * rows found in each range are returned in original file order.
+ *
+ * Ranges are aligned to the first line break after each split point, which
+ * may be a line break inside a quoted field. Such a split is found when the
+ * range before it is scanned: the last record of that range, which is parsed
+ * from a true record start, ends somewhere else than where the next range
+ * starts. The next range is then scanned again from where that record ends,
+ * and its first results are discarded, so quoted line breaks cost one more
+ * range to scan but never produce fragments of records.
+ *
+ * @author Ajay Shenoy
+ */
+public class ParallelScan {
+
+    /** The smallest range worth handing to its own task. */
+    public static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * A range of one of several files, marked when it is the last of its file.
+     */
+    static final class Range {
+        final int file;
+        final long start;
+        final long end;
+        final boolean last;
+
+        Range(int file, long start, long end, boolean last) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Scans the records of one range of one of several files into a result.
+     */
+    interface RangeScanner<T> {
+        /**
+         * Scans the records of a range, reading every one of them.
+         *
+         * @param file The index of the file.
+         * @param parser A parser positioned before the first record of the range.
+         * @return The result of the range.
+         * @throws IOException if the range cannot be read.
+         */
+        T scan(int file, CSVParser parser) throws IOException;
+    }
+
+    /**
+     * Scans the records of one range and returns the rows it produces.
+     */
+    public interface ChunkScanner {
+        /**
+         * Scans the records of a range. Every record must be read, since the
+         * position the parser stops at shows whether the next range starts on
+         * a record.
+         *
+         * @param parser A parser positioned before the first record of the range.
+         * @return The rows produced for the range, in file order.
+         * @throws IOException if the range cannot be read.
+         */
+        List<Row> scan(CSVParser parser) throws IOException;
+    }
+
+    /**
+     * Returns a range size that gives every worker of the common pool several
+     * ranges to scan.
+     *
+     * @param fileSize The size of the file in bytes.
+     * @return The target size of each range.
+     */
+    public static long defaultChunkSize(long fileSize) {
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        return Math.max(MIN_CHUNK_SIZE, fileSize / (4L * parallelism));
+    }
+
+    /**
+     * Splits a file into ranges of roughly the specified size, moving each split
+     * point forward to the start of the next line. A gzip file is one range.
+     *
+     * @param filename The name of the file to split.
+     * @param chunkSize The target size of each range.
+     * @return The range boundaries; range i is [bounds[i], bounds[i + 1]).
+     * @throws IOException if the file cannot be read.
+     */
+    public static long[] split(String filename, long chunkSize) throws IOException {
+        if (GzipPipe.isCompressed(filename)) {
+            // A gzip stream can only be read from the start, so it is one range
+            return new long[]{0, Long.MAX_VALUE};
+        }
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            long size = file.length();
+            long[] bounds = new long[(int) Math.min(Integer.MAX_VALUE - 1,
+                    size / Math.max(1, chunkSize) + 2)];
+            int count = 0;
+            bounds[count++] = 0;
+            long split = chunkSize;
+            byte[] buffer = new byte[8192];
+            while (split < size) {
+                long boundary = nextLineStart(file, split, buffer);
+                if (boundary >= size) {
+                    break;
+                }
+                bounds[count++] = boundary;
+                split = boundary + chunkSize;
+            }
+            bounds[count++] = size;
+            long[] result = new long[count];
+            System.arraycopy(bounds, 0, result, 0, count);
+            return result;
+        }
+    }
+
+    /**
+     * Finds the offset just past the first line terminator at or after an offset.
+     */
+    private static long nextLineStart(RandomAccessFile file, long offset, byte[] buffer)
+            throws IOException {
+        long position = offset;
+        file.seek(position);
+        int read;
+        while ((read = file.read(buffer)) > 0) {
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    return position + i + 1;
+                }
+                if (buffer[i] == '\r') {
+                    if (i + 1 < read) {
+                        return position + i + (buffer[i + 1] == '\n' ? 2 : 1);
+                    }
+                    file.seek(position + i + 1);
+                    return position + i + (file.read() == '\n' ? 2 : 1);
+                }
+            }
+            position += read;
+        }
+        return position;
+    }
+
+    /**
+     * Opens a cursor that scans a file in parallel with the default range size.
+     *
+     * @param filename The name of the file to scan.
+     * @param scanner Produces the rows of each range.
+     * @return A cursor over the rows of every range in file order.
+     * @throws IOException if the file cannot be read.
+     */
+    public static RowCursor open(String filename, ChunkScanner scanner) throws IOException {
+        long size;
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            size = file.length();
+        }
+        return open(filename, defaultChunkSize(size), scanner);
+    }
+
+    /**
+     * Opens a cursor that scans a file in parallel. At most twice as many ranges as
+     * the pool has workers are in flight at a time, so memory is bounded by the rows
+     * of those ranges rather than the whole file.
+     *
+     * @param filename The name of the file to scan.
+     * @param chunkSize The target size of each range.
+     * @param scanner Produces the rows of each range.
+     * @return A cursor over the rows of every range in file order.
+     * @throws IOException if the file cannot be read.
+     */
+    public static RowCursor open(String filename, long chunkSize, ChunkScanner scanner)
+            throws IOException {
+        long[] bounds = split(filename, chunkSize);
+        long[] ranges = new long[2 * (bounds.length - 1)];
+        for (int i = 0; i < bounds.length - 1; i++) {
+            ranges[2 * i] = bounds[i];
+            ranges[2 * i + 1] = bounds[i + 1];
+        }
+        return open(filename, ranges, scanner);
+    }
+
+    /**
+     * Opens a cursor that scans specific ranges of a file in parallel, such as
+     * the blocks of a ZoneMap that a filter may match. Each range must start on
+     * the first byte of a record.
+     *
+     * @param filename The name of the file to scan.
+     * @param ranges The ranges to scan in order; range i is
+     *               [ranges[2 * i], ranges[2 * i + 1]).
+     * @param scanner Produces the rows of each range.
+     * @return A cursor over the rows of every range in order.
+     */
+    public static RowCursor open(String filename, long[] ranges, ChunkScanner scanner) {
+        List<Range> plan = new ArrayList<>();
+        for (int i = 0; i < ranges.length; i += 2) {
+            plan.add(new Range(0, ranges[i], ranges[i + 1], i + 2 == ranges.length));
+        }
+        RangeScan<List<Row>> scan = new RangeScan<>(List.of(filename), plan,
+                (file, parser) -> scanner.scan(parser), null);
+
+        return new RowCursor() {
+            private Iterator<Row> current;
+            private Row row;
+
+            @Override
+            public boolean next() throws IOException {
+                while (current == null || !current.hasNext()) {
+                    List<Row> rows = scan.next();
+                    if (rows == null) {
+                        row = null;
+                        return false;
+                    }
+                    current = rows.iterator();
+                }
+                row = current.next();
+                return true;
+            }
+
+            @Override
+            public Row row() {
+                return row;
+            }
+
+            @Override
+            public void close() {
+                scan.close();
+            }
+        };
+    }
+
+    /**
+     * Splits files into ranges of roughly the specified size (see split).
+     *
+     * @param filenames The names of the files to split.
+     * @param chunkSize The target size of each range.
+     * @return The ranges of every file, one file after another.
+     * @throws IOException if a file cannot be read.
+     */
+    static List<Range> ranges(List<String> filenames, long chunkSize) throws IOException {
+        List<Range> ranges = new ArrayList<>();
+        for (int f = 0; f < filenames.size(); f++) {
+            long[] bounds = split(filenames.get(f), chunkSize);
+            for (int i = 0; i < bounds.length - 1; i++) {
+                ranges.add(new Range(f, bounds[i], bounds[i + 1], i == bounds.length - 2));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Scans ranges of files on the common pool and returns their results in
+     * order, at most twice as many ranges in flight as the pool has workers.
+     * When a range turns out to start inside a record, because the record
+     * before it ends past its start, it is scanned again from the end of that
+     * record and the result of the first scan is dropped.
+     */
+    static final class RangeScan<T> implements Closeable {
+
+        /**
+         * A range with the task scanning it.
+         */
+        private static final class Pending<T> {
+            final Range range;
+            final ForkJoinTask<Scanned<T>> task;
+
+            Pending(Range range, ForkJoinTask<Scanned<T>> task) {
+                this.range = range;
+                this.task = task;
+            }
+        }
+
+        /**
+         * The result of a range and the offset just past its last record.
+         */
+        private static final class Scanned<T> {
+            final T result;
+            final long end;
+
+            Scanned(T result, long end) {
+                this.result = result;
+                this.end = end;
+            }
+        }
+
+        private final List<String> filenames;
+        private final List<Range> ranges;
+        private final RangeScanner<T> scanner;
+        private final Consumer<T> discard;
+        private final ForkJoinPool pool = ForkJoinPool.commonPool();
+        private final int maxInFlight = 2 * pool.getParallelism();
+        private final ArrayDeque<Pending<T>> inFlight = new ArrayDeque<>();
+        private int nextRange;
+        private Range current;
+
+        /**
+         * Prepares to scan ranges; nothing is scanned until next is called.
+         *
+         * @param filenames The names of the files the ranges are in.
+         * @param ranges The ranges in order, the first of each file starting on
+         *               a record.
+         * @param scanner Scans each range.
+         * @param discard Releases the result of a range scanned again, or null
+         *                if results hold nothing to release.
+         */
+        RangeScan(List<String> filenames, List<Range> ranges, RangeScanner<T> scanner,
+                  Consumer<T> discard) {
+            this.filenames = filenames;
+            this.ranges = new ArrayList<>(ranges);
+            this.scanner = scanner;
+            this.discard = discard;
+        }
+
+        /**
+         * Returns the result of the next range.
+         *
+         * @return The result, or null after the last range.
+         * @throws IOException if a range cannot be read.
+         */
+        T next() throws IOException {
+            submit();
+            Pending<T> pending = inFlight.poll();
+            if (pending == null) {
+                current = null;
+                return null;
+            }
+            Scanned<T> scanned = await(pending.task);
+            current = pending.range;
+            Range following = !inFlight.isEmpty() ? inFlight.peek().range
+                    : nextRange < ranges.size() ? ranges.get(nextRange) : null;
+            if (following != null && following.file == current.file
+                    && following.start == current.end && scanned.end != following.start) {
+                // The following range starts inside a record, such as after a
+                // quoted line break
+                Range fixed = new Range(following.file, scanned.end, following.end,
+                        following.last);
+                if (inFlight.isEmpty()) {
+                    ranges.set(nextRange, fixed);
+                } else {
+                    drop(inFlight.poll());
+                    inFlight.addFirst(new Pending<>(fixed, submit(fixed)));
+                }
+            }
+            submit();
+            return scanned.result;
+        }
+
+        /**
+         * Returns the range of the result last returned by next.
+         *
+         * @return The range, with the start it was scanned from.
+         */
+        Range current() {
+            return current;
+        }
+
+        private void submit() {
+            while (inFlight.size() < maxInFlight && nextRange < ranges.size()) {
+                Range range = ranges.get(nextRange++);
+                inFlight.add(new Pending<>(range, submit(range)));
+            }
+        }
+
+        private ForkJoinTask<Scanned<T>> submit(Range range) {
+            String filename = filenames.get(range.file);
+            return pool.submit(() -> {
+                try (CSVParser parser = new CSVParser(filename, range.start, range.end)) {
+                    T result = scanner.scan(range.file, parser);
+                    return new Scanned<>(result, parser.position());
+                }
+            });
+        }
+
+        /**
+         * Drops the scan of a range that did not start on a record, releasing
+         * its result once it is done and ignoring any error it met.
+         */
+        private void drop(Pending<T> pending) {
+            if (discard == null) {
+                pending.task.cancel(true);
+                return;
+            }
+            try {
+                discard.accept(pending.task.get().result);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                // The range was parsed from the middle of a record
+            }
+        }
+
+        private static <T> Scanned<T> await(ForkJoinTask<Scanned<T>> task) throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Parallel scan interrupted");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * Cancels the ranges still in flight.
+         */
+        @Override
+        public void close() {
+            for (Pending<T> pending : inFlight) {
+                pending.task.cancel(true);
+            }
+            inFlight.clear();
+            nextRange = ranges.size();
+        }
+    }
+}
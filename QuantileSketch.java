@@ -0,0 +1,239 @@
+import java.util.Arrays;
+
+/**
+ * Estimates quantiles of a stream of numbers, such as the median or the 99th
+ * percentile, in fixed memory with a KLL sketch. Numbers are kept in levels
+ * where a number at level h stands for 2^h numbers of the stream. When the
+ * sketch is full the lowest full level is compacted: it is sorted and every
+ * other number, starting at the first or the second, moves up a level. Upper
+ * levels hold more numbers than lower ones, so the sketch holds about 3k
+ * numbers and the rank of an estimated quantile is off by about 1.7/k of the
+ * count, 0.8% with the default k. Streams of up to k numbers are kept whole
+ * and their quantiles are exact.
+ *
+ * Two sketches of different parts of a stream merge into a sketch of the whole
+ * by joining their levels and compacting again, so parts can be summarized in
+ * parallel. The minimum and maximum are kept exactly.
+ *
+ * @author Ajay Shenoy
+ */
+public class QuantileSketch {
+
+    /** The default capacity of the top level. */
+    public static final int DEFAULT_K = 200;
+
+    private final int k;
+    private double[][] levels = {new double[8]};
+    private int[] sizes = {0};
+    private int[] capacities;
+    private int retained;
+    private int maxRetained;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private long coins = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Creates a sketch with the default capacity.
+     */
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Creates a sketch.
+     *
+     * @param k The capacity of the top level; larger is more accurate.
+     * @throws IllegalArgumentException if k is less than 8.
+     */
+    public QuantileSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("Sketch capacity must be at least 8: " + k);
+        }
+        this.k = k;
+        computeCapacities();
+    }
+
+    /**
+     * Adds a number. NaN is ignored.
+     *
+     * @param value The number to add.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        append(0, value);
+        compress();
+    }
+
+    /**
+     * Adds the numbers of another sketch to this one.
+     *
+     * @param other The sketch to merge, which is left unchanged.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        while (levels.length < other.levels.length) {
+            addLevel();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        compress();
+    }
+
+    /**
+     * Returns the number of numbers added.
+     *
+     * @return The count.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Returns the smallest number added.
+     *
+     * @return The minimum, or NaN if the sketch is empty.
+     */
+    public double min() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * Returns the largest number added.
+     *
+     * @return The maximum, or NaN if the sketch is empty.
+     */
+    public double max() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Estimates a quantile: the smallest number that at least a fraction of the
+     * numbers added are less than or equal to.
+     *
+     * @param fraction The fraction, from 0 for the minimum to 1 for the maximum.
+     * @return The estimated quantile, or NaN if the sketch is empty.
+     * @throws IllegalArgumentException if the fraction is not between 0 and 1.
+     */
+    public double quantile(double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + fraction);
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (fraction == 0) {
+            return min;
+        }
+        if (fraction == 1) {
+            return max;
+        }
+        // Walk the sorted levels together in order of value up to the rank
+        double[][] sorted = new double[levels.length][];
+        int[] next = new int[levels.length];
+        for (int h = 0; h < levels.length; h++) {
+            sorted[h] = Arrays.copyOf(levels[h], sizes[h]);
+            Arrays.sort(sorted[h]);
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long weight = 0;
+        while (true) {
+            int lowest = -1;
+            for (int h = 0; h < sorted.length; h++) {
+                if (next[h] < sorted[h].length && (lowest < 0
+                        || sorted[h][next[h]] < sorted[lowest][next[lowest]])) {
+                    lowest = h;
+                }
+            }
+            if (lowest < 0) {
+                return max;
+            }
+            weight += 1L << lowest;
+            if (weight >= rank) {
+                return sorted[lowest][next[lowest]];
+            }
+            next[lowest]++;
+        }
+    }
+
+    private void append(int level, double value) {
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], 2 * levels[level].length);
+        }
+        levels[level][sizes[level]++] = value;
+        retained++;
+    }
+
+    /**
+     * Compacts the lowest full level until the sketch is within its capacity.
+     */
+    private void compress() {
+        while (retained > maxRetained) {
+            for (int h = 0; h < levels.length; h++) {
+                if (sizes[h] >= capacities[h]) {
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts a level and moves every other number up a level, leaving the
+     * smallest number behind when the level holds an odd number of them.
+     */
+    private void compact(int level) {
+        if (level == levels.length - 1) {
+            addLevel();
+        }
+        double[] items = levels[level];
+        int n = sizes[level];
+        Arrays.sort(items, 0, n);
+        int kept = n & 1;
+        // xorshift, so a sketch compacts the same way every time it is built
+        coins ^= coins << 13;
+        coins ^= coins >>> 7;
+        coins ^= coins << 17;
+        int offset = (int) (coins >>> 63);
+        sizes[level] = kept;
+        retained -= n - kept;
+        for (int i = kept + offset; i < n; i += 2) {
+            append(level + 1, items[i]);
+        }
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        levels[levels.length - 1] = new double[8];
+        sizes = Arrays.copyOf(sizes, sizes.length + 1);
+        computeCapacities();
+    }
+
+    /**
+     * Gives the top level a capacity of k and each level below two thirds of
+     * the one above, but at least 2.
+     */
+    private void computeCapacities() {
+        capacities = new int[levels.length];
+        maxRetained = 0;
+        double capacity = k;
+        for (int h = levels.length - 1; h >= 0; h--) {
+            capacities[h] = Math.max(2, (int) Math.ceil(capacity));
+            maxRetained += capacities[h];
+            capacity *= 2.0 / 3;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches a regular expression against records of a CSVParser, skipping the
+ * regular expression engine for records that cannot match. When compiled, the
+ * longest literal text that every match must contain is taken from the
+ * expression; a record or field is only decoded and handed to the engine if
+ * its raw bytes contain that text. The expression is searched for anywhere in
+ * the text, as Matcher.find does, so it can be anchored with ^ and $.
+ *
+ * The literal is found by a conservative reading of the expression: text
+ * inside groups and character classes, optional characters and whole
+ * expressions with alternatives at the top level give no literal, and neither
+ * do expressions with inline flags. Without a literal every record is handed to
+ * the engine.
+ *
+ * @author Ajay Shenoy
+ */
+public class RegexMatcher {
+
+    private final Pattern pattern;
+    private final String literal;
+    private final byte[] needle;
+
+    /**
+     * Compiles a regular expression.
+     *
+     * @param regex The regular expression.
+     * @throws IllegalArgumentException if the expression is not valid.
+     */
+    public RegexMatcher(String regex) {
+        try {
+            this.pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid pattern: " + e.getDescription()
+                    + " in " + regex);
+        }
+        this.literal = requiredLiteral(regex);
+        this.needle = literal == null ? null : literal.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the literal text checked before the engine runs.
+     *
+     * @return The literal, or null if there is none.
+     */
+    public String literal() {
+        return literal;
+    }
+
+    /**
+     * Checks whether the raw text of the current record of a parser, without
+     * its line terminator, matches.
+     *
+     * @param parser The parser positioned on the record.
+     * @return true if the expression is found in the record.
+     */
+    public boolean matchesLine(CSVParser parser) {
+        if (needle != null && !parser.lineContains(needle)) {
+            return false;
+        }
+        return pattern.matcher(parser.line()).find();
+    }
+
+    /**
+     * Checks whether the trimmed value of a field of the current record of a
+     * parser matches.
+     *
+     * @param parser The parser positioned on the record.
+     * @param index The index of the field.
+     * @return true if the expression is found in the value.
+     */
+    public boolean matchesField(CSVParser parser, int index) {
+        if (needle != null && !parser.fieldContains(index, needle)) {
+            return false;
+        }
+        return pattern.matcher(parser.field(index).trim()).find();
+    }
+
+    /**
+     * Finds the longest literal text that every match of a regular expression
+     * contains.
+     *
+     * @param regex A valid regular expression.
+     * @return The literal, or null if none is found.
+     */
+    static String requiredLiteral(String regex) {
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        int length = regex.length();
+        while (i < length) {
+            char c = regex.charAt(i);
+            String atom = null;
+            if (c == '|') {
+                // Any one alternative may match, so nothing is required
+                return null;
+            } else if (c == '\\') {
+                if (i + 1 >= length) {
+                    return null;
+                }
+                char escaped = regex.charAt(i + 1);
+                if (escaped == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    String quoted = regex.substring(i + 2, end < 0 ? length : end);
+                    i = end < 0 ? length : end + 2;
+                    if (quantified(regex, i)) {
+                        // Only the last character is repeated
+                        run.append(quoted, 0, Math.max(0, quoted.length() - 1));
+                        longest = longer(longest, run);
+                        run.setLength(0);
+                        i = skipQuantifier(regex, i);
+                    } else {
+                        run.append(quoted);
+                    }
+                    continue;
+                }
+                if (Character.isLetterOrDigit(escaped)) {
+                    i = skipEscape(regex, i);
+                } else {
+                    atom = String.valueOf(escaped);
+                    i += 2;
+                }
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+            } else if (c == '(') {
+                if (regex.startsWith("(?", i) && i + 2 < length
+                        && Character.isLetter(regex.charAt(i + 2))) {
+                    // Inline flags such as (?i) change how literals match
+                    return null;
+                }
+                i = skipGroup(regex, i);
+                if (i < 0) {
+                    return null;
+                }
+            } else if (c == '.' || c == '^' || c == '$' || c == ')') {
+                i++;
+            } else if (c == '*' || c == '+' || c == '?' || c == '{') {
+                // A quantifier after something that is not a literal
+                i = skipQuantifier(regex, i);
+            } else {
+                atom = String.valueOf(c);
+                i++;
+                if (Character.isHighSurrogate(c) && i < length) {
+                    atom += regex.charAt(i++);
+                }
+            }
+
+            if (atom == null) {
+                longest = longer(longest, run);
+                run.setLength(0);
+                continue;
+            }
+            if (!quantified(regex, i)) {
+                run.append(atom);
+                continue;
+            }
+            if (minimumRepeats(regex, i) > 0) {
+                // The character is there at least once, but the text after it may
+                // follow more copies of it
+                run.append(atom);
+            }
+            longest = longer(longest, run);
+            run.setLength(0);
+            i = skipQuantifier(regex, i);
+        }
+        longest = longer(longest, run);
+        return longest.isEmpty() ? null : longest;
+    }
+
+    private static String longer(String longest, StringBuilder run) {
+        return run.toString().getBytes(StandardCharsets.UTF_8).length
+                > longest.getBytes(StandardCharsets.UTF_8).length ? run.toString() : longest;
+    }
+
+    private static boolean quantified(String regex, int i) {
+        return i < regex.length() && "*+?{".indexOf(regex.charAt(i)) >= 0;
+    }
+
+    /**
+     * Returns the least number of times the quantifier at i repeats its atom.
+     */
+    private static int minimumRepeats(String regex, int i) {
+        char c = regex.charAt(i);
+        if (c == '+') {
+            return 1;
+        }
+        if (c != '{') {
+            return 0;
+        }
+        int end = i + 1;
+        while (end < regex.length() && Character.isDigit(regex.charAt(end))) {
+            end++;
+        }
+        return end == i + 1 ? 0 : Integer.parseInt(regex.substring(i + 1, end));
+    }
+
+    /**
+     * Skips a quantifier and any lazy or possessive suffix.
+     */
+    private static int skipQuantifier(String regex, int i) {
+        if (regex.charAt(i) == '{') {
+            int end = regex.indexOf('}', i);
+            i = end < 0 ? regex.length() : end + 1;
+        } else {
+            i++;
+        }
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skips an escape that is not a literal character, such as \d, \x41,
+     * \p{Lu} or a back reference.
+     */
+    private static int skipEscape(String regex, int i) {
+        int length = regex.length();
+        char escaped = regex.charAt(i + 1);
+        i += 2;
+        switch (escaped) {
+            case 'x':
+                if (i < length && regex.charAt(i) == '{') {
+                    return regex.indexOf('}', i) + 1;
+                }
+                return Math.min(length, i + 2);
+            case 'u':
+                return Math.min(length, i + 4);
+            case 'c':
+                return Math.min(length, i + 1);
+            case 'p':
+            case 'P':
+            case 'N':
+                if (i < length && regex.charAt(i) == '{') {
+                    return regex.indexOf('}', i) + 1;
+                }
+                return Math.min(length, i + 1);
+            case 'k':
+                return regex.indexOf('>', i) + 1;
+            default:
+                while (Character.isDigit(escaped) && i < length
+                        && Character.isDigit(regex.charAt(i))) {
+                    i++;
+                }
+                return i;
+        }
+    }
+
+    /**
+     * Skips a character class, which may contain nested classes and escapes.
+     */
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+        int length = regex.length();
+        while (i < length) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                i++;
+                // A ] right after [ or [^ is a member of the class
+                if (i < length && regex.charAt(i) == '^') {
+                    i++;
+                }
+                if (i < length && regex.charAt(i) == ']') {
+                    i++;
+                }
+                continue;
+            }
+            i++;
+            if (c == ']' && --depth == 0) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Skips a group with everything inside it, returning -1 if a group inside it
+     * holds inline flags.
+     */
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        int length = regex.length();
+        while (i < length) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < length && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    i = end < 0 ? length : end + 2;
+                } else {
+                    i += 2;
+                }
+                continue;
+            }
+            if (c == '[') {
+                i = skipClass(regex, i);
+                continue;
+            }
+            if (c == '(') {
+                if (regex.startsWith("(?", i) && i + 2 < length
+                        && Character.isLetter(regex.charAt(i + 2))) {
+                    return -1;
+                }
+                depth++;
+            }
+            i++;
+            if (c == ')' && --depth == 0) {
+                break;
+            }
+        }
+        // A quantifier on the group applies to all of it
+        return quantified(regex, i) ? skipQuantifier(regex, i) : i;
+    }
+}
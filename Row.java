@@ -0,0 +1,357 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A single record produced by a RowCursor, holding the values of its fields.
+ * A row read by CSVParser.row holds the raw bytes of the record and the offsets
+ * of its fields instead, and only decodes a field into a String when it is asked
+ * for. Cursors may refill the same row for every record, so a row is only valid
+ * until the next call to next(); call detach() to keep it longer.
+ *
+ * @author Ajay Shenoy
+ */
+public class Row {
+
+    private static final byte QUOTE = '"';
+
+    private String[] values;
+    private int size;
+    private byte[] buffer;
+    private int length;
+    private int[] starts;
+    private int[] ends;
+    private boolean[] quoted;
+    private boolean anyQuoted;
+
+    /**
+     * Creates a row holding the specified values.
+     *
+     * @param values The values of the fields in the row.
+     */
+    public Row(String[] values) {
+        this.values = values;
+        this.size = values.length;
+    }
+
+    /**
+     * Creates an empty row to be filled by CSVParser.row.
+     */
+    Row() {
+        this.buffer = new byte[0];
+        this.starts = new int[0];
+        this.ends = new int[0];
+        this.quoted = new boolean[0];
+    }
+
+    /**
+     * Replaces the contents of the row with a copy of a record's bytes. Field
+     * offsets are relative to the source buffer and are rebased to the copy.
+     *
+     * @param source The buffer holding the record.
+     * @param offset The offset of the record in the source buffer.
+     * @param recordLength The length of the record.
+     * @param fieldStarts The offsets of the first byte of each field.
+     * @param fieldEnds The offsets just past the last byte of each field.
+     * @param fieldQuoted Whether each field is quoted.
+     * @param count The number of fields.
+     */
+    void load(ByteBuffer source, int offset, int recordLength, int[] fieldStarts,
+              int[] fieldEnds, boolean[] fieldQuoted, int count) {
+        if (buffer.length < recordLength) {
+            buffer = new byte[Math.max(recordLength, Math.max(256, buffer.length * 2))];
+        }
+        source.get(offset, buffer, 0, recordLength);
+        if (starts.length < count) {
+            int capacity = Math.max(count, Math.max(16, starts.length * 2));
+            starts = new int[capacity];
+            ends = new int[capacity];
+            quoted = new boolean[capacity];
+        }
+        anyQuoted = false;
+        for (int i = 0; i < count; i++) {
+            starts[i] = fieldStarts[i] - offset;
+            ends[i] = fieldEnds[i] - offset;
+            quoted[i] = fieldQuoted[i];
+            anyQuoted |= fieldQuoted[i];
+        }
+        if (values != null) {
+            Arrays.fill(values, null);
+        }
+        length = recordLength;
+        size = count;
+    }
+
+    /**
+     * Writes a row filled by CSVParser.row, so that read can restore it without
+     * parsing the record again.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if the row cannot be written.
+     */
+    void write(DataOutput out) throws IOException {
+        Sidecar.writeVarint(out, length);
+        out.write(buffer, 0, length);
+        Sidecar.writeVarint(out, size);
+        for (int i = 0; i < size; i++) {
+            Sidecar.writeVarint(out, starts[i]);
+            Sidecar.writeVarint(out, ((long) (ends[i] - starts[i]) << 1) | (quoted[i] ? 1 : 0));
+        }
+    }
+
+    /**
+     * Reads a row written by write.
+     *
+     * @param in The stream to read from.
+     * @return The row.
+     * @throws IOException if the row cannot be read.
+     */
+    static Row read(DataInput in) throws IOException {
+        Row row = new Row();
+        row.length = (int) Sidecar.readVarint(in);
+        row.buffer = new byte[row.length];
+        in.readFully(row.buffer);
+        row.size = (int) Sidecar.readVarint(in);
+        row.starts = new int[row.size];
+        row.ends = new int[row.size];
+        row.quoted = new boolean[row.size];
+        for (int i = 0; i < row.size; i++) {
+            row.starts[i] = (int) Sidecar.readVarint(in);
+            long field = Sidecar.readVarint(in);
+            row.ends[i] = row.starts[i] + (int) (field >>> 1);
+            row.quoted[i] = (field & 1) != 0;
+            row.anyQuoted |= row.quoted[i];
+        }
+        return row;
+    }
+
+    /**
+     * Returns the number of fields in the row.
+     *
+     * @return The number of fields.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of a field in the row.
+     *
+     * @param index The index of the field.
+     * @return The value of the field.
+     */
+    public String get(int index) {
+        if (buffer == null) {
+            return values[index];
+        }
+        if (index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        if (values == null || values.length < size) {
+            values = new String[Math.max(size, starts.length)];
+        }
+        String value = values[index];
+        if (value == null) {
+            value = decode(index);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a field from the buffer, collapsing doubled quotes in quoted fields.
+     */
+    private String decode(int index) {
+        int s = starts[index];
+        int e = ends[index];
+        if (!quoted[index]) {
+            return new String(buffer, s, e - s, StandardCharsets.UTF_8);
+        }
+        byte[] field = new byte[e - s];
+        int out = 0;
+        for (int i = s; i < e; i++) {
+            field[out++] = buffer[i];
+            if (buffer[i] == QUOTE && i + 1 < e && buffer[i + 1] == QUOTE) {
+                i++;
+            }
+        }
+        return new String(field, 0, out, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a row with the same values that is not reused by the cursor it
+     * came from. Rows holding record bytes copy only the bytes, so fields are
+     * still decoded on demand.
+     *
+     * @return An independent row.
+     */
+    public Row detach() {
+        if (buffer == null) {
+            return this;
+        }
+        Row copy = new Row();
+        copy.buffer = Arrays.copyOf(buffer, length);
+        copy.length = length;
+        copy.starts = Arrays.copyOf(starts, size);
+        copy.ends = Arrays.copyOf(ends, size);
+        copy.quoted = Arrays.copyOf(quoted, size);
+        copy.anyQuoted = anyQuoted;
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Checks whether the raw text of a row filled by CSVParser.row contains the
+     * specified bytes, as CSVParser.lineContains does for the record.
+     *
+     * @param needle The UTF-8 bytes to look for.
+     * @return true if the row contains the bytes, false otherwise.
+     */
+    boolean contains(byte[] needle) {
+        int last = length - needle.length;
+        for (int i = 0; i <= last; i++) {
+            int j = 0;
+            while (j < needle.length && buffer[i + j] == needle[j]) {
+                j++;
+            }
+            if (j == needle.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Estimates the heap used by a detached row filled by CSVParser.row.
+     *
+     * @return The estimated size in bytes.
+     */
+    long memorySize() {
+        // Object headers and fields, then the arrays with their headers
+        return 64 + 16 + buffer.length + 3 * 16 + 9L * starts.length;
+    }
+
+    /**
+     * Returns the values of the row as an array.
+     *
+     * @return The values of the fields.
+     */
+    public String[] toArray() {
+        if (buffer == null) {
+            return values;
+        }
+        String[] array = new String[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Adds the values of the row to the current line of a RowWriter. A row
+     * filled by CSVParser.row hands over the raw bytes of its fields, so they
+     * are written without being decoded.
+     *
+     * @param out The writer to add the values to.
+     * @throws IOException if the file cannot be written.
+     */
+    void writeTo(RowWriter out) throws IOException {
+        if (buffer == null) {
+            for (int i = 0; i < size; i++) {
+                out.field(values[i]);
+            }
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            out.field(buffer, starts[i], ends[i], quoted[i]);
+        }
+    }
+
+    /**
+     * Returns the row as a line of CSV. A row read from a file is returned as
+     * its record, exactly as it is in the file without its line terminator;
+     * otherwise the values are joined by commas and any value holding a comma,
+     * a quote or a line break is quoted.
+     *
+     * @return The line of CSV.
+     */
+    public String toCsv() {
+        if (wholeRecord()) {
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            String value = get(i);
+            if (value == null) {
+                continue;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0) {
+                line.append(value);
+            } else {
+                line.append('"').append(value.replace("\"", "\"\"")).append('"');
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Writes the bytes of the record the row was read from as they are in the
+     * file, which a writer of CSV can do instead of writing the values.
+     *
+     * @param out The writer to add the record to.
+     * @return false if the row has no whole record to write.
+     * @throws IOException if the file cannot be written.
+     */
+    boolean writeRecordTo(RowWriter out) throws IOException {
+        if (!wholeRecord()) {
+            return false;
+        }
+        out.record(buffer, 0, length);
+        return true;
+    }
+
+    /**
+     * Returns whether the row holds every field of the record in its buffer, so
+     * the record can be copied as it is.
+     */
+    private boolean wholeRecord() {
+        return buffer != null && (size == 0 || ends[size - 1] == length
+                || (quoted[size - 1] && ends[size - 1] + 1 == length));
+    }
+
+    /**
+     * Joins the values of the row with the specified separator.
+     *
+     * @param separator The text to put between values.
+     * @return The joined values.
+     */
+    public String join(String separator) {
+        if (buffer == null) {
+            return String.join(separator, values);
+        }
+        if (!anyQuoted && separator.equals(",") && (size == 0 || ends[size - 1] == length)) {
+            // The record itself is the joined text
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+        StringBuilder joined = new StringBuilder(length + size * separator.length());
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                joined.append(separator);
+            }
+            joined.append(get(i));
+        }
+        return joined.toString();
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
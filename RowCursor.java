@@ -0,0 +1,58 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A pull-based cursor over the rows produced by an operation. Rows are read
+ * lazily as the cursor advances, so a caller only holds the current row in
+ * memory. A cursor must be closed once the caller is done with it.
+ *
+ * @author Ajay Shenoy
+ */
+public interface RowCursor extends Closeable {
+
+    /**
+     * Advances to the next row.
+     *
+     * @return true if there is a current row, false once the rows are exhausted.
+     * @throws IOException if the underlying file cannot be read.
+     */
+    boolean next() throws IOException;
+
+    /**
+     * Returns the current row. Only valid after next() returned true, and only
+     * until the following call to next(), since cursors may refill the same row
+     * for every record; use Row.detach() to keep a row.
+     *
+     * @return The current row.
+     */
+    Row row();
+
+    /**
+     * Creates a cursor over rows that are already in memory.
+     *
+     * @param rows The rows to return.
+     * @return A cursor over the rows.
+     */
+    static RowCursor of(Iterable<String[]> rows) {
+        Iterator<String[]> iterator = rows.iterator();
+        return new RowCursor() {
+            private Row row;
+
+            @Override
+            public boolean next() {
+                row = iterator.hasNext() ? new Row(iterator.next()) : null;
+                return row != null;
+            }
+
+            @Override
+            public Row row() {
+                return row;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
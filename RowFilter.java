@@ -0,0 +1,703 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A condition on the columns of a CSV row, built from clauses on single columns
+ * (equals, contains, starts with, regular expressions, numeric comparisons)
+ * combined with AND, OR and NOT. A filter is compiled against the header of a
+ * file into an Evaluator that tests records straight from a CSVParser: only the
+ * fields the filter references are split out and decoded, and they are compared
+ * as bytes or parsed as numbers without creating strings. Values are trimmed
+ * before they are compared. A record too short to contain a column does not
+ * satisfy any clause on it, nor the negation of any filter that references it,
+ * so {@code City != Boston} skips a record without a City field.
+ *
+ * @author Ajay Shenoy
+ */
+public abstract class RowFilter {
+
+    private RowFilter() {
+    }
+
+    /**
+     * Creates a clause that matches rows whose value in a column equals a value.
+     *
+     * @param columnName The name of the column.
+     * @param value The value to compare with.
+     * @return The filter.
+     */
+    public static RowFilter equalTo(String columnName, String value) {
+        return new Clause(columnName, Clause.EQUALS, value, null, 0, 0);
+    }
+
+    /**
+     * Creates a clause that matches rows whose value in a column contains a text.
+     *
+     * @param columnName The name of the column.
+     * @param text The text to look for.
+     * @return The filter.
+     */
+    public static RowFilter contains(String columnName, String text) {
+        return new Clause(columnName, Clause.CONTAINS, text, null, 0, 0);
+    }
+
+    /**
+     * Creates a clause that matches rows whose value in a column starts with a prefix.
+     *
+     * @param columnName The name of the column.
+     * @param prefix The prefix to look for.
+     * @return The filter.
+     */
+    public static RowFilter startsWith(String columnName, String prefix) {
+        return new Clause(columnName, Clause.PREFIX, prefix, null, 0, 0);
+    }
+
+    /**
+     * Creates a clause that matches rows whose value in a column contains a match
+     * of a regular expression (see RegexMatcher).
+     *
+     * @param columnName The name of the column.
+     * @param regex The regular expression.
+     * @return The filter.
+     * @throws IllegalArgumentException if the expression is not valid.
+     */
+    public static RowFilter matches(String columnName, String regex) {
+        return new Clause(columnName, Clause.REGEX, regex, null, 0, 0);
+    }
+
+    /**
+     * Creates a clause that matches rows whose value in a column is a number
+     * satisfying a comparison. Rows with no number in the column do not match.
+     *
+     * @param columnName The name of the column.
+     * @param comparison The comparison to apply.
+     * @param low The value to compare with, or the lower bound of BETWEEN.
+     * @param high The upper bound of BETWEEN, ignored otherwise.
+     * @return The filter.
+     */
+    public static RowFilter compare(String columnName, TypedColumn.Comparison comparison,
+                                    double low, double high) {
+        return new Clause(columnName, Clause.NUMBER, null, comparison, low, high);
+    }
+
+    /**
+     * Creates a filter that matches rows matching every one of the filters.
+     *
+     * @param filters The filters to combine.
+     * @return The filter.
+     */
+    public static RowFilter and(RowFilter... filters) {
+        return new Compound(true, filters);
+    }
+
+    /**
+     * Creates a filter that matches rows matching any of the filters.
+     *
+     * @param filters The filters to combine.
+     * @return The filter.
+     */
+    public static RowFilter or(RowFilter... filters) {
+        return new Compound(false, filters);
+    }
+
+    /**
+     * Creates a filter that matches rows the filter does not match.
+     *
+     * @param filter The filter to negate.
+     * @return The filter.
+     */
+    public static RowFilter not(RowFilter filter) {
+        return new Not(filter);
+    }
+
+    /**
+     * Parses a filter expression such as
+     * {@code City = Boston AND (Age > 30 OR NOT Name startswith "Dr ")}.
+     * A clause is a column name, an operator (=, !=, contains, startswith,
+     * matches, <, > or between) and a value, or two values for between; the
+     * value of matches is a regular expression. Names and values with
+     * spaces or parentheses are written in double quotes, doubling any quote
+     * inside them. Keywords are not case sensitive; NOT binds tightest, then AND,
+     * then OR.
+     *
+     * @param expression The expression to parse.
+     * @return The filter.
+     * @throws IllegalArgumentException if the expression is not valid.
+     */
+    public static RowFilter parse(String expression) {
+        return new Parser(expression).parse();
+    }
+
+    /**
+     * Compiles the filter against the header of a file.
+     *
+     * @param headers The header row of the file.
+     * @return A new evaluator. Evaluators keep statistics and are not thread safe,
+     * so each scan compiles its own.
+     * @throws IllegalArgumentException if a column of the filter does not exist.
+     */
+    public abstract Evaluator compile(String[] headers);
+
+    /**
+     * Tests the records of a CSVParser against a compiled filter. Compound
+     * filters evaluate their operands in order of cost per decided record and
+     * stop as soon as the result is known; the order is adjusted as the observed
+     * selectivity of each operand changes.
+     */
+    public abstract static class Evaluator {
+
+        private Evaluator() {
+        }
+
+        /**
+         * Tests the current record of a parser.
+         *
+         * @param parser The parser positioned on the record, split into at least
+         *               fieldsNeeded() fields when the record has that many.
+         * @return true if the record matches the filter.
+         */
+        public abstract boolean test(CSVParser parser);
+
+        /**
+         * Returns the number of leading fields the evaluator reads, which is the
+         * number to pass to CSVParser.next(maxFields).
+         *
+         * @return The index of the last referenced column plus one.
+         */
+        public abstract int fieldsNeeded();
+
+        /**
+         * Checks from the statistics of a block of the file (see ZoneMap) whether
+         * any of its records may match.
+         *
+         * @param block The statistics of the block.
+         * @return false if no record of the block matches, true if some may.
+         */
+        boolean mayMatch(ZoneMap.Block block) {
+            return true;
+        }
+
+        /**
+         * Returns the estimated relative cost of one test.
+         */
+        abstract double cost();
+    }
+
+    /**
+     * A condition on the value of a single column.
+     */
+    private static final class Clause extends RowFilter {
+        static final int EQUALS = 0;
+        static final int CONTAINS = 1;
+        static final int PREFIX = 2;
+        static final int NUMBER = 3;
+        static final int REGEX = 4;
+
+        private final String columnName;
+        private final int kind;
+        private final String value;
+        private final TypedColumn.Comparison comparison;
+        private final double low;
+        private final double high;
+        private final RegexMatcher regex;
+
+        Clause(String columnName, int kind, String value, TypedColumn.Comparison comparison,
+               double low, double high) {
+            this.columnName = columnName;
+            this.kind = kind;
+            this.value = value;
+            this.comparison = comparison;
+            this.low = low;
+            this.high = high;
+            this.regex = kind == REGEX ? new RegexMatcher(value) : null;
+        }
+
+        @Override
+        public Evaluator compile(String[] headers) {
+            int index = -1;
+            for (int i = 0; i < headers.length; i++) {
+                if (headers[i].trim().equals(columnName)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == -1) {
+                throw new IllegalArgumentException("Column not found: " + columnName);
+            }
+            int column = index;
+            if (kind == NUMBER) {
+                return numberEvaluator(column);
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            double cost = kind == REGEX ? 4 : kind == CONTAINS ? 2 : 1;
+            return new Evaluator() {
+                @Override
+                public boolean test(CSVParser parser) {
+                    if (parser.fieldCount() <= column) {
+                        return false;
+                    }
+                    switch (kind) {
+                        case EQUALS:
+                            return parser.fieldEquals(column, bytes);
+                        case PREFIX:
+                            return parser.fieldStartsWith(column, bytes);
+                        case REGEX:
+                            return regex.matchesField(parser, column);
+                        default:
+                            return parser.fieldContains(column, bytes);
+                    }
+                }
+
+                @Override
+                public int fieldsNeeded() {
+                    return column + 1;
+                }
+
+                @Override
+                boolean mayMatch(ZoneMap.Block block) {
+                    if (column >= block.columns.length) {
+                        return true;
+                    }
+                    ZoneMap.Column stats = block.columns[column];
+                    switch (kind) {
+                        case EQUALS:
+                            return bytes.length == 0 ? stats.empty > 0
+                                    : stats.mayContain(bytes);
+                        case PREFIX:
+                            return bytes.length == 0 || stats.mayStartWith(bytes);
+                        default:
+                            return true;
+                    }
+                }
+
+                @Override
+                double cost() {
+                    return cost;
+                }
+            };
+        }
+
+        private Evaluator numberEvaluator(int column) {
+            // Integers are compared exactly against the range of longs the bounds allow
+            long[] range = TypedColumn.integerRange(comparison, low, high);
+            double max = comparison == TypedColumn.Comparison.BETWEEN ? high : low;
+            return new Evaluator() {
+                @Override
+                public boolean test(CSVParser parser) {
+                    if (parser.fieldCount() <= column) {
+                        return false;
+                    }
+                    switch (parser.parseNumber(column)) {
+                        case CSVParser.INTEGER:
+                            long integer = parser.longValue();
+                            return range != null && integer >= range[0] && integer <= range[1];
+                        case CSVParser.DECIMAL:
+                            double decimal = parser.doubleValue();
+                            switch (comparison) {
+                                case LESS:
+                                    return decimal < low;
+                                case GREATER:
+                                    return decimal > low;
+                                default:
+                                    return decimal >= low && decimal <= max;
+                            }
+                        default:
+                            return false;
+                    }
+                }
+
+                @Override
+                public int fieldsNeeded() {
+                    return column + 1;
+                }
+
+                @Override
+                boolean mayMatch(ZoneMap.Block block) {
+                    if (column >= block.columns.length) {
+                        return true;
+                    }
+                    ZoneMap.Column stats = block.columns[column];
+                    switch (comparison) {
+                        case LESS:
+                            return stats.mayHoldNumber(Double.NEGATIVE_INFINITY, low);
+                        case GREATER:
+                            return stats.mayHoldNumber(low, Double.POSITIVE_INFINITY);
+                        default:
+                            return stats.mayHoldNumber(low, max);
+                    }
+                }
+
+                @Override
+                double cost() {
+                    return 3;
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            String column = Parser.quote(columnName);
+            switch (kind) {
+                case EQUALS:
+                    return column + " = " + Parser.quote(value);
+                case CONTAINS:
+                    return column + " contains " + Parser.quote(value);
+                case PREFIX:
+                    return column + " startswith " + Parser.quote(value);
+                case REGEX:
+                    return column + " matches " + Parser.quote(value);
+                default:
+                    switch (comparison) {
+                        case EQUAL:
+                            return column + " = " + low;
+                        case LESS:
+                            return column + " < " + low;
+                        case GREATER:
+                            return column + " > " + low;
+                        default:
+                            return column + " between " + low + " " + high;
+                    }
+            }
+        }
+    }
+
+    /**
+     * The negation of a filter.
+     */
+    private static final class Not extends RowFilter {
+        private final RowFilter operand;
+
+        Not(RowFilter operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public Evaluator compile(String[] headers) {
+            Evaluator evaluator = operand.compile(headers);
+            return new Evaluator() {
+                @Override
+                public boolean test(CSVParser parser) {
+                    // A missing field satisfies neither the operand nor its negation
+                    return parser.fieldCount() >= evaluator.fieldsNeeded()
+                            && !evaluator.test(parser);
+                }
+
+                @Override
+                public int fieldsNeeded() {
+                    return evaluator.fieldsNeeded();
+                }
+
+                @Override
+                double cost() {
+                    return evaluator.cost();
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "NOT (" + operand + ")";
+        }
+    }
+
+    /**
+     * Filters combined with AND or OR.
+     */
+    private static final class Compound extends RowFilter {
+        private final boolean and;
+        private final RowFilter[] operands;
+
+        Compound(boolean and, RowFilter[] operands) {
+            if (operands.length == 0) {
+                throw new IllegalArgumentException("Nothing to combine");
+            }
+            this.and = and;
+            this.operands = operands.clone();
+        }
+
+        @Override
+        public Evaluator compile(String[] headers) {
+            Evaluator[] evaluators = new Evaluator[operands.length];
+            for (int i = 0; i < operands.length; i++) {
+                evaluators[i] = operands[i].compile(headers);
+            }
+            return new CompoundEvaluator(and, evaluators);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (RowFilter operand : operands) {
+                if (text.length() > 0) {
+                    text.append(and ? " AND " : " OR ");
+                }
+                text.append('(').append(operand).append(')');
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Evaluates the operands of an AND or OR, cheapest per decided record first.
+     * An operand decides an AND when it fails and an OR when it passes, so the
+     * operands are ranked by cost / P(decides), with P estimated from the results
+     * counted since the last reordering.
+     */
+    private static final class CompoundEvaluator extends Evaluator {
+        private static final int REORDER_INTERVAL = 1024;
+
+        private final boolean and;
+        private final Evaluator[] operands;
+        private final long[] tested;
+        private final long[] passed;
+        private final int fieldsNeeded;
+        private final double cost;
+        private int untilReorder = REORDER_INTERVAL;
+
+        CompoundEvaluator(boolean and, Evaluator[] operands) {
+            this.and = and;
+            this.operands = operands;
+            this.tested = new long[operands.length];
+            this.passed = new long[operands.length];
+            int fields = 0;
+            double total = 0;
+            for (Evaluator operand : operands) {
+                fields = Math.max(fields, operand.fieldsNeeded());
+                total += operand.cost();
+            }
+            this.fieldsNeeded = fields;
+            this.cost = total;
+            reorder();
+        }
+
+        @Override
+        public boolean test(CSVParser parser) {
+            if (--untilReorder == 0) {
+                reorder();
+                untilReorder = REORDER_INTERVAL;
+            }
+            for (int i = 0; i < operands.length; i++) {
+                boolean result = operands[i].test(parser);
+                tested[i]++;
+                if (result) {
+                    passed[i]++;
+                }
+                if (result != and) {
+                    return result;
+                }
+            }
+            return and;
+        }
+
+        /**
+         * Sorts the operands by rank and halves their counts, so the order follows
+         * changes in the data.
+         */
+        private void reorder() {
+            int n = operands.length;
+            Integer[] order = new Integer[n];
+            double[] rank = new double[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+                double passRate = (passed[i] + 1.0) / (tested[i] + 2.0);
+                rank[i] = operands[i].cost() / (and ? 1 - passRate : passRate);
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(rank[a], rank[b]));
+            Evaluator[] sortedOperands = operands.clone();
+            long[] sortedTested = tested.clone();
+            long[] sortedPassed = passed.clone();
+            for (int i = 0; i < n; i++) {
+                operands[i] = sortedOperands[order[i]];
+                tested[i] = sortedTested[order[i]] / 2;
+                passed[i] = sortedPassed[order[i]] / 2;
+            }
+        }
+
+        @Override
+        public int fieldsNeeded() {
+            return fieldsNeeded;
+        }
+
+        @Override
+        boolean mayMatch(ZoneMap.Block block) {
+            // An AND needs every operand to match, an OR any one of them
+            for (Evaluator operand : operands) {
+                if (operand.mayMatch(block) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+
+        @Override
+        double cost() {
+            return cost;
+        }
+    }
+
+    /**
+     * A recursive descent parser for filter expressions.
+     */
+    private static final class Parser {
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Boolean> quotedTokens = new ArrayList<>();
+        private int position;
+
+        Parser(String expression) {
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')') {
+                    add(String.valueOf(c), false);
+                    i++;
+                } else if (c == '"') {
+                    StringBuilder token = new StringBuilder();
+                    i++;
+                    while (true) {
+                        if (i >= expression.length()) {
+                            throw new IllegalArgumentException(
+                                    "Invalid filter: unterminated quote");
+                        }
+                        char q = expression.charAt(i++);
+                        if (q == '"') {
+                            if (i < expression.length() && expression.charAt(i) == '"') {
+                                i++;
+                            } else {
+                                break;
+                            }
+                        }
+                        token.append(q);
+                    }
+                    add(token.toString(), true);
+                } else {
+                    int start = i;
+                    while (i < expression.length() && !Character.isWhitespace(expression.charAt(i))
+                            && "()\"".indexOf(expression.charAt(i)) < 0) {
+                        i++;
+                    }
+                    add(expression.substring(start, i), false);
+                }
+            }
+        }
+
+        private void add(String token, boolean quoted) {
+            tokens.add(token);
+            quotedTokens.add(quoted);
+        }
+
+        RowFilter parse() {
+            RowFilter filter = parseOr();
+            if (position < tokens.size()) {
+                throw new IllegalArgumentException(
+                        "Invalid filter: unexpected " + tokens.get(position));
+            }
+            return filter;
+        }
+
+        private RowFilter parseOr() {
+            List<RowFilter> operands = new ArrayList<>();
+            operands.add(parseAnd());
+            while (keyword("OR")) {
+                operands.add(parseAnd());
+            }
+            return operands.size() == 1 ? operands.get(0)
+                    : or(operands.toArray(new RowFilter[0]));
+        }
+
+        private RowFilter parseAnd() {
+            List<RowFilter> operands = new ArrayList<>();
+            operands.add(parseUnary());
+            while (keyword("AND")) {
+                operands.add(parseUnary());
+            }
+            return operands.size() == 1 ? operands.get(0)
+                    : and(operands.toArray(new RowFilter[0]));
+        }
+
+        private RowFilter parseUnary() {
+            if (keyword("NOT")) {
+                return not(parseUnary());
+            }
+            if (keyword("(")) {
+                RowFilter filter = parseOr();
+                if (!keyword(")")) {
+                    throw new IllegalArgumentException("Invalid filter: missing )");
+                }
+                return filter;
+            }
+            String column = operand("a column name");
+            String operator = operand("an operator after " + column).toLowerCase();
+            switch (operator) {
+                case "=":
+                case "==":
+                    return equalTo(column, operand("a value after " + operator));
+                case "!=":
+                    return not(equalTo(column, operand("a value after " + operator)));
+                case "contains":
+                    return contains(column, operand("a value after " + operator));
+                case "startswith":
+                    return startsWith(column, operand("a value after " + operator));
+                case "matches":
+                    return matches(column, operand("a value after " + operator));
+                case "<":
+                    return compare(column, TypedColumn.Comparison.LESS, number(operator), 0);
+                case ">":
+                    return compare(column, TypedColumn.Comparison.GREATER, number(operator), 0);
+                case "between":
+                    double low = number(operator);
+                    return compare(column, TypedColumn.Comparison.BETWEEN, low, number(operator));
+                default:
+                    throw new IllegalArgumentException("Invalid filter: unknown operator "
+                            + operator);
+            }
+        }
+
+        /**
+         * Consumes the next token if it is the specified unquoted keyword.
+         */
+        private boolean keyword(String word) {
+            if (position < tokens.size() && !quotedTokens.get(position)
+                    && tokens.get(position).equalsIgnoreCase(word)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private String operand(String expected) {
+            if (position >= tokens.size() || (!quotedTokens.get(position)
+                    && (tokens.get(position).equals("(") || tokens.get(position).equals(")")))) {
+                throw new IllegalArgumentException("Invalid filter: expected " + expected);
+            }
+            return tokens.get(position++);
+        }
+
+        private double number(String operator) {
+            String value = operand("a number after " + operator);
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid filter: " + value
+                        + " is not a number");
+            }
+        }
+
+        /**
+         * Quotes a name or value for toString if it would not parse back unquoted.
+         */
+        static String quote(String text) {
+            boolean plain = !text.isEmpty();
+            for (int i = 0; i < text.length() && plain; i++) {
+                char c = text.charAt(i);
+                plain = !Character.isWhitespace(c) && "()\"".indexOf(c) < 0;
+            }
+            plain = plain && !text.equalsIgnoreCase("AND") && !text.equalsIgnoreCase("OR")
+                    && !text.equalsIgnoreCase("NOT");
+            return plain ? text : '"' + text.replace("\"", "\"\"") + '"';
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A sidecar file next to a CSV file that stores the byte offset of every data
+ * row, so specific rows can be read by seeking instead of scanning. The sidecar
+ * records the size and modification time of the CSV file it was built from and
+ * is ignored once the CSV file changes.
+ *
+ * The sidecar holds a fixed header followed by one 8-byte offset per data row,
+ * so the offset of any row is read directly without loading the whole index.
+ *
+ * @author Ajay Shenoy
+ */
+public class RowIndex implements Closeable {
+
+    /** The suffix added to the CSV filename to name its sidecar. */
+    public static final String SUFFIX = ".rowidx";
+
+    private static final int MAGIC = 0x52494458;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = Sidecar.STAMP_SIZE;
+
+    private final RandomAccessFile index;
+    private final long rowCount;
+
+    private RowIndex(RandomAccessFile index) throws IOException {
+        this.index = index;
+        this.rowCount = (index.length() - HEADER_SIZE) / 8;
+    }
+
+    /**
+     * Returns the name of the sidecar file for a CSV file.
+     *
+     * @param filename The name of the CSV file.
+     * @return The name of its sidecar file.
+     */
+    public static String indexFilename(String filename) {
+        return filename + SUFFIX;
+    }
+
+    /**
+     * Scans a CSV file and writes its sidecar, replacing any existing one. The
+     * sidecar is written to a temporary file and moved into place atomically, so
+     * a build stopped midway never leaves a stamped but incomplete index.
+     *
+     * @param filename The name of the CSV file to index.
+     * @return The number of data rows indexed.
+     * @throws IOException if the CSV file cannot be read or the sidecar written.
+     */
+    public static long build(String filename) throws IOException {
+        File csv = new File(filename);
+        Path temp = Sidecar.temporary(indexFilename(filename));
+        long rows = 0;
+        try {
+            try (CSVParser parser = new CSVParser(filename);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                         Files.newOutputStream(temp), 1 << 16))) {
+                Sidecar.writeStamp(out, MAGIC, VERSION, csv);
+                parser.next(); // Skip the header
+                while (parser.next()) {
+                    out.writeLong(parser.recordStart());
+                    rows++;
+                }
+            }
+            Sidecar.replace(temp, indexFilename(filename));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return rows;
+    }
+
+    /**
+     * Opens the sidecar of a CSV file if it exists and matches the current size
+     * and modification time of the CSV file.
+     *
+     * @param filename The name of the CSV file.
+     * @return The index, or null if there is no usable sidecar.
+     */
+    public static RowIndex open(String filename) {
+        File csv = new File(filename);
+        File sidecar = new File(indexFilename(filename));
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        RandomAccessFile index = null;
+        try {
+            index = new RandomAccessFile(sidecar, "r");
+            if (index.length() < HEADER_SIZE
+                    || !Sidecar.readStamp(index, MAGIC, VERSION, csv)) {
+                index.close();
+                return null;
+            }
+            return new RowIndex(index);
+        } catch (IOException e) {
+            try {
+                if (index != null) {
+                    index.close();
+                }
+            } catch (IOException ignored) {
+                // The index is unusable either way
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of data rows in the indexed CSV file.
+     *
+     * @return The number of rows after the header.
+     */
+    public long rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the byte offset of a data row in the CSV file.
+     *
+     * @param row The index of the row after the header, starting from 0.
+     * @return The offset of the first byte of the row.
+     * @throws IOException if the sidecar cannot be read.
+     */
+    public long offset(long row) throws IOException {
+        index.seek(HEADER_SIZE + 8 * row);
+        return index.readLong();
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+}
@@ -0,0 +1,410 @@
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes rows to a file, encoding them straight into large byte buffers that
+ * are written through a FileChannel. Rows filled by CSVParser.row are copied
+ * from their raw bytes without decoding their fields into Strings, and other
+ * values are encoded as UTF-8, the encoding CSVParser reads.
+ *
+ * With quoting on, values holding the separator, a quote or a line break are
+ * put in quotes with their quotes doubled, so the file reads back as the same
+ * values; otherwise values are written as they are, as the menu options do.
+ *
+ * Writing can run in the background: once the first buffer is full a thread
+ * of its own writes the full buffers while the caller fills the next one,
+ * passing them through a small ring as GzipPipe does. Output that fits in one
+ * buffer is written on close without starting a thread. Files whose names end
+ * in .gz are written gzip compressed through GzipPipe, which already
+ * compresses on another thread.
+ *
+ * @author Ajay Shenoy
+ */
+public class RowWriter implements Closeable {
+
+    /** The size of each buffer. */
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    /** The number of buffers in the ring of a background writer. */
+    public static final int BUFFERS = 4;
+
+    private static final byte QUOTE = '"';
+    private static final byte[] LINE_SEPARATOR =
+            System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * A buffer in the ring, or the end of the data when length is -1, or a
+     * failure of the writing thread when error is set.
+     */
+    private static class Chunk {
+
+        final byte[] bytes;
+        int length;
+        Throwable error;
+
+        Chunk(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private final WritableByteChannel channel;
+    private final byte[] separator;
+    private final boolean quoting;
+    private final boolean background;
+    private Chunk current = new Chunk(new byte[BUFFER_SIZE]);
+    private boolean firstField = true;
+    private long bytesWritten;
+    private boolean closed;
+
+    private BlockingQueue<Chunk> full;
+    private BlockingQueue<Chunk> empty;
+    private Chunk done;
+    private Thread writer;
+
+    private RowWriter(WritableByteChannel channel, String separator, boolean quoting,
+                      boolean background) {
+        this.channel = channel;
+        this.separator = separator.getBytes(StandardCharsets.UTF_8);
+        this.quoting = quoting;
+        this.background = background;
+    }
+
+    /**
+     * Opens a file for writing rows.
+     *
+     * @param filename The name of the file to write to.
+     * @param append true to add to the end of the file, false to replace it.
+     * @param separator The text to put between the values of a row.
+     * @param quoting true to quote values as CSV requires, which needs a
+     *                separator of one character other than a quote.
+     * @param background true to write full buffers on another thread.
+     * @return A writer for the file.
+     * @throws java.io.FileNotFoundException if the file cannot be created.
+     * @throws IllegalArgumentException if quoting is asked for with a separator
+     * that cannot be quoted.
+     */
+    public static RowWriter open(String filename, boolean append, String separator,
+                                 boolean quoting, boolean background) throws IOException {
+        if (quoting && (separator.length() != 1 || separator.charAt(0) >= 0x80 ||
+                separator.charAt(0) == QUOTE || separator.charAt(0) == '\r' ||
+                separator.charAt(0) == '\n')) {
+            throw new IllegalArgumentException("Cannot quote values separated by: " + separator);
+        }
+        FileOutputStream out = new FileOutputStream(filename, append);
+        if (GzipPipe.isCompressed(filename)) {
+            return new RowWriter(Channels.newChannel(GzipPipe.deflate(out)), separator,
+                    quoting, false);
+        }
+        return new RowWriter(out.getChannel(), separator, quoting, background);
+    }
+
+    /**
+     * Writes a row as one line. When writing CSV, a row read from a file is
+     * written as its record, exactly as it is in the file.
+     *
+     * @param row The row to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(Row row) throws IOException {
+        if (!(quoting && separator[0] == ',' && row.writeRecordTo(this))) {
+            row.writeTo(this);
+        }
+        endRow();
+    }
+
+    /**
+     * Writes values as one line.
+     *
+     * @param values The values to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(String[] values) throws IOException {
+        for (String value : values) {
+            field(value);
+        }
+        endRow();
+    }
+
+    /**
+     * Writes text as one line, without quoting it.
+     *
+     * @param text The text to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeLine(String text) throws IOException {
+        putString(text, false);
+        endRow();
+    }
+
+    /**
+     * Returns the number of bytes written so far, before any compression.
+     *
+     * @return The number of bytes.
+     */
+    public long bytesWritten() {
+        return bytesWritten + current.length;
+    }
+
+    /**
+     * Adds a value to the current line.
+     */
+    void field(String value) throws IOException {
+        startField();
+        if (value == null) {
+            return;
+        }
+        boolean quote = quoting && needsQuotes(value);
+        if (quote) {
+            put(QUOTE);
+        }
+        putString(value, quote);
+        if (quote) {
+            put(QUOTE);
+        }
+    }
+
+    /**
+     * Adds a value to the current line from the raw bytes of a record, where a
+     * quoted value still has its quotes doubled.
+     *
+     * @param bytes The buffer holding the record.
+     * @param start The offset of the first byte of the value.
+     * @param end The offset just past the last byte of the value.
+     * @param quoted Whether the value was quoted in the record.
+     */
+    void field(byte[] bytes, int start, int end, boolean quoted) throws IOException {
+        startField();
+        boolean quote = quoting && needsQuotes(bytes, start, end);
+        if (!quote && !quoted) {
+            putBytes(bytes, start, end);
+            return;
+        }
+        if (quote) {
+            put(QUOTE);
+        }
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b == QUOTE) {
+                if (quoted && i + 1 < end && bytes[i + 1] == QUOTE) {
+                    i++;
+                }
+                if (quote) {
+                    put(QUOTE);
+                }
+            }
+            put(b);
+        }
+        if (quote) {
+            put(QUOTE);
+        }
+    }
+
+    /**
+     * Adds a whole record, already in CSV, as the current line.
+     *
+     * @param bytes The buffer holding the record.
+     * @param start The offset of the first byte of the record.
+     * @param end The offset just past the last byte of the record.
+     */
+    void record(byte[] bytes, int start, int end) throws IOException {
+        putBytes(bytes, start, end);
+        firstField = false;
+    }
+
+    private void startField() throws IOException {
+        if (!firstField) {
+            putBytes(separator, 0, separator.length);
+        }
+        firstField = false;
+    }
+
+    private void endRow() throws IOException {
+        putBytes(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+        firstField = true;
+    }
+
+    private boolean needsQuotes(String value) {
+        char separatorChar = (char) separator[0];
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == separatorChar || c == QUOTE || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean needsQuotes(byte[] bytes, int start, int end) {
+        byte separatorByte = separator[0];
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b == separatorByte || b == QUOTE || b == '\r' || b == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Encodes a String as UTF-8 into the buffer, doubling its quotes if asked.
+     * ASCII characters are copied one by one; the rest of the value from the
+     * first other character is encoded in one go.
+     */
+    private void putString(String value, boolean doubleQuotes) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                byte[] rest = value.substring(i).getBytes(StandardCharsets.UTF_8);
+                if (doubleQuotes) {
+                    // Multi-byte sequences never contain the byte of a quote
+                    for (byte b : rest) {
+                        if (b == QUOTE) {
+                            put(QUOTE);
+                        }
+                        put(b);
+                    }
+                } else {
+                    putBytes(rest, 0, rest.length);
+                }
+                return;
+            }
+            if (c == QUOTE && doubleQuotes) {
+                put(QUOTE);
+            }
+            put((byte) c);
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (current.length == current.bytes.length) {
+            flush();
+        }
+        current.bytes[current.length++] = b;
+    }
+
+    private void putBytes(byte[] bytes, int start, int end) throws IOException {
+        while (start < end) {
+            if (current.length == current.bytes.length) {
+                flush();
+            }
+            int n = Math.min(end - start, current.bytes.length - current.length);
+            System.arraycopy(bytes, start, current.bytes, current.length, n);
+            current.length += n;
+            start += n;
+        }
+    }
+
+    /**
+     * Writes the full buffer, or hands it to the writing thread and takes an
+     * empty one.
+     */
+    private void flush() throws IOException {
+        bytesWritten += current.length;
+        if (!background) {
+            drain(current);
+            current.length = 0;
+            return;
+        }
+        if (writer == null) {
+            startWriter();
+        }
+        try {
+            full.put(current);
+            current = empty.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing");
+        }
+        if (current == done) {
+            current = new Chunk(new byte[0]);
+            throw failure();
+        }
+        current.length = 0;
+    }
+
+    private void drain(Chunk chunk) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(chunk.bytes, 0, chunk.length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void startWriter() {
+        full = new ArrayBlockingQueue<>(BUFFERS + 1);
+        empty = new ArrayBlockingQueue<>(BUFFERS);
+        for (int i = 1; i < BUFFERS; i++) {
+            empty.add(new Chunk(new byte[BUFFER_SIZE]));
+        }
+        done = new Chunk(null);
+        writer = new Thread(() -> {
+            try {
+                while (true) {
+                    Chunk chunk = full.take();
+                    if (chunk.length < 0) {
+                        break;
+                    }
+                    drain(chunk);
+                    empty.put(chunk);
+                }
+            } catch (InterruptedException | IOException | RuntimeException e) {
+                done.error = e instanceof InterruptedException
+                        ? new InterruptedIOException("Interrupted while writing") : e;
+                // Keep the caller from waiting for a buffer that never comes back
+                empty.clear();
+                empty.add(done);
+            }
+        }, "row-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private IOException failure() {
+        return done.error instanceof IOException
+                ? (IOException) done.error : new IOException(done.error);
+    }
+
+    /**
+     * Writes what is left in the buffer, waits for the writing thread and
+     * closes the file, reporting any error the thread met.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try (channel) {
+            if (writer == null) {
+                drain(current);
+                return;
+            }
+            Chunk end = new Chunk(null);
+            end.length = -1;
+            try {
+                if (done.error == null) {
+                    full.put(current);
+                    full.put(end);
+                }
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                writer.interrupt();
+                throw new InterruptedIOException("Interrupted while writing");
+            }
+            if (done.error != null) {
+                throw failure();
+            }
+        }
+    }
+}
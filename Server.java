@@ -0,0 +1,273 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the operations of H12CustomApp over HTTP on localhost, so a running
+ * process keeps parsed files in a TableCache between requests instead of every
+ * invocation starting a JVM and parsing the file again. Each operation is a
+ * GET request whose parameters name the file and the arguments, and the rows
+ * are returned as plain text, one row per line with the values separated by
+ * spaces, as the menu options print them:
+ * <ul>
+ *     <li>/columns?file=data.csv&amp;names=Name,Age</li>
+ *     <li>/rows?file=data.csv&amp;rows=1,5,9 (numbered from 1)</li>
+ *     <li>/keyword?file=data.csv&amp;keyword=Boston</li>
+ *     <li>/whole?file=data.csv (values separated by commas)</li>
+ *     <li>/range?file=data.csv&amp;column=Age&amp;condition=between 20 30</li>
+ *     <li>/filter?file=data.csv&amp;expression=City = Boston and Age &gt; 30</li>
+ *     <li>/group?file=data.csv&amp;by=City&amp;aggregates=count,sum(Age)</li>
+ *     <li>/sort?file=data.csv&amp;keys=Age number desc&amp;limit=10</li>
+ *     <li>/stats - the state of the cache</li>
+ * </ul>
+ * The first four are served from the cache; the others scan the file, which
+ * the operating system keeps in its page cache. The file can also be a directory
+ * or a glob (see MultiFileScan), which is scanned every time. Errors are returned with status
+ * 404 for a missing file, 400 for an invalid request and 500 for a read error.
+ *
+ * Requests are handled concurrently by a fixed pool of threads.
+ *
+ * @author Ajay Shenoy
+ */
+public class Server {
+
+    /** The port the server listens on by default. */
+    public static final int DEFAULT_PORT = 8012;
+
+    /**
+     * Opens the cursor of a request.
+     */
+    private interface Handler {
+        RowCursor open(Map<String, String> parameters) throws IOException;
+    }
+
+    private final TableCache cache;
+    private final HttpServer http;
+    private final ExecutorService executor;
+
+    /**
+     * Starts a server on localhost.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @param cacheBudget The most bytes the cached files may use, estimated.
+     * @param threads The number of requests handled at the same time.
+     * @throws IOException if the port cannot be bound.
+     */
+    public Server(int port, long cacheBudget, int threads) throws IOException {
+        this.cache = new TableCache(cacheBudget);
+        this.http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                port), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        http.setExecutor(executor);
+        route("/columns", " ", parameters -> {
+            List<String> names = new ArrayList<>();
+            for (String name : require(parameters, "names").split(",")) {
+                names.add(name.trim());
+            }
+            TableCache.Table table = cached(parameters.get("file"));
+            return table != null ? table.openColumns(names)
+                    : H12CustomApp.openCSVColumns(parameters.get("file"), names);
+        });
+        route("/rows", " ", parameters -> {
+            BitSet requested = new BitSet();
+            for (String number : require(parameters, "rows").split(",")) {
+                int rowNumber = parseInt(number);
+                if (rowNumber >= 1) {
+                    requested.set(rowNumber - 1);
+                }
+            }
+            TableCache.Table table = cached(parameters.get("file"));
+            return table != null ? table.openRows(requested)
+                    : H12CustomApp.openCSVRows(parameters.get("file"), requested);
+        });
+        route("/keyword", " ", parameters -> {
+            String keyword = require(parameters, "keyword");
+            TableCache.Table table = cached(parameters.get("file"));
+            return table != null ? table.openFilteredRows(keyword)
+                    : H12CustomApp.openFilteredRows(parameters.get("file"), keyword, true);
+        });
+        route("/whole", ",", parameters -> {
+            TableCache.Table table = cached(parameters.get("file"));
+            return table != null ? table.openWhole()
+                    : H12CustomApp.openWholeCSV(parameters.get("file"));
+        });
+        route("/range", " ", parameters -> {
+            String[] condition = require(parameters, "condition").trim().split("\\s+");
+            TypedColumn.Comparison comparison = TypedColumn.Comparison.parse(condition[0]);
+            int operands = comparison == TypedColumn.Comparison.BETWEEN ? 2 : 1;
+            if (condition.length != operands + 1) {
+                throw new IllegalArgumentException("Invalid condition: "
+                        + parameters.get("condition"));
+            }
+            double low = parseDouble(condition[1]);
+            double high = operands == 2 ? parseDouble(condition[2]) : low;
+            return H12CustomApp.openRowsInRange(parameters.get("file"),
+                    require(parameters, "column"), comparison, low, high);
+        });
+        route("/filter", " ", parameters -> H12CustomApp.openMatchingRows(
+                parameters.get("file"), RowFilter.parse(require(parameters, "expression")),
+                true));
+        route("/group", " ", parameters -> {
+            String by = parameters.getOrDefault("by", "").trim();
+            List<String> groupColumns = by.isEmpty() ? List.of() : split(by);
+            return H12CustomApp.openGroupedRows(parameters.get("file"), groupColumns,
+                    split(require(parameters, "aggregates")), true);
+        });
+        route("/sort", " ", parameters -> {
+            String limit = parameters.getOrDefault("limit", "").trim();
+            return H12CustomApp.openSortedRows(parameters.get("file"),
+                    split(require(parameters, "keys")), limit.isEmpty() ? 0 : parseInt(limit));
+        });
+        http.createContext("/stats", exchange -> {
+            byte[] body = (cache.stats() + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return The port.
+     */
+    public int port() {
+        return http.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server, letting requests in progress finish for up to a second.
+     */
+    public void stop() {
+        http.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the cached table of a file, or null for a directory or glob or a
+     * file too large to cache.
+     */
+    private TableCache.Table cached(String filename) throws IOException {
+        return MultiFileScan.isPattern(filename) ? null : cache.get(filename);
+    }
+
+    /**
+     * Registers an operation. Its cursor is opened before the response starts,
+     * so that errors get their own status, and the rows are then streamed.
+     */
+    private void route(String path, String separator, Handler handler) {
+        http.createContext(path, exchange -> {
+            Metrics.Operation tracked = null;
+            try {
+                Map<String, String> parameters = parameters(exchange);
+                tracked = Metrics.start(path.substring(1), require(parameters, "file"));
+                try (RowCursor rows = Metrics.count(tracked, handler.open(parameters))) {
+                    exchange.getResponseHeaders().set("Content-Type",
+                            "text/plain; charset=utf-8");
+                    exchange.sendResponseHeaders(200, 0);
+                    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                            exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 16)) {
+                        while (rows.next()) {
+                            out.write(rows.row().join(separator));
+                            out.write('\n');
+                        }
+                    }
+                }
+            } catch (FileNotFoundException e) {
+                sendError(exchange, 404, "Error: File not found");
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, "Error: " + e.getMessage());
+            } catch (IOException e) {
+                sendError(exchange, 500, "Error: I/O error occurred");
+            } finally {
+                exchange.close();
+                if (tracked != null) {
+                    tracked.finish();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends an error, unless the response has already started.
+     */
+    private static void sendError(HttpExchange exchange, int status, String message)
+            throws IOException {
+        if (exchange.getResponseCode() != -1) {
+            return;
+        }
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Decodes the query parameters of a request.
+     */
+    private static Map<String, String> parameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                String name = equals < 0 ? pair : pair.substring(0, equals);
+                String value = equals < 0 ? "" : pair.substring(equals + 1);
+                parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                        URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static String require(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static List<String> split(String values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values.split(",")) {
+            list.add(value.trim());
+        }
+        return list;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + value.trim());
+        }
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + value.trim());
+        }
+    }
+}
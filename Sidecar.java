@@ -0,0 +1,157 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Helpers shared by the sidecar files written next to a CSV file. Every sidecar
+ * starts with a stamp of its format and of the size and modification time of
+ * the CSV file it was built from, so a sidecar is only trusted while the CSV
+ * file is unchanged.
+ *
+ * @author Ajay Shenoy
+ */
+public class Sidecar {
+
+    /** The number of bytes written by writeStamp. */
+    public static final int STAMP_SIZE = 24;
+
+    /**
+     * Writes the stamp of a sidecar.
+     *
+     * @param out The stream to write the stamp to.
+     * @param magic The value identifying the kind of sidecar.
+     * @param version The version of the sidecar format.
+     * @param csv The CSV file the sidecar is built from.
+     * @throws IOException if the stamp cannot be written.
+     */
+    public static void writeStamp(DataOutput out, int magic, int version, File csv)
+            throws IOException {
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeLong(csv.length());
+        out.writeLong(csv.lastModified());
+    }
+
+    /**
+     * Reads the stamp of a sidecar and checks that it matches the format and the
+     * current state of the CSV file.
+     *
+     * @param in The stream positioned at the stamp.
+     * @param magic The value identifying the kind of sidecar.
+     * @param version The version of the sidecar format.
+     * @param csv The CSV file the sidecar should be built from.
+     * @return true if the sidecar is up to date, false otherwise.
+     * @throws IOException if the stamp cannot be read.
+     */
+    public static boolean readStamp(DataInput in, int magic, int version, File csv)
+            throws IOException {
+        return in.readInt() == magic && in.readInt() == version
+                && in.readLong() == csv.length() && in.readLong() == csv.lastModified();
+    }
+
+    /**
+     * Returns the temporary file a sidecar is written to before replace moves it
+     * into place. It is in the same directory, so the move can be atomic.
+     *
+     * @param sidecarFilename The name of the sidecar file.
+     * @return The temporary file.
+     */
+    public static Path temporary(String sidecarFilename) {
+        Path sidecar = Paths.get(sidecarFilename);
+        return sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+    }
+
+    /**
+     * Moves a completely written temporary file into place as a sidecar in one
+     * atomic step, replacing any existing sidecar, so a build stopped midway
+     * never leaves a stamped but incomplete sidecar behind.
+     *
+     * @param temp The temporary file, from temporary.
+     * @param sidecarFilename The name of the sidecar file.
+     * @throws IOException if the file cannot be moved.
+     */
+    public static void replace(Path temp, String sidecarFilename) throws IOException {
+        Files.move(temp, Paths.get(sidecarFilename), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a non-negative long in 7-bit groups, low group first, so small
+     * values such as lengths and deltas take one or two bytes.
+     *
+     * @param out The stream to write to.
+     * @param value The value to write.
+     * @throws IOException if the value cannot be written.
+     */
+    public static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a value written by writeVarint.
+     *
+     * @param in The stream to read from.
+     * @return The value read.
+     * @throws IOException if the value cannot be read.
+     */
+    public static long readVarint(DataInput in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * An output stream that counts the bytes written through it, so sidecars can
+     * record the positions of the sections they write.
+     */
+    public static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        /**
+         * Creates a counting stream writing to the specified stream.
+         *
+         * @param out The stream to write to.
+         */
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        /**
+         * Returns the number of bytes written so far.
+         *
+         * @return The number of bytes written.
+         */
+        public long count() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
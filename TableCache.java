@@ -0,0 +1,350 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keeps parsed CSV files in memory, so repeated operations on the same file do
+ * not read and split it again. A file is cached as its records split into rows
+ * that decode fields on demand (see Row), keyed by its path, size and
+ * modification time, so a changed file is parsed again. The least recently used
+ * tables are evicted to keep the estimated size of the cache under a budget, and
+ * a file larger than the whole budget is not cached. Tables are read-only, so
+ * any number of threads can read them at once: the rows are shared, and a field
+ * decoded by two threads at once is just decoded twice. A file requested by
+ * several threads while it is being parsed is only parsed once.
+ *
+ * @author Ajay Shenoy
+ */
+public class TableCache {
+
+    /**
+     * The records of a CSV file, parsed once.
+     */
+    public static class Table {
+
+        private final String[] headers;
+        private final Row header;
+        private final Row[] rows;
+        private final long size;
+
+        private Table(Row header, Row[] rows, long size) {
+            this.header = header;
+            this.headers = header == null ? new String[0] : header.toArray();
+            this.rows = rows;
+            this.size = size;
+        }
+
+        /**
+         * Returns the number of data rows.
+         *
+         * @return The number of rows after the header.
+         */
+        public int rowCount() {
+            return rows.length;
+        }
+
+        /**
+         * Returns the estimated heap used by the table.
+         *
+         * @return The size in bytes.
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Opens a cursor over specific columns, like H12CustomApp.openCSVColumns.
+         *
+         * @param columnNames The names of the columns to read.
+         * @return A cursor over the trimmed values of the columns.
+         * @throws IllegalArgumentException if any column does not exist.
+         */
+        public RowCursor openColumns(List<String> columnNames) {
+            int[] columnIndices = new int[columnNames.size()];
+            int minFields = 0;
+            for (int i = 0; i < columnIndices.length; i++) {
+                columnIndices[i] = -1;
+                for (int h = 0; h < headers.length; h++) {
+                    if (headers[h].trim().equals(columnNames.get(i))) {
+                        columnIndices[i] = h;
+                        break;
+                    }
+                }
+                if (columnIndices[i] == -1) {
+                    throw new IllegalArgumentException("Column not found: " + columnNames.get(i));
+                }
+                minFields = Math.max(minFields, columnIndices[i] + 1);
+            }
+            int fieldsNeeded = minFields;
+            return new ArrayCursor(0) {
+                @Override
+                protected Row build(Row source) {
+                    if (source.size() < fieldsNeeded) {
+                        return null;
+                    }
+                    String[] values = new String[columnIndices.length];
+                    for (int i = 0; i < columnIndices.length; i++) {
+                        values[i] = source.get(columnIndices[i]).trim();
+                    }
+                    return new Row(values);
+                }
+            };
+        }
+
+        /**
+         * Opens a cursor over the rows whose indexes are set in a bitmap, like
+         * H12CustomApp.openCSVRows.
+         *
+         * @param requested The indexes of the rows after the header.
+         * @return A cursor over the rows in file order.
+         */
+        public RowCursor openRows(BitSet requested) {
+            return new RowCursor() {
+                private int nextRow = requested.nextSetBit(0);
+                private Row row;
+
+                @Override
+                public boolean next() {
+                    if (nextRow < 0 || nextRow >= rows.length) {
+                        row = null;
+                        return false;
+                    }
+                    row = rows[nextRow];
+                    nextRow = requested.nextSetBit(nextRow + 1);
+                    return true;
+                }
+
+                @Override
+                public Row row() {
+                    return row;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        /**
+         * Opens a cursor over the records, header included, containing a keyword,
+         * like H12CustomApp.openFilteredRows.
+         *
+         * @param keyword The keyword to search for.
+         * @return A cursor over the matching rows.
+         */
+        public RowCursor openFilteredRows(String keyword) {
+            byte[] needle = keyword.getBytes(StandardCharsets.UTF_8);
+            return new ArrayCursor(header != null ? -1 : 0) {
+                @Override
+                protected Row build(Row source) {
+                    return source.contains(needle) ? source : null;
+                }
+            };
+        }
+
+        /**
+         * Opens a cursor over every record, header included, like
+         * H12CustomApp.openWholeCSV.
+         *
+         * @return A cursor over the records.
+         */
+        public RowCursor openWhole() {
+            return new ArrayCursor(header != null ? -1 : 0);
+        }
+
+        /**
+         * Walks the rows of the table, from the header when the start is -1.
+         */
+        private class ArrayCursor implements RowCursor {
+
+            private int next;
+            private Row row;
+
+            ArrayCursor(int start) {
+                this.next = start;
+            }
+
+            /**
+             * Returns the row for a record, or null to skip it.
+             */
+            protected Row build(Row source) {
+                return source;
+            }
+
+            @Override
+            public boolean next() {
+                while (next < rows.length) {
+                    Row source = next < 0 ? header : rows[next];
+                    next++;
+                    row = build(source);
+                    if (row != null) {
+                        return true;
+                    }
+                }
+                row = null;
+                return false;
+            }
+
+            @Override
+            public Row row() {
+                return row;
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+    }
+
+    private final long budget;
+    private final LinkedHashMap<String, Table> tables = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Table>> loading = new HashMap<>();
+    private final Map<String, String> keys = new HashMap<>();
+    private final Map<String, String> oversize = new HashMap<>();
+    private long size;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param budget The most bytes the cached tables may use, estimated.
+     */
+    public TableCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the parsed table of a file, parsing it if it is not cached or
+     * changed since it was cached. A file whose table turned out larger than the
+     * budget is remembered by its path, size and modification time, so it is
+     * not parsed again on every request until it changes.
+     *
+     * @param filename The name of the file.
+     * @return The table, or null if the file is too large to cache.
+     * @throws FileNotFoundException if the file is not found.
+     * @throws IOException if the file cannot be read.
+     */
+    public Table get(String filename) throws IOException {
+        File file = new File(filename);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(filename);
+        }
+        String path = file.getCanonicalPath();
+        String key = path + "|" + file.length() + "|" + file.lastModified();
+        CompletableFuture<Table> load;
+        boolean owner = false;
+        synchronized (this) {
+            Table table = tables.get(key);
+            if (table != null) {
+                hits++;
+                return table;
+            }
+            misses++;
+            load = loading.get(key);
+            if (load == null) {
+                // A file larger than the budget would take more heap parsed
+                if (file.length() > budget || key.equals(oversize.get(path))) {
+                    return null;
+                }
+                load = new CompletableFuture<>();
+                loading.put(key, load);
+                owner = true;
+            }
+        }
+        if (owner) {
+            Table table = null;
+            try {
+                table = parse(filename);
+                load.complete(table);
+            } catch (IOException | RuntimeException e) {
+                load.completeExceptionally(e);
+                throw e;
+            } finally {
+                synchronized (this) {
+                    loading.remove(key);
+                    if (table != null && table.size > budget) {
+                        // Not parsed again until the file changes
+                        oversize.put(path, key);
+                    } else if (table != null) {
+                        // The table of an older version of the file is never used again
+                        String oldKey = keys.put(path, key);
+                        Table old = oldKey == null ? null : tables.remove(oldKey);
+                        if (old != null) {
+                            size -= old.size;
+                        }
+                        tables.put(key, table);
+                        size += table.size;
+                        oversize.remove(path);
+                        evict();
+                    }
+                }
+            }
+            return table.size <= budget ? table : null;
+        }
+        try {
+            Table table = load.get();
+            return table.size <= budget ? table : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing " + filename);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Removes the least recently used tables until the cache is within budget.
+     */
+    private void evict() {
+        Iterator<Table> iterator = tables.values().iterator();
+        while (size > budget && iterator.hasNext()) {
+            size -= iterator.next().size;
+            iterator.remove();
+        }
+        keys.values().retainAll(tables.keySet());
+    }
+
+    /**
+     * Reads and splits every record of a file.
+     */
+    private static Table parse(String filename) throws IOException {
+        try (CSVParser parser = new CSVParser(filename)) {
+            Row header = parser.next() ? parser.row(null).detach() : null;
+            long size = header == null ? 0 : header.memorySize();
+            List<Row> rows = new ArrayList<>();
+            Row scratch = null;
+            while (parser.next()) {
+                // Detached rows hold arrays of exactly the record's size
+                scratch = parser.row(scratch);
+                Row row = scratch.detach();
+                size += row.memorySize() + 8;
+                rows.add(row);
+            }
+            return new Table(header, rows.toArray(new Row[0]), size);
+        }
+    }
+
+    /**
+     * Describes the cache: tables, estimated bytes, hits and misses.
+     *
+     * @return A one line summary.
+     */
+    public synchronized String stats() {
+        return "Tables: " + tables.size() + ", bytes: " + size + " of " + budget
+                + ", hits: " + hits + ", misses: " + misses;
+    }
+}
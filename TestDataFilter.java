@@ -2,12 +2,25 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.PrintWriter;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Scanner;
 import java.util.List;
 import java.io.IOException;
 import java.util.InputMismatchException;
 import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 /**
  * This is the test bench that contains testing methods for the H12CustomApp class.
@@ -30,6 +43,23 @@ public class TestH12CustomApp {
         testH12CustomApp();
     }
 
+    /**
+     * Reads every row of a cursor and closes it.
+     *
+     * @param rows The cursor to read.
+     * @return The rows, each with its values joined by |.
+     * @throws IOException if the rows cannot be read.
+     */
+    private static List<String> readAll(RowCursor rows) throws IOException {
+        List<String> values = new ArrayList<>();
+        try (RowCursor cursor = rows) {
+            while (cursor.next()) {
+                values.add(cursor.row().join("|"));
+            }
+        }
+        return values;
+    }
+
     /**
      * This is a testing method to create a file with the specified name and fileContents
      * to be used by other testing methods. On a FileNotFoundException a stack trace is printed and
@@ -162,8 +192,8 @@ public class TestH12CustomApp {
 
             boolean writeResult = H12CustomApp.writeCSVFile(fileToWrite, headers, rows);
 
-            String expectedContents = "Name,Age,City,\nAlice,30,New York,\nBob,25,Los Angeles," +
-                    "\nCharlie,35,Chicago,\n";
+            String expectedContents = "Name,Age,City\nAlice,30,New York\nBob,25,Los Angeles" +
+                    "\nCharlie,35,Chicago\n";
             String actualContents = readTestDataFile(fileToWrite);
 
             if (!writeResult || !actualContents.equals(expectedContents)) {
@@ -236,6 +266,1578 @@ public class TestH12CustomApp {
             }
         }
 
+        /**
+         * Tests the readWholeCSV method of H12CustomApp class with quoted fields.
+         * It checks that quoted commas, escaped quotes, quoted line breaks and CRLF
+         * line endings are parsed as described by RFC 4180.
+         * Expected result is one string array per record with the quotes removed.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 6: Read CSV file with quoted fields and CRLF line endings
+        {
+            String fileToRead = "testReadQuoted.csv";
+            String fileContents = "Name,Note\r\n\"Smith, Alice\",\"said \"\"hi\"\"\"\r\n" +
+                    "Bob,\"two\nlines\"\r\nCharlie,\r\n";
+            createTestDataFile(fileToRead, fileContents);
+
+            String[][] expectedContents = {
+                    {"Name", "Note"},
+                    {"Smith, Alice", "said \"hi\""},
+                    {"Bob", "two\nlines"},
+                    {"Charlie", ""}
+            };
+            String[][] actualContents =
+                    H12CustomApp.readWholeCSV(fileToRead).toArray(new String[0][]);
+
+            if (!Arrays.deepEquals(actualContents, expectedContents)) {
+                error = true;
+                System.out.println("readWholeCSV 6) expected: " +
+                        Arrays.deepToString(expectedContents) +
+                        " actual: " + Arrays.deepToString(actualContents));
+            } else {
+                System.out.println("readWholeCSV 6) success");
+                new File(fileToRead).delete();
+            }
+        }
+
+        /**
+         * Tests that the writeCSVFile method of H12CustomApp class can consume the
+         * cursor returned by openFilteredRows, streaming the matching rows into the
+         * new file without collecting them first.
+         * Expected result is a file containing the headers and the rows with "o".
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 7: Stream filtered rows into a CSV file
+        {
+            String fileToRead = "testReadStream.csv";
+            String fileToWrite = "testWriteStream.csv";
+            String fileContents = "Name,Age,City\nAlice,30,New York\nBob,25," +
+                    "Los Angeles\nCharlie,35,Chicago\n";
+            createTestDataFile(fileToRead, fileContents);
+
+            boolean writeResult = false;
+            try (RowCursor rows = H12CustomApp.openFilteredRows(fileToRead, "o")) {
+                writeResult = H12CustomApp.writeCSVFile(fileToWrite,
+                        new String[]{"Name", "Age", "City"}, rows);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            String expectedContents = "Name,Age,City\nAlice,30,New York\n" +
+                    "Bob,25,Los Angeles\nCharlie,35,Chicago\n";
+            String actualContents = readTestDataFile(fileToWrite);
+
+            if (!writeResult || !actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("writeCSVFile 7) expected: " + expectedContents +
+                        " actual: " + actualContents);
+            } else {
+                System.out.println("writeCSVFile 7) success");
+                new File(fileToRead).delete();
+                new File(fileToWrite).delete();
+            }
+        }
+
+        /**
+         * Tests the ParallelScan class used by the parallel mode of filterRowsByKeyword.
+         * It splits a file into many small ranges, filters them concurrently and
+         * checks that the matches come back complete and in file order.
+         * Expected result is the same rows the sequential filterRowsByKeyword returns.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 8: Filter rows by keyword in parallel
+        {
+            String fileToRead = "testFilterParallel.csv";
+            StringBuilder fileContents = new StringBuilder("Id,Name\r\n");
+            for (int i = 0; i < 2000; i++) {
+                fileContents.append(i).append(",name").append(i % 7).append("\r\n");
+            }
+            createTestDataFile(fileToRead, fileContents.toString());
+
+            String[][] expectedContents =
+                    H12CustomApp.filterRowsByKeyword(fileToRead, "name3").toArray(new String[0][]);
+            ArrayList<String[]> actualRows = new ArrayList<>();
+            byte[] needle = "name3".getBytes();
+            try (RowCursor rows = ParallelScan.open(fileToRead, 100, parser -> {
+                ArrayList<Row> matches = new ArrayList<>();
+                while (parser.next()) {
+                    if (parser.lineContains(needle)) {
+                        matches.add(new Row(parser.fields()));
+                    }
+                }
+                return matches;
+            })) {
+                while (rows.next()) {
+                    actualRows.add(rows.row().toArray());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            String[][] actualContents = actualRows.toArray(new String[0][]);
+
+            if (expectedContents.length != 286 ||
+                    !Arrays.deepEquals(actualContents, expectedContents)) {
+                error = true;
+                System.out.println("filterRowsByKeyword 8) expected: " +
+                        Arrays.deepToString(expectedContents) +
+                        " actual: " + Arrays.deepToString(actualContents));
+            } else {
+                System.out.println("filterRowsByKeyword 8) success");
+                new File(fileToRead).delete();
+            }
+        }
+
+        /**
+         * Tests the readCSVRows method of H12CustomApp class with and without a row
+         * index. It reads the same rows by scanning, then builds the row index and
+         * reads them again by seeking, including an index past the last row. The
+         * index replaces a damaged sidecar left behind by an earlier build.
+         * Expected result is the same rows, in file order, both times, and no
+         * temporary file left behind.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 9: Read specific rows through the row index
+        {
+            String fileToRead = "testReadRows.csv";
+            String fileContents = "Name,Age,City\nAlice,30,New York\nBob,25," +
+                    "Los Angeles\n\"Charlie\n Jr\",35,Chicago\nDana,41,Boston\n";
+            createTestDataFile(fileToRead, fileContents);
+
+            List<Integer> rowIndexes = List.of(3, 0, 2, 7);
+            String[][] expectedContents = {
+                    {"Alice", "30", "New York"},
+                    {"Charlie\n Jr", "35", "Chicago"},
+                    {"Dana", "41", "Boston"}
+            };
+            String[][] scannedContents =
+                    H12CustomApp.readCSVRows(fileToRead, rowIndexes).toArray(new String[0][]);
+            createTestDataFile(RowIndex.indexFilename(fileToRead), "damaged");
+            boolean indexBuilt = H12CustomApp.buildRowIndex(fileToRead);
+            String[][] indexedContents =
+                    H12CustomApp.readCSVRows(fileToRead, rowIndexes).toArray(new String[0][]);
+            boolean tempLeft = new File(RowIndex.indexFilename(fileToRead) + ".tmp").exists();
+
+            if (!indexBuilt || tempLeft || !Arrays.deepEquals(scannedContents, expectedContents) ||
+                    !Arrays.deepEquals(indexedContents, expectedContents)) {
+                error = true;
+                System.out.println("readCSVRows 9) expected: " +
+                        Arrays.deepToString(expectedContents) +
+                        " scanned: " + Arrays.deepToString(scannedContents) +
+                        " indexed: " + Arrays.deepToString(indexedContents) +
+                        " temporary file left: " + tempLeft);
+            } else {
+                System.out.println("readCSVRows 9) success");
+                new File(fileToRead).delete();
+                new File(RowIndex.indexFilename(fileToRead)).delete();
+            }
+        }
+
+        /**
+         * Tests the readMultipleCSVColumns method of H12CustomApp class.
+         * It reads two columns in one pass from a file whose last, unrequested column
+         * holds quoted commas and line breaks that must be skipped correctly.
+         * Expected result is one list per requested column in the requested order.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 10: Read multiple columns in a single pass
+        {
+            String fileToRead = "testReadColumns.csv";
+            String fileContents = "Name,Age,City,Note\nAlice,30,New York,\"a, b\nc\"\n" +
+                    "Bob,25,Los Angeles,plain\nCharlie,35,Chicago,\"\"\"q\"\"\"\n";
+            createTestDataFile(fileToRead, fileContents);
+
+            ArrayList<ArrayList<String>> expectedContents = new ArrayList<>();
+            expectedContents.add(new ArrayList<>(List.of("New York", "Los Angeles", "Chicago")));
+            expectedContents.add(new ArrayList<>(List.of("Alice", "Bob", "Charlie")));
+            ArrayList<ArrayList<String>> actualContents =
+                    H12CustomApp.readMultipleCSVColumns(fileToRead, List.of("City", "Name"));
+
+            if (!actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("readMultipleCSVColumns 10) expected: " + expectedContents +
+                        " actual: " + actualContents);
+            } else {
+                System.out.println("readMultipleCSVColumns 10) success");
+                new File(fileToRead).delete();
+            }
+        }
+
+        /**
+         * Tests the readMultipleCSVColumns and readCSVColumn methods of H12CustomApp
+         * class when the file has a columnar cache. The City column repeats enough to
+         * be dictionary encoded, Name is stored plain, and one row is too short to
+         * have a City value. The cache replaces a damaged one left behind by an
+         * earlier build.
+         * Expected result is the same values the CSV text gives, and no temporary
+         * file left behind.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 11: Read columns through the columnar cache
+        {
+            String fileToRead = "testReadCache.csv";
+            String fileContents = "Name,Age,City\nAlice,30,Boston\nBob,25,Boston\n" +
+                    "Charlie,35\nDana,41,\"Boston\"\nEve,29,Chicago\n";
+            createTestDataFile(fileToRead, fileContents);
+
+            ArrayList<ArrayList<String>> expectedContents =
+                    H12CustomApp.readMultipleCSVColumns(fileToRead, List.of("Name", "City"));
+            createTestDataFile(ColumnarCache.cacheFilename(fileToRead), "damaged");
+            boolean cacheBuilt = H12CustomApp.buildColumnarCache(fileToRead);
+            ArrayList<ArrayList<String>> actualContents =
+                    H12CustomApp.readMultipleCSVColumns(fileToRead, List.of("Name", "City"));
+            ArrayList<String> actualCity = H12CustomApp.readCSVColumn(fileToRead, "City");
+            boolean tempLeft = Sidecar.temporary(ColumnarCache.cacheFilename(fileToRead))
+                    .toFile().exists();
+
+            if (!cacheBuilt || tempLeft || !actualContents.equals(expectedContents) ||
+                    !actualCity.equals(expectedContents.get(1)) ||
+                    expectedContents.get(1).size() != 4) {
+                error = true;
+                System.out.println("readMultipleCSVColumns 11) expected: " + expectedContents +
+                        " actual: " + actualContents + " " + actualCity +
+                        " temporary file left: " + tempLeft);
+            } else {
+                System.out.println("readMultipleCSVColumns 11) success");
+                new File(fileToRead).delete();
+                new File(ColumnarCache.cacheFilename(fileToRead)).delete();
+            }
+        }
+
+        /**
+         * Tests the filterRowsByKeyword method of H12CustomApp class with a keyword
+         * index. Keywords inside a longer token ("os" in "Boston"), keywords that are
+         * not tokens ("New Y") and keywords in the header must match the same rows
+         * with and without the index, and so must whole tokens searched with
+         * filterRowsByToken. The index replaces a damaged one left behind by an
+         * earlier build, and is opened once for repeated searches.
+         * Expected result is the same rows the scan returns for every keyword and
+         * token, "os" matching no row as a token, and no temporary file left behind.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 12: Filter rows by keyword through the keyword index
+        {
+            String fileToRead = "testFilterIndex.csv";
+            String fileContents = "Name,Age,City\nAlice,30,New York\nBob,25,Boston\n" +
+                    "\"Charlie, Jr\",35,Los Angeles\nDana,41,Boston\n";
+            createTestDataFile(fileToRead, fileContents);
+
+            String[] keywords = {"os", "Boston", "New Y", "City", "Jr", "Zed"};
+            ArrayList<String> expectedContents = new ArrayList<>();
+            for (String keyword : keywords) {
+                expectedContents.add(Arrays.deepToString(
+                        H12CustomApp.filterRowsByKeyword(fileToRead, keyword).toArray()));
+            }
+            String[] tokens = {"Boston", "os", "York", "Jr", "City", "Zed"};
+            for (String token : tokens) {
+                expectedContents.add(Arrays.deepToString(
+                        H12CustomApp.filterRowsByToken(fileToRead, token).toArray()));
+            }
+            createTestDataFile(InvertedIndex.indexFilename(fileToRead), "damaged");
+            boolean indexBuilt = H12CustomApp.buildKeywordIndex(fileToRead);
+            ArrayList<String> actualContents = new ArrayList<>();
+            for (String keyword : keywords) {
+                actualContents.add(Arrays.deepToString(
+                        H12CustomApp.filterRowsByKeyword(fileToRead, keyword).toArray()));
+            }
+            for (String token : tokens) {
+                actualContents.add(Arrays.deepToString(
+                        H12CustomApp.filterRowsByToken(fileToRead, token).toArray()));
+            }
+            // A whole token is not a part of a longer one
+            boolean tokensMatched = expectedContents.get(keywords.length + 1).equals("[]")
+                    && expectedContents.get(keywords.length).equals(
+                    "[[Bob, 25, Boston], [Dana, 41, Boston]]");
+            InvertedIndex opened = InvertedIndex.open(fileToRead);
+            boolean cached = opened != null && opened == InvertedIndex.open(fileToRead);
+            boolean tempLeft = Sidecar.temporary(InvertedIndex.indexFilename(fileToRead))
+                    .toFile().exists();
+
+            if (!indexBuilt || tempLeft || !tokensMatched || !cached
+                    || !actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("filterRowsByKeyword 12) expected: " + expectedContents +
+                        " actual: " + actualContents + " temporary file left: " + tempLeft +
+                        " index reused: " + cached);
+            } else {
+                System.out.println("filterRowsByKeyword 12) success");
+                new File(fileToRead).delete();
+                new File(InvertedIndex.indexFilename(fileToRead)).delete();
+            }
+        }
+
+        /**
+         * Tests the FollowScan class used by the follow options of H12CustomApp.
+         * It polls a file, appends complete and partial rows, and polls again with a
+         * new scan resuming from the committed checkpoint, then polls twice without
+         * committing.
+         * Expected result is that every committed row is emitted exactly once, the
+         * partial row only after its line terminator is written, and the row that
+         * was not committed twice.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 13: Follow a file for appended rows
+        {
+            String fileToRead = "testFollow.csv";
+            String checkpointFile = "testFollow.checkpoint";
+            createTestDataFile(fileToRead, "Name,Age,City\nAlice,30,Boston\nBob,25,Chicago\n");
+            new File(checkpointFile).delete();
+
+            ArrayList<String> actualContents = new ArrayList<>();
+            try {
+                String[] appends = {"", "Carl,35,Boston\nDana,41,Bos", "ton\n"};
+                for (String append : appends) {
+                    try (FileWriter writer = new FileWriter(fileToRead, true)) {
+                        writer.write(append);
+                    }
+                    FollowScan scan = FollowScan.columns(fileToRead, checkpointFile,
+                            List.of("Name", "City"));
+                    try (RowCursor rows = scan.poll()) {
+                        while (rows.next()) {
+                            actualContents.add(rows.row().join(" "));
+                        }
+                    }
+                    scan.commit();
+                    actualContents.add("|");
+                }
+                try (FileWriter writer = new FileWriter(fileToRead, true)) {
+                    writer.write("Eve,22,Denver\n");
+                }
+                FollowScan scan = FollowScan.columns(fileToRead, checkpointFile,
+                        List.of("Name", "City"));
+                for (int i = 0; i < 2; i++) {
+                    // Not committed, so the row is read again
+                    try (RowCursor rows = scan.poll()) {
+                        while (rows.next()) {
+                            actualContents.add(rows.row().join(" "));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            List<String> expectedContents = List.of("Alice Boston", "Bob Chicago", "|",
+                    "Carl Boston", "|", "Dana Boston", "|", "Eve Denver", "Eve Denver");
+
+            if (!actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("FollowScan 13) expected: " + expectedContents +
+                        " actual: " + actualContents);
+            } else {
+                System.out.println("FollowScan 13) success");
+                new File(fileToRead).delete();
+                new File(checkpointFile).delete();
+            }
+        }
+
+        /**
+         * Tests the readTypedColumn and openRowsInRange methods of H12CustomApp class.
+         * The Age column mixes integers, a decimal, padding, an empty value, text and
+         * a short record, and is compared numerically rather than as text.
+         * Expected result is a DOUBLE column with nulls for the rows without a number,
+         * and the rows whose age is between 25 and 35.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 14: Filter rows by a numeric range
+        {
+            String fileToRead = "testRange.csv";
+            String fileContents = "Name,Age,City\nAlice,30,Boston\nBob, 9 ,Boston\n" +
+                    "Charlie,35.5,Chicago\nDana,,Boston\nEve,unknown,Chicago\nFay\n" +
+                    "Gus,25,Denver\n";
+            createTestDataFile(fileToRead, fileContents);
+
+            ArrayList<String> actualContents = new ArrayList<>();
+            try {
+                TypedColumn ages = H12CustomApp.readTypedColumn(fileToRead, "Age", null);
+                actualContents.add(ages.type() + " " + Arrays.toString(ages.doubleValues()) +
+                        " " + ages.nulls());
+                try (RowCursor rows = H12CustomApp.openRowsInRange(fileToRead, "Age",
+                        TypedColumn.Comparison.BETWEEN, 9.5, 35.5)) {
+                    while (rows.next()) {
+                        actualContents.add(rows.row().join(" "));
+                    }
+                }
+                TypedColumn ints = H12CustomApp.readTypedColumn(fileToRead, "Age",
+                        TypedColumn.Type.INT);
+                actualContents.add(ints.select(TypedColumn.Comparison.LESS, 30, 0).toString());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            List<String> expectedContents = List.of(
+                    "DOUBLE [30.0, 9.0, 35.5, 0.0, 0.0, 0.0, 25.0] {3, 4, 5}",
+                    "Alice 30 Boston", "Charlie 35.5 Chicago", "Gus 25 Denver", "{1, 6}");
+
+            if (!actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("openRowsInRange 14) expected: " + expectedContents +
+                        " actual: " + actualContents);
+            } else {
+                System.out.println("openRowsInRange 14) success");
+                new File(fileToRead).delete();
+            }
+        }
+
+        /**
+         * Tests the filterRows method of H12CustomApp class with compound filter
+         * expressions. Values are trimmed and may be quoted, ages are compared as
+         * numbers, and a short record matches no clause on its missing columns and
+         * no negation of one.
+         * Expected result is the rows matching each expression, or an error message.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 15: Filter rows by a compound expression
+        {
+            String fileToRead = "testFilterExpression.csv";
+            String fileContents = "Name,Age,City\nAlice,30,Boston\nBob, 9 ,\"New York\"\n" +
+                    "\"Charlie, Jr\",35.5,Boston\nDana\nEve,41,\"Bos\"\"ton\"\n";
+            createTestDataFile(fileToRead, fileContents);
+
+            String[] expressions = {
+                "City = Boston AND Age > 30",
+                "Age < 10 OR Name startswith \"Charlie,\"",
+                "NOT (City contains Bos) AND Age between 0 100",
+                "NOT City = Boston",
+                "City != Boston",
+                "City = \"Bos\"\"ton\"",
+                "Town = Boston",
+                "Age >"
+            };
+            ArrayList<String> actualContents = new ArrayList<>();
+            for (String expression : expressions) {
+                ArrayList<String> names = new ArrayList<>();
+                for (String[] row : H12CustomApp.filterRows(fileToRead, expression)) {
+                    names.add(row[0]);
+                }
+                actualContents.add(String.join("|", names));
+            }
+
+            List<String> expectedContents = List.of("Charlie, Jr", "Bob|Charlie, Jr", "Bob",
+                    "Bob|Eve", "Bob|Eve", "Eve", "Error: Column not found: Town",
+                    "Error: Invalid filter: expected a number after >");
+
+            if (!actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("filterRows 15) expected: " + expectedContents +
+                        " actual: " + actualContents);
+            } else {
+                System.out.println("filterRows 15) success");
+                new File(fileToRead).delete();
+            }
+        }
+
+        /**
+         * Tests the rows returned by the openWholeCSV method of H12CustomApp class,
+         * which hold the record bytes and are refilled for every record. Detached
+         * rows must keep their values after the cursor moves on, and quoted fields
+         * must decode the same way as readWholeCSV.
+         * Expected result is the joined text of every record, both from detached rows
+         * and as read, and the values of the first data row.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 16: Keep rows detached from a cursor
+        {
+            String fileToRead = "testDetachRows.csv";
+            String fileContents = "Name,Age,City\nAlice,30,Boston\n" +
+                    "\"Charlie \"\"CJ\"\", Jr\",35,\"Los\nAngeles\"\nDana,,\n";
+            createTestDataFile(fileToRead, fileContents);
+
+            ArrayList<String> actualContents = new ArrayList<>();
+            ArrayList<Row> detachedRows = new ArrayList<>();
+            try (RowCursor rows = H12CustomApp.openWholeCSV(fileToRead)) {
+                while (rows.next()) {
+                    actualContents.add(rows.row().join("|"));
+                    detachedRows.add(rows.row().detach());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (Row row : detachedRows) {
+                actualContents.add(row.join(","));
+            }
+            actualContents.add(detachedRows.get(1).get(2) + " " + detachedRows.get(1).size());
+
+            List<String> expectedContents = List.of("Name|Age|City", "Alice|30|Boston",
+                    "Charlie \"CJ\", Jr|35|Los\nAngeles", "Dana||",
+                    "Name,Age,City", "Alice,30,Boston",
+                    "Charlie \"CJ\", Jr,35,Los\nAngeles", "Dana,,", "Boston 3");
+
+            if (!actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("openWholeCSV 16) expected: " + expectedContents +
+                        " actual: " + actualContents);
+            } else {
+                System.out.println("openWholeCSV 16) success");
+                new File(fileToRead).delete();
+            }
+        }
+
+        /**
+         * Tests the groupRows method of H12CustomApp class and the HashAggregate class
+         * it uses, sequentially and in parallel with a budget of 3 groups so partial
+         * tables are merged and spilled. Scores mix integers, decimals and text,
+         * and ids above 2^53 are compared with decimals.
+         * Expected result is the count, sum, min and max of every city computed
+         * directly, the same groups from both runs, and the exact extreme ids.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 17: Group rows and aggregate them
+        {
+            String fileToRead = "testGroupRows.csv";
+            StringBuilder fileContents = new StringBuilder("Id,City,Score\n");
+            TreeMap<String, double[]> expectedGroups = new TreeMap<>();
+            for (int i = 0; i < 2000; i++) {
+                String city = "city" + (i * 7919 % 23);
+                String score = i % 10 == 0 ? "n/a" : i % 3 == 0 ? (i % 50) + ".5" : "" + (i % 50);
+                fileContents.append(i).append(", ").append(city).append(" ,").append(score)
+                        .append("\n");
+                double[] group = expectedGroups.computeIfAbsent(city, key ->
+                        new double[]{0, 0, Double.MAX_VALUE, -Double.MAX_VALUE});
+                group[0]++;
+                if (i % 10 != 0) {
+                    double value = Double.parseDouble(score);
+                    group[1] += value;
+                    group[2] = Math.min(group[2], value);
+                    group[3] = Math.max(group[3], value);
+                }
+            }
+            createTestDataFile(fileToRead, fileContents.toString());
+
+            List<String> aggregates = List.of("count", "sum(Score)", "MIN(Score)", "max(Score)");
+            ArrayList<String> expectedContents = new ArrayList<>();
+            for (String city : expectedGroups.keySet()) {
+                double[] group = expectedGroups.get(city);
+                StringBuilder row = new StringBuilder(city);
+                for (double value : group) {
+                    row.append(' ').append(value == Math.rint(value) ?
+                            Long.toString((long) value) : Double.toString(value));
+                }
+                expectedContents.add(row.toString());
+            }
+            ArrayList<String> actualContents = new ArrayList<>();
+            for (String[] row : H12CustomApp.groupRows(fileToRead, List.of("City"), aggregates)) {
+                actualContents.add(String.join(" ", row));
+            }
+            ArrayList<String> spilledContents = new ArrayList<>();
+            try (RowCursor rows = HashAggregate.open(fileToRead, List.of("City"), aggregates,
+                    100, 3)) {
+                while (rows.next()) {
+                    spilledContents.add(rows.row().join(" "));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            Collections.sort(spilledContents);
+            Collections.sort(expectedContents);
+            ArrayList<String> sortedContents = new ArrayList<>(actualContents);
+            Collections.sort(sortedContents);
+            String idsFile = "testGroupIds.csv";
+            createTestDataFile(idsFile, "Id\n9007199254740993\n9007199254740992\n" +
+                    "1.5\n-9007199254740993\n-9007199254740992.0\n");
+            List<String> extremes = new ArrayList<>();
+            for (String[] row : H12CustomApp.groupRows(idsFile, List.of(),
+                    List.of("min(Id)", "max(Id)"))) {
+                extremes.add(String.join(" ", row));
+            }
+
+            if (expectedContents.size() != 23 || !sortedContents.equals(expectedContents) ||
+                    !spilledContents.equals(expectedContents) ||
+                    !extremes.equals(List.of("-9007199254740993 9007199254740993"))) {
+                error = true;
+                System.out.println("groupRows 17) expected: " + expectedContents +
+                        " actual: " + actualContents + " spilled: " + spilledContents +
+                        " extremes: " + extremes);
+            } else {
+                System.out.println("groupRows 17) success");
+                new File(fileToRead).delete();
+                new File(idsFile).delete();
+            }
+        }
+
+        /**
+         * Tests the sortRows method of H12CustomApp class and the ExternalSort class
+         * it uses. Rows are sorted by text and by number, descending, with ties kept
+         * in file order and values that are not numbers last; a larger file is also
+         * sorted with a budget so small that every row is its own run, and by top-K.
+         * Expected result is the same order from every path.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 18: Sort rows by columns
+        {
+            String fileToRead = "testSortRows.csv";
+            String fileContents = "Name,Age,City\nAlice,30,Boston\nBob, 9 ,Chicago\n" +
+                    "Carl,,Boston\nDana,41,Boston\nEve,9.5,Chicago\nFay,x,Austin\n" +
+                    "Gus,30,Boston\n";
+            createTestDataFile(fileToRead, fileContents);
+            String largeFile = "testSortLarge.csv";
+            StringBuilder largeContents = new StringBuilder("Id,Key\n");
+            for (int i = 0; i < 150; i++) {
+                largeContents.append(i).append(',').append(i * 37 % 11 - 5).append('\n');
+            }
+            createTestDataFile(largeFile, largeContents.toString());
+
+            ArrayList<String> actualContents = new ArrayList<>();
+            for (String[] row : H12CustomApp.sortRows(fileToRead,
+                    List.of("City", "Age number desc"), 0)) {
+                actualContents.add(row[0]);
+            }
+            for (String[] row : H12CustomApp.sortRows(fileToRead, List.of("Age number"), 3)) {
+                actualContents.add(row[0]);
+            }
+            List<String> keys = List.of("Key number desc");
+            ArrayList<String> expectedLarge = new ArrayList<>();
+            for (String[] row : H12CustomApp.sortRows(largeFile, keys, 0)) {
+                expectedLarge.add(String.join(",", row));
+            }
+            ArrayList<String> spilledLarge = new ArrayList<>();
+            try (RowCursor rows = ExternalSort.open(largeFile, keys, 1)) {
+                while (rows.next()) {
+                    spilledLarge.add(rows.row().join(","));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            ArrayList<String> topLarge = new ArrayList<>();
+            for (String[] row : H12CustomApp.sortRows(largeFile, keys, 150)) {
+                topLarge.add(String.join(",", row));
+            }
+
+            List<String> expectedContents = List.of("Fay", "Dana", "Alice", "Gus", "Carl",
+                    "Eve", "Bob", "Bob", "Eve", "Alice");
+
+            if (!actualContents.equals(expectedContents) || expectedLarge.size() != 150 ||
+                    !expectedLarge.get(0).equals("8,5") || !spilledLarge.equals(expectedLarge) ||
+                    !topLarge.equals(expectedLarge)) {
+                error = true;
+                System.out.println("sortRows 18) expected: " + expectedContents + " " +
+                        expectedLarge + " actual: " + actualContents + " " + spilledLarge +
+                        " " + topLarge);
+            } else {
+                System.out.println("sortRows 18) success");
+                new File(fileToRead).delete();
+                new File(largeFile).delete();
+            }
+        }
+
+        /**
+         * Tests the OperationEvent emitted to JDK Flight Recorder by writeCSVFile of
+         * H12CustomApp class, and the rows and bytes read through Metrics. The file
+         * is copied while a recording is running.
+         * Expected result is one event with the rows, bytes read and bytes written.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 19: Record the metrics of an operation
+        {
+            String fileToRead = "testMetrics.csv";
+            String fileToWrite = "testMetricsCopy.csv";
+            String fileContents = "Name,Age\nAlice,30\nBob,25\nCarl,41\n";
+            createTestDataFile(fileToRead, fileContents);
+            String recordingFile = "testMetrics.jfr";
+
+            List<String> actualContents = new ArrayList<>();
+            try (Recording recording = new Recording()) {
+                recording.enable("H12CustomApp.Operation");
+                recording.start();
+                try (RowCursor rows = H12CustomApp.openFilteredRows(fileToRead, "")) {
+                    H12CustomApp.writeCSVFile(fileToWrite, new String[]{"Name", "Age"}, rows);
+                }
+                recording.stop();
+                recording.dump(Paths.get(recordingFile));
+                for (RecordedEvent event : RecordingFile.readAllEvents(Paths.get(recordingFile))) {
+                    actualContents.add(event.getString("operation") + " " +
+                            event.getLong("rowsScanned") + " " + event.getLong("rowsMatched") +
+                            " " + event.getLong("bytesRead") + " " +
+                            event.getLong("bytesWritten"));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            long written = new File(fileToWrite).length();
+            List<String> expectedContents = List.of("writeCSVFile 4 4 " +
+                    fileContents.length() + " " + written);
+
+            if (!actualContents.equals(expectedContents) || written == 0) {
+                error = true;
+                System.out.println("Metrics 19) expected: " + expectedContents + " actual: " +
+                        actualContents);
+            } else {
+                System.out.println("Metrics 19) success");
+                new File(fileToRead).delete();
+                new File(fileToWrite).delete();
+                new File(recordingFile).delete();
+            }
+        }
+
+        /**
+         * Tests the BatchScan class, which runs many queries in one scan of a file.
+         * Every query writes the same rows as the matching method of H12CustomApp,
+         * and a batch with a missing column writes no output at all.
+         * Expected result is equal outputs and an error for the missing column.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 20: Run many queries in one scan
+        {
+            String fileToRead = "testBatch.csv";
+            String fileContents = "Name,Age,City\nAlice, 30 ,Boston\nBob,25,\"Chicago, IL\"\n" +
+                    "Carl,41,Boston\nDana,19,Austin\n";
+            createTestDataFile(fileToRead, fileContents);
+            List<String> queries = List.of("testBatch1.txt column Age",
+                    "testBatch2.txt columns City, Name", "testBatch3.txt rows 4,2,9",
+                    "testBatch4.txt keyword Boston", "testBatch5.txt filter Age > 20",
+                    "testBatch4.txt keyword IL");
+
+            List<String> expectedContents = new ArrayList<>();
+            expectedContents.add(String.join("|", H12CustomApp.readCSVColumn(fileToRead, "Age")));
+            List<String> lines = new ArrayList<>();
+            ArrayList<ArrayList<String>> columns = H12CustomApp.readMultipleCSVColumns(fileToRead,
+                    List.of("City", "Name"));
+            for (int i = 0; i < columns.get(0).size(); i++) {
+                lines.add(columns.get(0).get(i) + " " + columns.get(1).get(i));
+            }
+            expectedContents.add(String.join("|", lines));
+            List<List<String[]>> rowResults = List.of(
+                    H12CustomApp.readCSVRows(fileToRead, List.of(3, 1, 8)),
+                    H12CustomApp.filterRowsByKeyword(fileToRead, "Boston"),
+                    H12CustomApp.filterRows(fileToRead, "Age > 20"));
+            for (List<String[]> rows : rowResults) {
+                lines = new ArrayList<>();
+                for (String[] row : rows) {
+                    lines.add(String.join(" ", row));
+                }
+                expectedContents.add(String.join("|", lines));
+            }
+            // Queries sharing an output file write their rows in file order
+            expectedContents.set(3, "Alice  30  Boston|Bob 25 Chicago, IL|Carl 41 Boston");
+
+            List<String> actualContents = new ArrayList<>();
+            String missingColumn = "";
+            try {
+                long[] counts = BatchScan.run(fileToRead, queries);
+                for (int i = 1; i <= 5; i++) {
+                    actualContents.add(readTestDataFile("testBatch" + i + ".txt").trim()
+                            .replace("\n", "|"));
+                }
+                actualContents.add(Arrays.toString(counts));
+                new File("testBatch1.txt").delete();
+                BatchScan.run(fileToRead, List.of("testBatch1.txt column Age",
+                        "testBatch6.txt column Height"));
+            } catch (IllegalArgumentException e) {
+                missingColumn = e.getMessage();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            expectedContents.add("[4, 4, 2, 2, 3, 1]");
+
+            if (!actualContents.equals(expectedContents) ||
+                    !missingColumn.equals("Column not found: Height") ||
+                    new File("testBatch1.txt").exists()) {
+                error = true;
+                System.out.println("BatchScan 20) expected: " + expectedContents + " actual: " +
+                        actualContents + " " + missingColumn);
+            } else {
+                System.out.println("BatchScan 20) success");
+                new File(fileToRead).delete();
+                for (int i = 2; i <= 5; i++) {
+                    new File("testBatch" + i + ".txt").delete();
+                }
+            }
+        }
+
+        /**
+         * Tests the Server class and the TableCache it serves cached files from. The
+         * same file is requested through several operations, then changed, which
+         * must be parsed again; a missing column and a missing file are errors. A
+         * file too large to cache is skipped until it changes.
+         * Expected result is the rows of H12CustomApp with the right statuses.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 21: Serve operations from a resident cache
+        {
+            String fileToRead = "testServer.csv";
+            String fileContents = "Name,Age,City\nAlice, 30 ,Boston\nBob,25,\"Chicago, IL\"\n";
+            String oversizeFile = "testServerOversize.csv";
+            createTestDataFile(fileToRead, fileContents);
+
+            List<String> actualContents = new ArrayList<>();
+            Server server = null;
+            try {
+                server = new Server(0, 1 << 20, 4);
+                HttpClient client = HttpClient.newHttpClient();
+                String base = "http://localhost:" + server.port() + "/";
+                String file = "file=" + URLEncoder.encode(fileToRead, StandardCharsets.UTF_8);
+                for (String request : List.of("columns?names=City,Name&" + file,
+                        "rows?rows=2,1&" + file, "keyword?keyword=Boston&" + file,
+                        "whole?" + file, "filter?expression=Age+%3E+26&" + file,
+                        "columns?names=Height&" + file, "whole?file=testServerMissing.csv")) {
+                    HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                            URI.create(base + request)).build(),
+                            HttpResponse.BodyHandlers.ofString());
+                    actualContents.add(response.statusCode() + " " + response.body().trim());
+                    if (request.contains("Missing")) {
+                        createTestDataFile(fileToRead, fileContents + "Carl,41,Austin\n");
+                        new File(fileToRead).setLastModified(System.currentTimeMillis() + 2000);
+                    }
+                }
+                HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                        URI.create(base + "columns?names=Name&" + file)).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                actualContents.add(response.statusCode() + " " + response.body().trim());
+                response = client.send(HttpRequest.newBuilder(URI.create(base + "stats")).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                actualContents.add(response.body().replaceAll("bytes: \\d+ of \\d+, ", "").trim());
+                StringBuilder large = new StringBuilder("Name\n");
+                for (int i = 0; i < 200; i++) {
+                    large.append("name").append(i).append('\n');
+                }
+                createTestDataFile(oversizeFile, large.toString());
+                TableCache cache = new TableCache(new File(oversizeFile).length() + 1);
+                actualContents.add(cache.get(oversizeFile) + " " + cache.get(oversizeFile));
+                createTestDataFile(oversizeFile, "Name\nAlice\n");
+                new File(oversizeFile).setLastModified(System.currentTimeMillis() + 4000);
+                actualContents.add(String.valueOf(cache.get(oversizeFile).rowCount()));
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                if (server != null) {
+                    server.stop();
+                }
+            }
+
+            List<String> expectedContents = List.of("200 Boston Alice\nChicago, IL Bob",
+                    "200 Alice  30  Boston\nBob 25 Chicago, IL", "200 Alice  30  Boston",
+                    "200 Name,Age,City\nAlice, 30 ,Boston\nBob,25,Chicago, IL",
+                    "200 Alice  30  Boston", "400 Error: Column not found: Height",
+                    "404 Error: File not found", "200 Alice\nBob\nCarl",
+                    "Tables: 1, hits: 4, misses: 2", "null null", "1");
+
+            if (!actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("Server 21) expected: " + expectedContents + " actual: " +
+                        actualContents);
+            } else {
+                System.out.println("Server 21) success");
+                new File(fileToRead).delete();
+                new File(oversizeFile).delete();
+            }
+        }
+
+        /**
+         * Tests reading and writing gzip files through the GzipPipe class. A file is
+         * written compressed by writeCSVFile and read back by readWholeCSV and
+         * filterRowsByKeyword, and rows appended twice by writeToFile are read back
+         * from both gzip members.
+         * Expected result is the same rows as from the uncompressed file.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 22: Read and write gzip files
+        {
+            String fileToRead = "testGzip.csv";
+            String fileToWrite = "testGzip.csv.gz";
+            String appended = "testGzipAppended.txt.gz";
+            StringBuilder fileContents = new StringBuilder("Id,Name,Note\n");
+            for (int i = 0; i < 2000; i++) {
+                fileContents.append(i).append(",name").append(i % 7).append(",\"a \"\"b\"\"\"\n");
+            }
+            createTestDataFile(fileToRead, fileContents.toString());
+
+            List<String> actualContents = new ArrayList<>();
+            List<String> expectedContents = new ArrayList<>();
+            try (RowCursor rows = H12CustomApp.openWholeCSV(fileToRead)) {
+                rows.next();
+                H12CustomApp.writeCSVFile(fileToWrite, rows.row().toArray(), rows);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (String file : List.of(fileToRead, fileToWrite)) {
+                List<String> contents = file.equals(fileToRead) ? expectedContents : actualContents;
+                for (String[] row : H12CustomApp.readWholeCSV(file)) {
+                    contents.add(String.join("|", row));
+                }
+                contents.add(String.valueOf(H12CustomApp.filterRowsByKeyword(file,
+                        "name3").size()));
+                contents.add(String.valueOf(H12CustomApp.filterRowsByKeyword(file, "name3",
+                        true).size()));
+            }
+
+            H12CustomApp.writeToFile(appended, "first");
+            H12CustomApp.writeToFile(appended, "second");
+            List<String> appendedContents = new ArrayList<>();
+            for (String[] row : H12CustomApp.readWholeCSV(appended)) {
+                appendedContents.add(String.join("|", row));
+            }
+
+            if (!actualContents.equals(expectedContents) ||
+                    !appendedContents.equals(List.of("first", "second"))) {
+                error = true;
+                System.out.println("Gzip 22) expected: " + expectedContents.subList(0, 3) +
+                        " actual: " + actualContents.subList(0, Math.min(3,
+                        actualContents.size())) + " " + appendedContents);
+            } else {
+                System.out.println("Gzip 22) success");
+                new File(fileToRead).delete();
+                new File(fileToWrite).delete();
+                new File(appended).delete();
+            }
+        }
+
+        /**
+         * Tests reading a directory and a glob of files through the MultiFileScan
+         * class. Three files, one of them compressed, are read by readWholeCSV,
+         * readCSVRows, filterRowsByKeyword, groupRows and sortRows, and a fourth
+         * file with another header is rejected.
+         * Expected result is the same rows as from one file holding all the rows,
+         * and an error naming the file with the other header.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 23: Read a directory or glob of files as one
+        {
+            String directory = "testMultiFile";
+            String fileToRead = "testMultiFile.csv";
+            new File(directory).mkdir();
+            StringBuilder allContents = new StringBuilder("Name,Age,City\n");
+            for (int day = 1; day <= 3; day++) {
+                StringBuilder dayContents = new StringBuilder("Name,Age,City\n");
+                for (int i = 0; i < 500; i++) {
+                    String row = "P" + day + "-" + i + "," + (i * 7 + day) % 90 + ","
+                            + (i % 3 == 0 ? "Boston" : "Austin") + "\n";
+                    dayContents.append(row);
+                    allContents.append(row);
+                }
+                if (day < 3) {
+                    createTestDataFile(directory + "/day-" + day + ".csv", dayContents.toString());
+                } else {
+                    H12CustomApp.writeToFile(directory + "/day-3.csv.gz",
+                            dayContents.toString().trim());
+                }
+            }
+            createTestDataFile(fileToRead, allContents.toString());
+
+            List<String> actualContents = new ArrayList<>();
+            List<String> expectedContents = new ArrayList<>();
+            for (String source : List.of(fileToRead, directory, directory + "/day-*.csv*")) {
+                List<String> contents = source.equals(fileToRead)
+                        ? expectedContents : actualContents;
+                List<ArrayList<String[]>> results = List.of(
+                        H12CustomApp.readWholeCSV(source),
+                        H12CustomApp.readCSVRows(source, List.of(0, 499, 500, 1001, 1499, 1500)),
+                        H12CustomApp.filterRowsByKeyword(source, "Boston", true),
+                        H12CustomApp.groupRows(source, List.of("City"),
+                                List.of("count", "sum(Age)")),
+                        H12CustomApp.sortRows(source, List.of("Age number desc"), 0),
+                        H12CustomApp.sortRows(source, List.of("City", "Age number"), 5));
+                for (ArrayList<String[]> result : results) {
+                    for (String[] row : result) {
+                        contents.add(String.join("|", row));
+                    }
+                    contents.add("--");
+                }
+            }
+            expectedContents.addAll(new ArrayList<>(expectedContents));
+
+            createTestDataFile(directory + "/day-4.csv", "Name,City,Age\nQ,Boston,30\n");
+            ArrayList<String[]> mismatch = H12CustomApp.readWholeCSV(directory);
+            String expectedError = "Error: Header of " + directory + File.separator
+                    + "day-4.csv does not match " + directory + File.separator + "day-1.csv";
+
+            if (!actualContents.equals(expectedContents) || mismatch.size() != 1 ||
+                    !mismatch.get(0)[0].equals(expectedError)) {
+                error = true;
+                System.out.println("MultiFileScan 23) expected: " + expectedContents.size() +
+                        " rows, " + expectedError + " actual: " + actualContents.size() +
+                        " rows, " + (mismatch.isEmpty() ? "" : mismatch.get(0)[0]));
+            } else {
+                System.out.println("MultiFileScan 23) success");
+                for (File file : new File(directory).listFiles()) {
+                    file.delete();
+                }
+                new File(directory).delete();
+                new File(fileToRead).delete();
+            }
+        }
+
+        /**
+         * Tests the joinRows method of H12CustomApp class through the HashJoin
+         * class. People are joined with their cities, once with the cities held in
+         * memory and once with a budget so small that both files are partitioned
+         * on disk, as inner and left joins, and with a key column that does not
+         * exist.
+         * Expected result is the same rows as a nested loop over both files.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 24: Join two CSV files on a key column
+        {
+            String fileToRead = "testJoinPeople.csv";
+            String joinFile = "testJoinCities.csv";
+            StringBuilder people = new StringBuilder("Name,Age,City\n");
+            StringBuilder cities = new StringBuilder("City,State\n");
+            List<String> expectedInner = new ArrayList<>();
+            List<String> expectedLeft = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                people.append("P").append(i).append(',').append(20 + i % 50).append(",C")
+                        .append(i % 40).append('\n');
+            }
+            for (int c = 0; c < 30; c++) {
+                cities.append(" C").append(c).append(",S").append(c % 4).append('\n');
+            }
+            // A city listed twice matches twice
+            cities.append("C7,S9\n");
+            for (int i = 0; i < 300; i++) {
+                String person = "P" + i + "," + (20 + i % 50) + ",C" + (i % 40);
+                if (i % 40 < 30) {
+                    expectedInner.add(person + ",S" + (i % 40 % 4));
+                    if (i % 40 == 7) {
+                        expectedInner.add(person + ",S9");
+                    }
+                } else {
+                    expectedLeft.add(person + ",");
+                }
+            }
+            expectedLeft.addAll(expectedInner);
+            createTestDataFile(fileToRead, people.toString());
+            createTestDataFile(joinFile, cities.toString());
+
+            List<List<String>> actualContents = new ArrayList<>();
+            for (long budget : new long[]{HashJoin.DEFAULT_MEMORY_BUDGET, 256}) {
+                for (HashJoin.Type type : HashJoin.Type.values()) {
+                    List<String> joined = new ArrayList<>();
+                    try (RowCursor rows = HashJoin.open(fileToRead, joinFile, "City", "City",
+                            type, budget)) {
+                        while (rows.next()) {
+                            joined.add(rows.row().join(","));
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    Collections.sort(joined);
+                    actualContents.add(joined);
+                }
+            }
+            Collections.sort(expectedInner);
+            Collections.sort(expectedLeft);
+            List<List<String>> expectedContents = List.of(expectedInner, expectedLeft,
+                    expectedInner, expectedLeft);
+            ArrayList<String[]> inMemory = H12CustomApp.joinRows(fileToRead, joinFile, "City",
+                    "City", HashJoin.Type.INNER);
+            ArrayList<String[]> missing = H12CustomApp.joinRows(fileToRead, joinFile, "Town",
+                    "City", HashJoin.Type.LEFT);
+
+            if (!actualContents.equals(expectedContents) || inMemory.size() != 238 ||
+                    !String.join(",", inMemory.get(0)).equals("P0,20,C0,S0") ||
+                    !Arrays.equals(missing.get(0), new String[]{"Error: Column not found: Town"})) {
+                error = true;
+                System.out.println("HashJoin 24) expected: " + expectedInner.size() + " and " +
+                        expectedLeft.size() + " rows actual: " + actualContents.get(0).size() +
+                        ", " + actualContents.get(1).size() + ", " + actualContents.get(2).size() +
+                        ", " + actualContents.get(3).size() + " " +
+                        Arrays.toString(missing.get(0)));
+            } else {
+                System.out.println("HashJoin 24) success");
+                new File(fileToRead).delete();
+                new File(joinFile).delete();
+            }
+        }
+
+        /**
+         * Tests the RowWriter class used by writeCSVFile and writeToFile. Values
+         * with commas, quotes, line breaks and other than ASCII characters are
+         * written, over more than one buffer so that the writing thread is used,
+         * read back and copied again from the rows of the parser, and a CSV file
+         * is copied by writeToFile.
+         * Expected result is the same values, identical copies and values that
+         * need quotes quoted.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 25: Write quoted values through the row writer
+        {
+            String fileToWrite = "testRowWriter.csv";
+            String copyFile = "testRowWriterCopy.csv";
+            String textFile = "testRowWriter.txt";
+            String roundTripFile = "testRowWriterSource.csv";
+            String roundTripCopy = "testRowWriterSourceCopy.csv";
+            String[][] samples = {{"plain", "", "Zo\u00eb"}, {"a,b", "say \"hi\"", "two\nlines"},
+                    {"\"", "crlf\r\n", "\u65e5\u672c, \"\u6771\u4eac\""}};
+            ArrayList<String[]> rows = new ArrayList<>();
+            List<String> expectedContents = new ArrayList<>();
+            for (int i = 0; i < 60000; i++) {
+                String[] sample = samples[i % samples.length];
+                rows.add(new String[]{String.valueOf(i), sample[0], sample[1], sample[2]});
+                expectedContents.add(i + "|" + String.join("|", sample));
+            }
+
+            boolean writeResult = H12CustomApp.writeCSVFile(fileToWrite,
+                    new String[]{"Id", "A", "B", "C"}, rows);
+            List<String> actualContents = new ArrayList<>();
+            for (String[] row : H12CustomApp.readWholeCSV(fileToWrite)) {
+                actualContents.add(String.join("|", row));
+            }
+            try (RowCursor cursor = H12CustomApp.openWholeCSV(fileToWrite)) {
+                cursor.next();
+                H12CustomApp.writeCSVFile(copyFile, cursor.row().toArray(), cursor);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            H12CustomApp.writeToFile(textFile, RowCursor.of(List.<String[]>of(new String[]{"a,b",
+                    "say \"hi\""})), ",");
+            String source = "name,age\n\"Smith, Alice\",30\n\"Say \"\"hi\"\"\",4\n";
+            createTestDataFile(roundTripFile, source);
+            try (RowCursor cursor = H12CustomApp.openWholeCSV(roundTripFile)) {
+                H12CustomApp.writeToFile(roundTripCopy, cursor, ",");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            String csvLine = new Row(new String[]{"a,b", "say \"hi\"", "x"}).toCsv();
+            boolean rejected = false;
+            try {
+                RowWriter.open(textFile, true, "\"", true, false).close();
+            } catch (IllegalArgumentException e) {
+                rejected = true;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            expectedContents.add(0, "Id|A|B|C");
+
+            if (!writeResult || !actualContents.equals(expectedContents) ||
+                    new File(fileToWrite).length() <= RowWriter.BUFFER_SIZE ||
+                    !readTestDataFile(copyFile).equals(readTestDataFile(fileToWrite)) ||
+                    !readTestDataFile(textFile).equals("\"a,b\",\"say \"\"hi\"\"\"\n")
+                    || !readTestDataFile(roundTripCopy).equals(source)
+                    || !csvLine.equals("\"a,b\",\"say \"\"hi\"\"\",x") || !rejected) {
+                error = true;
+                System.out.println("RowWriter 25) expected: " + expectedContents.subList(0, 4) +
+                        " actual: " + actualContents.subList(0, Math.min(4,
+                        actualContents.size())) + " " + readTestDataFile(textFile) +
+                        readTestDataFile(roundTripCopy) + csvLine + rejected);
+            } else {
+                System.out.println("RowWriter 25) success");
+                new File(fileToWrite).delete();
+                new File(copyFile).delete();
+                new File(textFile).delete();
+                new File(roundTripFile).delete();
+                new File(roundTripCopy).delete();
+            }
+        }
+
+        /**
+         * Tests the zone map built by buildZoneMap of H12CustomApp class. Filters
+         * on sorted, clustered and scattered columns are run with and without the
+         * zone map, and again after rows are appended to the file. The zone map
+         * replaces a damaged one left behind by an earlier build.
+         * Expected result is the same rows either way, with only the blocks that
+         * can match read, the zone map ignored once the file changes, and no
+         * temporary file left behind.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 26: Skip blocks of rows through the zone map
+        {
+            String fileToRead = "testZoneMap.csv";
+            StringBuilder fileContents = new StringBuilder("Id,City,Score\n");
+            for (int i = 0; i < 5 * ZoneMap.BLOCK_ROWS; i++) {
+                String city = i % 97 == 0 ? "" : i / ZoneMap.BLOCK_ROWS == 2 ? "Boston" : "City" +
+                        (i % 50);
+                fileContents.append(i).append(',').append(city).append(',')
+                        .append(i % 1000 / 10.0).append('\n');
+            }
+            createTestDataFile(fileToRead, fileContents.toString());
+            String[] expressions = {"Id = 9000", "Id between 100 200 OR Id > 20000",
+                    "City = Boston AND Score > 99", "City startswith Bos", "City = \"\"",
+                    "Id < 0", "NOT Id = 3"};
+
+            List<Integer> expectedContents = new ArrayList<>();
+            List<Integer> actualContents = new ArrayList<>();
+            for (String expression : expressions) {
+                expectedContents.add(H12CustomApp.filterRows(fileToRead, expression).size());
+            }
+            createTestDataFile(ZoneMap.zoneMapFilename(fileToRead), "damaged");
+            boolean built = H12CustomApp.buildZoneMap(fileToRead);
+            boolean tempLeft = Sidecar.temporary(ZoneMap.zoneMapFilename(fileToRead))
+                    .toFile().exists();
+            for (String expression : expressions) {
+                actualContents.add(H12CustomApp.filterRows(fileToRead, expression).size());
+            }
+            ZoneMap zones = ZoneMap.open(fileToRead);
+            String[] headers = {"Id", "City", "Score"};
+            long[] idRanges = zones == null ? null : zones.candidateRanges(
+                    RowFilter.parse("Id = 9000").compile(headers), Long.MAX_VALUE);
+            long[] cityRanges = zones == null ? null : zones.candidateRanges(
+                    RowFilter.parse("City = Boston").compile(headers), Long.MAX_VALUE);
+            try (FileWriter writer = new FileWriter(fileToRead, true)) {
+                writer.write("99999,Boston,1\n");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            actualContents.add(H12CustomApp.filterRows(fileToRead, "Id > 99998").size());
+            expectedContents.add(1);
+
+            if (!built || tempLeft || !actualContents.equals(expectedContents) ||
+                    idRanges == null || idRanges.length != 2 || cityRanges.length != 2 ||
+                    ZoneMap.open(fileToRead) != null) {
+                error = true;
+                System.out.println("ZoneMap 26) expected: " + expectedContents + " actual: " +
+                        actualContents + " " + Arrays.toString(idRanges) + " " +
+                        Arrays.toString(cityRanges) + " temporary file left: " + tempLeft);
+            } else {
+                System.out.println("ZoneMap 26) success");
+                new File(fileToRead).delete();
+                new File(ZoneMap.zoneMapFilename(fileToRead)).delete();
+            }
+        }
+
+        /**
+         * Tests the filterRowsByKeywords method of H12CustomApp class through the
+         * KeywordMatcher class. Overlapping keywords, keywords read from a file and
+         * keywords in a different case are searched in one pass.
+         * Expected result is every row containing a keyword, followed by the
+         * keywords it contains, and an error when there are no keywords.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 27: Search for many keywords at once
+        {
+            String fileToRead = "testKeywords.csv";
+            String keywordFile = "testKeywords.txt";
+            String fileContents = "Name,Note\nushers,she said\nAlice,his hat\nBob,HERS\n" +
+                    "Carl,\"a, \"\"quoted\"\" he\"\nDana,none\n";
+            createTestDataFile(fileToRead, fileContents);
+            createTestDataFile(keywordFile, "he\n\n  she  \nhis\nhers\n");
+
+            List<String> actualContents = new ArrayList<>();
+            try {
+                List<String> keywords = KeywordMatcher.readKeywords(keywordFile);
+                for (boolean ignoreCase : new boolean[]{false, true}) {
+                    for (String[] row : H12CustomApp.filterRowsByKeywords(fileToRead, keywords,
+                            ignoreCase)) {
+                        actualContents.add(String.join("|", row));
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (String[] row : H12CustomApp.filterRowsByKeywords(fileToRead,
+                    List.of("Na", "", "\"\"quoted", "Na"), false)) {
+                actualContents.add(String.join("|", row));
+            }
+            actualContents.add(String.join("|", H12CustomApp.filterRowsByKeywords(fileToRead,
+                    List.of(""), true).get(0)));
+            List<String> expectedContents = List.of(
+                    "ushers|she said|he;she;hers", "Alice|his hat|his",
+                    "Carl|a, \"quoted\" he|he",
+                    "ushers|she said|he;she;hers", "Alice|his hat|his", "Bob|HERS|he;hers",
+                    "Carl|a, \"quoted\" he|he",
+                    "Name|Note|Na", "Carl|a, \"quoted\" he|\"\"quoted",
+                    "Error: No keywords to search for");
+
+            if (!actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("KeywordMatcher 27) expected: " + expectedContents +
+                        " actual: " + actualContents);
+            } else {
+                System.out.println("KeywordMatcher 27) success");
+                new File(fileToRead).delete();
+                new File(keywordFile).delete();
+            }
+        }
+
+        /**
+         * Tests the filterRowsByRegex method of H12CustomApp class and the matches
+         * clause of RowFilter through the RegexMatcher class. The literal text each
+         * expression requires is found, rows are matched on their raw text and on
+         * one column, and an invalid expression is reported.
+         * Expected result is the rows matching each expression, and an error for
+         * the invalid one.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 28: Filter rows with regular expressions
+        {
+            String fileToRead = "testRegex.csv";
+            String fileContents = "Name,Email\nAlice,alice@example.com\nBob,bob@example.org\n" +
+                    "\"Carl, Jr\",carl@EXAMPLE.com\nDana,dana@example.com.au\n";
+            createTestDataFile(fileToRead, fileContents);
+
+            List<String> actualContents = new ArrayList<>();
+            for (String regex : new String[]{"@example\\.com$", "a|b", "ab*c", "(?i)abc",
+                    "x(ab)+yz{2}w", "\\d+-\\QA.B\\E-", "[abc]def"}) {
+                actualContents.add(String.valueOf(RegexMatcher.requiredLiteral(regex)));
+            }
+            for (String regex : new String[]{"@example\\.com$", "^\"?[A-C]", "Na|Da", "a(b"}) {
+                for (String[] row : H12CustomApp.filterRowsByRegex(fileToRead, regex)) {
+                    actualContents.add(String.join("|", row));
+                }
+            }
+            for (String[] row : H12CustomApp.filterRows(fileToRead,
+                    "Email matches \"^[a-c].*\\.com$\"")) {
+                actualContents.add(String.join("|", row));
+            }
+            List<String> expectedContents = List.of(
+                    "@example.com", "null", "a", "null", "yz", "-A.B-", "def",
+                    "Alice|alice@example.com",
+                    "Alice|alice@example.com", "Bob|bob@example.org", "Carl, Jr|carl@EXAMPLE.com",
+                    "Name|Email", "Dana|dana@example.com.au",
+                    "Error: Invalid pattern: Unclosed group in a(b",
+                    "Alice|alice@example.com", "Carl, Jr|carl@EXAMPLE.com");
+
+            if (!actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("RegexMatcher 28) expected: " + expectedContents +
+                        " actual: " + actualContents);
+            } else {
+                System.out.println("RegexMatcher 28) success");
+                new File(fileToRead).delete();
+            }
+        }
+
+        /**
+         * Tests the profileColumns and sampleRows methods of H12CustomApp class
+         * through the ColumnProfile, HyperLogLog and QuantileSketch classes. A
+         * file is profiled whole and in small ranges, sketches of two halves are
+         * merged, and samples of several sizes are drawn.
+         * Expected result is distinct counts and percentiles within their error
+         * bounds, the same distinct counts and sample from every range size,
+         * exact quantiles for small sketches, and errors for a missing column and
+         * a negative sample size.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 29: Profile columns with sketches and sample rows
+        {
+            String fileToRead = "testProfile.csv";
+            StringBuilder fileContents = new StringBuilder("Id,City,Score\n");
+            for (int i = 1; i <= 1000; i++) {
+                fileContents.append(i).append(",C").append(i % 37).append(',')
+                        .append(i == 500 ? "" : String.valueOf(i)).append('\n');
+            }
+            createTestDataFile(fileToRead, fileContents.toString());
+
+            List<String> actualContents = new ArrayList<>();
+            List<String[]> profile = H12CustomApp.profileColumns(fileToRead, List.of());
+            for (String[] row : profile) {
+                long distinct = Long.parseLong(row[2]);
+                actualContents.add(row[0] + " " + row[1] + " " + (row[0].equals("City")
+                        ? distinct : Math.abs(distinct - 1000) <= 20));
+            }
+            String[] score = profile.get(2);
+            actualContents.add(score[3] + " " + score[7]);
+            actualContents.add(String.valueOf(Math.abs(Double.parseDouble(score[4]) - 500) <= 20
+                    && Math.abs(Double.parseDouble(score[5]) - 950) <= 20
+                    && Math.abs(Double.parseDouble(score[6]) - 990) <= 20));
+            try {
+                ColumnProfile whole = ColumnProfile.scan(List.of(fileToRead), List.of("Id"), 10,
+                        Long.MAX_VALUE);
+                ColumnProfile ranges = ColumnProfile.scan(List.of(fileToRead), List.of("Id"), 10,
+                        1000);
+                List<String> wholeSample = new ArrayList<>();
+                List<String> rangeSample = new ArrayList<>();
+                for (Row row : whole.sample()) {
+                    wholeSample.add(row.join(","));
+                }
+                for (Row row : ranges.sample()) {
+                    rangeSample.add(row.join(","));
+                }
+                actualContents.add(String.valueOf(whole.distinct(0) == ranges.distinct(0)
+                        && whole.rows() == 1000 && wholeSample.equals(rangeSample)
+                        && wholeSample.size() == 10));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            QuantileSketch small = new QuantileSketch();
+            for (int i = 5; i >= 1; i--) {
+                small.add(i);
+            }
+            QuantileSketch low = new QuantileSketch();
+            QuantileSketch high = new QuantileSketch();
+            for (int i = 1; i <= 100; i++) {
+                low.add(i);
+                high.add(100 + i);
+            }
+            low.merge(high);
+            actualContents.add(small.quantile(0.5) + " " + low.quantile(0.95) + " " + low.count());
+
+            List<String[]> sample = H12CustomApp.sampleRows(fileToRead, 5);
+            boolean ordered = sample.size() == 5;
+            for (int i = 1; i < sample.size(); i++) {
+                ordered &= Integer.parseInt(sample.get(i - 1)[0])
+                        < Integer.parseInt(sample.get(i)[0]);
+            }
+            actualContents.add(ordered + " " + H12CustomApp.sampleRows(fileToRead, 2000).size());
+            actualContents.add(H12CustomApp.sampleRows(fileToRead, -1).get(0)[0]);
+            actualContents.add(H12CustomApp.profileColumns(fileToRead, List.of("Town")).get(0)[0]);
+            List<String> expectedContents = List.of("Id 1000 true", "City 1000 37",
+                    "Score 999 true", "1 1000", "true", "true", "3.0 190.0 200", "true 1000",
+                    "Error: Sample size cannot be negative: -1", "Error: Column not found: Town");
+
+            if (!actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("ColumnProfile 29) expected: " + expectedContents +
+                        " actual: " + actualContents);
+            } else {
+                System.out.println("ColumnProfile 29) success");
+                new File(fileToRead).delete();
+            }
+        }
+
+        /**
+         * Tests the parallel scans of H12CustomApp class on a file whose quoted
+         * fields contain line breaks, through the ParallelScan class. Ranges are
+         * split at line breaks, many of them inside quoted fields. Rows matching a
+         * filter are read with and without a zone map, rows are grouped, and rows
+         * holding any of several keywords or a match of a regular expression are
+         * found, and a column is profiled and rows sampled.
+         * Expected result is the same rows as a sequential scan, with no
+         * fragments of records.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 30: Scan quoted line breaks in parallel
+        {
+            String fileToRead = "testParallelQuotes.csv";
+            StringBuilder fileContents = new StringBuilder("Id,Note,Group\n");
+            for (int i = 0; i < 40000; i++) {
+                fileContents.append(i).append(",\"first line of record ").append(i)
+                        .append(" with some padding to make it longer\nsecond, x").append(i)
+                        .append("\",").append(i % 7).append('\n');
+            }
+            createTestDataFile(fileToRead, fileContents.toString());
+
+            List<String> actualContents = new ArrayList<>();
+            try {
+                List<String> sequential = readAll(
+                        H12CustomApp.openFilteredRows(fileToRead, "second", false));
+                actualContents.add(String.valueOf(sequential.size()));
+                actualContents.add(String.valueOf(sequential.equals(readAll(
+                        H12CustomApp.openFilteredRows(fileToRead, "second", true)))));
+                actualContents.add(String.valueOf(sequential.equals(readAll(
+                        ParallelScan.open(fileToRead, 1000, parser -> {
+                            List<Row> rows = new ArrayList<>();
+                            while (parser.next()) {
+                                if (parser.recordStart() > 0) {
+                                    rows.add(parser.row(null));
+                                }
+                            }
+                            return rows;
+                        })))));
+                RowFilter filter = RowFilter.parse("Group = 3");
+                List<String> matching = readAll(
+                        H12CustomApp.openMatchingRows(fileToRead, filter, false));
+                actualContents.add(String.valueOf(matching.size()));
+                actualContents.add(String.valueOf(matching.equals(readAll(
+                        H12CustomApp.openMatchingRows(fileToRead, filter, true)))));
+                H12CustomApp.buildZoneMap(fileToRead);
+                actualContents.add(String.valueOf(matching.equals(readAll(
+                        H12CustomApp.openMatchingRows(fileToRead, filter, true)))));
+                List<String> aggregates = List.of("count", "sum(Id)", "min(Id)", "max(Id)");
+                List<String> groups = readAll(H12CustomApp.openGroupedRows(fileToRead,
+                        List.of("Group"), aggregates, false));
+                actualContents.add(groups.get(0));
+                actualContents.add(String.valueOf(groups.equals(readAll(
+                        H12CustomApp.openGroupedRows(fileToRead, List.of("Group"), aggregates,
+                                true)))));
+                List<String> keywords = List.of("X13", "record 39");
+                List<String> found = readAll(
+                        H12CustomApp.openKeywordMatches(fileToRead, keywords, true, false));
+                actualContents.add(String.valueOf(found.size()));
+                actualContents.add(String.valueOf(found.equals(readAll(
+                        H12CustomApp.openKeywordMatches(fileToRead, keywords, true, true)))));
+                String regex = "record 2\\d\\d with";
+                List<String> regexRows = readAll(
+                        H12CustomApp.openRegexMatches(fileToRead, regex, false));
+                actualContents.add(String.valueOf(regexRows.size()));
+                actualContents.add(String.valueOf(regexRows.equals(readAll(
+                        H12CustomApp.openRegexMatches(fileToRead, regex, true)))));
+                RowFilter noteFilter = RowFilter.matches("Note", "x1\\d{3}$");
+                List<String> noteRows = readAll(
+                        H12CustomApp.openMatchingRows(fileToRead, noteFilter, false));
+                actualContents.add(String.valueOf(noteRows.size()));
+                actualContents.add(String.valueOf(noteRows.equals(readAll(
+                        H12CustomApp.openMatchingRows(fileToRead, noteFilter, true)))));
+                List<String> profile = readAll(H12CustomApp.openColumnProfile(fileToRead,
+                        List.of("Note"), false));
+                actualContents.add(profile.get(0));
+                actualContents.add(String.valueOf(profile.equals(readAll(
+                        H12CustomApp.openColumnProfile(fileToRead, List.of("Note"), true)))));
+                List<String> sample = readAll(H12CustomApp.openSampledRows(fileToRead, 50,
+                        false));
+                actualContents.add(String.valueOf(sample.size()));
+                actualContents.add(String.valueOf(sample.equals(readAll(
+                        H12CustomApp.openSampledRows(fileToRead, 50, true)))));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            List<String> expectedContents = List.of("40000", "true", "true", "5714", "true",
+                    "true", "0|5715|114294285|0|39998", "true", "2222", "true",
+                    "100", "true", "1000", "true", "Note|40000|41078|||||", "true", "50", "true");
+
+            if (!actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("ParallelScan 30) expected: " + expectedContents +
+                        " actual: " + actualContents);
+            } else {
+                System.out.println("ParallelScan 30) success");
+                new File(fileToRead).delete();
+                new File(ZoneMap.zoneMapFilename(fileToRead)).delete();
+            }
+        }
+
+        /**
+         * Tests reading columns of a file with a stray quote in the middle of an
+         * unquoted field, through readCSVColumn, filterRows and groupRows, which
+         * skip the fields they do not need. A quote only opens a quoted field at
+         * the start of a field.
+         * Expected result is every row, as readWholeCSV reads them.
+         *
+         * @return true if the test passes, false otherwise
+         */
+        // Test case 31: Skip fields holding a stray quote
+        {
+            String fileToRead = "testStrayQuote.csv";
+            createTestDataFile(fileToRead,
+                    "Name,Height,City\nAl,5\" 10,Boston\nBo,6,Chicago\nCy,\"7\",\"a\nb\"\n");
+
+            List<String> actualContents = new ArrayList<>();
+            actualContents.add(String.valueOf(H12CustomApp.readCSVColumn(fileToRead, "Name")));
+            for (String[] row : H12CustomApp.filterRows(fileToRead, "Name = Bo")) {
+                actualContents.add(String.join("|", row));
+            }
+            for (String[] row : H12CustomApp.groupRows(fileToRead, List.of("Name"),
+                    List.of("count"))) {
+                actualContents.add(String.join("|", row));
+            }
+            actualContents.add(String.valueOf(H12CustomApp.readWholeCSV(fileToRead).size()));
+            List<String> expectedContents = List.of("[Al, Bo, Cy]", "Bo|6|Chicago", "Al|1",
+                    "Bo|1", "Cy|1", "4");
+
+            if (!actualContents.equals(expectedContents)) {
+                error = true;
+                System.out.println("StrayQuote 31) expected: " + expectedContents +
+                        " actual: " + actualContents);
+            } else {
+                System.out.println("StrayQuote 31) success");
+                new File(fileToRead).delete();
+            }
+        }
+
         if (error) {
             System.out.println("testH12CustomApp failed");
         } else {
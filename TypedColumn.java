@@ -0,0 +1,375 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The values of one numeric column held in a primitive array, with a bitmap of
+ * the rows that have no value. Position i holds the value of data row i (the
+ * rows after the header, starting from 0). Numeric comparisons are evaluated
+ * directly on the array and return the matching row positions.
+ *
+ * @author Ajay Shenoy
+ */
+public class TypedColumn {
+
+    /**
+     * The primitive type the values of a column are stored as.
+     */
+    public enum Type {
+        INT, LONG, DOUBLE
+    }
+
+    /**
+     * The numeric comparisons a column can be filtered by. BETWEEN includes
+     * both bounds.
+     */
+    public enum Comparison {
+        EQUAL, LESS, GREATER, BETWEEN;
+
+        /**
+         * Returns the comparison written as =, <, > or between.
+         *
+         * @param symbol The symbol of the comparison.
+         * @return The comparison.
+         * @throws IllegalArgumentException if the symbol is not a comparison.
+         */
+        public static Comparison parse(String symbol) {
+            switch (symbol.trim().toLowerCase()) {
+                case "=":
+                case "==":
+                    return EQUAL;
+                case "<":
+                    return LESS;
+                case ">":
+                    return GREATER;
+                case "between":
+                    return BETWEEN;
+                default:
+                    throw new IllegalArgumentException("Invalid comparison: " + symbol);
+            }
+        }
+    }
+
+    private static final double TWO_TO_63 = 0x1p63;
+
+    private final boolean widen;
+    private Type type;
+    private int size;
+    private int[] ints;
+    private long[] longs;
+    private double[] doubles;
+    private final BitSet nulls = new BitSet();
+
+    /**
+     * Creates an empty column.
+     *
+     * @param type The type to store values as.
+     * @param widen true to widen the type when a value does not fit (INT to LONG to
+     *              DOUBLE), false to store such values as null.
+     */
+    public TypedColumn(Type type, boolean widen) {
+        this.type = type;
+        this.widen = widen;
+        switch (type) {
+            case INT:
+                ints = new int[1024];
+                break;
+            case LONG:
+                longs = new long[1024];
+                break;
+            default:
+                doubles = new double[1024];
+                break;
+        }
+    }
+
+    /**
+     * Returns the type the values are stored as.
+     *
+     * @return The type of the column.
+     */
+    public Type type() {
+        return type;
+    }
+
+    /**
+     * Returns the number of rows in the column.
+     *
+     * @return The number of rows, including null rows.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether a row has no value.
+     *
+     * @param row The position of the row.
+     * @return true if the row is null.
+     */
+    public boolean isNull(int row) {
+        return nulls.get(row);
+    }
+
+    /**
+     * Returns the bitmap of the rows that have no value.
+     *
+     * @return A copy of the null bitmap.
+     */
+    public BitSet nulls() {
+        return (BitSet) nulls.clone();
+    }
+
+    /**
+     * Returns the values of an INT column. Null rows hold 0.
+     *
+     * @return A copy of the values.
+     * @throws IllegalStateException if the column is not INT.
+     */
+    public int[] intValues() {
+        checkType(Type.INT);
+        return Arrays.copyOf(ints, size);
+    }
+
+    /**
+     * Returns the values of a LONG column. Null rows hold 0.
+     *
+     * @return A copy of the values.
+     * @throws IllegalStateException if the column is not LONG.
+     */
+    public long[] longValues() {
+        checkType(Type.LONG);
+        return Arrays.copyOf(longs, size);
+    }
+
+    /**
+     * Returns the values of a DOUBLE column. Null rows hold 0.
+     *
+     * @return A copy of the values.
+     * @throws IllegalStateException if the column is not DOUBLE.
+     */
+    public double[] doubleValues() {
+        checkType(Type.DOUBLE);
+        return Arrays.copyOf(doubles, size);
+    }
+
+    private void checkType(Type expected) {
+        if (type != expected) {
+            throw new IllegalStateException("Column is " + type + ", not " + expected);
+        }
+    }
+
+    /**
+     * Returns the value of a row as a double, whatever the type of the column.
+     *
+     * @param row The position of the row.
+     * @return The value, or 0 for a null row.
+     */
+    public double getDouble(int row) {
+        switch (type) {
+            case INT:
+                return ints[row];
+            case LONG:
+                return longs[row];
+            default:
+                return doubles[row];
+        }
+    }
+
+    /**
+     * Appends a row with no value.
+     */
+    public void appendNull() {
+        ensureCapacity();
+        nulls.set(size++);
+    }
+
+    /**
+     * Appends an integer value, widening the column or storing null if it does
+     * not fit.
+     *
+     * @param value The value to append.
+     */
+    public void appendLong(long value) {
+        if (type == Type.INT && (int) value != value) {
+            if (!widen) {
+                appendNull();
+                return;
+            }
+            widenTo(Type.LONG);
+        }
+        ensureCapacity();
+        switch (type) {
+            case INT:
+                ints[size++] = (int) value;
+                break;
+            case LONG:
+                longs[size++] = value;
+                break;
+            default:
+                doubles[size++] = value;
+                break;
+        }
+    }
+
+    /**
+     * Appends a decimal value, widening the column or storing null if the column
+     * holds integers.
+     *
+     * @param value The value to append.
+     */
+    public void appendDouble(double value) {
+        if (type != Type.DOUBLE) {
+            if (!widen) {
+                appendNull();
+                return;
+            }
+            widenTo(Type.DOUBLE);
+        }
+        ensureCapacity();
+        doubles[size++] = value;
+    }
+
+    private void ensureCapacity() {
+        int capacity = type == Type.INT ? ints.length
+                : type == Type.LONG ? longs.length : doubles.length;
+        if (size < capacity) {
+            return;
+        }
+        int grown = capacity * 2;
+        switch (type) {
+            case INT:
+                ints = Arrays.copyOf(ints, grown);
+                break;
+            case LONG:
+                longs = Arrays.copyOf(longs, grown);
+                break;
+            default:
+                doubles = Arrays.copyOf(doubles, grown);
+                break;
+        }
+    }
+
+    private void widenTo(Type wider) {
+        int capacity = Math.max(1024, size * 2);
+        if (wider == Type.LONG) {
+            longs = new long[capacity];
+            for (int i = 0; i < size; i++) {
+                longs[i] = ints[i];
+            }
+        } else {
+            doubles = new double[capacity];
+            for (int i = 0; i < size; i++) {
+                doubles[i] = type == Type.INT ? ints[i] : longs[i];
+            }
+        }
+        ints = null;
+        if (wider == Type.DOUBLE) {
+            longs = null;
+        }
+        type = wider;
+    }
+
+    /**
+     * Finds the rows whose value satisfies a comparison. Null rows never match.
+     * Integer columns are compared exactly, without converting values to double.
+     *
+     * @param comparison The comparison to evaluate.
+     * @param low The value to compare with, or the lower bound of BETWEEN.
+     * @param high The upper bound of BETWEEN, ignored otherwise.
+     * @return The positions of the matching rows.
+     */
+    public BitSet select(Comparison comparison, double low, double high) {
+        BitSet matches = new BitSet(size);
+        if (Double.isNaN(low) || (comparison == Comparison.BETWEEN && Double.isNaN(high))) {
+            return matches;
+        }
+        if (type == Type.DOUBLE) {
+            switch (comparison) {
+                case LESS:
+                    for (int i = 0; i < size; i++) {
+                        if (doubles[i] < low) {
+                            matches.set(i);
+                        }
+                    }
+                    break;
+                case GREATER:
+                    for (int i = 0; i < size; i++) {
+                        if (doubles[i] > low) {
+                            matches.set(i);
+                        }
+                    }
+                    break;
+                default:
+                    double max = comparison == Comparison.BETWEEN ? high : low;
+                    for (int i = 0; i < size; i++) {
+                        if (doubles[i] >= low && doubles[i] <= max) {
+                            matches.set(i);
+                        }
+                    }
+                    break;
+            }
+        } else {
+            long[] range = integerRange(comparison, low, high);
+            if (range != null) {
+                long min = range[0];
+                long max = range[1];
+                for (int i = 0; i < size; i++) {
+                    long value = type == Type.INT ? ints[i] : longs[i];
+                    if (value >= min && value <= max) {
+                        matches.set(i);
+                    }
+                }
+            }
+        }
+        matches.andNot(nulls);
+        return matches;
+    }
+
+    /**
+     * Converts a comparison against double bounds into the inclusive range of
+     * longs that satisfy it.
+     *
+     * @return {min, max}, or null if no long satisfies the comparison.
+     */
+    static long[] integerRange(Comparison comparison, double low, double high) {
+        long min = Long.MIN_VALUE;
+        long max = Long.MAX_VALUE;
+        switch (comparison) {
+            case EQUAL:
+                if (low != Math.rint(low) || low < -TWO_TO_63 || low >= TWO_TO_63) {
+                    return null;
+                }
+                min = (long) low;
+                max = min;
+                break;
+            case LESS:
+                if (low <= -TWO_TO_63) {
+                    return null;
+                }
+                if (low < TWO_TO_63) {
+                    max = (long) Math.ceil(low) - 1;
+                }
+                break;
+            case GREATER:
+                if (low >= TWO_TO_63) {
+                    return null;
+                }
+                if (low >= -TWO_TO_63) {
+                    min = (long) Math.floor(low) + 1;
+                }
+                break;
+            default:
+                if (low >= TWO_TO_63 || high < -TWO_TO_63) {
+                    return null;
+                }
+                if (low > -TWO_TO_63) {
+                    min = (long) Math.ceil(low);
+                }
+                if (high < TWO_TO_63) {
+                    max = (long) Math.floor(high);
+                }
+                break;
+        }
+        return min <= max ? new long[]{min, max} : null;
+    }
+}
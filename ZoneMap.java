@@ -0,0 +1,447 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sidecar next to a CSV file that divides its data rows into blocks of
+ * BLOCK_ROWS rows and records, for every block and column, the smallest and
+ * largest value, the smallest and largest number, the number of empty values
+ * and a bloom filter of the values. A filter (see RowFilter.Evaluator.mayMatch)
+ * can then tell from these statistics alone that a block holds no matching row,
+ * and only the byte ranges of the other blocks are read.
+ *
+ * Values are trimmed, as RowFilter compares them, and compared as unsigned
+ * bytes. Only the first MAX_BOUND bytes of the smallest and largest value are
+ * kept, which still bound the values of the block. Missing fields count as
+ * empty values.
+ *
+ * The sidecar holds the stamp of the CSV file (see Sidecar), the number of
+ * columns and blocks, then each block: its byte range and row count, and for
+ * each column its statistics and bloom filter. The whole sidecar is read when
+ * it is opened.
+ *
+ * @author Ajay Shenoy
+ */
+public class ZoneMap {
+
+    /** The suffix added to the CSV filename to name its zone map. */
+    public static final String SUFFIX = ".zonemap";
+
+    /** The number of data rows in a block. */
+    public static final int BLOCK_ROWS = 4096;
+
+    /** The number of bytes of the smallest and largest value kept per block. */
+    public static final int MAX_BOUND = 32;
+
+    private static final int MAGIC = 0x5A4D4150;
+    private static final int VERSION = 1;
+    private static final int BLOOM_BITS_PER_VALUE = 8;
+    private static final int MAX_BLOOM_BITS = 1 << 16;
+    private static final int BLOOM_PROBES = 5;
+
+    /**
+     * The statistics of one block.
+     */
+    static final class Block {
+        long start;
+        long end;
+        int rows;
+        Column[] columns;
+    }
+
+    /**
+     * The statistics of one column within a block.
+     */
+    static final class Column {
+        int empty;
+        int numbers;
+        double minNumber = Double.POSITIVE_INFINITY;
+        double maxNumber = Double.NEGATIVE_INFINITY;
+        byte[] min;
+        byte[] max;
+        boolean maxTruncated;
+        long[] bloom;
+
+        /**
+         * Checks whether a value that is not empty may be in the block.
+         *
+         * @param value The trimmed value.
+         * @return false if the block certainly holds no such value.
+         */
+        boolean mayContain(byte[] value) {
+            if (min == null || !atLeastMin(value) || !atMostMax(value)) {
+                return false;
+            }
+            long hash = hash(value, value.length);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            int mask = bloom.length * 64 - 1;
+            for (int i = 0; i < BLOOM_PROBES; i++) {
+                int bit = (h1 + i * h2) & mask;
+                if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether a value that is not empty and starts with a prefix may
+         * be in the block.
+         *
+         * @param prefix The prefix.
+         * @return false if the block certainly holds no such value.
+         */
+        boolean mayStartWith(byte[] prefix) {
+            if (min == null) {
+                return false;
+            }
+            // Every value with the prefix lies between the prefix and its last extension
+            int length = Math.min(min.length, prefix.length);
+            return Arrays.compareUnsigned(min, 0, length, prefix, 0, prefix.length) <= 0
+                    && atMostMax(prefix);
+        }
+
+        /**
+         * Checks whether a number in a range may be in the block.
+         *
+         * @param low The smallest number of the range.
+         * @param high The largest number of the range.
+         * @return false if the block certainly holds no such number.
+         */
+        boolean mayHoldNumber(double low, double high) {
+            return numbers > 0 && maxNumber >= low && minNumber <= high;
+        }
+
+        private boolean atLeastMin(byte[] value) {
+            return Arrays.compareUnsigned(min, value) <= 0;
+        }
+
+        private boolean atMostMax(byte[] value) {
+            if (!maxTruncated) {
+                return Arrays.compareUnsigned(value, max) <= 0;
+            }
+            // The largest value starts with max, so only its first bytes are known
+            int length = Math.min(value.length, max.length);
+            return Arrays.compareUnsigned(value, 0, length, max, 0, max.length) <= 0;
+        }
+    }
+
+    private final List<Block> blocks;
+
+    private ZoneMap(List<Block> blocks) {
+        this.blocks = blocks;
+    }
+
+    /**
+     * Returns the name of the zone map file for a CSV file.
+     *
+     * @param filename The name of the CSV file.
+     * @return The name of its zone map file.
+     */
+    public static String zoneMapFilename(String filename) {
+        return filename + SUFFIX;
+    }
+
+    /**
+     * Hashes the bytes of a value for the bloom filters, mixing the FNV-1a hash
+     * of the bytes so that its high and low halves are independent. HyperLogLog
+     * hashes values the same way.
+     */
+    static long hash(byte[] bytes, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash ^= bytes[i] & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Collects the statistics of one column while a block is scanned.
+     */
+    private static final class ColumnBuilder {
+        final Column column = new Column();
+        final long[] hashes = new long[BLOCK_ROWS];
+        int hashCount;
+
+        void add(CSVParser parser, int index, byte[] buffer) {
+            int length = parser.copyField(index, buffer);
+            if (length == 0) {
+                column.empty++;
+                return;
+            }
+            hashes[hashCount++] = hash(buffer, length);
+            int bound = Math.min(length, MAX_BOUND);
+            if (column.min == null) {
+                column.min = Arrays.copyOf(buffer, bound);
+                column.max = column.min;
+                column.maxTruncated = length > MAX_BOUND;
+            } else {
+                if (Arrays.compareUnsigned(buffer, 0, bound, column.min, 0,
+                        column.min.length) < 0) {
+                    column.min = Arrays.copyOf(buffer, bound);
+                }
+                int order = Arrays.compareUnsigned(buffer, 0, bound, column.max, 0,
+                        column.max.length);
+                if (order > 0) {
+                    column.max = Arrays.copyOf(buffer, bound);
+                    column.maxTruncated = length > MAX_BOUND;
+                } else if (order == 0 && length > MAX_BOUND) {
+                    column.maxTruncated = true;
+                }
+            }
+            int kind = parser.parseNumber(index);
+            if (kind == CSVParser.INTEGER || kind == CSVParser.DECIMAL) {
+                double number = parser.doubleValue();
+                column.numbers++;
+                column.minNumber = Math.min(column.minNumber, number);
+                column.maxNumber = Math.max(column.maxNumber, number);
+            }
+        }
+
+        /**
+         * Finishes the column of a block, sizing its bloom filter by the number
+         * of distinct values.
+         */
+        Column finish() {
+            Arrays.sort(hashes, 0, hashCount);
+            int distinct = 0;
+            for (int i = 0; i < hashCount; i++) {
+                if (i == 0 || hashes[i] != hashes[i - 1]) {
+                    distinct++;
+                }
+            }
+            int bits = Math.min(MAX_BLOOM_BITS, Math.max(64,
+                    Integer.highestOneBit(Math.max(1, distinct * BLOOM_BITS_PER_VALUE - 1)) << 1));
+            long[] bloom = new long[bits / 64];
+            for (int i = 0; i < hashCount; i++) {
+                int h1 = (int) hashes[i];
+                int h2 = (int) (hashes[i] >>> 32) | 1;
+                for (int p = 0; p < BLOOM_PROBES; p++) {
+                    int bit = (h1 + p * h2) & (bits - 1);
+                    bloom[bit >>> 6] |= 1L << bit;
+                }
+            }
+            Column finished = column;
+            finished.bloom = bloom;
+            if (finished.numbers > 0) {
+                // Widen the range past any rounding of large integers to doubles
+                finished.minNumber = Math.nextDown(finished.minNumber);
+                finished.maxNumber = Math.nextUp(finished.maxNumber);
+            }
+            return finished;
+        }
+    }
+
+    /**
+     * Scans a CSV file and writes its zone map, replacing any existing one.
+     *
+     * @param filename The name of the CSV file.
+     * @return The number of blocks written.
+     * @throws IOException if the CSV file cannot be read or the zone map written.
+     */
+    public static long build(String filename) throws IOException {
+        File csv = new File(filename);
+        List<Block> blocks = new ArrayList<>();
+        int columnCount;
+        try (CSVParser parser = new CSVParser(filename)) {
+            columnCount = parser.next() ? parser.fieldCount() : 0;
+            byte[] buffer = new byte[256];
+            ColumnBuilder[] builders = new ColumnBuilder[columnCount];
+            Block block = null;
+            while (parser.next()) {
+                if (block == null) {
+                    block = new Block();
+                    block.start = parser.recordStart();
+                    for (int c = 0; c < columnCount; c++) {
+                        builders[c] = new ColumnBuilder();
+                    }
+                }
+                for (int c = 0; c < columnCount; c++) {
+                    if (c >= parser.fieldCount()) {
+                        builders[c].column.empty++;
+                        continue;
+                    }
+                    if (buffer.length < parser.fieldLength(c)) {
+                        buffer = new byte[Math.max(parser.fieldLength(c), 2 * buffer.length)];
+                    }
+                    builders[c].add(parser, c, buffer);
+                }
+                block.end = parser.recordEnd();
+                if (++block.rows == BLOCK_ROWS) {
+                    blocks.add(finish(block, builders));
+                    block = null;
+                }
+            }
+            if (block != null) {
+                blocks.add(finish(block, builders));
+            }
+        }
+        Path temp = Sidecar.temporary(zoneMapFilename(filename));
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp.toFile()), 1 << 16))) {
+                Sidecar.writeStamp(out, MAGIC, VERSION, csv);
+                Sidecar.writeVarint(out, columnCount);
+                Sidecar.writeVarint(out, blocks.size());
+                for (Block block : blocks) {
+                    write(out, block);
+                }
+            }
+            Sidecar.replace(temp, zoneMapFilename(filename));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return blocks.size();
+    }
+
+    private static Block finish(Block block, ColumnBuilder[] builders) {
+        block.columns = new Column[builders.length];
+        for (int c = 0; c < builders.length; c++) {
+            block.columns[c] = builders[c].finish();
+        }
+        return block;
+    }
+
+    private static void write(DataOutputStream out, Block block) throws IOException {
+        Sidecar.writeVarint(out, block.start);
+        Sidecar.writeVarint(out, block.end - block.start);
+        Sidecar.writeVarint(out, block.rows);
+        for (Column column : block.columns) {
+            Sidecar.writeVarint(out, column.empty);
+            Sidecar.writeVarint(out, column.numbers);
+            if (column.numbers > 0) {
+                out.writeDouble(column.minNumber);
+                out.writeDouble(column.maxNumber);
+            }
+            if (column.min == null) {
+                out.writeByte(0);
+                continue;
+            }
+            out.writeByte(column.maxTruncated ? 2 : 1);
+            writeBytes(out, column.min);
+            writeBytes(out, column.max);
+            Sidecar.writeVarint(out, column.bloom.length);
+            for (long word : column.bloom) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        Sidecar.writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) Sidecar.readVarint(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Opens the zone map of a CSV file if it exists and matches the current size
+     * and modification time of the CSV file.
+     *
+     * @param filename The name of the CSV file.
+     * @return The zone map, or null if there is no usable sidecar.
+     */
+    public static ZoneMap open(String filename) {
+        File csv = new File(filename);
+        File sidecar = new File(zoneMapFilename(filename));
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(sidecar), 1 << 16))) {
+            if (!Sidecar.readStamp(in, MAGIC, VERSION, csv)) {
+                return null;
+            }
+            int columnCount = (int) Sidecar.readVarint(in);
+            int blockCount = (int) Sidecar.readVarint(in);
+            List<Block> blocks = new ArrayList<>(blockCount);
+            for (int b = 0; b < blockCount; b++) {
+                Block block = new Block();
+                block.start = Sidecar.readVarint(in);
+                block.end = block.start + Sidecar.readVarint(in);
+                block.rows = (int) Sidecar.readVarint(in);
+                block.columns = new Column[columnCount];
+                for (int c = 0; c < columnCount; c++) {
+                    Column column = new Column();
+                    column.empty = (int) Sidecar.readVarint(in);
+                    column.numbers = (int) Sidecar.readVarint(in);
+                    if (column.numbers > 0) {
+                        column.minNumber = in.readDouble();
+                        column.maxNumber = in.readDouble();
+                    }
+                    int bounds = in.readUnsignedByte();
+                    if (bounds != 0) {
+                        column.maxTruncated = bounds == 2;
+                        column.min = readBytes(in);
+                        column.max = readBytes(in);
+                        column.bloom = new long[(int) Sidecar.readVarint(in)];
+                        for (int w = 0; w < column.bloom.length; w++) {
+                            column.bloom[w] = in.readLong();
+                        }
+                    }
+                    block.columns[c] = column;
+                }
+                blocks.add(block);
+            }
+            return new ZoneMap(blocks);
+        } catch (IOException e) {
+            // A truncated or unreadable zone map is ignored like a stale one
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of blocks.
+     *
+     * @return The number of blocks.
+     */
+    public int blockCount() {
+        return blocks.size();
+    }
+
+    /**
+     * Returns the byte ranges of the blocks a filter may match, joining
+     * neighbouring blocks into one range up to a maximum length.
+     *
+     * @param evaluator The filter, compiled against the header of the file.
+     * @param maxLength The length beyond which a range is not extended.
+     * @return The ranges; range i is [ranges[2 * i], ranges[2 * i + 1]).
+     */
+    public long[] candidateRanges(RowFilter.Evaluator evaluator, long maxLength) {
+        long[] ranges = new long[2 * blocks.size()];
+        int count = 0;
+        for (Block block : blocks) {
+            if (!evaluator.mayMatch(block)) {
+                continue;
+            }
+            if (count > 0 && ranges[count - 1] == block.start
+                    && block.end - ranges[count - 2] <= maxLength) {
+                ranges[count - 1] = block.end;
+            } else {
+                ranges[count++] = block.start;
+                ranges[count++] = block.end;
+            }
+        }
+        return Arrays.copyOf(ranges, count);
+    }
+}